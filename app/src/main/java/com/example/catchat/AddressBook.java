@@ -0,0 +1,166 @@
+package com.example.catchat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the addresses calls to each peer were last connected at, so the next call tries them
+ * first (see Connector). A peer is what the user typed to call it. The most recently used peers and
+ * addresses are kept, up to maxPeers and maxAddresses each.
+ *
+ * The book is saved as text (see encode()); ConnectActivity keeps it in the app's
+ * SharedPreferences. Addresses are saved as IP literals, so reading the book back never needs DNS.
+ * Can be used from any thread.
+ */
+public class AddressBook {
+    public static final int maxPeers = 32;
+    public static final int maxAddresses = 4;  // per peer
+
+    // most recently used last, so the eldest entry is the first to go
+    private final LinkedHashMap<String, List<InetSocketAddress>> peers =
+            new LinkedHashMap<String, List<InetSocketAddress>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<InetSocketAddress>> eldest) {
+                    return size() > maxPeers;
+                }
+            };
+
+    /**
+     * @param peer what the user typed to call the peer
+     * @return the addresses the peer was connected at, the most recent first; empty if none
+     */
+    public synchronized List<InetSocketAddress> get(String peer) {
+        List<InetSocketAddress> addresses = peers.get(key(peer));
+        return addresses == null ? new ArrayList<>() : new ArrayList<>(addresses);
+    }
+
+    /**
+     * Records that a call to a peer connected at an address.
+     * @param peer what the user typed to call the peer
+     * @param address the address the call connected at
+     */
+    public synchronized void remember(String peer, InetSocketAddress address) {
+        if (address.isUnresolved()) return;
+        List<InetSocketAddress> addresses = peers.get(key(peer));
+        if (addresses == null) {
+            addresses = new ArrayList<>();
+            peers.put(key(peer), addresses);
+        }
+        addresses.remove(address);
+        addresses.add(0, address);
+        while (addresses.size() > maxAddresses) addresses.remove(addresses.size() - 1);
+    }
+
+    /**
+     * @param peer what the user typed
+     * @return the key the peer is kept under
+     */
+    private static String key(String peer) {
+        return peer.trim().toLowerCase(Locale.ROOT);  // the same key whatever the device's language
+    }
+
+    /**
+     * @return the book as text: a line per peer, the least recently used first, holding the peer
+     *         (see escape()) and its addresses separated by spaces
+     */
+    public synchronized String encode() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, List<InetSocketAddress>> entry : peers.entrySet()) {
+            text.append(escape(entry.getKey()));
+            for (InetSocketAddress address : entry.getValue()) {
+                text.append(' ').append('[').append(address.getAddress().getHostAddress()).append("]:")
+                        .append(address.getPort());
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads a book saved by encode(). Lines that cannot be read are skipped.
+     * @param text the saved book; null or empty for an empty book
+     * @return the book
+     */
+    public static AddressBook decode(String text) {
+        AddressBook book = new AddressBook();
+        if (text == null) return book;
+
+        for (String line : text.split("\n")) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length < 2) continue;
+            String peer = unescape(fields[0]);
+            if (peer == null) continue;
+            // added oldest first, so the first address ends up first again
+            for (int i = fields.length - 1; i > 0; i--) {
+                InetSocketAddress address = parse(fields[i]);
+                if (address != null) book.remember(peer, address);
+            }
+        }
+        return book;
+    }
+
+    /**
+     * Escapes a peer so it holds no spaces or line breaks, which separate the fields and lines of the
+     * saved book: spaces, control characters and '%' are written as '%' and two hex digits.
+     * @param peer a key
+     * @return the peer, escaped
+     */
+    private static String escape(String peer) {
+        StringBuilder escaped = new StringBuilder(peer.length());
+        for (int i = 0; i < peer.length(); i++) {
+            char c = peer.charAt(i);
+            if (c <= ' ' || c == '%') {
+                escaped.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * @param field a peer escaped by escape()
+     * @return the peer, or null if the field is malformed
+     */
+    private static String unescape(String field) {
+        StringBuilder peer = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '%') {
+                peer.append(c);
+                continue;
+            }
+            if (i + 2 >= field.length()) return null;
+            int high = Character.digit(field.charAt(i + 1), 16);
+            int low = Character.digit(field.charAt(i + 2), 16);
+            if (high < 0 || low < 0) return null;
+            peer.append((char) (high << 4 | low));
+            i += 2;
+        }
+        return peer.toString();
+    }
+
+    /**
+     * @param field an address written by encode(), "[ip]:port"
+     * @return the address, or null if the field is malformed
+     */
+    private static InetSocketAddress parse(String field) {
+        int close = field.lastIndexOf("]:");
+        if (!field.startsWith("[") || close < 0) return null;
+        String literal = field.substring(1, close);
+        // only IPv4 (digits and dots) and IPv6 (colons) literals, so no lookup is made
+        if (!literal.contains(":") && !literal.matches("[0-9.]+")) return null;
+        try {
+            InetAddress ip = InetAddress.getByName(literal);
+            return new InetSocketAddress(ip, Integer.parseInt(field.substring(close + 2)));
+        } catch (UnknownHostException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.catchat;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * IMA ADPCM: each sample is stored as a 4-bit difference from a prediction, with a step size that
+ * adapts to how fast the signal changes. Half the size of mu-law, for a few more operations per
+ * sample.
+ *
+ * Every packet starts with the encoder state, so it can be decoded without the ones before it:
+ *      predictor (2 bytes), step index (1 byte), 1 if the last half byte is padding (1 byte)
+ * followed by two samples per byte, low half first.
+ */
+public class AdpcmCodec implements AudioCodec {
+    private static final int headerSize = 4;
+
+    private static final int[] indexTable = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] stepTable = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55, 60,
+            66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307, 337, 371,
+            408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707,
+            1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132,
+            7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623,
+            27086, 29794, 32767
+    };
+
+    // encoder state, carried from one packet to the next
+    private int predictor = 0;
+    private int index = 0;
+
+    @Override
+    public byte getId() {
+        return PacketHeader.CODEC_ADPCM;
+    }
+
+    @Override
+    public int encode(short[] samples, int count, byte[] output, int offset) {
+        output[offset] = (byte) (predictor >> 8);
+        output[offset + 1] = (byte) predictor;
+        output[offset + 2] = (byte) index;
+        output[offset + 3] = (byte) (count & 1);
+
+        int predictor = this.predictor;
+        int index = this.index;
+        int position = offset + headerSize;
+
+        for (int i = 0; i < count; i++) {
+            int difference = samples[i] - predictor;
+            int nibble = 0;
+            if (difference < 0) {
+                nibble = 8;
+                difference = -difference;
+            }
+
+            // the same delta the decoder will compute from the nibble
+            int step = stepTable[index];
+            int delta = step >> 3;
+            if (difference >= step) {
+                nibble |= 4;
+                difference -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (difference >= step) {
+                nibble |= 2;
+                difference -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (difference >= step) {
+                nibble |= 1;
+                delta += step;
+            }
+
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            if (predictor > Short.MAX_VALUE) predictor = Short.MAX_VALUE;
+            else if (predictor < Short.MIN_VALUE) predictor = Short.MIN_VALUE;
+
+            index += indexTable[nibble];
+            if (index < 0) index = 0;
+            else if (index > 88) index = 88;
+
+            if ((i & 1) == 0) {
+                output[position] = (byte) nibble;
+            } else {
+                output[position++] |= (byte) (nibble << 4);
+            }
+        }
+
+        this.predictor = predictor;
+        this.index = index;
+        return headerSize + (count + 1) / 2;
+    }
+
+    @Override
+    public int decode(byte[] input, int offset, int length, short[] samples) throws DataFormatException {
+        if (length < headerSize) throw new DataFormatException("packet too short");
+
+        int predictor = (short) (((input[offset] & 0xFF) << 8) | (input[offset + 1] & 0xFF));
+        int index = input[offset + 2];
+        if (index < 0 || index > 88) throw new DataFormatException("invalid step index");
+
+        int count = (length - headerSize) * 2 - (input[offset + 3] & 1);
+        if (count > samples.length) throw new DataFormatException("packet too long");
+
+        int position = offset + headerSize;
+        for (int i = 0; i < count; i++) {
+            int nibble = (i & 1) == 0 ? input[position] & 0x0F : (input[position++] >> 4) & 0x0F;
+
+            int step = stepTable[index];
+            int delta = step >> 3;
+            if ((nibble & 4) != 0) delta += step;
+            if ((nibble & 2) != 0) delta += step >> 1;
+            if ((nibble & 1) != 0) delta += step >> 2;
+
+            predictor += (nibble & 8) != 0 ? -delta : delta;
+            if (predictor > Short.MAX_VALUE) predictor = Short.MAX_VALUE;
+            else if (predictor < Short.MIN_VALUE) predictor = Short.MIN_VALUE;
+
+            index += indexTable[nibble];
+            if (index < 0) index = 0;
+            else if (index > 88) index = 88;
+
+            samples[i] = (short) predictor;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void release() {
+        // nothing to free
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.catchat;
+
+/**
+ * A chain of AudioProcessors, run on each packet between recording and encoding, or between
+ * decoding and playing (see CallEngine.setCaptureChain() and setPlaybackChain()).
+ * Converts the packet's 16-bit samples to floats in a buffer allocated once, runs every stage on
+ * it in order, and converts it back, clipping the samples beyond full scale. An empty chain leaves
+ * the packet as it is, without converting it.
+ *
+ * Used by a single thread, and does not allocate once created.
+ */
+public class AudioChain {
+    private final float[] buffer;
+    private final AudioProcessor[] stages;
+
+    /**
+     * Creates a chain.
+     * @param maxSamples the most samples a packet will hold
+     * @param stages the stages, run in this order
+     */
+    public AudioChain(int maxSamples, AudioProcessor... stages) {
+        buffer = new float[maxSamples];
+        this.stages = stages.clone();
+    }
+
+    /**
+     * Creates the chain the app runs on recorded audio: a NoiseGate, then automatic GainControl, so
+     * background noise is turned down before the gain is picked.
+     * @param format the call's format
+     * @return the chain
+     */
+    public static AudioChain capture(CallFormat format) {
+        int sampleRate = format.getSampleRate();
+        return new AudioChain(format.getPacketSizeInFrames(),
+                new NoiseGate(sampleRate), new GainControl(sampleRate));
+    }
+
+    /**
+     * Runs every stage on a packet, in place.
+     * @param samples the packet's samples, from index 0
+     * @param count how many samples the packet holds, at most maxSamples
+     */
+    public void process(short[] samples, int count) {
+        if (stages.length == 0) return;
+
+        SampleFormat.toFloat(samples, buffer, count);
+        for (AudioProcessor stage : stages) {
+            stage.process(buffer, count);
+        }
+        SampleFormat.toShort(buffer, samples, count);
+    }
+
+    /**
+     * Measures the level of a packet, for the stages.
+     * Sums four interleaved parts separately, so the additions do not each wait for the one before.
+     * @param samples the samples, from index 0
+     * @param count how many samples the packet holds, at least 1
+     * @return the RMS level of the samples
+     */
+    static float rms(float[] samples, int count) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int i = 0;
+        for (; i + 3 < count; i += 4) {
+            sum0 += samples[i] * samples[i];
+            sum1 += samples[i + 1] * samples[i + 1];
+            sum2 += samples[i + 2] * samples[i + 2];
+            sum3 += samples[i + 3] * samples[i + 3];
+        }
+        for (; i < count; i++) {
+            sum0 += samples[i] * samples[i];
+        }
+        return (float) Math.sqrt((sum0 + sum1 + sum2 + sum3) / count);
+    }
+
+    /**
+     * Applies a gain moving in a straight line across a packet, for the stages.
+     * Each sample's gain is computed from its index rather than from the one before, so the
+     * multiplications are independent.
+     * @param samples the samples, from index 0; changed in place
+     * @param count how many samples the packet holds, at least 1
+     * @param from the gain before the first sample (the last packet's)
+     * @param to the gain at the last sample
+     */
+    static void ramp(float[] samples, int count, float from, float to) {
+        if (from == to) {
+            if (to == 1) return;
+            for (int i = 0; i < count; i++) {
+                samples[i] *= to;
+            }
+            return;
+        }
+
+        float step = (to - from) / count;
+        for (int i = 0; i < count; i++) {
+            samples[i] *= from + step * (i + 1);
+        }
+    }
+}
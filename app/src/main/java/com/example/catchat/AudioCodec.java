@@ -0,0 +1,43 @@
+package com.example.catchat;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Encodes packets of 16-bit PCM samples for sending, and decodes them back.
+ * Every packet is encoded on its own, so a lost packet does not stop the next ones from decoding.
+ *
+ * Implementations keep their buffers for the whole call; encoding and decoding do not allocate.
+ * An instance is used by a single thread. Create instances with AudioCodecs.create().
+ */
+public interface AudioCodec {
+    /**
+     * @return the codec's id, written in the PacketHeader (one of the PacketHeader.CODEC_ constants)
+     */
+    byte getId();
+
+    /**
+     * Encodes a packet of samples.
+     * @param samples the array holding the samples, from index 0
+     * @param count how many samples to encode
+     * @param output the array to write the encoded bytes to
+     * @param offset where to start writing in the output array
+     * @return how many bytes were written
+     */
+    int encode(short[] samples, int count, byte[] output, int offset);
+
+    /**
+     * Decodes a packet.
+     * @param input the array holding the encoded bytes
+     * @param offset where the encoded bytes start in the array
+     * @param length how many encoded bytes there are
+     * @param samples the array to write the samples to, from index 0
+     * @return how many samples were written
+     * @throws DataFormatException if the bytes could not be decoded, or do not fit in the array
+     */
+    int decode(byte[] input, int offset, int length, short[] samples) throws DataFormatException;
+
+    /**
+     * Frees the resources held by the codec. It cannot be used afterwards.
+     */
+    void release();
+}
@@ -0,0 +1,37 @@
+package com.example.catchat;
+
+/**
+ * Creates AudioCodecs from their ids.
+ *
+ * | Codec | Bytes per sample | Notes |
+ * | deflate | about 0.8 | 8-bit PCM compressed with Deflater; lossless on 8 bits, slowest |
+ * | mu-law | 1 | G.711; 14 bits of range in 8, very cheap |
+ * | ADPCM | 0.5 | IMA ADPCM; 4 bits per sample, cheap |
+ */
+public class AudioCodecs {
+    public static final int count = 3;  // codec ids go from 0 to count - 1
+
+    /**
+     * Creates a codec.
+     * @param id one of the PacketHeader.CODEC_ constants
+     * @param maxSamples the most samples a packet will hold
+     * @return the codec
+     * @throws IllegalArgumentException if there is no codec with this id
+     */
+    public static AudioCodec create(byte id, int maxSamples) throws IllegalArgumentException {
+        switch (id) {
+            case PacketHeader.CODEC_DEFLATE: return new DeflateCodec(maxSamples);
+            case PacketHeader.CODEC_MULAW: return new MuLawCodec();
+            case PacketHeader.CODEC_ADPCM: return new AdpcmCodec();
+            default: throw new IllegalArgumentException("unknown codec " + id);
+        }
+    }
+
+    /**
+     * @param id a codec id
+     * @return true if a codec with this id exists
+     */
+    public static boolean isSupported(byte id) {
+        return id >= 0 && id < count;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.catchat;
+
+/**
+ * A stage of an AudioChain, which changes packets of audio in place.
+ * Called once per packet, so the loop over the samples is inside the stage, and there is one call
+ * per packet instead of one per sample. Implementations must not allocate in process().
+ *
+ * An instance keeps state from one packet to the next, and is used by a single thread.
+ */
+public interface AudioProcessor {
+    /**
+     * Processes a packet of samples in place.
+     * @param samples the samples, between -1 and 1, from index 0; stages may leave them beyond that
+     *        range, and they are clipped when converted back
+     * @param count how many samples the packet holds
+     */
+    void process(float[] samples, int count);
+}
@@ -0,0 +1,32 @@
+package com.example.catchat;
+
+import java.io.IOException;
+
+/**
+ * Where the received audio of a call goes.
+ * On a phone this is the speaker (SpeakerSink); the call engine itself does not depend on Android,
+ * so tests and simulations can collect the samples instead.
+ *
+ * An instance is used by a single thread, the PlayThread.
+ */
+public interface AudioSink {
+    /**
+     * Starts playing. Called once, before the first write().
+     * @throws IOException if playing could not start
+     */
+    void start() throws IOException;
+
+    /**
+     * Queues samples to be played, blocking while the sink's buffer is full. Audio leaves at the rate
+     * it is played, so this paces the PlayThread.
+     * @param samples the array holding the samples, from index 0
+     * @param count how many samples to write
+     * @throws IOException if writing failed
+     */
+    void write(short[] samples, int count) throws IOException;
+
+    /**
+     * Stops playing and frees the resources held by the sink. It cannot be used afterwards.
+     */
+    void release();
+}
@@ -0,0 +1,33 @@
+package com.example.catchat;
+
+import java.io.IOException;
+
+/**
+ * Where the audio of a call comes from.
+ * On a phone this is the microphone (MicrophoneSource); the call engine itself does not depend on
+ * Android, so tests and simulations can feed it any samples.
+ *
+ * An instance is used by a single thread, the OutCommThread.
+ */
+public interface AudioSource {
+    /**
+     * Starts capturing audio. Called once, before the first read().
+     * @throws IOException if capturing could not start
+     */
+    void start() throws IOException;
+
+    /**
+     * Reads captured samples, blocking until they are available. Audio arrives at the rate it is
+     * captured, so this paces the outbound pipeline.
+     * @param samples the array to write the samples to, from index 0
+     * @param count how many samples to read
+     * @return how many samples were read; fewer than count if the thread was interrupted
+     * @throws IOException if reading failed
+     */
+    int read(short[] samples, int count) throws IOException;
+
+    /**
+     * Stops capturing and frees the resources held by the source. It cannot be used afterwards.
+     */
+    void release();
+}
@@ -1,44 +1,58 @@
 package com.example.catchat;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 /**
- * BetterSocket: wrapper around Socket
+ * BetterSocket: wrapper around SocketChannel
  * methods:
  *      readBytes() and readInt();
  *      writeBytes() and writeInt();
+ *      readFrame() and writeFrame();
  *      destroy();
  *      printStatus();
+ *
+ * While a connection request is pending, its channel is in non-blocking mode and is owned by the
+ * ServerThread's selector. The reading and writing methods below must only be used once the channel
+ * is back in blocking mode (after the handshake, or on the client side).
  */
 public class BetterSocket {
-    private Socket sock;
-    private InputStream in;
-    private OutputStream out;
+    private static final int receiveBufferSize = 64 * 1024;  // in bytes
+    private static final int maxFrameLength = 1024 * 1024;  // longer frames mean a corrupted stream
+
+    private SocketChannel channel;
+    private final FrameDecoder decoder;  // every read goes through it, since it reads ahead
+    private final ByteBuffer writeIntBuffer = ByteBuffer.allocate(4);  // java ints are 4 bytes
+    private final ByteBuffer[] frame = new ByteBuffer[] { writeIntBuffer, null };  // length and data
+
+    /**
+     * Creates a wrapper around the given socket channel
+     * @param channel the channel to wrap
+     */
+    public BetterSocket(SocketChannel channel) {
+        this.channel = channel;
+        decoder = new FrameDecoder(channel, receiveBufferSize, maxFrameLength);
+    }
 
     /**
-     * Creates a wrapper around the given socket; opens the input and output streams
-     * @param sock the socket to wrap
-     * @throws IOException if opening streams failed
+     * @return the socket channel
      */
-    public BetterSocket(Socket sock) throws IOException {
-        this.sock = sock;
-        in = sock.getInputStream();
-        out = sock.getOutputStream();
+    public SocketChannel getChannel() {
+        return channel;
     }
 
     /**
      * @return the socket
      */
     public Socket getSocket() {
-        return sock;
+        return channel.socket();
     }
 
     /**
-     * Reads an array of bytes from the input stream.
+     * Reads an array of bytes from the channel.
      * Blocks until `length` bytes are read.
      * @param length how many bytes to read
      * @return the array of bytes read
@@ -47,77 +61,117 @@ public class BetterSocket {
      */
     public byte[] readBytes(int length) throws IOException, NullPointerException {
         byte[] data = new byte[length];
-        int totalBytesRead = 0;
-
-        // while i haven't read all the bytes, read and append to data
-        while (totalBytesRead < length) {
-            int bytesRead = in.read(data, totalBytesRead, length-totalBytesRead);
-
-            // not really a null pointer but need to check for end of stream
-            if (bytesRead == -1) throw new NullPointerException();
-
-            totalBytesRead += bytesRead;
-        }
-
+        readBytes(ByteBuffer.wrap(data));
         return data;
     }
 
     /**
-     * Reads an integer from the input stream.
-     * Blocks until integer is read.
+     * Reads an integer from the channel.
+     * Blocks until all four bytes of the integer are read.
      * @return the integer
      * @throws IOException if reading failed
      * @throws NullPointerException if stream closed
      */
     public int readInt() throws IOException, NullPointerException {
-        byte[] data = new byte[4];  // java ints are 32 bits or 4 bytes
+        try {
+            return decoder.readInt();
+        } catch (EOFException e) {
+            // not really a null pointer but need to check for end of stream
+            throw new NullPointerException();
+        }
+    }
 
-        // not really a null pointer but need to check for end of stream
-        if (in.read(data) == -1) throw new NullPointerException();
+    /**
+     * Reads from the channel until the buffer is full.
+     * @param buffer the buffer to fill, from its position to its limit
+     * @throws IOException if reading failed
+     * @throws NullPointerException if stream closed
+     */
+    public void readBytes(ByteBuffer buffer) throws IOException, NullPointerException {
+        try {
+            decoder.read(buffer);
+        } catch (EOFException e) {
+            // not really a null pointer but need to check for end of stream
+            throw new NullPointerException();
+        }
+    }
 
-        // https://stackoverflow.com/questions/2383265/convert-4-bytes-to-int#2383729
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        return bb.getInt();
+    /**
+     * Reads a frame written by writeFrame() into the buffer, from its position.
+     * Blocks until the entire frame is read. Does not allocate.
+     * @param buffer the buffer to read into
+     * @return the length of the frame
+     * @throws EOFException if stream closed
+     * @throws IOException if reading failed or the frame is malformed or too long for the buffer
+     */
+    public int readFrame(ByteBuffer buffer) throws IOException {
+        return decoder.readFrame(buffer);
     }
 
     /**
-     * Writes an array of bytes to the output stream.
+     * Writes an array of bytes to the channel.
      * @param data the array of bytes
      * @throws IOException if writing failed
      */
     public void writeBytes(byte[] data) throws IOException {
-        out.write(data);
+        writeBytes(ByteBuffer.wrap(data));
     }
 
     /**
-     * Writes an integer to the output stream.
+     * Writes an integer to the channel.
      * @param data the integer to write
      * @throws IOException if writing failed
      */
     public void writeInt(int data) throws IOException {
         // https://stackoverflow.com/questions/6374915/java-convert-int-to-byte-array-of-4-bytes#6374970
-        out.write(ByteBuffer.allocate(4).putInt(data).array());
+        writeIntBuffer.clear();
+        writeIntBuffer.putInt(data);
+        writeIntBuffer.flip();
+        writeBytes(writeIntBuffer);
     }
 
     /**
-     * Closes the input and output streams and the socket.
-     * @throws IOException if closing failed
+     * Writes the whole buffer to the channel.
+     * @param buffer the buffer to write, from its position to its limit
+     * @throws IOException if writing failed
      */
-    public void destroy() throws IOException {
-        int errors = 0;
+    public void writeBytes(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
 
-        // try to close each one; even if one fails; try to close the others
-        try { in.close(); } catch (IOException e) { errors++; }
-        try { out.close(); } catch (IOException e) { errors++; }
-        try { sock.close(); } catch (IOException e) { errors++; }
+    /**
+     * Writes a frame: the length of the data followed by the data, in a single write.
+     * @param data the data, from the buffer's position to its limit
+     * @throws IOException if writing failed
+     */
+    public void writeFrame(ByteBuffer data) throws IOException {
+        writeIntBuffer.clear();
+        writeIntBuffer.putInt(data.remaining());
+        writeIntBuffer.flip();
+
+        // until the length is written too: an empty frame is only its length
+        frame[1] = data;
+        while (writeIntBuffer.hasRemaining() || data.hasRemaining()) {
+            channel.write(frame);
+        }
+        frame[1] = null;
+    }
 
-        if (errors > 0) throw new IOException("Failed to close " + errors + " resources");
+    /**
+     * Closes the socket channel, which also closes the socket and its streams.
+     * @throws IOException if closing failed
+     */
+    public void destroy() throws IOException {
+        channel.close();
     }
 
     /**
      * Prints the state of the I/O streams and the socket
      */
     public void printStatus() {
+        Socket sock = channel.socket();
         System.out.println("socket is " + (sock.isClosed() ? "closed" : "open"));
         System.out.println("input is " + (sock.isInputShutdown() ? "closed" : "open"));
         System.out.println("output is " + (sock.isOutputShutdown() ? "closed" : "open"));
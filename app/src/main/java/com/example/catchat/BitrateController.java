@@ -0,0 +1,149 @@
+package com.example.catchat;
+
+/**
+ * Adapts the bitrate of the audio sent to what the network carries, from the other device's
+ * receiver reports (see HeartbeatThread).
+ *
+ * The bitrate goes down a ladder of steps: the call's codec at the call's sample rate, then IMA
+ * ADPCM (the codec with the fewest bytes per sample), then ADPCM at half and a quarter of the sample
+ * rate, as long as that stays at 8000 Hz or above. Every device decodes every codec and rate, since
+ * each packet's header names its codec and rate (see PacketHeader.FLAG_RATE_SHIFT). The packet
+ * duration stays the same for the whole call: the recording, jitter buffer and playing buffers are
+ * all sized for it.
+ *
+ * A report is bad if the other device loses packets, or if packets take much longer to arrive than
+ * the shortest delay seen in the call, which means they wait in a queue on the way. A report is good
+ * if both are low; between the two thresholds, it is neither. Stepping down takes two bad reports in
+ * a row, and stepping up many good ones, so a single slow report does not make the bitrate flap. If
+ * a step up soon has to be undone, the next one waits twice as long.
+ *
+ * reportReceived() is called by the InCommThread; the step is read by the EncodeThread.
+ */
+public class BitrateController {
+    // a report is bad above these, and good below the lower ones
+    private static final double badLoss = 0.05;
+    private static final double goodLoss = 0.01;
+    private static final double badQueueingMillis = 100;
+    private static final double goodQueueingMillis = 30;
+
+    private static final int badReportsToStepDown = 2;
+    private static final int minGoodReportsToStepUp = 10;
+    private static final int maxGoodReportsToStepUp = 80;
+    private static final int settleReports = 2;  // ignored after a step, while the old packets drain
+
+    // the ladder; step 0 has the highest bitrate
+    private final byte[] codecs;
+    private final int[] rateShifts;  // the sample rate is divided by 2 to the power of this
+    private final int steps;
+
+    private volatile int step = 0;
+
+    // only used by the InCommThread
+    private int badReports = 0;
+    private int goodReports = 0;
+    private int goodReportsToStepUp = minGoodReportsToStepUp;
+    private int reportsSinceStep = 0;
+    private boolean steppedUp = false;  // whether the last step was up
+    private double minDelay = Double.MAX_VALUE;  // shortest network delay reported, in ms
+
+    /**
+     * Creates the ladder for the call's format, and starts at its top.
+     * @param format the call's format
+     */
+    public BitrateController(CallFormat format) {
+        codecs = new byte[4];
+        rateShifts = new int[4];
+        int count = 0;
+
+        codecs[count] = format.getCodec();
+        rateShifts[count++] = 0;
+        if (format.getCodec() != PacketHeader.CODEC_ADPCM) {
+            codecs[count] = PacketHeader.CODEC_ADPCM;
+            rateShifts[count++] = 0;
+        }
+        for (int shift = 1; shift <= 2 && format.getSampleRate() >> shift >= 8000; shift++) {
+            codecs[count] = PacketHeader.CODEC_ADPCM;
+            rateShifts[count++] = shift;
+        }
+        steps = count;
+    }
+
+    /**
+     * Updates the step with a receiver report from the other device.
+     * @param loss the fraction of packets the other device lost, from 0 to 1
+     * @param networkDelay the time packets take to reach the other device, in milliseconds, or -1
+     *        if it does not know yet
+     */
+    public void reportReceived(double loss, double networkDelay) {
+        if (networkDelay >= 0) minDelay = Math.min(minDelay, networkDelay);
+        double queueing = networkDelay >= 0 ? networkDelay - minDelay : 0;
+
+        if (++reportsSinceStep <= settleReports) return;
+
+        if (loss > badLoss || queueing > badQueueingMillis) {
+            goodReports = 0;
+            if (++badReports >= badReportsToStepDown) stepDown();
+        } else if (loss < goodLoss && queueing < goodQueueingMillis) {
+            badReports = 0;
+            if (++goodReports >= goodReportsToStepUp) stepUp();
+        } else {
+            badReports = 0;
+            goodReports = 0;
+        }
+    }
+
+    /**
+     * Moves one step down the ladder, if not at the bottom.
+     */
+    private void stepDown() {
+        badReports = 0;
+        if (step == steps - 1) return;
+
+        // the last step up did not last: wait longer before trying again
+        if (steppedUp && reportsSinceStep < goodReportsToStepUp) {
+            goodReportsToStepUp = Math.min(goodReportsToStepUp * 2, maxGoodReportsToStepUp);
+        }
+
+        step++;
+        steppedUp = false;
+        reportsSinceStep = 0;
+    }
+
+    /**
+     * Moves one step up the ladder, if not at the top.
+     */
+    private void stepUp() {
+        goodReports = 0;
+        if (step == 0) return;
+
+        // the last step up lasted: the network has room again
+        if (steppedUp) goodReportsToStepUp = minGoodReportsToStepUp;
+
+        step--;
+        steppedUp = true;
+        reportsSinceStep = 0;
+    }
+
+    /**
+     * @return the current step; 0 is the highest bitrate
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @param step a step, from getStep()
+     * @return the codec packets are encoded with at this step
+     */
+    public byte getCodec(int step) {
+        return codecs[step];
+    }
+
+    /**
+     * @param step a step, from getStep()
+     * @return how many times the call's sample rate is halved at this step
+     */
+    public int getRateShift(int step) {
+        return rateShifts[step];
+    }
+}
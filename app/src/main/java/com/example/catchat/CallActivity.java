@@ -2,6 +2,10 @@ package com.example.catchat;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
@@ -10,18 +14,25 @@ import java.io.IOException;
 
 /**
  * Call Activity
- * Started by ConnectActivity when a connection is successfully established.
+ * Started by ConnectActivity when a connection is successfully established, with the id of the
+ * call's CallSession.
  * Starts ConnectActivity if error or when the connection ends.
- * Starts an InCommThread and an OutCommThread, which handle all the network communications as well
- * as recording and playing audio.
+ * Runs the call with the session's CallEngine, which handles all the network communications,
+ * between the microphone and the speaker.
+ * The stats button shows the call's statistics over the screen, refreshed twice a second.
  */
-public class CallActivity extends AppCompatActivity {
+public class CallActivity extends AppCompatActivity implements CallListener {
 
-    private InCommThread inth;
-    private OutCommThread outth;
+    private static final int statsRefreshMillis = 500;
+
+    private CallSession session = null;
+    private CallEngine engine = null;
+    private TextView statsText;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshStats = this::refreshStats;
 
     /**
-     * Starts the two communication threads
+     * Finds the call's session, creates its engine and starts it
      */
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -29,30 +40,75 @@ public class CallActivity extends AppCompatActivity {
         setContentView(R.layout.activity_call);
 
         findViewById(R.id.hang_up_button).setOnClickListener(v -> endCall("hung up."));
+        statsText = findViewById(R.id.stats_text);
+        findViewById(R.id.stats_button).setOnClickListener(v -> toggleStats());
+
+        session = Globals.sessions.get(getIntent().getIntExtra(Globals.intentSession, 0));
+        if (session == null) {  // the call ended before the activity started
+            endCall("connection lost");
+            return;
+        }
+
+        CallFormat format = session.getFormat();  // agreed on during the handshake
+        AudioSource microphone;
+        try {
+            microphone = new MicrophoneSource(format);
+        } catch (IOException e) {
+            endCall("could not initialize audio recorder");
+            return;
+        }
+        engine = session.attach(this, microphone, new SpeakerSink(format));
+        engine.setCaptureChain(AudioChain.capture(format));  // noise gate and automatic gain
 
-        inth = new InCommThread(this);
-        outth = new OutCommThread(this);
+        // opening the UDP transport exchanges port numbers, and networking is not allowed on the
+        // main thread, so the setup must run on another thread
+        new Thread(this::startEngine).start();
+    }
 
-        inth.start();
-        outth.start();
+    /**
+     * Starts the call engine. Ends the call if the media transport could not be opened.
+     */
+    private void startEngine() {
+        try {
+            session.start();
+        } catch (IOException e) {
+            endCall("could not open audio connection");
+        }
+    }
+
+    /**
+     * Shows the statistics overlay if it is hidden, hides it otherwise.
+     */
+    private void toggleStats() {
+        if (statsText.getVisibility() == View.VISIBLE) {
+            handler.removeCallbacks(refreshStats);
+            statsText.setVisibility(View.GONE);
+        } else {
+            statsText.setVisibility(View.VISIBLE);
+            refreshStats();
+        }
+    }
+
+    /**
+     * Shows the current statistics, and schedules the next refresh. Runs on the UI thread; reading
+     * the statistics does not wait for the communication threads.
+     */
+    private void refreshStats() {
+        if (engine == null) return;
+        statsText.setText(engine.getStats().toString());
+        handler.postDelayed(refreshStats, statsRefreshMillis);
     }
 
     /**
      * Ends the call and switches back to the connect activity
      * @param reason a string representing the reason, to be printed on the screen
      */
+    @Override
     public void endCall(String reason) {
-        // end the communication threads
-        if (inth != null) inth.interrupt();
-        if (outth != null) outth.interrupt();
+        handler.removeCallbacks(refreshStats);
 
-        // destroy the socket connection
-        try {
-            Globals.sock.destroy();
-            Globals.sock = null;
-        } catch (IOException | NullPointerException e) {
-            System.out.println("socket is already destroyed");
-        }
+        // end the communication threads, close the media transport and the connection
+        if (session != null) session.close();
 
         // restart connect activity
         // https://developer.android.com/training/basics/firstapp/starting-activity
@@ -0,0 +1,269 @@
+package com.example.catchat;
+
+import java.io.IOException;
+
+/**
+ * Runs the audio of one call: opens the media transport over the call's connection, and starts
+ * the communication threads between it and the AudioSource and AudioSink.
+ *      AudioSource -> OutCommThread -> network -> InCommThread -> AudioSink
+ *
+ * Nothing here depends on Android. CallActivity runs it with the microphone and the speaker; the
+ * simulator in the benchmark module runs it with generated audio over loopback.
+ */
+public class CallEngine {
+    // queues between the recording, encoding and sending threads
+    public static final boolean dropOldest = true;  // when full; false drops the newest packet
+    private static final int queueMillis = 200;  // most audio waiting in each queue
+
+    private static final int jitterBufferMillis = 2000;  // most audio the JitterBuffer can hold
+
+    // when audio goes over TCP, most audio waiting in the socket's send buffer. Packets there cannot
+    // be dropped, only delayed; anything more waits in the send queue, which drops old packets
+    private static final int socketBufferMillis = 100;
+
+    // see HeartbeatThread
+    private static final int pingIntervalMillis = 1000;
+    public static final int defaultPeerTimeoutMillis = 5000;
+
+    // see setFecGroupSize()
+    public static final int FEC_OFF = -1;
+    public static final int FEC_ADAPTIVE = FecEncoder.ADAPTIVE;
+
+    private final CallListener listener;  // told when the call cannot go on
+    private final CallFormat format;
+    private final BetterSocket control;  // the call's TCP connection
+    private final boolean mediaOverUdp;
+    private final AudioSource audioIn;
+    private final AudioSink audioOut;
+    private final CallStats stats = new CallStats();
+
+    private PacketTransport media = null;  // audio goes over UDP, or over the control connection
+    private InCommThread inth = null;
+    private OutCommThread outth = null;
+    private ControlThread controlth = null;
+    private HeartbeatThread heartbeat = null;
+    private int peerTimeoutMillis = defaultPeerTimeoutMillis;
+    private boolean discontinuous = true;  // see setDiscontinuousTransmission()
+    private boolean adaptive = true;  // see setAdaptiveBitrate()
+    private int fecGroupSize = FEC_ADAPTIVE;  // see setFecGroupSize()
+    private AudioChain captureChain = null;  // see setCaptureChain()
+    private AudioChain playbackChain = null;  // see setPlaybackChain()
+    private boolean stopped = false;
+
+    /**
+     * Creates an engine for a call. Nothing is started until start() is called.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param control the call's connection, in blocking mode
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connection
+     * @param audioIn the source of the audio to send
+     * @param audioOut where to play the received audio
+     */
+    public CallEngine(CallListener listener, CallFormat format, BetterSocket control,
+                      boolean mediaOverUdp, AudioSource audioIn, AudioSink audioOut) {
+        this.listener = listener;
+        this.format = format;
+        this.control = control;
+        this.mediaOverUdp = mediaOverUdp;
+        this.audioIn = audioIn;
+        this.audioOut = audioOut;
+    }
+
+    /**
+     * @param format the call's format
+     * @return how many packets each queue of the outbound pipeline holds
+     */
+    public static int queueCapacity(CallFormat format) {
+        return Math.max(2, queueMillis / format.getPacketSizeInMillis());
+    }
+
+    /**
+     * @param format the call's format
+     * @return how many packets the JitterBuffer can hold
+     */
+    public static int jitterBufferCapacity(CallFormat format) {
+        return Math.max(4, jitterBufferMillis / format.getPacketSizeInMillis());
+    }
+
+    /**
+     * @param format the call's format
+     * @return the size of the socket's send buffer when audio goes over TCP, in bytes
+     */
+    private static int socketBufferSize(CallFormat format) {
+        int packets = Math.max(2, socketBufferMillis / format.getPacketSizeInMillis());
+        return packets * format.getMaxPacketSizeInBytes();
+    }
+
+    /**
+     * Sets how long the other device can stay silent before the call is ended. Pings are sent every
+     * second, so a few seconds are enough to tell a lost connection from a few lost packets.
+     * Must be called before start().
+     * @param peerTimeoutMillis the timeout, in milliseconds
+     */
+    public synchronized void setPeerTimeoutMillis(int peerTimeoutMillis) {
+        this.peerTimeoutMillis = peerTimeoutMillis;
+    }
+
+    /**
+     * Sets whether packets that only hold background noise are left out (discontinuous
+     * transmission), which saves bandwidth and encoding while the user is silent. The other device
+     * plays comfort noise in their place. On by default.
+     * Must be called before start().
+     * @param discontinuous false to send every packet
+     */
+    public synchronized void setDiscontinuousTransmission(boolean discontinuous) {
+        this.discontinuous = discontinuous;
+    }
+
+    /**
+     * Sets whether the codec and sample rate of the audio sent adapt to what the network carries,
+     * from the other device's reports (see BitrateController). On by default.
+     * Must be called before start().
+     * @param adaptive false to always send with the call's codec and sample rate
+     */
+    public synchronized void setAdaptiveBitrate(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Sets how many audio packets each parity packet covers, when audio goes over UDP (see
+     * FecEncoder). Smaller groups rebuild more lost packets, but cost more bandwidth and delay.
+     * Over TCP, nothing is lost, and no parity is sent. Adaptive by default.
+     * Must be called before start().
+     * @param groupSize from 2 to FecEncoder.maxGroupSize, or FEC_ADAPTIVE to follow the loss the
+     *        other device reports, or FEC_OFF
+     * @throws IllegalArgumentException if the group size is out of range
+     */
+    public synchronized void setFecGroupSize(int groupSize) throws IllegalArgumentException {
+        if (groupSize != FEC_OFF && groupSize != FEC_ADAPTIVE
+                && (groupSize < 2 || groupSize > FecEncoder.maxGroupSize)) {
+            throw new IllegalArgumentException("unsupported group size " + groupSize);
+        }
+        fecGroupSize = groupSize;
+    }
+
+    /**
+     * Sets the processing run on each recorded packet, before it is checked for speech and encoded
+     * (see AudioChain). None by default.
+     * Must be called before start().
+     * @param chain the processing, for packets of the call's format; or null for none
+     */
+    public synchronized void setCaptureChain(AudioChain chain) {
+        captureChain = chain;
+    }
+
+    /**
+     * Sets the processing run on each decoded packet, before it is played (see AudioChain). It also
+     * runs on concealed packets and comfort noise. None by default.
+     * Must be called before start().
+     * @param chain the processing, for packets of the call's format; or null for none
+     */
+    public synchronized void setPlaybackChain(AudioChain chain) {
+        playbackChain = chain;
+    }
+
+    /**
+     * Opens the media transport of the call. If audio goes over UDP, also starts a ControlThread
+     * to read the TCP connection. Then starts the communication threads.
+     * Opening the UDP transport exchanges port numbers with the other device, so this blocks and
+     * must not be called on the main thread. Both devices must call it at the same time.
+     * @throws IOException if the media transport could not be opened
+     */
+    public void start() throws IOException {
+        TcpTransport tcp = new TcpTransport(control);
+        PacketTransport media;
+        try {
+            media = mediaOverUdp ? UdpTransport.open(control) : tcp;
+            if (!mediaOverUdp) control.getSocket().setSendBufferSize(socketBufferSize(format));
+        } catch (IOException e) {
+            synchronized (this) {
+                if (stopped) return;  // closing the connection made opening fail; nothing to report
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            if (stopped) {  // the call was ended while the transport was being opened
+                if (media != tcp) media.close();
+                return;
+            }
+
+            this.media = media;
+            BitrateController bitrate = adaptive ? new BitrateController(format) : null;
+            heartbeat = new HeartbeatThread(listener, media, stats, bitrate, pingIntervalMillis, peerTimeoutMillis);
+            inth = new InCommThread(listener, format, media, audioOut, heartbeat, stats, playbackChain);
+            FecEncoder fec = media != tcp && fecGroupSize != FEC_OFF
+                    ? new FecEncoder(format, fecGroupSize, stats)
+                    : null;
+            outth = new OutCommThread(listener, format, media, audioIn, stats, discontinuous, bitrate, fec,
+                    captureChain);
+            if (media != tcp) {
+                controlth = new ControlThread(listener, format, tcp);
+                controlth.start();
+            }
+
+            // started while holding the lock, so stop() cannot interrupt them before they start
+            inth.start();
+            outth.start();
+            heartbeat.start();
+        }
+    }
+
+    /**
+     * Stops the communication threads and closes the media transport; over TCP, this also closes
+     * the connection. Can be called from any thread, and more than once.
+     * The threads release the source and the sink when they end; if they never started, they are
+     * released here.
+     */
+    public synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+
+        if (inth == null) {
+            audioIn.release();
+            audioOut.release();
+            return;
+        }
+
+        inth.interrupt();
+        outth.interrupt();
+        heartbeat.interrupt();
+        if (controlth != null) controlth.interrupt();
+        media.close();
+    }
+
+    /**
+     * @return the call's format
+     */
+    public CallFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the call's statistics; they stay at 0 until the call starts
+     */
+    public CallStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the jitter buffer received packets are put in, or null if the call has not started
+     */
+    public synchronized JitterBuffer getJitterBuffer() {
+        return inth == null ? null : inth.getJitterBuffer();
+    }
+
+    /**
+     * @return the queue between recording and encoding, or null if the call has not started
+     */
+    public synchronized FrameRing<short[]> getCaptureQueue() {
+        return outth == null ? null : outth.getCaptureQueue();
+    }
+
+    /**
+     * @return the queue between encoding and sending, or null if the call has not started
+     */
+    public synchronized FrameRing<byte[]> getSendQueue() {
+        return outth == null ? null : outth.getSendQueue();
+    }
+}
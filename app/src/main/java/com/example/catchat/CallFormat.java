@@ -0,0 +1,150 @@
+package com.example.catchat;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The audio format of a call: the sample rate, how much audio goes in each packet, and the codec
+ * packets are encoded with.
+ * All sizes that depend on the packet size are derived here, so the packet duration can be changed
+ * at runtime (see Globals.setPacketSizeInMillis()). Each call reads the format once when it starts.
+ *
+ * Audio is recorded and played as 16-bit mono, so a frame (sample) is two bytes.
+ * The two devices agree on the format when the call is set up; see Capabilities.
+ */
+public class CallFormat {
+    // supported packet durations; short packets mean less delay, long packets less overhead
+    public static final int minPacketSizeInMillis = 10;
+    public static final int maxPacketSizeInMillis = 500;
+
+    public static final int frameSizeInBytes = 2;  // 16-bit in one channel: two byte samples
+
+    public static final int encodedSize = 7;  // in bytes; see write()
+
+    private final int sampleRate;  // in Hz
+    private final int packetSizeInMillis;
+    private final int packetSizeInFrames;
+    private final int packetSizeInBytes;
+    private final int maxPacketSizeInBytes;
+    private final byte codec;
+
+    /**
+     * Creates a call format.
+     * @param sampleRate the sample rate, in Hz
+     * @param packetSizeInMillis how many milliseconds of audio go in each packet
+     * @param codec the codec packets are encoded with; one of the PacketHeader.CODEC_ constants
+     * @throws IllegalArgumentException if the sample rate, the packet duration or the codec is not
+     *         supported
+     */
+    public CallFormat(int sampleRate, int packetSizeInMillis, byte codec) throws IllegalArgumentException {
+        if (sampleRate < 8000 || sampleRate > 48000) {
+            throw new IllegalArgumentException("unsupported sample rate " + sampleRate + " Hz");
+        }
+        if (packetSizeInMillis < minPacketSizeInMillis || packetSizeInMillis > maxPacketSizeInMillis) {
+            throw new IllegalArgumentException("unsupported packet size " + packetSizeInMillis + " ms");
+        }
+        if (!AudioCodecs.isSupported(codec)) {
+            throw new IllegalArgumentException("unsupported codec " + codec);
+        }
+
+        this.sampleRate = sampleRate;
+        this.packetSizeInMillis = packetSizeInMillis;
+        this.codec = codec;
+        packetSizeInFrames = sampleRate * packetSizeInMillis / 1000;
+        packetSizeInBytes = packetSizeInFrames * frameSizeInBytes;
+
+        // a packet header followed by encoded audio. every codec stores at most one byte per frame,
+        // but deflate can slightly grow incompressible data
+        maxPacketSizeInBytes = PacketHeader.SIZE + packetSizeInFrames + packetSizeInFrames / 16 + 64;
+    }
+
+    /**
+     * @return the sample rate, in Hz
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return how many milliseconds of audio go in each packet
+     */
+    public int getPacketSizeInMillis() {
+        return packetSizeInMillis;
+    }
+
+    /**
+     * @return how many frames (samples) go in each packet
+     */
+    public int getPacketSizeInFrames() {
+        return packetSizeInFrames;
+    }
+
+    /**
+     * @return the size in bytes of a packet's audio before encoding
+     */
+    public int getPacketSizeInBytes() {
+        return packetSizeInBytes;
+    }
+
+    /**
+     * @return the size in bytes of the largest packet that can be sent, header included
+     */
+    public int getMaxPacketSizeInBytes() {
+        return maxPacketSizeInBytes;
+    }
+
+    /**
+     * @return the codec packets are encoded with
+     */
+    public byte getCodec() {
+        return codec;
+    }
+
+    /**
+     * Writes the format at the buffer's position, for sending it to the other device:
+     *      codec (1 byte), sample rate in Hz (4 bytes), packet duration in milliseconds (2 bytes)
+     * @param buffer the buffer to write to
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.put(codec);
+        buffer.putInt(sampleRate);
+        buffer.putShort((short) packetSizeInMillis);
+    }
+
+    /**
+     * Reads a format written by write().
+     * @param buffer the buffer to read from, at its position
+     * @return the format
+     * @throws ProtocolException if the buffer is too short or the format is not supported
+     */
+    public static CallFormat read(ByteBuffer buffer) throws ProtocolException {
+        try {
+            byte codec = buffer.get();
+            int sampleRate = buffer.getInt();
+            int packetSizeInMillis = buffer.getShort() & 0xffff;
+            return new CallFormat(sampleRate, packetSizeInMillis, codec);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new ProtocolException("bad call format: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CallFormat)) return false;
+        CallFormat format = (CallFormat) other;
+        return sampleRate == format.sampleRate
+                && packetSizeInMillis == format.packetSizeInMillis
+                && codec == format.codec;
+    }
+
+    @Override
+    public int hashCode() {
+        return (sampleRate * 31 + packetSizeInMillis) * 31 + codec;
+    }
+
+    @Override
+    public String toString() {
+        return "codec " + codec + ", " + sampleRate + " Hz, " + packetSizeInMillis + " ms";
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.catchat;
+
+/**
+ * Told by the call engine's threads when the call cannot go on.
+ * Implemented by CallActivity.
+ */
+public interface CallListener {
+    /**
+     * Ends the call. Can be called from any thread, and more than once.
+     * @param reason a string representing the reason, to be printed on the screen
+     */
+    void endCall(String reason);
+}
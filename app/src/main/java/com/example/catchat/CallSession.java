@@ -0,0 +1,133 @@
+package com.example.catchat;
+
+import java.io.IOException;
+
+/**
+ * One call, from the end of call setup until it is hung up: owns the connection to the other
+ * device, the call's format and the CallEngine running it (its transport, buffers, threads and
+ * statistics). Nothing is shared with other sessions, so any number of calls can run in the same
+ * process.
+ *
+ * Sessions are created by a SessionRegistry once call setup is done, and found again there by
+ * their id; closing a session ends the call and takes it out of the registry.
+ */
+public class CallSession {
+    private final SessionRegistry registry;  // holding this session
+    private final int id;
+    private final BetterSocket sock;  // the connection to the other device
+    private final CallFormat format;  // agreed on with the other device
+    private final boolean mediaOverUdp;
+
+    private CallEngine engine = null;  // guarded by this
+    private boolean closed = false;  // guarded by this
+
+    /**
+     * Creates a session. Called by the SessionRegistry.
+     * @param registry the registry holding the session
+     * @param id the session's id in the registry
+     * @param sock the connection to the other device, in blocking mode, after call setup
+     * @param format the call's format
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connection
+     */
+    CallSession(SessionRegistry registry, int id, BetterSocket sock, CallFormat format, boolean mediaOverUdp) {
+        this.registry = registry;
+        this.id = id;
+        this.sock = sock;
+        this.format = format;
+        this.mediaOverUdp = mediaOverUdp;
+    }
+
+    /**
+     * Creates the engine that runs the call, between a source and a sink. The engine can be
+     * configured before start() is called.
+     * @param listener told when the call ends on its own; should close the session
+     * @param source where the audio sent comes from
+     * @param sink where the audio received goes
+     * @return the engine
+     * @throws IllegalStateException if the session already has an engine, or is closed
+     */
+    public synchronized CallEngine attach(CallListener listener, AudioSource source, AudioSink sink)
+            throws IllegalStateException {
+        if (closed) throw new IllegalStateException("session closed");
+        if (engine != null) throw new IllegalStateException("session already attached");
+        engine = new CallEngine(listener, format, sock, mediaOverUdp, source, sink);
+        return engine;
+    }
+
+    /**
+     * Starts the call; see CallEngine.start(). Blocks, so it must not be called on the main thread.
+     * @throws IOException if the media transport could not be opened
+     * @throws IllegalStateException if attach() was not called
+     */
+    public void start() throws IOException, IllegalStateException {
+        CallEngine engine;
+        synchronized (this) {
+            if (this.engine == null) throw new IllegalStateException("session not attached");
+            engine = this.engine;
+        }
+        engine.start();  // without the lock, so close() can interrupt it
+    }
+
+    /**
+     * Ends the call: stops the engine, closes the connection and takes the session out of its
+     * registry. Can be called from any thread, and more than once.
+     */
+    public void close() {
+        CallEngine engine;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            engine = this.engine;
+        }
+
+        if (engine != null) engine.stop();
+        try {
+            sock.destroy();
+        } catch (IOException e) {
+            // already closed
+        }
+        registry.remove(this);
+    }
+
+    /**
+     * @return the session's id in its registry
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the connection to the other device
+     */
+    public BetterSocket getSocket() {
+        return sock;
+    }
+
+    /**
+     * @return the call's format
+     */
+    public CallFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the engine running the call, or null if attach() was not called
+     */
+    public synchronized CallEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the call's statistics, or null if attach() was not called
+     */
+    public synchronized CallStats getStats() {
+        return engine == null ? null : engine.getStats();
+    }
+
+    /**
+     * @return whether the session was closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,457 @@
+package com.example.catchat;
+
+import java.util.Locale;
+
+/**
+ * Live statistics of a call, updated by the communication threads and read by the UI.
+ *
+ * Every counter has a single writer: the thread named next to it. Counters are volatile, so they
+ * can be read from any thread without locking, and written without slowing the audio path down.
+ * Each value is up to date on its own, but a set of values read one after the other can be from
+ * slightly different moments.
+ */
+public class CallStats {
+    // EncodeThread
+    private volatile long packetsEncoded = 0;
+    private volatile long samplesEncoded = 0;
+    private volatile long bytesEncoded = 0;  // audio only, without headers
+    private volatile long encodeNanos = 0;  // total time spent encoding
+    private volatile long packetsSilent = 0;  // not encoded, since they only held background noise
+    private volatile long noiseUpdates = 0;  // sent instead of some of the silent packets
+    private volatile long detectNanos = 0;  // total time spent detecting speech
+    private volatile int sendCodec = -1;  // of the last packet, if a BitrateController picks it
+    private volatile int sendRateShift = 0;
+    private volatile long bitrateChanges = 0;
+
+    // SendThread
+    private volatile long packetsSent = 0;
+    private volatile long bytesSent = 0;  // headers included; not counting UDP/TCP/IP headers
+    private volatile long paritySent = 0;  // bytes of parity packets; see FecEncoder
+
+    // InCommThread
+    private volatile long packetsReceived = 0;
+    private volatile long bytesReceived = 0;
+    private volatile int firstSequence = 0;  // of the first packet received
+    private volatile int highestSequence = 0;  // highest sequence number received
+    private volatile boolean receiving = false;  // whether any packet was received yet
+    private volatile double networkDelay = -1;  // smoothed one-way delay, in ms; -1 until known
+    private volatile long roundTrip = -1;  // smoothed, in nanoseconds; -1 until the first pong
+    private volatile long clockOffset = 0;  // the other device's clock minus this one's, in ns
+    private volatile double remoteLoss = -1;  // of our audio, reported by the other device
+    private volatile double remoteJitter = -1;  // in ms; all -1 until the first report
+    private volatile int remoteBufferDelay = -1;  // in ms
+    private volatile double remoteNetworkDelay = -1;  // in ms; also -1 until the other device knows
+    private volatile long packetsRecovered = 0;  // rebuilt from parity packets; see FecDecoder
+
+    // PlayThread
+    private volatile long packetsDecoded = 0;
+    private volatile long decodeNanos = 0;  // total time spent decoding
+    private volatile long packetsConcealed = 0;  // made up because they were missing or corrupt
+
+    private volatile JitterBuffer jitterBuffer = null;  // read for jitter, depth and underruns
+
+    /**
+     * Called by the EncodeThread for every packet.
+     * @param samples how many samples were encoded
+     * @param bytes how many bytes they were encoded to
+     * @param nanos how long encoding took, in nanoseconds
+     */
+    void encoded(int samples, int bytes, long nanos) {
+        packetsEncoded++;
+        samplesEncoded += samples;
+        bytesEncoded += bytes;
+        encodeNanos += nanos;
+    }
+
+    /**
+     * Called by the EncodeThread for every packet, when discontinuous transmission is on.
+     * @param nanos how long it took to tell whether the packet holds speech, in nanoseconds
+     */
+    void detected(long nanos) {
+        detectNanos += nanos;
+    }
+
+    /**
+     * Called by the EncodeThread for every packet that is not encoded, because it is silent.
+     * @param noiseUpdate whether a noise update was sent in its place
+     */
+    void silent(boolean noiseUpdate) {
+        packetsSilent++;
+        if (noiseUpdate) noiseUpdates++;
+    }
+
+    /**
+     * Called by the EncodeThread when the BitrateController changes the codec or sample rate.
+     * @param codec the codec packets are now encoded with
+     * @param rateShift how many times the sample rate is now halved
+     */
+    void bitrateChanged(byte codec, int rateShift) {
+        if (sendCodec >= 0) bitrateChanges++;
+        sendRateShift = rateShift;
+        sendCodec = codec;
+    }
+
+    /**
+     * Called by the SendThread for every packet.
+     * @param bytes the size of the packet
+     */
+    void sent(int bytes) {
+        packetsSent++;
+        bytesSent += bytes;
+    }
+
+    /**
+     * Called by the SendThread for every parity packet.
+     * @param bytes the size of the parity packet
+     */
+    void sentParity(int bytes) {
+        paritySent += bytes;
+    }
+
+    /**
+     * Called by the InCommThread for every lost packet rebuilt from a parity packet.
+     */
+    void recovered() {
+        packetsRecovered++;
+    }
+
+    /**
+     * Called by the InCommThread for every audio packet.
+     * Once the clock offset is known, the packet's timestamp also gives its one-way delay, from
+     * being sent to arriving.
+     * @param sequence the packet's sequence number
+     * @param bytes the size of the packet
+     * @param timestamp the time the packet was sent, in the other device's clock (see PacketHeader)
+     * @param arrival when the packet arrived, in System.nanoTime()
+     */
+    void received(int sequence, int bytes, int timestamp, long arrival) {
+        if (roundTrip >= 0) {
+            int sent = (int) ((arrival + clockOffset) / 1_000_000);  // now, in the other device's clock
+            int delay = sent - timestamp;
+            networkDelay = networkDelay < 0 ? delay : networkDelay + (delay - networkDelay) / 16;
+        }
+
+        if (!receiving) {
+            firstSequence = sequence;
+            highestSequence = sequence;
+            receiving = true;
+        } else if (sequence - highestSequence > 0) {
+            highestSequence = sequence;
+        }
+        packetsReceived++;
+        bytesReceived += bytes;
+    }
+
+    /**
+     * Called by the PlayThread for every packet decoded.
+     * @param nanos how long decoding took, in nanoseconds
+     */
+    void decoded(long nanos) {
+        packetsDecoded++;
+        decodeNanos += nanos;
+    }
+
+    /**
+     * Called by the PlayThread for every packet made up because it was missing or corrupt.
+     */
+    void concealed() {
+        packetsConcealed++;
+    }
+
+    /**
+     * Called by the InCommThread, through the HeartbeatThread, for every pong.
+     * @param roundTrip the smoothed round trip time, in nanoseconds
+     * @param clockOffset the other device's clock minus this one's, in nanoseconds
+     */
+    void setRoundTrip(long roundTrip, long clockOffset) {
+        this.clockOffset = clockOffset;
+        this.roundTrip = roundTrip;  // written last: a reader seeing it also sees the offset
+    }
+
+    /**
+     * Called by the InCommThread, through the HeartbeatThread, for every receiver report.
+     * @param loss the fraction of this device's packets the other device lost, from 0 to 1
+     * @param jitter the jitter the other device measures, in milliseconds
+     * @param bufferDelay the delay added by the other device's jitter buffer, in milliseconds
+     * @param networkDelay the time this device's packets take to arrive, in milliseconds, or -1 if
+     *        the other device does not know yet
+     */
+    void setRemoteReport(double loss, double jitter, int bufferDelay, double networkDelay) {
+        remoteLoss = loss;
+        remoteJitter = jitter;
+        remoteBufferDelay = bufferDelay;
+        remoteNetworkDelay = networkDelay;
+    }
+
+    /**
+     * Called by the InCommThread when it creates its jitter buffer.
+     * @param jitterBuffer the jitter buffer received packets are put in
+     */
+    void setJitterBuffer(JitterBuffer jitterBuffer) {
+        this.jitterBuffer = jitterBuffer;
+    }
+
+    /**
+     * @return how many packets were sent
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * @return how many bytes were sent, packet headers included
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return how many audio packets were received, duplicates and late ones included
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return how many bytes of audio packets were received, packet headers included
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return how many times smaller the encoded audio is than 16-bit PCM, or 0 if nothing was
+     *         encoded yet
+     */
+    public double getCompressionRatio() {
+        long bytes = bytesEncoded;
+        return bytes == 0 ? 0 : (double) samplesEncoded * CallFormat.frameSizeInBytes / bytes;
+    }
+
+    /**
+     * @return the fraction of recorded packets that were not sent because they were silent, from 0
+     *         to 1
+     */
+    public double getSilence() {
+        long silent = packetsSilent;
+        long total = packetsEncoded + silent;
+        return total == 0 ? 0 : (double) silent / total;
+    }
+
+    /**
+     * Estimates the bandwidth saved by not sending silent packets: as many packets of the average
+     * size, minus the noise updates sent instead.
+     * @return the bytes saved, packet headers included
+     */
+    public long getBytesSaved() {
+        long encoded = packetsEncoded;
+        if (encoded == 0) return 0;
+        double packetSize = (double) bytesEncoded / encoded + PacketHeader.SIZE;
+        return (long) (packetsSilent * packetSize) - noiseUpdates * (PacketHeader.SIZE + 2);
+    }
+
+    /**
+     * Estimates the processing time saved by not encoding silent packets, minus the time spent
+     * detecting speech in every packet.
+     * @return the time saved, in milliseconds; negative if detecting cost more than it saved
+     */
+    public double getCpuMillisSaved() {
+        long encoded = packetsEncoded;
+        if (encoded == 0) return 0;
+        return (packetsSilent * ((double) encodeNanos / encoded) - detectNanos) / 1e6;
+    }
+
+    /**
+     * @return the average time to encode a packet, in microseconds
+     */
+    public double getEncodeMicros() {
+        long packets = packetsEncoded;
+        return packets == 0 ? 0 : encodeNanos / 1000.0 / packets;
+    }
+
+    /**
+     * @return the average time to decode a packet, in microseconds
+     */
+    public double getDecodeMicros() {
+        long packets = packetsDecoded;
+        return packets == 0 ? 0 : decodeNanos / 1000.0 / packets;
+    }
+
+    /**
+     * Estimates the fraction of packets lost on the network, like RFC 3550: packets expected from
+     * the sequence numbers seen, minus packets received.
+     * @return the estimated loss, from 0 to 1
+     */
+    public double getLoss() {
+        if (!receiving) return 0;
+        long expected = (long) highestSequence - firstSequence + 1;
+        long lost = expected - packetsReceived;  // duplicates can make this negative
+        return expected <= 0 ? 0 : Math.max(0, (double) lost / expected);
+    }
+
+    /**
+     * @return the smoothed round trip time to the other device, in milliseconds, or -1 if it is not
+     *         known yet
+     */
+    public double getRoundTrip() {
+        long rtt = roundTrip;
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    /**
+     * @return the other device's clock minus this one's, in milliseconds; 0 until the round trip
+     *         time is known
+     */
+    public double getClockOffset() {
+        return clockOffset / 1e6;
+    }
+
+    /**
+     * @return the smoothed time from a packet being sent to it arriving, in milliseconds, or -1 if
+     *         it is not known yet. Half the round trip time when the network is symmetrical.
+     */
+    public double getNetworkDelay() {
+        return networkDelay;
+    }
+
+    /**
+     * @return the fraction of this device's packets lost on the way to the other device, from 0 to
+     *         1, or -1 if the other device did not report it yet
+     */
+    public double getRemoteLoss() {
+        return remoteLoss;
+    }
+
+    /**
+     * @return the jitter the other device measures on this device's packets, in milliseconds, or -1
+     *         if the other device did not report it yet
+     */
+    public double getRemoteJitter() {
+        return remoteJitter;
+    }
+
+    /**
+     * @return the delay added by the other device's jitter buffer, in milliseconds, or -1 if the
+     *         other device did not report it yet
+     */
+    public int getRemoteBufferDelay() {
+        return remoteBufferDelay;
+    }
+
+    /**
+     * @return the time this device's packets take to reach the other device, in milliseconds, or
+     *         -1 if it is not known yet
+     */
+    public double getRemoteNetworkDelay() {
+        return remoteNetworkDelay;
+    }
+
+    /**
+     * @return the codec packets are sent with, or -1 if it is always the call's codec
+     */
+    public int getSendCodec() {
+        return sendCodec;
+    }
+
+    /**
+     * @return the sample rate packets are sent at, as a fraction of the call's: 1, 1/2 or 1/4
+     */
+    public double getSendRate() {
+        return 1.0 / (1 << sendRateShift);
+    }
+
+    /**
+     * @return how many times the BitrateController changed the codec or sample rate
+     */
+    public long getBitrateChanges() {
+        return bitrateChanges;
+    }
+
+    /**
+     * @return the bytes of parity packets sent, as a fraction of the bytes of audio packets sent
+     */
+    public double getFecOverhead() {
+        long sent = bytesSent;
+        return sent == 0 ? 0 : (double) paritySent / sent;
+    }
+
+    /**
+     * @return how many lost packets were rebuilt from parity packets
+     */
+    public long getPacketsRecovered() {
+        return packetsRecovered;
+    }
+
+    /**
+     * @return how many missing or corrupt packets were made up
+     */
+    public long getPacketsConcealed() {
+        return packetsConcealed;
+    }
+
+    /**
+     * @return the estimated inter-arrival jitter, in milliseconds
+     */
+    public double getJitter() {
+        JitterBuffer buffer = jitterBuffer;
+        return buffer == null ? 0 : buffer.getJitter();
+    }
+
+    /**
+     * @return the delay added by the jitter buffer, in milliseconds
+     */
+    public int getBufferDelay() {
+        JitterBuffer buffer = jitterBuffer;
+        return buffer == null ? 0 : buffer.getDelay();
+    }
+
+    /**
+     * @return how many packets the jitter buffer holds
+     */
+    public int getBufferDepth() {
+        JitterBuffer buffer = jitterBuffer;
+        return buffer == null ? 0 : buffer.getDepth();
+    }
+
+    /**
+     * @return how many times playback ran out of received audio
+     */
+    public long getUnderrunCount() {
+        JitterBuffer buffer = jitterBuffer;
+        return buffer == null ? 0 : buffer.getUnderrunCount();
+    }
+
+    /**
+     * @return the statistics, one per line, for showing on the screen
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "sent: %d packets, %d KB%n"
+                        + "received: %d packets, %d KB%n"
+                        + "compression: %.1fx%n"
+                        + "encode: %.0f us, decode: %.0f us%n"
+                        + "rtt: %.1f ms, delay: %.1f ms%n"
+                        + "jitter: %.1f ms, loss: %.1f%%%n"
+                        + "remote jitter: %.1f ms, loss: %.1f%%%n"
+                        + "remote delay: %.1f ms, buffer: %d ms%n"
+                        + "sending: codec %d, rate x%.2f, %d changes%n"
+                        + "silent: %.0f%%, saved %d KB, %.0f ms cpu%n"
+                        + "fec: +%.0f%%, recovered: %d%n"
+                        + "buffer: %d packets, %d ms%n"
+                        + "underruns: %d, concealed: %d",
+                getPacketsSent(), getBytesSent() / 1024,
+                getPacketsReceived(), getBytesReceived() / 1024,
+                getCompressionRatio(),
+                getEncodeMicros(), getDecodeMicros(),
+                getRoundTrip(), getNetworkDelay(),
+                getJitter(), getLoss() * 100,
+                getRemoteJitter(), getRemoteLoss() * 100,
+                getRemoteNetworkDelay(), getRemoteBufferDelay(),
+                getSendCodec(), getSendRate(), getBitrateChanges(),
+                getSilence() * 100, getBytesSaved() / 1024, getCpuMillisSaved(),
+                getFecOverhead() * 100, getPacketsRecovered(),
+                getBufferDepth(), getBufferDelay(),
+                getUnderrunCount(), getPacketsConcealed());
+    }
+}
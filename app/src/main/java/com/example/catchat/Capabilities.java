@@ -0,0 +1,218 @@
+package com.example.catchat;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * What a device supports: the range of protocol versions, and the codecs, sample rates and packet
+ * durations it can use, in order of preference.
+ *
+ * Call setup, over the TCP connection (every message is a frame starting with a PacketHeader):
+ *      caller: HELLO, holding its capabilities
+ *      callee: once the user accepts, ACCEPT holding the CallFormat it picked with negotiate(),
+ *              or DECLINE if the two devices have nothing in common
+ *      caller: ACCEPT, echoing the format, once it checked it supports it
+ * The callee declining or closing the connection cancels the call.
+ *
+ * Fields are only ever added at the end of the message, and readers ignore bytes they do not know,
+ * so devices with newer versions can still call older ones.
+ *
+ * Layout (big endian):
+ *      lowest and highest protocol version (1 byte each),
+ *      codec count (1 byte), codec ids (1 byte each),
+ *      sample rate count (1 byte), sample rates in Hz (4 bytes each),
+ *      lowest, highest and preferred packet duration in milliseconds (2 bytes each)
+ */
+public class Capabilities {
+    public static final int version = 1;  // of the protocol this build speaks
+    public static final int minVersion = 1;  // oldest version this build can still speak
+
+    public static final int maxSize = 64;  // in bytes; more than enough for the fields below
+
+    // codecs by increasing encoding cost; offered after the preferred one
+    private static final byte[] codecsByCost = {
+            PacketHeader.CODEC_MULAW, PacketHeader.CODEC_ADPCM, PacketHeader.CODEC_DEFLATE
+    };
+    // sample rates every Android device can record and play; offered after the preferred one
+    private static final int[] sampleRates = { 44100, 16000, 8000 };
+
+    private final int lowestVersion;
+    private final int highestVersion;
+    private final byte[] codecs;
+    private final int[] rates;
+    private final int minPacketSizeInMillis;
+    private final int maxPacketSizeInMillis;
+    private final int packetSizeInMillis;  // preferred
+
+    /**
+     * @param lowestVersion the oldest protocol version supported
+     * @param highestVersion the newest protocol version supported
+     * @param codecs the codec ids supported, most preferred first
+     * @param rates the sample rates supported, most preferred first
+     * @param minPacketSizeInMillis the shortest packet duration supported
+     * @param maxPacketSizeInMillis the longest packet duration supported
+     * @param packetSizeInMillis the preferred packet duration
+     */
+    private Capabilities(int lowestVersion, int highestVersion, byte[] codecs, int[] rates,
+                         int minPacketSizeInMillis, int maxPacketSizeInMillis, int packetSizeInMillis) {
+        this.lowestVersion = lowestVersion;
+        this.highestVersion = highestVersion;
+        this.codecs = codecs;
+        this.rates = rates;
+        this.minPacketSizeInMillis = minPacketSizeInMillis;
+        this.maxPacketSizeInMillis = maxPacketSizeInMillis;
+        this.packetSizeInMillis = packetSizeInMillis;
+    }
+
+    /**
+     * Creates the capabilities of this device. The preferred format comes first; the other codecs
+     * follow cheapest first, and the other sample rates highest first.
+     * @param preferred the format set by the user (see Globals.getFormat())
+     * @return the capabilities
+     */
+    public static Capabilities local(CallFormat preferred) {
+        byte[] codecs = new byte[codecsByCost.length + 1];
+        int codecCount = 0;
+        codecs[codecCount++] = preferred.getCodec();
+        for (byte codec : codecsByCost) {
+            if (codec != preferred.getCodec()) codecs[codecCount++] = codec;
+        }
+
+        int[] rates = new int[sampleRates.length + 1];
+        int rateCount = 0;
+        rates[rateCount++] = preferred.getSampleRate();
+        for (int rate : sampleRates) {
+            if (rate != preferred.getSampleRate()) rates[rateCount++] = rate;
+        }
+
+        return new Capabilities(minVersion, version,
+                Arrays.copyOf(codecs, codecCount), Arrays.copyOf(rates, rateCount),
+                CallFormat.minPacketSizeInMillis, CallFormat.maxPacketSizeInMillis,
+                preferred.getPacketSizeInMillis());
+    }
+
+    /**
+     * Creates the capabilities of a conference node (see ConferenceBridge). It mixes every
+     * participant together, so it only offers its own sample rate and packet duration; any codec
+     * can be used, since each participant's audio is decoded before mixing.
+     * @param mixing the node's format; its codec is preferred
+     * @return the capabilities
+     */
+    public static Capabilities conference(CallFormat mixing) {
+        Capabilities any = local(mixing);
+        return new Capabilities(minVersion, version, any.codecs, new int[] { mixing.getSampleRate() },
+                mixing.getPacketSizeInMillis(), mixing.getPacketSizeInMillis(), mixing.getPacketSizeInMillis());
+    }
+
+    /**
+     * Picks the format of a call. Called by the callee, with the caller's capabilities: the
+     * caller's most preferred codec and sample rate that this device also supports, and the
+     * caller's preferred packet duration, brought into the range both devices support.
+     * @param caller the caller's capabilities
+     * @return the format of the call
+     * @throws ProtocolException if the devices have no protocol version, codec, sample rate or
+     *         packet duration in common
+     */
+    public CallFormat negotiate(Capabilities caller) throws ProtocolException {
+        if (Math.min(highestVersion, caller.highestVersion) < Math.max(lowestVersion, caller.lowestVersion)) {
+            throw new ProtocolException("no protocol version in common");
+        }
+
+        int codec = -1;
+        for (byte id : caller.codecs) {
+            if (supportsCodec(id)) {
+                codec = id;
+                break;
+            }
+        }
+        int rate = -1;
+        for (int r : caller.rates) {
+            if (supportsRate(r)) {
+                rate = r;
+                break;
+            }
+        }
+
+        int min = Math.max(minPacketSizeInMillis, caller.minPacketSizeInMillis);
+        int max = Math.min(maxPacketSizeInMillis, caller.maxPacketSizeInMillis);
+        if (codec < 0 || rate < 0 || min > max) throw new ProtocolException("no format in common");
+
+        int millis = Math.max(min, Math.min(max, caller.packetSizeInMillis));
+        return new CallFormat(rate, millis, (byte) codec);
+    }
+
+    /**
+     * Checks the format picked by the callee. Called by the caller.
+     * @param format the format in the callee's ACCEPT message
+     * @return true if this device can use the format
+     */
+    public boolean supports(CallFormat format) {
+        return supportsCodec(format.getCodec())
+                && supportsRate(format.getSampleRate())
+                && format.getPacketSizeInMillis() >= minPacketSizeInMillis
+                && format.getPacketSizeInMillis() <= maxPacketSizeInMillis;
+    }
+
+    /**
+     * @param codec a codec id
+     * @return true if the codec is in this device's list
+     */
+    private boolean supportsCodec(byte codec) {
+        for (byte id : codecs) {
+            if (id == codec) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param rate a sample rate, in Hz
+     * @return true if the sample rate is in this device's list
+     */
+    private boolean supportsRate(int rate) {
+        for (int r : rates) {
+            if (r == rate) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the capabilities at the buffer's position.
+     * @param buffer the buffer to write to; needs maxSize bytes free
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.put((byte) lowestVersion);
+        buffer.put((byte) highestVersion);
+        buffer.put((byte) codecs.length);
+        buffer.put(codecs);
+        buffer.put((byte) rates.length);
+        for (int rate : rates) buffer.putInt(rate);
+        buffer.putShort((short) minPacketSizeInMillis);
+        buffer.putShort((short) maxPacketSizeInMillis);
+        buffer.putShort((short) packetSizeInMillis);
+    }
+
+    /**
+     * Reads capabilities written by write(). Bytes after them are ignored.
+     * @param buffer the buffer to read from, at its position
+     * @return the capabilities
+     * @throws ProtocolException if the buffer is too short to hold them
+     */
+    public static Capabilities read(ByteBuffer buffer) throws ProtocolException {
+        try {
+            int lowestVersion = buffer.get() & 0xff;
+            int highestVersion = buffer.get() & 0xff;
+            byte[] codecs = new byte[buffer.get() & 0xff];
+            buffer.get(codecs);
+            int[] rates = new int[buffer.get() & 0xff];
+            for (int i = 0; i < rates.length; i++) rates[i] = buffer.getInt();
+            int minMillis = buffer.getShort() & 0xffff;
+            int maxMillis = buffer.getShort() & 0xffff;
+            int millis = buffer.getShort() & 0xffff;
+            return new Capabilities(lowestVersion, highestVersion, codecs, rates, minMillis, maxMillis, millis);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("capabilities too short");
+        }
+    }
+}
@@ -1,73 +1,217 @@
 package com.example.catchat;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 
 /**
- * Client thread attempting connection to another device's server thread
+ * Client thread attempting connection to another device's server thread.
+ * Races every address the partner may be at (see Connector): the one discovery found it at, if it
+ * was picked from the list of peers (see DiscoveryThread), the ones calls to it last connected at
+ * (see AddressBook), then the ones its name resolves to. The address that connected is
+ * remembered for the next call.
+ * Says hello with this device's capabilities, then waits for the other device to accept or decline
+ * the call (see Capabilities).
  */
 public class ClientThread extends Thread {
     ConnectActivity activity;  // thread running for
-    String partnerIP;  // attempting connect to
+    String partnerIP;  // attempting connect to; an IP address or a host name
+    private final AddressBook addressBook;
+    private final InetSocketAddress discovered;  // where discovery found the partner, or null
+    private final Connector connector = new Connector(Connector.defaultStaggerMillis, Connector.defaultAttemptTimeoutMillis);
+
+    private BetterSocket sock = null;  // the connection to the partner, until the call starts; guarded by this
+    private boolean cancelled = false;  // guarded by this
+
+    private byte declineReason = 0;  // one of the PacketHeader.DECLINE_ constants, once declined
+    private final ByteBuffer message = ByteBuffer.allocate(PacketHeader.SIZE + Capabilities.maxSize);
+    private final PacketHeader header = new PacketHeader();
 
     /**
      * Creates a new client thread.
      * @param activity the activity that started this thread (this)
      * @param ip ip of client attempting connection to
+     * @param addressBook where the addresses calls connected at are remembered
+     * @param discovered where discovery found the partner, or null
      */
-    public ClientThread(ConnectActivity activity, String ip) {
+    public ClientThread(ConnectActivity activity, String ip, AddressBook addressBook, InetSocketAddress discovered) {
         this.activity = activity;
         this.partnerIP = ip;
+        this.addressBook = addressBook;
+        this.discovered = discovered;
     }
 
     /**
      * Tries to establish a socket connection to partnerIP
      */
     public void run() {
-        Socket sock = null;
+        SocketChannel channel;
 
         try {
             // create a socket to the other user
-            sock = new Socket(partnerIP, Globals.port);
+            channel = connector.connect(candidates());
         } catch (IOException e) {
             // socket could not be created
-            activity.connectionFailed("Connection failed.");
+            if (!this.isInterrupted()) activity.connectionFailed("Connection failed.");
             return;
         }
+        addressBook.remember(partnerIP, connector.getConnectedAddress());
+        activity.saveAddressBook();
 
-        // try to create the global sock object, get input and output streams
+        BetterSocket sock = new BetterSocket(channel);
+        synchronized (this) {
+            if (cancelled) {
+                close(sock);
+                return;
+            }
+            this.sock = sock;
+        }
+
+        Capabilities local = Capabilities.local(Globals.getFormat());
         try {
-            Globals.sock = new BetterSocket(sock);
+            startMessage(PacketHeader.TYPE_HELLO);
+            local.write(message);
+            message.flip();
+            sock.writeFrame(message);
         } catch (IOException e) {
-            activity.connectionFailed("Connection failed.");
+            activity.connectionFailed("Could not connect.");
             return;
         }
 
-        activity.updateStatus("Ringing...");
+        activity.updateStatus("Ringing... (connected in " + connector.getSetupNanos() / 1_000_000 + " ms)");
 
         // wait for other side to accept call
-        if (awaitResponse()) {
-            activity.startCall();
-        } else if (!this.isInterrupted()) {
-            activity.connectionFailed("Declined.");
-        } // else, thread was interrupted (call cancelled), do nothing
+        CallFormat format;
+        try {
+            format = awaitResponse(sock, local);
+        } catch (ProtocolException e) {
+            activity.connectionFailed("Incompatible version.");
+            return;
+        }
+        if (format == null) {
+            if (!this.isInterrupted()) {
+                activity.connectionFailed(declineReason == PacketHeader.DECLINE_BUSY ? "Busy." : "Declined.");
+            }
+            return;  // else, thread was interrupted (call cancelled), do nothing
+        }
+
+        // confirm; the other side's ServerThread starts the call once it reads this
+        try {
+            startMessage(PacketHeader.TYPE_ACCEPT);
+            format.write(message);
+            message.flip();
+            sock.writeFrame(message);
+        } catch (IOException e) {
+            activity.connectionFailed("Could not connect.");
+            return;
+        }
+
+        // the session owns the connection from now on
+        CallSession session;
+        synchronized (this) {
+            if (cancelled) return;  // the connection was closed by cancel()
+            session = Globals.sessions.open(sock, format, Globals.mediaOverUdp);
+            this.sock = null;
+        }
+        activity.startCall(session);
+    }
+
+    /**
+     * @return the addresses to try, the last ones that worked first
+     */
+    private List<InetSocketAddress> candidates() {
+        List<InetSocketAddress> candidates = addressBook.get(partnerIP);
+        if (discovered != null) {
+            candidates.remove(discovered);
+            candidates.add(0, discovered);  // heard from seconds ago
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(partnerIP.trim())) {
+                candidates.add(new InetSocketAddress(address, Globals.port));
+            }
+        } catch (UnknownHostException e) {
+            // the remembered addresses may still work
+        }
+        return candidates;
     }
 
     /**
-     * After the socket is established, waits for the partner to send a message.
-     * The partner sends the connection message in ConnectRequestsAdapter::accept().
-     * @return true if connection made
-     *         false if declined / cancelled
+     * Stops trying to connect: interrupts the thread and closes the connection, unless the call
+     * already started. Can be called from any thread, and more than once.
      */
-    private boolean awaitResponse() {
-        int message;
+    public void cancel() {
+        BetterSocket sock;
+        synchronized (this) {
+            cancelled = true;
+            sock = this.sock;
+            this.sock = null;
+        }
+        interrupt();
+        connector.cancel();
+        if (sock != null) close(sock);  // also makes a blocked read fail
+    }
 
+    /**
+     * Closes a connection, which may already be closed.
+     * @param sock the connection
+     */
+    private static void close(BetterSocket sock) {
         try {
-            message = Globals.sock.readInt();
-        } catch (IOException | NullPointerException e) {
-            return false;
+            sock.destroy();
+        } catch (IOException e) {
+            // could not destroy socket; do nothing
         }
+    }
 
-        return message == Globals.acceptCall;
+    /**
+     * After the hello is sent, waits for the partner to send a message.
+     * The partner's ServerThread sends the accept message, holding the call's format, once the
+     * request is accepted.
+     * @param sock the connection to the partner
+     * @param local this device's capabilities
+     * @return the call's format, or null if declined / cancelled; the reason for declining is kept
+     *         in declineReason
+     * @throws ProtocolException if the partner declined because the devices have nothing in common,
+     *         or picked a format this device does not support
+     */
+    private CallFormat awaitResponse(BetterSocket sock, Capabilities local) throws ProtocolException {
+        try {
+            message.clear();
+            sock.readFrame(message);
+        } catch (IOException e) {  // the partner closed the connection, or the call was cancelled
+            return null;
+        }
+        message.flip();
+
+        if (!header.read(message)) return null;
+        switch (header.getType()) {
+            case PacketHeader.TYPE_ACCEPT:
+                CallFormat format = CallFormat.read(message);
+                if (!local.supports(format)) throw new ProtocolException("unsupported format " + format);
+                return format;
+            case PacketHeader.TYPE_DECLINE:
+                if (message.hasRemaining()) declineReason = message.get();
+                if (declineReason == PacketHeader.DECLINE_INCOMPATIBLE) {
+                    throw new ProtocolException("no format in common");
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Starts a message in the message buffer by writing its header.
+     * @param type the message's type
+     */
+    private void startMessage(byte type) {
+        message.clear();
+        header.set(type, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
     }
 }
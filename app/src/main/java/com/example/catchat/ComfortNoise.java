@@ -0,0 +1,48 @@
+package com.example.catchat;
+
+/**
+ * Generates comfort noise: quiet random noise played while the other device is not sending,
+ * because its user is silent (see VoiceDetector). Without it, the background noise heard during
+ * speech would cut to dead silence between words, which sounds like the call dropped.
+ *
+ * The level comes from the other device's noise updates, and changes gradually between them.
+ * Does not allocate. Used by a single thread.
+ */
+public class ComfortNoise {
+    private static final double smoothing = 0.25;  // of the level, per packet
+
+    private double level = 0;  // current root mean square of the samples
+    private double target = 0;  // level from the last noise update
+    private int seed = 0x2545F491;  // xorshift state; never 0
+    private int previous = 0;  // last sample, for the low-pass filter
+
+    /**
+     * Sets the level of the noise, from a noise update.
+     * @param rms the root mean square of the other device's background noise
+     */
+    public void setLevel(int rms) {
+        target = rms;
+    }
+
+    /**
+     * Fills a packet with noise.
+     * @param samples the array to fill
+     * @param count how many samples to generate
+     */
+    public void generate(short[] samples, int count) {
+        level += (target - level) * smoothing;
+
+        // uniform noise in [-a, a] has a root mean square of a / sqrt(3); halving each sample with
+        // the previous one (a gentle low-pass filter, so it sounds like a room rather than hiss)
+        // lowers it by about sqrt(2)
+        double amplitude = level * Math.sqrt(3) * Math.sqrt(2) / 0x8000;
+        for (int i = 0; i < count; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int sample = (int) ((short) seed * amplitude);
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (sample + previous) / 2));
+            previous = sample;
+        }
+    }
+}
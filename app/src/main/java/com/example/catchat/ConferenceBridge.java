@@ -0,0 +1,247 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A conference node: holds a call with each of up to maxParticipants devices, and sends each of
+ * them the mix of everyone else (see ConferenceMixer). Devices call the node like they would call
+ * another device, and need nothing new: to each of them, the node is a single partner.
+ *
+ * Each participant is a ConferenceParticipant, running a normal CallEngine whose speaker and
+ * microphone are the mixer. A MixThread takes a packet from each of them once per packet duration;
+ * the mixing itself can be split across cores. Since every participant is mixed together, they all
+ * use the node's sample rate and packet duration; each can use its own codec.
+ *
+ * Nothing here depends on Android, so a node can run on a device or on a plain JVM.
+ * join() is called by whatever accepts the connections, one thread per connection; leave() by the
+ * participants' calls when they end.
+ */
+public class ConferenceBridge {
+    private final CallFormat format;  // sample rate and packet duration of every participant
+    private final Capabilities capabilities;
+    private final int maxParticipants;
+    private final boolean mediaOverUdp;
+    private final MixThread mixth;
+
+    // replaced as a whole when a participant joins or leaves, so the MixThread reads it without locking
+    private volatile ConferenceParticipant[] participants = new ConferenceParticipant[0];
+    private int joining = 0;  // participants in call setup; guarded by this
+    private boolean stopped = false;  // guarded by this
+
+    /**
+     * Creates a conference node. Nothing is started until start() is called.
+     * @param format the sample rate and packet duration every participant uses, and the preferred
+     *        codec
+     * @param maxParticipants how many participants can be in the conference at once
+     * @param threads how many threads mix, at least 1; mixing more participants than a core can
+     *        handle needs more
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connections
+     */
+    public ConferenceBridge(CallFormat format, int maxParticipants, int threads, boolean mediaOverUdp) {
+        this.format = format;
+        this.maxParticipants = maxParticipants;
+        this.mediaOverUdp = mediaOverUdp;
+        capabilities = Capabilities.conference(format);
+        mixth = new MixThread(this, format, new ConferenceMixer(format.getPacketSizeInFrames(), maxParticipants, threads));
+    }
+
+    /**
+     * Starts mixing.
+     */
+    public void start() {
+        mixth.start();
+    }
+
+    /**
+     * Sets up a call with a device that connected to the node, and adds it to the conference.
+     * Blocks for the call setup (see Capabilities) and until the call's media transport is open,
+     * so it must run on a thread of its own.
+     * @param sock the connection to the device, in blocking mode
+     * @return the new participant
+     * @throws IOException if the call could not be set up; the device was declined if the
+     *         conference is full or the device cannot use the node's format, and the connection is
+     *         closed
+     */
+    public ConferenceParticipant join(BetterSocket sock) throws IOException {
+        CallFormat callFormat;
+        try {
+            callFormat = setUp(sock);
+        } catch (IOException e) {
+            close(sock);
+            throw e;
+        }
+        ConferenceParticipant participant = new ConferenceParticipant(this, callFormat, sock, mediaOverUdp);
+
+        synchronized (this) {
+            joining--;
+            if (stopped) {
+                close(sock);
+                throw new IOException("conference ended");
+            }
+            ConferenceParticipant[] current = participants;
+            ConferenceParticipant[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = participant;
+            participants = added;
+        }
+
+        try {
+            participant.getEngine().start();
+        } catch (IOException e) {
+            participant.endCall("could not open audio connection");
+            throw e;
+        }
+        return participant;
+    }
+
+    /**
+     * Runs the callee's side of call setup, on a blocking connection: reads the hello, and answers
+     * with the format picked from it, or declines.
+     * @param sock the connection to the device
+     * @return the call's format, confirmed by the device
+     * @throws IOException if the connection failed, the device sent something unexpected, or it
+     *         was declined
+     */
+    private CallFormat setUp(BetterSocket sock) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(PacketHeader.SIZE + Capabilities.maxSize);
+        PacketHeader header = new PacketHeader();
+
+        sock.readFrame(message);
+        message.flip();
+        if (!header.read(message) || header.getType() != PacketHeader.TYPE_HELLO) {
+            throw new ProtocolException("expected a hello");
+        }
+
+        CallFormat callFormat;
+        try {
+            callFormat = capabilities.negotiate(Capabilities.read(message));
+        } catch (ProtocolException e) {
+            writeMessage(sock, message, header, PacketHeader.TYPE_DECLINE, null, PacketHeader.DECLINE_INCOMPATIBLE);
+            throw e;
+        }
+
+        synchronized (this) {
+            if (stopped || participants.length + joining >= maxParticipants) {
+                writeMessage(sock, message, header, PacketHeader.TYPE_DECLINE, null, (byte) 0);
+                throw new IOException("conference full");
+            }
+            joining++;
+        }
+
+        // the seat is kept until join() adds the participant, or setup fails
+        try {
+            writeMessage(sock, message, header, PacketHeader.TYPE_ACCEPT, callFormat, (byte) 0);
+
+            // the device echoes the format once it checked it
+            message.clear();
+            sock.readFrame(message);
+            message.flip();
+            if (!header.read(message) || header.getType() != PacketHeader.TYPE_ACCEPT
+                    || !CallFormat.read(message).equals(callFormat)) {
+                throw new ProtocolException("expected the accept message back");
+            }
+            return callFormat;
+        } catch (IOException e) {
+            synchronized (this) {
+                joining--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a call setup message.
+     * @param sock the connection to write to
+     * @param message a buffer to build the message in
+     * @param header a header to build the message with
+     * @param type the message's type
+     * @param callFormat the format to send, or null
+     * @param reason the reason to send, for a decline; 0 to send none
+     * @throws IOException if writing failed
+     */
+    private static void writeMessage(BetterSocket sock, ByteBuffer message, PacketHeader header, byte type,
+                                     CallFormat callFormat, byte reason) throws IOException {
+        message.clear();
+        header.set(type, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
+        if (callFormat != null) callFormat.write(message);
+        if (reason != 0) message.put(reason);
+        message.flip();
+        sock.writeFrame(message);
+    }
+
+    /**
+     * Takes a participant out of the conference, and closes its connection. Called by the
+     * participant when its call ends; can be called more than once.
+     * @param participant the participant
+     */
+    void leave(ConferenceParticipant participant) {
+        synchronized (this) {
+            ConferenceParticipant[] current = participants;
+            int index = Arrays.asList(current).indexOf(participant);
+            if (index < 0) return;
+
+            ConferenceParticipant[] removed = new ConferenceParticipant[current.length - 1];
+            System.arraycopy(current, 0, removed, 0, index);
+            System.arraycopy(current, index + 1, removed, index, current.length - index - 1);
+            participants = removed;
+        }
+        close(participant.getSocket());
+    }
+
+    /**
+     * Closes a connection, which may already be closed.
+     * @param sock the connection
+     */
+    private static void close(BetterSocket sock) {
+        try {
+            sock.destroy();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Ends every participant's call and stops mixing. Can be called from any thread, and more
+     * than once.
+     */
+    public void stop() {
+        ConferenceParticipant[] ending;
+        synchronized (this) {
+            stopped = true;
+            ending = participants;
+        }
+        for (ConferenceParticipant participant : ending) participant.endCall("conference ended");
+        mixth.interrupt();
+    }
+
+    /**
+     * @return the participants in the conference; the array is not changed afterwards
+     */
+    public ConferenceParticipant[] getParticipants() {
+        return participants;
+    }
+
+    /**
+     * @return the sample rate and packet duration every participant uses
+     */
+    public CallFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the average time to mix a packet for every participant, in microseconds
+     */
+    public double getMixMicros() {
+        return mixth.getMixMicros();
+    }
+
+    /**
+     * @return how many times mixing fell more than a packet behind the clock
+     */
+    public long getLateMixCount() {
+        return mixth.getLateCount();
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.catchat;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Mixes one packet of audio from every participant of a conference into a packet for each of them:
+ * the sum of everyone else's audio (a "mix-minus"), so nobody hears their own voice come back.
+ * The sum of all participants is computed once, and each participant's audio is then taken out of
+ * it, so a mix costs two passes over the samples whatever the number of participants.
+ *
+ * The work can be split across cores: the sum by ranges of samples, then the mix-minus by ranges
+ * of participants, so no two threads ever write the same array. The thread calling mix() does the
+ * first share itself; the others are done by worker threads started once, which wait on a barrier
+ * between mixes.
+ *
+ * Samples are kept in arrays allocated once, one per participant slot. Used by a single thread,
+ * the MixThread, besides the workers.
+ */
+public class ConferenceMixer {
+    private final int frameSize;  // samples per packet
+    private final int maxParticipants;
+
+    private final short[][] inputs;
+    private final boolean[] speaking;  // whether inputs[i] holds audio for this mix
+    private final short[][] outputs;
+    private final int[] sum;
+
+    private final Thread[] workers;  // one less than the threads mixing
+    private final CyclicBarrier start;  // passed when a mix starts
+    private final CyclicBarrier summed;  // passed when the sum is done
+    private final CyclicBarrier done;  // passed when every output is done
+    private volatile int participants = 0;  // in the current mix
+
+    /**
+     * Creates a mixer, and starts its worker threads.
+     * @param frameSize how many samples are in a packet
+     * @param maxParticipants how many participants can be mixed at once
+     * @param threads how many threads mix, the caller of mix() included; 1 to not start any
+     */
+    public ConferenceMixer(int frameSize, int maxParticipants, int threads) {
+        this.frameSize = frameSize;
+        this.maxParticipants = maxParticipants;
+
+        inputs = new short[maxParticipants][frameSize];
+        speaking = new boolean[maxParticipants];
+        outputs = new short[maxParticipants][frameSize];
+        sum = new int[frameSize];
+
+        workers = new Thread[Math.max(0, threads - 1)];
+        start = new CyclicBarrier(threads);
+        summed = new CyclicBarrier(threads);
+        done = new CyclicBarrier(threads);
+        for (int i = 0; i < workers.length; i++) {
+            int share = i + 1;  // the caller does share 0
+            workers[i] = new Thread(() -> work(share), "mixer " + share);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @param participant a participant slot
+     * @return the array to write the participant's audio to before mix(); its size is the packet's
+     */
+    public short[] getInput(int participant) {
+        return inputs[participant];
+    }
+
+    /**
+     * Sets whether a participant's input holds audio for the next mix. Silent and absent
+     * participants are left out of the sum.
+     * @param participant a participant slot
+     * @param speaking false if the input is to be ignored
+     */
+    public void setSpeaking(int participant, boolean speaking) {
+        this.speaking[participant] = speaking;
+    }
+
+    /**
+     * @param participant a participant slot
+     * @return the participant's mix, after mix(): everyone's audio but theirs
+     */
+    public short[] getOutput(int participant) {
+        return outputs[participant];
+    }
+
+    /**
+     * @return how many participants can be mixed at once
+     */
+    public int getMaxParticipants() {
+        return maxParticipants;
+    }
+
+    /**
+     * Mixes the inputs of the first participants slots into their outputs. Returns once every
+     * output is done.
+     * @param participants how many slots are in use, from 0
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void mix(int participants) throws InterruptedException {
+        this.participants = Math.min(participants, maxParticipants);
+        if (workers.length == 0) {
+            sum(0);
+            subtract(0);
+            return;
+        }
+
+        try {
+            start.await();
+            sum(0);
+            summed.await();
+            subtract(0);
+            done.await();
+        } catch (BrokenBarrierException e) {
+            throw new InterruptedException("mixer closed");
+        }
+    }
+
+    /**
+     * Run by each worker thread: does its share of every mix, until interrupted.
+     * @param share the index of the worker's share
+     */
+    private void work(int share) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                start.await();
+                sum(share);
+                summed.await();
+                subtract(share);
+                done.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Adds up the inputs of the speaking participants, over one share of the samples.
+     * @param share which share, from 0 to the number of threads
+     */
+    private void sum(int share) {
+        int from = frameSize * share / (workers.length + 1);
+        int to = frameSize * (share + 1) / (workers.length + 1);
+        int count = participants;
+
+        for (int i = from; i < to; i++) sum[i] = 0;
+        for (int p = 0; p < count; p++) {
+            if (!speaking[p]) continue;
+            short[] input = inputs[p];
+            for (int i = from; i < to; i++) sum[i] += input[i];
+        }
+    }
+
+    /**
+     * Takes each participant's own audio out of the sum, for one share of the participants, and
+     * clips the result to 16 bits.
+     * @param share which share, from 0 to the number of threads
+     */
+    private void subtract(int share) {
+        int count = participants;
+        int from = count * share / (workers.length + 1);
+        int to = count * (share + 1) / (workers.length + 1);
+
+        for (int p = from; p < to; p++) {
+            short[] input = inputs[p];
+            short[] output = outputs[p];
+            boolean own = speaking[p];
+            for (int i = 0; i < frameSize; i++) {
+                int mixed = own ? sum[i] - input[i] : sum[i];
+                output[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. mix() cannot be called afterwards.
+     */
+    public void close() {
+        for (Thread worker : workers) worker.interrupt();
+        start.reset();  // breaks the barriers the workers wait on
+        summed.reset();
+        done.reset();
+    }
+}
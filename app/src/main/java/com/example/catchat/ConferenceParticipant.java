@@ -0,0 +1,145 @@
+package com.example.catchat;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One participant of a conference, on the ConferenceBridge: a normal call with the participant's
+ * device, whose speaker and microphone are the bridge's mixer.
+ * The call's PlayThread decodes the participant's audio and writes it here, as if to a speaker;
+ * the MixThread takes it for the mix, and puts back the participant's mix-minus, which the call's
+ * OutCommThread reads as if from a microphone. So each participant gets the jitter buffer, loss
+ * concealment, comfort noise, bitrate adaptation and error correction of a one-to-one call, and
+ * decoding and encoding run on each participant's own threads, in parallel.
+ *
+ * Writing blocks like a speaker would, once more than bufferMillis of audio is waiting, so the
+ * PlayThread is paced by the clock; reading blocks until the next mix is ready.
+ */
+public class ConferenceParticipant implements AudioSink, AudioSource, CallListener {
+    private static final int bufferMillis = 40;  // audio the "speaker" holds before writing blocks
+    private static final int queuePackets = 4;  // most packets waiting each way
+
+    private final ConferenceBridge bridge;
+    private final BetterSocket sock;
+    private final CallEngine engine;
+    private final int sampleRate;
+
+    private final FrameRing<short[]> heard;  // from the PlayThread to the MixThread
+    private final FrameRing<short[]> mixed;  // from the MixThread to the OutCommThread
+
+    private long due = 0;  // when the audio written so far will have been played, in System.nanoTime()
+    private volatile String endReason = null;
+
+    /**
+     * Creates a participant, and the call with the participant's device.
+     * @param bridge the bridge the participant joins
+     * @param format the call's format; its sample rate and packet duration are the bridge's
+     * @param sock the connection to the participant's device, after call setup
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connection
+     */
+    ConferenceParticipant(ConferenceBridge bridge, CallFormat format, BetterSocket sock, boolean mediaOverUdp) {
+        this.bridge = bridge;
+        this.sock = sock;
+        sampleRate = format.getSampleRate();
+
+        int frames = format.getPacketSizeInFrames();
+        heard = new FrameRing<>(new short[queuePackets][frames], CallEngine.dropOldest);
+        mixed = new FrameRing<>(new short[queuePackets][frames], CallEngine.dropOldest);
+        engine = new CallEngine(this, format, sock, mediaOverUdp, this, this);
+    }
+
+    /**
+     * @return the call with the participant's device
+     */
+    public CallEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the connection to the participant's device
+     */
+    public BetterSocket getSocket() {
+        return sock;
+    }
+
+    /**
+     * @return why the participant's call ended, or null if it has not
+     */
+    public String getEndReason() {
+        return endReason;
+    }
+
+    /**
+     * Takes the participant's next packet of audio for the mix. Called by the MixThread.
+     * @param samples the array to copy the audio to; zeros fill the rest of a short packet
+     * @return false if no audio arrived in time, and the participant is left out of this mix
+     */
+    boolean takeHeard(short[] samples) {
+        int count = heard.poll(samples);
+        if (count < 0) return false;
+        for (int i = count; i < samples.length; i++) samples[i] = 0;
+        return true;
+    }
+
+    /**
+     * Gives the participant its mix, to be sent. Called by the MixThread.
+     * @param samples the mix
+     */
+    void offerMix(short[] samples) {
+        mixed.offer(samples, samples.length);
+    }
+
+    // AudioSink, used by the PlayThread
+
+    @Override
+    public void start() {
+        // the clock starts with the first write or read
+    }
+
+    /**
+     * Queues the participant's audio for the mix, and blocks while more than bufferMillis of it is
+     * waiting to be played.
+     */
+    @Override
+    public void write(short[] samples, int count) {
+        heard.offer(samples, count);
+
+        long now = System.nanoTime();
+        if (now > due) due = now;  // ran dry; start again from now
+        due += count * 1_000_000_000L / sampleRate;
+
+        long wait;
+        while ((wait = due - bufferMillis * 1_000_000L - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) return;
+            LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    // AudioSource, used by the OutCommThread
+
+    /**
+     * Blocks until the MixThread makes the participant's next mix.
+     * @return how many samples were read; 0 if the thread was interrupted
+     */
+    @Override
+    public int read(short[] samples, int count) {
+        int length = mixed.take(samples);
+        return Math.max(0, length);
+    }
+
+    @Override
+    public void release() {
+        // nothing to free; the mixer's arrays belong to the bridge
+    }
+
+    // CallListener, used by the call's threads
+
+    /**
+     * Ends the participant's call, and takes the participant off the bridge.
+     */
+    @Override
+    public void endCall(String reason) {
+        if (endReason == null) endReason = reason;
+        engine.stop();
+        bridge.leave(this);
+    }
+}
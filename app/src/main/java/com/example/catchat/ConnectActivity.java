@@ -3,26 +3,48 @@ package com.example.catchat;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import java.io.IOException;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Call Activity
  * Started when app is opened.
  * Started by CallActivity when a call ends.
  * Starts CallActivity once a connection is successfully made.
- * Starts a ServerThread and a ClientThread, which handle the connection.
+ * Registers with the process-wide ServerThread (see Globals.listen()), and starts a ClientThread,
+ * which handle the connection.
+ * Starts a DiscoveryThread, which lists the other devices on the local network; tapping one calls it.
+ * Shows this device's IP address, found once per process, and again when the networks change.
+ * Changes to the list of incoming requests are applied in batches, at most every
+ * requestUpdateMillis, so a burst of requests redraws the list once.
  */
-public class ConnectActivity extends AppCompatActivity {
+public class ConnectActivity extends AppCompatActivity implements RequestListener, DiscoveryListener {
+    private static final int requestUpdateMillis = 100;
+    private static final AtomicBoolean watchingNetworks = new AtomicBoolean(false);  // once per process
 
     private ClientThread clientThread = null;
     private ServerThread serverThread = null;
+    private DiscoveryThread discoveryThread = null;
+    private WifiManager.MulticastLock multicastLock = null;  // Wi-Fi drops multicast without it
 
     private EditText ipInput = null;  // the text box for partner ip input
     private Button connectButton = null;
@@ -31,6 +53,17 @@ public class ConnectActivity extends AppCompatActivity {
     private TextView myIp= null;
 
     private ConnectRequestsWrapper requestWrapper = null;  // list of incoming connection requests
+    private AddressBook addressBook = null;  // where calls to each partner last connected
+    private SharedPreferences preferences = null;
+    private final List<Peer> peerList = new ArrayList<>();  // devices found by discovery; UI thread only
+    private ArrayAdapter<Peer> peerAdapter = null;
+
+    // changes to the list, from the server thread, waiting to be applied on the UI thread
+    private final ConcurrentLinkedQueue<ConnectRequest> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ConnectRequest> removed = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean updatePosted = new AtomicBoolean(false);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable applyUpdates = this::applyRequestUpdates;
 
     /**
      * Sets button onClicks and starts a server thread
@@ -49,6 +82,9 @@ public class ConnectActivity extends AppCompatActivity {
             updateStatus("Call ended: " + reason);
         }
 
+        preferences = getSharedPreferences(Globals.preferencesName, MODE_PRIVATE);
+        addressBook = AddressBook.decode(preferences.getString(Globals.addressBookKey, ""));
+
         ipInput = findViewById(R.id.outbound_ip_input);
         connectButton = findViewById(R.id.connect_button);
 
@@ -58,21 +94,89 @@ public class ConnectActivity extends AppCompatActivity {
         ListView listView = findViewById(R.id.connection_list);
         listView.setAdapter(requestWrapper.getAdapter());
 
-        // start a server thread to listen for connections
-        serverThread = new ServerThread(this);
-        serverThread.start();
+        // have the server thread, which listens for connections for the whole process, tell this
+        // activity about them
+        serverThread = Globals.listen(this);
 
         connectButton.setOnClickListener(v -> attemptConnection());
 
-        // start a thread to find the ip
+        // setup peer list, and start a thread to find the other devices on the network
+        peerAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, peerList);
+        ListView peerView = findViewById(R.id.peer_list);
+        peerView.setAdapter(peerAdapter);
+        peerView.setOnItemClickListener((parent, view, position, id) -> callPeer(peerList.get(position)));
+        startDiscovery();
+
         myIp = findViewById(R.id.ip_container);
-        new IpFinderThread(this).start();
+        watchNetworks();
+    }
+
+    /**
+     * Shows the IP address, and keeps it up to date while the activity is visible.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        Globals.localAddresses.setListener(this::showIp);
+        showIp();
+    }
+
+    /**
+     * Stops updating the IP address.
+     */
+    @Override
+    protected void onPause() {
+        Globals.localAddresses.setListener(null);
+        super.onPause();
+    }
+
+    /**
+     * Shows the IP address found before, if the networks did not change since; else starts a
+     * thread to find it.
+     */
+    private void showIp() {
+        List<InetAddress> local = Globals.localAddresses.peek();
+        if (local != null && !local.isEmpty()) {
+            setIp(local.get(0).getHostAddress());
+        } else {
+            new IpFinderThread(this).start();
+        }
+    }
+
+    /**
+     * Makes the IP address be found again whenever the device's networks change, for the rest of the
+     * process. Only the first call registers the callback; it holds no activity.
+     */
+    private void watchNetworks() {
+        if (!watchingNetworks.compareAndSet(false, true)) return;
+
+        ConnectivityManager connectivity =
+                (ConnectivityManager) getApplicationContext().getSystemService(CONNECTIVITY_SERVICE);
+        if (connectivity == null) return;
+        // also called once when registered, which finds the addresses a first time
+        connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                Globals.localAddresses.invalidate();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                Globals.localAddresses.invalidate();
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                Globals.localAddresses.invalidate();
+            }
+        });
     }
 
     /**
      * Shows a status message to the user, in the status box at the top of the screen.
      * @param message message to display
      */
+    @Override
     public void updateStatus(String message) {
         // only the UI thread can modify its views (change the text in the status box)
         // https://stackoverflow.com/questions/16466521/modify-view-from-a-different-thread
@@ -81,7 +185,7 @@ public class ConnectActivity extends AppCompatActivity {
 
     /**
      * Displays this device's IP address on the screen.
-     * Called by IpFinderThread once it finds the IP
+     * Called by IpFinderThread once it finds the IP, or on the UI thread when it was known
      * @param ip a String representation of the device IP address
      */
     public void setIp(String ip) {
@@ -92,31 +196,90 @@ public class ConnectActivity extends AppCompatActivity {
      * Starts a ClientThread; turns the connect button into a cancel button
      */
     private void attemptConnection() {
+        attemptConnection(null);
+    }
+
+    /**
+     * Starts a ClientThread; turns the connect button into a cancel button
+     * @param discovered where discovery found the partner, tried first; or null
+     */
+    private void attemptConnection(InetSocketAddress discovered) {
+        if (clientThread != null && clientThread.isAlive()) return;  // already connecting
         if (!ipInput.getText().toString().equals("")) {
             connectButton.setText(R.string.cancel_button);
             connectButton.setOnClickListener(v -> connectionFailed("Cancelled."));
             updateStatus("Connecting...");
 
-            clientThread = new ClientThread(this, ipInput.getText().toString());
+            clientThread = new ClientThread(this, ipInput.getText().toString(), addressBook, discovered);
             clientThread.start();
         }  // if ip input is empty, do nothing
     }
 
+    /**
+     * Calls a device found by discovery.
+     * Called when a peer in the list is tapped.
+     * @param peer the device
+     */
+    private void callPeer(Peer peer) {
+        ipInput.setText(peer.getAddress().getAddress().getHostAddress());
+        attemptConnection(peer.getAddress());
+    }
+
+    /**
+     * Starts announcing this device on the local network, and listening for the others.
+     */
+    private void startDiscovery() {
+        WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(WIFI_SERVICE);
+        if (wifi != null) {
+            multicastLock = wifi.createMulticastLock("catchat-discovery");
+            multicastLock.setReferenceCounted(false);
+            multicastLock.acquire();
+        }
+
+        discoveryThread = new DiscoveryThread(this, Build.MODEL, Globals.port,
+                DiscoveryThread.defaultAnnounceIntervalMillis);
+        discoveryThread.start();
+    }
+
+    /**
+     * Stops discovery, which says goodbye to the other devices, and lets Wi-Fi drop multicast again.
+     * Can be called more than once.
+     */
+    private void stopDiscovery() {
+        if (discoveryThread != null) discoveryThread.interrupt();
+        discoveryThread = null;
+        if (multicastLock != null && multicastLock.isHeld()) multicastLock.release();
+    }
+
+    /**
+     * Shows the devices discovery found.
+     * Called by the discovery thread.
+     * @param peers the devices, sorted by name
+     */
+    @Override
+    public void peersChanged(List<Peer> peers) {
+        runOnUiThread(() -> {
+            peerList.clear();
+            peerList.addAll(peers);
+            peerAdapter.notifyDataSetChanged();
+        });
+    }
+
+    /**
+     * Saves the address book, after a call connected.
+     * Called by the ClientThread.
+     */
+    public void saveAddressBook() {
+        preferences.edit().putString(Globals.addressBookKey, addressBook.encode()).apply();
+    }
+
     /**
      * The connection failed or was cancelled.
      * Stops the ClientThread and turns the cancel button back into a connect button.
      * @param reason a String describing the reason for failure; will be printed to the status box
      */
     public void connectionFailed(String reason) {
-        if (clientThread != null && !clientThread.isInterrupted()) clientThread.interrupt();
-        if (Globals.sock != null) {
-            try {
-                Globals.sock.destroy();
-            } catch (IOException e) {
-                // could not destroy socket; do nothing
-            }
-            Globals.sock = null;
-        }
+        if (clientThread != null) clientThread.cancel();
 
         // https://stackoverflow.com/questions/16466521/modify-view-from-a-different-thread
         runOnUiThread(() -> {
@@ -127,66 +290,97 @@ public class ConnectActivity extends AppCompatActivity {
     }
 
     /**
-     * Adds an incoming connection request to the ListView.
-     * Also starts the thread that checks whether the socket has been closed.
-     * Called by server thread when a socket is created.
-     * Always runs on main UI thread.
-     * @param sock the socket connection to the requester
+     * Adds an incoming connection request to the ListView, with the next batch of changes.
+     * Called by server thread when a requester said hello; the server thread keeps watching it for
+     * closure.
+     * @param request the connection request
      */
-    public void addIncoming(Socket sock) {
-        // https://stackoverflow.com/questions/16466521/modify-view-from-a-different-thread
-        runOnUiThread(() -> {
-            try {
-                CheckConnectionAliveThread thread = new CheckConnectionAliveThread(this);
-                requestWrapper.addRequest(sock).setThread(thread);
+    @Override
+    public void addIncoming(ConnectRequest request) {
+        added.add(request);
+        postRequestUpdate();
+    }
 
-            } catch (IOException e) {
-                // could not add request. do nothing
-            }
-        });
+    /**
+     * Accepts an incoming connection request. The server thread finishes the handshake and calls
+     * startCall().
+     * Called by the ConnectRequestsAdapter when the accept button is clicked.
+     * @param request the request to accept
+     */
+    public void acceptIncoming(ConnectRequest request) {
+        updateStatus("Connecting...");
+        serverThread.accept(request);
     }
 
     /**
-     * Remove a cancelled incoming connection request from the ListView.
-     * Called by CheckConnectionsAliveThread.
-     * Always runs on main UI thread.
+     * Remove a cancelled incoming connection request from the ListView, with the next batch of
+     * changes.
+     * Called by the server thread.
      * @param request the request to remove
      */
+    @Override
     public void removeIncoming(ConnectRequest request) {
-        runOnUiThread(() -> requestWrapper.removeRequest(request));
+        removed.add(request);
+        postRequestUpdate();
     }
 
     /**
-     * Starts the call activity after a connection is established.
-     * Globals.sock must be set to a valid socket at the time of calling.
+     * Schedules the changes to the list to be applied on the UI thread, unless they already are.
      */
-    public void startCall() {
-        serverThread.interrupt();
+    private void postRequestUpdate() {
+        // https://stackoverflow.com/questions/16466521/modify-view-from-a-different-thread
+        if (updatePosted.compareAndSet(false, true)) handler.postDelayed(applyUpdates, requestUpdateMillis);
+    }
 
-        // let the other user know their call was accepted
-        // if this is the server device, let the other device know i clicked accept
-        // if this is the client device, unblock and end the other device's checkConnectionAliveThread
-        // networking is not allowed on the main thread, must run on another thread
-        new Thread() {
-            @Override
-            public void run() {
-                try {
-                    Globals.sock.writeInt(Globals.acceptCall);
-                } catch (IOException e) {
-                    connectionFailed("Could not connect.");
-                }
-            }
-        }.start();
+    /**
+     * Applies the changes to the list made since the last batch, and redraws it once.
+     * Always runs on main UI thread.
+     */
+    private void applyRequestUpdates() {
+        updatePosted.set(false);  // changes queued from now on post another batch
+        requestWrapper.update(added, removed);
+    }
+
+    /**
+     * Starts the call on a request that finished call setup.
+     * Called by the server thread.
+     * @param request the request
+     */
+    @Override
+    public void requestConfirmed(ConnectRequest request) {
+        startCall(Globals.sessions.open(request.getSocket(), request.getFormat(), Globals.mediaOverUdp));
+    }
 
+    /**
+     * Starts the call activity after a connection is established and both sides have exchanged
+     * the accept message.
+     * @param session the call's session, in Globals.sessions
+     */
+    public void startCall(CallSession session) {
         runOnUiThread(() -> {
-            // remove all incoming connection requests
-            requestWrapper.removeAll();
+            stopDiscovery();
+
+            // remove all incoming connection requests, including the ones not shown yet; the
+            // server thread declines them as busy
+            handler.removeCallbacks(applyUpdates);
+            applyRequestUpdates();
+            requestWrapper.clear();
 
             // start the call activity
             Intent intent = new Intent(this, CallActivity.class);
+            intent.putExtra(Globals.intentSession, session.getId());
             startActivity(intent);
         });
+    }
 
-
+    /**
+     * Stops discovery when the activity goes away, so the other devices stop listing this one, and
+     * stops being told about connection requests.
+     */
+    @Override
+    protected void onDestroy() {
+        stopDiscovery();
+        Globals.stopListening(this);
+        super.onDestroy();
     }
-}
\ No newline at end of file
+}
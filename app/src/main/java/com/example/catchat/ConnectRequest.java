@@ -1,22 +1,39 @@
 package com.example.catchat;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 /**
  * Holds data about a single incoming connection request.
  * Used by the ConnectRequestAdapter, which stores an ArrayList of ConnectRequests.
+ *
+ * While the request is pending, its channel is watched by the ServerThread's selector, which uses
+ * the buffers below to exchange call setup messages without blocking (see Capabilities).
  */
 public class ConnectRequest {
+    private static final int maxFrameLength = PacketHeader.SIZE + Capabilities.maxSize;
+
     private BetterSocket sock = null;  // the socket to the requester
-    private CheckConnectionAliveThread thread = null;
+
+    private final ByteBuffer incoming = ByteBuffer.allocate(4 + maxFrameLength);  // the frame being read
+    private final ByteBuffer frame = ByteBuffer.allocate(maxFrameLength);  // the last complete frame
+    private final ByteBuffer outgoing = ByteBuffer.allocate(4 + maxFrameLength);  // not yet written
+    private final PacketHeader header = new PacketHeader();
+
+    private CallFormat format = null;  // picked for the call, once the requester said hello
+    private boolean accepted = false;  // whether the accept message was sent to the requester
+    private boolean declined = false;  // whether the decline message was sent to the requester
+    private long deadline = 0;  // when the request times out, in System.nanoTime()
 
     /**
      * Creates a new ConnectRequest instance.
-     * @param sock the socket for this connection request
+     * @param channel the socket channel for this connection request
      */
-    public ConnectRequest(Socket sock) throws IOException {
-        this.sock = new BetterSocket(sock);
+    public ConnectRequest(SocketChannel channel) {
+        this.sock = new BetterSocket(channel);
+        outgoing.flip();  // nothing to write yet
     }
 
     /**
@@ -34,29 +51,133 @@ public class ConnectRequest {
     }
 
     /**
-     * Sets and starts the thread checking for socket closure
-     * @param thread an unstarted CheckConnectionAliveThread
+     * Reads from the channel without blocking, until a whole frame has arrived.
+     * Only the frame's length, then the frame itself, are read: what the requester sends after the
+     * handshake (the call's first messages) stays in the channel for the call's BetterSocket.
+     * @return the frame, from its header to its end, or null if it has not fully arrived yet
+     * @throws IOException if reading failed, the requester closed the connection, or the frame is
+     *         longer than any call setup message
+     */
+    public ByteBuffer readFrame() throws IOException {
+        if (incoming.position() < 4) {
+            incoming.limit(4);
+            if (sock.getChannel().read(incoming) == -1) throw new IOException("connection closed");
+            if (incoming.position() < 4) return null;
+        }
+
+        int length = incoming.getInt(0);
+        if (length < 0 || length > maxFrameLength) throw new ProtocolException("frame too long: " + length);
+        incoming.limit(4 + length);
+        if (sock.getChannel().read(incoming) == -1) throw new IOException("connection closed");
+        if (incoming.hasRemaining()) return null;
+
+        // move the frame out, and start on the next one
+        frame.clear();
+        frame.put(incoming.array(), 4, length);
+        frame.flip();
+        incoming.clear();
+        return frame;
+    }
+
+    /**
+     * @return the buffer holding the frames not yet written to the requester
      */
-    public void setThread(CheckConnectionAliveThread thread) {
-        this.thread = thread;
-        thread.setRequest(this);
-        thread.start();
+    public ByteBuffer getOutgoing() {
+        return outgoing;
     }
 
     /**
-     * Stops this request's CheckConnectionAliveThread.
-     * Called when this connection is accepted, or another connection is accepted.
+     * @return the format picked for the call, or null if the requester did not say hello yet
      */
-    public void interruptThread() {
-        if (thread != null) thread.interrupt();
+    public CallFormat getFormat() {
+        return format;
     }
 
     /**
-     * Closes this ConnectionRequest and interrupts its CheckConnectionAliveThread
+     * Records the format picked for the call, from the requester's hello.
+     * Only called by the ServerThread.
+     * @param format the format
      */
-    public void close() {
-        interruptThread();
+    public void setFormat(CallFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * @return when the request times out, in System.nanoTime()
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets when the request times out, if it gets no further. Only called by the ServerThread.
+     * @param deadline the time, in System.nanoTime()
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if this request was accepted and the requester was told so
+     */
+    public boolean isAccepted() {
+        return accepted;
+    }
 
+    /**
+     * @return true if this request was declined, and should be closed once the requester is told
+     */
+    public boolean isDeclined() {
+        return declined;
+    }
+
+    /**
+     * Marks this request as accepted and queues the accept message, holding the call's format, for
+     * the requester.
+     * Only called by the ServerThread, once setFormat() was called.
+     */
+    public void setAccepted() {
+        accepted = true;
+        startFrame(PacketHeader.TYPE_ACCEPT);
+        format.write(outgoing);
+        finishFrame();
+    }
+
+    /**
+     * Marks this request as declined and queues the decline message for the requester.
+     * Only called by the ServerThread.
+     * @param reason one of the PacketHeader.DECLINE_ constants
+     */
+    public void setDeclined(byte reason) {
+        declined = true;
+        startFrame(PacketHeader.TYPE_DECLINE);
+        outgoing.put(reason);
+        finishFrame();
+    }
+
+    /**
+     * Starts a frame in the outgoing buffer, with room for its length, and writes its header.
+     * @param type the frame's type
+     */
+    private void startFrame(byte type) {
+        outgoing.clear();
+        outgoing.putInt(0);  // the length, set by finishFrame()
+        header.set(type, (byte) 0, 0, PacketHeader.now());
+        header.write(outgoing);
+    }
+
+    /**
+     * Finishes the frame started by startFrame(), for the ServerThread to write.
+     */
+    private void finishFrame() {
+        outgoing.flip();
+        outgoing.putInt(0, outgoing.remaining() - 4);
+    }
+
+    /**
+     * Closes this ConnectionRequest. Closing the channel also removes it from the selector.
+     */
+    public void close() {
         try {
             sock.destroy();
         } catch (IOException e) {
@@ -11,7 +11,6 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -57,15 +56,13 @@ public class ConnectRequestsAdapter extends ArrayAdapter<ConnectRequest> impleme
     }
 
     /**
-     * Accepts a connection request. Sets Global.sock to this request's socket and lets the
-     * requester know their request was accepted, then starts the call.
+     * Accepts a connection request. Lets the requester know their request was accepted; the call
+     * starts once they confirm.
      * Called when the accept button is clicked
      * @param request the connection request to be accepted
      */
     private void accept(ConnectRequest request) {
-        Globals.sock = request.getSocket();
-
-        activity.startCall();
+        activity.acceptIncoming(request);
     }
 
     /**
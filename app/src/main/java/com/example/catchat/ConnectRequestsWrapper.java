@@ -2,9 +2,8 @@ package com.example.catchat;
 
 import android.content.Context;
 
-import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Queue;
 
 /**
  * A wrapper around the ConnectRequestAdapter and its related data
@@ -39,15 +38,11 @@ public class ConnectRequestsWrapper {
 
     /**
      * Adds a new request to the list.
-     * @param sock the request socket
-     * @return the created ConnectRequest
+     * @param request the request created by the ServerThread
      */
-    public ConnectRequest addRequest(Socket sock) throws IOException {
-        ConnectRequest request = new ConnectRequest(sock);
+    public void addRequest(ConnectRequest request) {
         requests.add(request);
         adapter.notifyDataSetChanged();
-
-        return request;
     }
 
     /**
@@ -62,16 +57,26 @@ public class ConnectRequestsWrapper {
     }
 
     /**
-     * Closes all connection requests and removes them from the ListView.
-     * Does not close Globals.sock.
+     * Adds and removes a batch of requests, and redraws the list once.
+     * Requests removed in the same batch they were added in are never shown.
+     * @param added the requests to add; emptied
+     * @param removed the requests to close and remove; emptied
      */
-    public void removeAll() {
-        // close all sockets except the global one
-        for (ConnectRequest request: requests) {
-            if (request.getSocket() != Globals.sock ) request.close();
+    public void update(Queue<ConnectRequest> added, Queue<ConnectRequest> removed) {
+        ConnectRequest request;
+        while ((request = added.poll()) != null) requests.add(request);
+        while ((request = removed.poll()) != null) {
+            request.close();
+            requests.remove(request);
         }
+        adapter.notifyDataSetChanged();
+    }
 
-        // clear array
+    /**
+     * Removes all connection requests from the ListView, without closing them: once a call
+     * started, the ServerThread declines them as busy.
+     */
+    public void clear() {
         requests.clear();
         adapter.notifyDataSetChanged();
     }
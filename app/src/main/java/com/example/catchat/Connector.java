@@ -0,0 +1,236 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connects to a peer that may be reachable at several addresses, by racing them, like Happy
+ * Eyeballs (RFC 8305): the first address is tried, and if it has not connected after staggerMillis
+ * the next one is tried too, without giving up on the first, and so on. The first connection made
+ * wins; the others are closed. Each attempt gives up after attemptTimeoutMillis, so a wrong or stale
+ * address costs at most the stagger instead of the system's connect timeout (which can be minutes).
+ *
+ * Candidates are tried in the order given, except that IPv6 and IPv4 addresses are interleaved after
+ * the first, so a broken address family does not delay the other. Callers put the addresses most
+ * likely to work first, like the last one that worked (see AddressBook).
+ *
+ * All attempts run on the calling thread, on a single Selector. An instance makes one connection.
+ */
+public class Connector {
+    public static final int defaultStaggerMillis = 250;  // as recommended by RFC 8305
+    public static final int defaultAttemptTimeoutMillis = 3000;
+
+    private final int staggerMillis;
+    private final int attemptTimeoutMillis;
+
+    private volatile Selector selector = null;
+    private volatile boolean cancelled = false;
+
+    // results, set once connect() returns a connection
+    private volatile InetSocketAddress connectedAddress = null;
+    private volatile long setupNanos = 0;
+    private volatile int attempts = 0;
+
+    /**
+     * Creates a connector.
+     * @param staggerMillis how long an attempt runs alone before the next one starts
+     * @param attemptTimeoutMillis how long an attempt runs before it is given up
+     */
+    public Connector(int staggerMillis, int attemptTimeoutMillis) {
+        this.staggerMillis = staggerMillis;
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+    }
+
+    /**
+     * Connects to the first candidate that answers. Blocks until a connection is made, every
+     * candidate failed or cancel() is called, so it must not be called on the main thread.
+     * @param candidates the addresses to try, the likeliest first; duplicates are tried once
+     * @return the connection, in blocking mode
+     * @throws IOException if no candidate could be connected to; a SocketTimeoutException if the
+     *         last ones timed out, an InterruptedIOException if cancelled
+     */
+    public SocketChannel connect(List<InetSocketAddress> candidates) throws IOException {
+        List<InetSocketAddress> order = interleave(candidates);
+        if (order.isEmpty()) throw new IOException("no address to connect to");
+
+        long start = System.nanoTime();
+        long stagger = staggerMillis * 1_000_000L;
+        long timeout = attemptTimeoutMillis * 1_000_000L;
+        List<SocketChannel> running = new ArrayList<>();
+        List<Long> deadlines = new ArrayList<>();
+        IOException failure = null;
+        int next = 0;
+        long nextStart = start;
+
+        try (Selector selector = Selector.open()) {
+            this.selector = selector;
+            while (true) {
+                if (cancelled) throw new InterruptedIOException("cancelled");
+                long now = System.nanoTime();
+
+                // start the next attempt if it is time, or if nothing else is running
+                if (next < order.size() && (now - nextStart >= 0 || running.isEmpty())) {
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        attempts++;
+                        if (channel.connect(order.get(next))) {  // connected at once, on loopback
+                            return won(channel, order.get(next), start);
+                        }
+                        channel.register(selector, SelectionKey.OP_CONNECT, order.get(next));
+                        running.add(channel);
+                        deadlines.add(now + timeout);
+                    } catch (IOException e) {
+                        failure = e;  // unreachable address family, for example; try the next
+                        close(channel);
+                    }
+                    next++;
+                    nextStart = now + stagger;
+                    continue;
+                }
+                if (running.isEmpty()) {
+                    throw failure != null ? failure : new IOException("could not connect");
+                }
+
+                // wait for an attempt to finish, the next one to start or one to time out
+                long wake = Long.MAX_VALUE;
+                for (long deadline : deadlines) wake = Math.min(wake, deadline - now);
+                if (next < order.size()) wake = Math.min(wake, nextStart - now);
+                selector.select(Math.max(1, wake / 1_000_000L + 1));
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            running.remove(channel);
+                            return won(channel, (InetSocketAddress) key.attachment(), start);
+                        }
+                    } catch (IOException e) {  // refused or unreachable
+                        failure = e;
+                        int index = running.indexOf(channel);
+                        running.remove(index);
+                        deadlines.remove(index);
+                        close(channel);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                now = System.nanoTime();
+                for (int i = running.size() - 1; i >= 0; i--) {
+                    if (now - deadlines.get(i) < 0) continue;
+                    failure = new SocketTimeoutException("connecting timed out");
+                    close(running.remove(i));
+                    deadlines.remove(i);
+                }
+            }
+        } finally {
+            this.selector = null;
+            for (SocketChannel channel : running) close(channel);  // the losers
+        }
+    }
+
+    /**
+     * Keeps the winning connection and records how it was made.
+     * @param channel the connection
+     * @param address the address it was made to
+     * @param start when connect() was called, in System.nanoTime()
+     * @return the connection, in blocking mode
+     * @throws IOException if the connection could not be switched to blocking mode
+     */
+    private SocketChannel won(SocketChannel channel, InetSocketAddress address, long start) throws IOException {
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null) {
+            key.cancel();
+            selector.selectNow();  // deregisters the channel, so it can block again
+        }
+        try {
+            channel.configureBlocking(true);
+        } catch (IOException e) {
+            close(channel);
+            throw e;
+        }
+        connectedAddress = address;
+        setupNanos = System.nanoTime() - start;
+        return channel;
+    }
+
+    /**
+     * Orders the candidates for racing: the first one first, then alternating between IPv6 and
+     * IPv4, each family in the order given. Unresolved addresses and duplicates are left out.
+     * @param candidates the candidates, the likeliest first
+     * @return the order to try them in
+     */
+    static List<InetSocketAddress> interleave(List<InetSocketAddress> candidates) {
+        List<InetSocketAddress> first = new ArrayList<>();
+        List<InetSocketAddress> v6 = new ArrayList<>();
+        List<InetSocketAddress> v4 = new ArrayList<>();
+        for (InetSocketAddress candidate : candidates) {
+            if (candidate.isUnresolved() || first.contains(candidate)
+                    || v6.contains(candidate) || v4.contains(candidate)) continue;
+            if (first.isEmpty()) first.add(candidate);
+            else if (candidate.getAddress() instanceof Inet6Address) v6.add(candidate);
+            else v4.add(candidate);
+        }
+
+        // after the first, start with the other family
+        boolean sixNext = !(first.isEmpty() || first.get(0).getAddress() instanceof Inet6Address);
+        List<InetSocketAddress> order = new ArrayList<>(first);
+        int i6 = 0, i4 = 0;
+        while (i6 < v6.size() || i4 < v4.size()) {
+            if ((sixNext && i6 < v6.size()) || i4 == v4.size()) order.add(v6.get(i6++));
+            else order.add(v4.get(i4++));
+            sixNext = !sixNext;
+        }
+        return order;
+    }
+
+    /**
+     * Closes a connection attempt.
+     * @param channel the attempt's channel
+     */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Stops connecting; connect() throws an InterruptedIOException. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    /**
+     * @return the address the connection was made to, or null if none was made
+     */
+    public InetSocketAddress getConnectedAddress() {
+        return connectedAddress;
+    }
+
+    /**
+     * @return how long connect() took to make the connection, in nanoseconds; 0 if none was made
+     */
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    /**
+     * @return how many addresses connect() tried
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads control packets from the call's TCP connection, when audio is sent over UDP.
+ * The TCP connection closing is how a device finds out the other one hung up.
+ */
+public class ControlThread extends Thread {
+    private CallListener listener = null;  // communicating for
+    private PacketTransport control = null;
+
+    private final ByteBuffer packet;
+
+    /**
+     * Instantiates a control thread.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param control the TCP transport
+     */
+    public ControlThread(CallListener listener, CallFormat format, PacketTransport control) {
+        this.listener = listener;
+        this.control = control;
+
+        packet = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+    }
+
+    /**
+     * Until this thread is interrupted or the connection ends, reads control packets.
+     */
+    @Override
+    public void run() {
+        while (!this.isInterrupted()) {
+            try {
+                control.receive(packet);
+            } catch (IOException e) {
+                if (!this.isInterrupted()) listener.endCall("disconnected");
+                return;
+            }
+            // no control messages are defined yet; ignore the packet
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.catchat;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts samples to unsigned 8-bit PCM and compresses them with Deflater.
+ * Lossless on the 8 bits that are kept, but general-purpose compression gets a poor ratio on audio
+ * and costs the most CPU of the codecs.
+ */
+public class DeflateCodec implements AudioCodec {
+    private final byte[] pcm;  // 8-bit samples
+    private Deflater compresser = null;  // created on first use, reset for every packet
+    private Inflater decompresser = null;
+
+    /**
+     * Creates a deflate codec.
+     * @param maxSamples the most samples a packet will hold
+     */
+    public DeflateCodec(int maxSamples) {
+        pcm = new byte[maxSamples];
+    }
+
+    @Override
+    public byte getId() {
+        return PacketHeader.CODEC_DEFLATE;
+    }
+
+    @Override
+    public int encode(short[] samples, int count, byte[] output, int offset) throws IllegalStateException {
+        SampleFormat.toUnsigned8(samples, pcm, count);  // keeps the top 8 bits
+
+        if (compresser == null) compresser = new Deflater(Deflater.DEFLATED, false);
+        compresser.reset();
+        compresser.setInput(pcm, 0, count);
+        compresser.finish();
+
+        // compresser may not compress everything at once; keep going until it is finished
+        int length = 0;
+        while (!compresser.finished()) {
+            int space = output.length - offset - length;
+            if (space == 0) throw new IllegalStateException("compressed packet too long");
+            length += compresser.deflate(output, offset + length, space);
+        }
+
+        return length;
+    }
+
+    @Override
+    public int decode(byte[] input, int offset, int length, short[] samples) throws DataFormatException {
+        if (decompresser == null) decompresser = new Inflater();
+        decompresser.reset();
+        decompresser.setInput(input, offset, length);
+
+        // decompresser may not uncompress everything at once; keep going until it is finished
+        int count = 0;
+        int maxCount = Math.min(pcm.length, samples.length);
+        while (!decompresser.finished()) {
+            if (count == maxCount) throw new DataFormatException("packet too long");
+            int inflated = decompresser.inflate(pcm, count, maxCount - count);
+            if (inflated == 0 && !decompresser.finished()) {
+                // no progress: the packet is truncated, or its header asks for a preset dictionary,
+                // which the encoder never sets; inflating again would return 0 forever
+                throw new DataFormatException(decompresser.needsDictionary()
+                        ? "packet needs a dictionary" : "packet truncated");
+            }
+            count += inflated;
+        }
+
+        SampleFormat.fromUnsigned8(pcm, samples, count);
+        return count;
+    }
+
+    @Override
+    public void release() {
+        if (compresser != null) compresser.end();
+        if (decompresser != null) decompresser.end();
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.catchat;
+
+import java.util.List;
+
+/**
+ * Told by the DiscoveryThread when the peers on the local network change.
+ * Called on the DiscoveryThread; implementations that update a UI must move to the UI thread.
+ */
+public interface DiscoveryListener {
+    /**
+     * A peer appeared, changed, left or expired.
+     * @param peers the peers known now, sorted by name
+     */
+    void peersChanged(List<Peer> peers);
+}
@@ -0,0 +1,230 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds other devices running the app on the local network, and lets them find this one.
+ * Every announceIntervalMillis, sends an announcement to a UDP multicast group: a packet with a
+ * PacketHeader of type TYPE_ANNOUNCE, and a payload of
+ *      magic (4 bytes), id (8 bytes), call port (2 bytes), name length (1 byte), name (UTF-8)
+ * and listens to the announcements of the others, which it keeps in a PeerDirectory. Peers that stop
+ * announcing expire after three intervals; a device that stops discovery announces port 0, so the
+ * others forget it at once.
+ *
+ * The id is picked at random when the thread is created, so the thread recognizes its own
+ * announcements, and so several instances can run on the same host, on different call ports.
+ * Multicast is looped back to the sending host, so they find each other there too.
+ * On Android, receiving multicast over Wi-Fi needs a WifiManager.MulticastLock.
+ */
+public class DiscoveryThread extends Thread {
+    public static final String defaultGroup = "239.255.42.99";  // administratively scoped
+    public static final int defaultPort = 25566;  // next to Globals.port
+    public static final int defaultAnnounceIntervalMillis = 2000;
+    public static final int magic = 0x43617443;  // "CatC", first in every announcement
+    private static final int maxNameBytes = 64;
+    private static final int maxPacketSize = PacketHeader.SIZE + 4 + 8 + 2 + 1 + maxNameBytes;
+
+    private final DiscoveryListener listener;
+    private final long id = new Random().nextLong();
+    private final byte[] name;  // in UTF-8, cut to maxNameBytes
+    private final int callPort;
+    private final int announceIntervalMillis;
+    private final PeerDirectory directory;
+
+    private InetSocketAddress group;
+    private NetworkInterface networkInterface = null;  // null for the system's default
+    private volatile MulticastSocket socket = null;
+
+    private final byte[] buffer = new byte[maxPacketSize];
+    private final ByteBuffer message = ByteBuffer.wrap(buffer);
+    private final PacketHeader header = new PacketHeader();
+    private int sequence = 0;  // of the announcements sent
+
+    /**
+     * Creates a discovery thread, announcing on the default group and port.
+     * @param listener told when the peers change
+     * @param name this device's name, shown to the others
+     * @param callPort the port this device takes calls on
+     * @param announceIntervalMillis how often this device announces itself; peers expire after
+     *        three intervals
+     */
+    public DiscoveryThread(DiscoveryListener listener, String name, int callPort, int announceIntervalMillis) {
+        super("discovery");
+        this.listener = listener;
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        this.name = bytes.length <= maxNameBytes ? bytes : Arrays.copyOf(bytes, maxNameBytes);
+        this.callPort = callPort;
+        this.announceIntervalMillis = announceIntervalMillis;
+        directory = new PeerDirectory(announceIntervalMillis * 3);
+        try {
+            group = new InetSocketAddress(InetAddress.getByName(defaultGroup), defaultPort);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);  // a literal; never happens
+        }
+    }
+
+    /**
+     * Sets the multicast group and port to announce on, before the thread starts. Only devices
+     * using the same group and port find each other.
+     * @param group the group and port
+     */
+    public void setGroup(InetSocketAddress group) {
+        this.group = group;
+    }
+
+    /**
+     * Sets the network interface to announce on, before the thread starts.
+     * @param networkInterface the interface, or null for the system's default
+     */
+    public void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    /**
+     * @return the peers heard from recently
+     */
+    public PeerDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return this device's id in the announcements
+     */
+    public long getPeerId() {
+        return id;
+    }
+
+    /**
+     * Announces this device and listens to the others, until interrupted.
+     * While the network is down (Wi-Fi off, or no route to the group), announcing or joining the
+     * group fails; both are tried again every interval, so discovery resumes when it comes back.
+     */
+    @Override
+    public void run() {
+        long interval = announceIntervalMillis * 1_000_000L;
+        while (!this.isInterrupted()) {
+            try (MulticastSocket socket = new MulticastSocket(group.getPort())) {
+                this.socket = socket;
+                if (networkInterface != null) socket.setNetworkInterface(networkInterface);
+                socket.joinGroup(group, networkInterface);
+
+                DatagramPacket received = new DatagramPacket(new byte[maxPacketSize], maxPacketSize);
+                long nextAnnounce = System.nanoTime();
+                while (!this.isInterrupted()) {
+                    long now = System.nanoTime();
+                    if (now - nextAnnounce >= 0) {
+                        if (directory.expire(now)) listener.peersChanged(directory.getPeers());
+                        try {
+                            announce(socket, callPort);
+                        } catch (IOException e) {
+                            // the network is down; announced again at the next interval
+                        }
+                        nextAnnounce = now + interval;
+                    }
+
+                    socket.setSoTimeout((int) Math.max(1, (nextAnnounce - now) / 1_000_000L));
+                    try {
+                        received.setLength(maxPacketSize);
+                        socket.receive(received);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    receive(received);
+                }
+            } catch (IOException e) {
+                // closed by interrupt(), or the group could not be joined; tried again below
+            } finally {
+                this.socket = null;
+            }
+
+            if (this.isInterrupted()) break;
+            if (directory.expire(System.nanoTime())) listener.peersChanged(directory.getPeers());
+            try {
+                Thread.sleep(announceIntervalMillis);
+            } catch (InterruptedException e) {
+                break;  // interrupt() was called while waiting
+            }
+        }
+
+        sayGoodbye();
+    }
+
+    /**
+     * Announces port 0, so the others forget this device at once instead of when it expires.
+     * Sent from a new socket, since the one receiving was closed to stop the thread.
+     */
+    private void sayGoodbye() {
+        try (MulticastSocket socket = new MulticastSocket()) {
+            if (networkInterface != null) socket.setNetworkInterface(networkInterface);
+            announce(socket, 0);
+        } catch (IOException e) {
+            // the others forget this device when it expires
+        }
+    }
+
+    /**
+     * Sends an announcement to the group.
+     * @param socket the multicast socket
+     * @param port the call port to announce; 0 to say goodbye
+     * @throws IOException if sending failed
+     */
+    private void announce(MulticastSocket socket, int port) throws IOException {
+        message.clear();
+        header.set(PacketHeader.TYPE_ANNOUNCE, (byte) 0, sequence++, PacketHeader.now());
+        header.write(message);
+        message.putInt(magic);
+        message.putLong(id);
+        message.putShort((short) port);
+        message.put((byte) name.length);
+        message.put(name);
+        socket.send(new DatagramPacket(buffer, message.position(), group));
+    }
+
+    /**
+     * Reads an announcement, and updates the directory. Packets that are not announcements, and
+     * this device's own, are ignored.
+     * @param packet the packet received
+     */
+    private void receive(DatagramPacket packet) {
+        ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        if (!header.read(data) || header.getType() != PacketHeader.TYPE_ANNOUNCE) return;
+        if (data.remaining() < 4 + 8 + 2 + 1 || data.getInt() != magic) return;
+
+        long peerId = data.getLong();
+        int port = data.getShort() & 0xffff;
+        int length = data.get() & 0xff;
+        if (peerId == id || length > data.remaining()) return;
+
+        boolean changed;
+        if (port == 0) {
+            changed = directory.remove(peerId);
+        } else {
+            String peerName = new String(packet.getData(), data.position(), length, StandardCharsets.UTF_8);
+            InetSocketAddress address = new InetSocketAddress(packet.getAddress(), port);
+            changed = directory.update(peerId, peerName, address, System.nanoTime());
+        }
+        if (changed) listener.peersChanged(directory.getPeers());
+    }
+
+    /**
+     * Stops discovery, and says goodbye to the others. The socket is closed to unblock receive().
+     */
+    @Override
+    public void interrupt() {
+        super.interrupt();
+
+        MulticastSocket socket = this.socket;
+        if (socket != null) socket.close();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.catchat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The encoding stage of the outbound pipeline.
+ * Takes recorded packets of samples from the OutCommThread, encodes them with the call's codec,
+ * writes their header, and passes them on to the SendThread.
+ *
+ * With discontinuous transmission, packets that only hold background noise are not sent (see
+ * VoiceDetector). A noise update holding the noise level is sent at the start of each silence and
+ * then every few hundred milliseconds, for the other device to play comfort noise. Noise updates
+ * take the next sequence number like audio packets, so the other device does not count the silence
+ * as lost packets.
+ *
+ * With a BitrateController, the codec and sample rate of each packet follow its current step.
+ *
+ * With an AudioChain, each packet is processed (noise gate, gain...) before anything else.
+ */
+public class EncodeThread extends Thread {
+    private static final int noiseUpdateMillis = 400;  // time between noise updates during silence
+
+    private FrameRing<short[]> captured = null;  // from the OutCommThread
+    private FrameRing<byte[]> encoded = null;  // to the SendThread
+    private CallStats stats = null;
+
+    private final AudioCodec[] encoders = new AudioCodec[AudioCodecs.count];  // created on first use
+    private final byte codec;  // of the call
+    private final BitrateController bitrate;  // null to always use the call's codec and rate
+    private final AudioChain chain;  // null to leave the packets as recorded
+    private int step = -1;  // of the bitrate controller, at the last packet
+    private final VoiceDetector detector;  // null to send every packet
+    private final int noiseUpdatePackets;  // packets between noise updates
+    private int silentPackets = 0;  // since the last speech packet
+    private final short[] samples;
+    private final byte[] packet;
+    private final ByteBuffer packetBuffer;  // wraps packet, to write the header
+    private final PacketHeader header = new PacketHeader();
+    private int sequence = 0;  // of the next packet
+
+    /**
+     * Instantiates an encoding thread.
+     * @param format the call's format
+     * @param captured the ring the OutCommThread adds recorded packets to
+     * @param encoded the ring the SendThread takes encoded packets from
+     * @param stats the call's statistics
+     * @param discontinuous true to not send packets that only hold background noise
+     * @param bitrate picks the codec and sample rate of each packet, or null to use the call's
+     * @param chain the processing run on each packet first, or null for none
+     */
+    public EncodeThread(CallFormat format, FrameRing<short[]> captured, FrameRing<byte[]> encoded, CallStats stats,
+                        boolean discontinuous, BitrateController bitrate, AudioChain chain) {
+        this.captured = captured;
+        this.encoded = encoded;
+        this.stats = stats;
+        this.bitrate = bitrate;
+        this.chain = chain;
+
+        codec = format.getCodec();
+        encoders[codec] = AudioCodecs.create(codec, format.getPacketSizeInFrames());
+        detector = discontinuous ? new VoiceDetector(format) : null;
+        noiseUpdatePackets = Math.max(1, noiseUpdateMillis / format.getPacketSizeInMillis());
+        samples = new short[format.getPacketSizeInFrames()];
+        packet = new byte[format.getMaxPacketSizeInBytes()];
+        packetBuffer = ByteBuffer.wrap(packet);
+    }
+
+    /**
+     * Until this thread is interrupted, encodes recorded packets.
+     * Releases the codecs when done.
+     */
+    @Override
+    public void run() {
+        while (!this.isInterrupted()) {
+            int count = captured.take(samples);  // blocks until a packet was recorded
+            if (count < 0) break;  // interrupted
+            if (chain != null) chain.process(samples, count);
+
+            if (isSpeech(count)) {
+                encodeNextPacket(count);
+            } else {
+                skipNextPacket();
+            }
+        }
+
+        for (AudioCodec encoder : encoders) {
+            if (encoder != null) encoder.release();
+        }
+    }
+
+    /**
+     * Encodes the samples into the packet array after the space for the header, writes the header,
+     * holding the packet's codec, sample rate, sequence number and the time it was sent, in front of
+     * it, and adds the packet to the encoded ring.
+     * @param count how many samples were recorded
+     */
+    private void encodeNextPacket(int count) {
+        byte codec = this.codec;
+        int shift = 0;
+        if (bitrate != null) {
+            int step = bitrate.getStep();
+            codec = bitrate.getCodec(step);
+            shift = bitrate.getRateShift(step);
+            if (step != this.step) {
+                this.step = step;
+                stats.bitrateChanged(codec, shift);
+            }
+        }
+        AudioCodec encoder = encoders[codec];
+        if (encoder == null) encoder = encoders[codec] = AudioCodecs.create(codec, samples.length);
+
+        long start = System.nanoTime();
+        int reduced = RateConverter.down(samples, count, shift);
+        int length = encoder.encode(samples, reduced, packet, PacketHeader.SIZE);
+        stats.encoded(count, length, System.nanoTime() - start);
+
+        header.set(PacketHeader.TYPE_AUDIO, codec, sequence++, PacketHeader.now());
+        header.setFlags((short) shift);
+        packetBuffer.clear();
+        header.write(packetBuffer);
+
+        encoded.offer(packet, PacketHeader.SIZE + length);
+    }
+
+    /**
+     * @param count how many samples were recorded
+     * @return true if the recorded packet must be sent
+     */
+    private boolean isSpeech(int count) {
+        if (detector == null) return true;
+
+        long start = System.nanoTime();
+        boolean speech = detector.isSpeech(samples, count);
+        stats.detected(System.nanoTime() - start);
+
+        if (speech) silentPackets = 0;
+        return speech;
+    }
+
+    /**
+     * Leaves out a silent packet. Sends a noise update in its place if it is the first packet of
+     * the silence, or the last update is old enough.
+     */
+    private void skipNextPacket() {
+        boolean update = silentPackets++ % noiseUpdatePackets == 0;
+        stats.silent(update);
+        if (!update) return;
+
+        header.set(PacketHeader.TYPE_NOISE, codec, sequence++, PacketHeader.now());
+        packetBuffer.clear();
+        header.write(packetBuffer);
+        packetBuffer.putShort((short) Math.min(detector.getNoiseLevel(), Short.MAX_VALUE));
+
+        encoded.offer(packet, packetBuffer.position());
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.catchat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rebuilds lost packets from the parity packets sent by the other device's FecEncoder.
+ * Keeps a copy of the last packets received, since they may already have left the jitter buffer
+ * when the parity of their group arrives. A parity packet is the XOR of every packet in its group,
+ * so if exactly one of them is missing, the XOR of the parity and the others is the missing packet.
+ *
+ * Nothing is copied until the first parity packet arrives, so calls without error correction do not
+ * pay for it. Used by the InCommThread only; does not allocate.
+ */
+public class FecDecoder {
+    private static final int capacity = 2 * FecEncoder.maxGroupSize;  // packets kept
+
+    // slots, indexed by sequence number modulo capacity
+    private final byte[][] packets;
+    private final int[] lengths;
+    private final int[] sequences;
+    private final boolean[] filled;
+
+    private boolean active = false;  // whether a parity packet was received yet
+    private int span = 0;  // sequence numbers covered by the last parity packet
+
+    /**
+     * Creates a decoder for the call's format.
+     * @param format the call's format
+     */
+    public FecDecoder(CallFormat format) {
+        packets = new byte[capacity][format.getMaxPacketSizeInBytes()];
+        lengths = new int[capacity];
+        sequences = new int[capacity];
+        filled = new boolean[capacity];
+    }
+
+    /**
+     * Keeps a copy of a received audio packet or noise update.
+     * @param packet the packet, from index 0 to the buffer's limit
+     */
+    public void received(ByteBuffer packet) {
+        if (!active || packet.limit() > packets[0].length) return;
+
+        int sequence = PacketHeader.sequenceOf(packet);
+        int slot = Math.floorMod(sequence, capacity);
+        System.arraycopy(packet.array(), 0, packets[slot], 0, packet.limit());
+        lengths[slot] = packet.limit();
+        sequences[slot] = sequence;
+        filled[slot] = true;
+    }
+
+    /**
+     * Rebuilds the packet of a parity packet's group that was lost, if only one was.
+     * @param header the parity packet's header
+     * @param parity the parity packet's payload, from the buffer's position
+     * @param rebuilt the buffer to write the rebuilt packet to, from index 0 to its limit
+     * @return false if no packet was lost, or too many were
+     */
+    public boolean recover(PacketHeader header, ByteBuffer parity, ByteBuffer rebuilt) {
+        active = true;
+        if (parity.remaining() < 2) return false;  // malformed
+
+        int first = header.getSequence();
+        int mask = header.getFlags() & 0xffff;
+        span = 32 - Integer.numberOfLeadingZeros(mask);
+
+        int missing = -1;
+        for (int i = 0; i < FecEncoder.maxGroupSize; i++) {
+            if ((mask & (1 << i)) == 0 || isKept(first + i)) continue;
+            if (missing != -1) return false;  // two lost; cannot tell them apart
+            missing = i;
+        }
+        if (missing == -1) return false;
+
+        // XOR the lengths, then the bytes, of the parity and every packet received
+        int length = parity.getShort() & 0xffff;
+        int dataLength = parity.remaining();
+        for (int i = 0; i < FecEncoder.maxGroupSize; i++) {
+            if ((mask & (1 << i)) != 0 && i != missing) length ^= lengths[slot(first + i)];
+        }
+        byte[] packet = rebuilt.array();
+        if (length < PacketHeader.SIZE || length > dataLength || length > packet.length) return false;
+
+        System.arraycopy(parity.array(), parity.arrayOffset() + parity.position(), packet, 0, length);
+        for (int i = 0; i < FecEncoder.maxGroupSize; i++) {
+            if ((mask & (1 << i)) == 0 || i == missing) continue;
+            byte[] kept = packets[slot(first + i)];
+            int keptLength = Math.min(lengths[slot(first + i)], length);
+            for (int j = 0; j < keptLength; j++) packet[j] ^= kept[j];
+        }
+
+        // a wrong guess (for example a packet kept from a previous round of sequence numbers) does
+        // not rebuild a packet with the right sequence number
+        rebuilt.clear();
+        rebuilt.limit(length);
+        return PacketHeader.sequenceOf(rebuilt) == first + missing;
+    }
+
+    /**
+     * @param sequence a sequence number
+     * @return true if the packet with this sequence number was received and is still kept
+     */
+    private boolean isKept(int sequence) {
+        int slot = slot(sequence);
+        return filled[slot] && sequences[slot] == sequence;
+    }
+
+    /**
+     * @param sequence a sequence number
+     * @return the index of the slot holding the packet with this sequence number
+     */
+    private int slot(int sequence) {
+        return Math.floorMod(sequence, capacity);
+    }
+
+    /**
+     * @return how many packets the last parity packet covered; the jitter buffer must hold at least
+     *         this many for rebuilt packets to be in time, or 0 if no parity packet was received
+     */
+    public int getSpan() {
+        return span;
+    }
+}
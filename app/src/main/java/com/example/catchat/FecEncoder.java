@@ -0,0 +1,133 @@
+package com.example.catchat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Forward error correction for audio sent over UDP: after every group of packets, sends a parity
+ * packet holding the XOR of all of them (headers included, shorter packets padded with zeros) and
+ * of their lengths. If one packet of the group is lost, the other device rebuilds it from the
+ * parity and the others (see FecDecoder), without waiting a round trip for it to be sent again.
+ *
+ * A group of n packets costs 1/n more bandwidth, and the other device must hold n packets in its
+ * jitter buffer for a rebuilt packet to arrive in time. The group size is fixed, or follows the loss
+ * the other device reports: no parity while it loses almost nothing, smaller groups as it loses
+ * more. Only one packet per group can be rebuilt, so a burst of losses longer than that is lost.
+ *
+ * Used by the SendThread only; builds parity packets in a buffer allocated once.
+ */
+public class FecEncoder {
+    public static final int maxGroupSize = 16;  // one bit of the header's flags per packet
+    public static final int ADAPTIVE = 0;  // group size that follows the reported loss
+
+    // a parity packet is this much bigger than the longest packet of its group: a header, and the XOR
+    // of the lengths
+    public static final int overhead = PacketHeader.SIZE + 2;
+
+    private final int fixedGroupSize;  // or ADAPTIVE
+    private final int packetMillis;
+    private final CallStats stats;  // for the reported loss
+
+    private final byte[] parity;
+    private final ByteBuffer parityBuffer;  // wraps parity
+    private final PacketHeader header = new PacketHeader();
+
+    // the group being built
+    private int groupSize = 0;  // 0 while no group is started
+    private int first = 0;  // sequence number of its first packet
+    private int mask = 0;  // bit i is set if packet first + i is in the group
+    private int started = 0;  // when its first packet was sent, in PacketHeader.now()
+    private int count = 0;
+    private int lengths = 0;  // XOR of the packets' lengths
+    private int longest = 0;  // also how much of the parity buffer to clear for the next group
+
+    /**
+     * Creates an encoder for the call's format.
+     * @param format the call's format
+     * @param groupSize how many packets each parity covers, from 2 to maxGroupSize, or ADAPTIVE
+     * @param stats the call's statistics, for the loss reported by the other device
+     * @throws IllegalArgumentException if the group size is out of range
+     */
+    public FecEncoder(CallFormat format, int groupSize, CallStats stats) throws IllegalArgumentException {
+        if (groupSize != ADAPTIVE && (groupSize < 2 || groupSize > maxGroupSize)) {
+            throw new IllegalArgumentException("unsupported group size " + groupSize);
+        }
+        fixedGroupSize = groupSize;
+        packetMillis = format.getPacketSizeInMillis();
+        this.stats = stats;
+
+        parity = new byte[overhead + format.getMaxPacketSizeInBytes()];
+        parityBuffer = ByteBuffer.wrap(parity);
+    }
+
+    /**
+     * @return the group size of the next group, or 0 to send no parity
+     */
+    private int nextGroupSize() {
+        return fixedGroupSize != ADAPTIVE ? fixedGroupSize : groupSizeFor(stats.getRemoteLoss());
+    }
+
+    /**
+     * Picks the group size for a loss: with a loss p and groups of n packets, a packet stays lost
+     * only if another one of its group is lost too, about n * p * p of the time.
+     * @param loss the fraction of packets the other device loses, from 0 to 1, or -1 if unknown
+     * @return the group size, or 0 to send no parity
+     */
+    public static int groupSizeFor(double loss) {
+        if (loss < 0.005) return 0;  // includes -1, when nothing was reported yet
+        if (loss < 0.02) return 8;
+        if (loss < 0.05) return 4;
+        if (loss < 0.10) return 3;
+        return 2;
+    }
+
+    /**
+     * Adds a packet that was just sent to the current group.
+     * @param packet the packet, from index 0 to the buffer's limit
+     * @return a parity packet to send, from the buffer's position to its limit, if the packet
+     *         completes a group, or null. Valid until the next call.
+     */
+    public ByteBuffer protect(ByteBuffer packet) {
+        int sequence = PacketHeader.sequenceOf(packet);
+        int length = packet.limit();
+        int now = PacketHeader.now();
+
+        // a parity that would arrive long after the group's first packet was due to play is no use:
+        // give up on groups drawn out by silence (see EncodeThread) or by packets dropped before
+        // sending, and on groups of more sequence numbers than the header's flags can hold
+        if (groupSize != 0 && (sequence - first >= maxGroupSize || sequence - first < 0
+                || now - started > groupSize * packetMillis * 2)) {
+            groupSize = 0;
+        }
+
+        if (groupSize == 0) {
+            groupSize = nextGroupSize();
+            if (groupSize == 0) return null;
+
+            Arrays.fill(parity, overhead, overhead + longest, (byte) 0);
+            first = sequence;
+            started = now;
+            mask = 0;
+            count = 0;
+            lengths = 0;
+            longest = 0;
+        }
+
+        byte[] data = packet.array();
+        for (int i = 0; i < length; i++) parity[overhead + i] ^= data[i];
+        lengths ^= length;
+        longest = Math.max(longest, length);
+        mask |= 1 << (sequence - first);
+        if (++count < groupSize) return null;
+
+        groupSize = 0;  // the next packet starts a new group
+        header.set(PacketHeader.TYPE_PARITY, (byte) 0, first, now);
+        header.setFlags((short) mask);
+        parityBuffer.clear();
+        header.write(parityBuffer);
+        parityBuffer.putShort((short) lengths);
+        parityBuffer.position(0);
+        parityBuffer.limit(overhead + longest);
+        return parityBuffer;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.catchat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads length-prefixed frames (a 4-byte length followed by that many bytes) from a blocking
+ * channel, through a receive ring buffer that is allocated once.
+ *
+ * A read from the network can return any number of bytes: part of a length, or a length and part
+ * of a body, or several frames at once. The decoder keeps whatever arrived in the ring buffer and
+ * reads more until the value it needs is complete. Frames are copied into caller-owned buffers, so
+ * nothing is allocated per frame. A length above the maximum means the stream is corrupted, and is
+ * reported instead of being trusted.
+ *
+ * All reads from the channel must go through the decoder, since it may read ahead.
+ */
+public class FrameDecoder {
+    private final ReadableByteChannel channel;
+    private final int maxFrameLength;
+
+    private final byte[] ring;
+    private final ByteBuffer view;  // wraps ring, to read from the channel into its free space
+    private int start = 0;  // index of the first unread byte
+    private int size = 0;  // how many unread bytes are in the ring
+
+    /**
+     * Creates a frame decoder.
+     * @param channel the blocking channel to read from
+     * @param capacity the size of the ring buffer in bytes; frames can be bigger
+     * @param maxFrameLength the biggest frame length accepted, in bytes
+     */
+    public FrameDecoder(ReadableByteChannel channel, int capacity, int maxFrameLength) {
+        this.channel = channel;
+        this.maxFrameLength = maxFrameLength;
+
+        ring = new byte[capacity];
+        view = ByteBuffer.wrap(ring);
+    }
+
+    /**
+     * Reads the next frame into the buffer, from its position; moves the position past the frame.
+     * Blocks until the entire frame is read.
+     * @param dst the buffer to read into
+     * @return the length of the frame
+     * @throws EOFException if the stream ended
+     * @throws IOException if reading failed, or the frame length is negative, over the maximum, or
+     *         more than the buffer has room for. The stream cannot be read after this.
+     */
+    public int readFrame(ByteBuffer dst) throws IOException {
+        int length = readInt();
+        if (length < 0 || length > maxFrameLength) {
+            throw new IOException("malformed frame: length " + length);
+        }
+        if (length > dst.remaining()) {
+            throw new IOException("frame of " + length + " bytes does not fit in " + dst.remaining());
+        }
+
+        int limit = dst.limit();
+        dst.limit(dst.position() + length);
+        read(dst);
+        dst.limit(limit);
+
+        return length;
+    }
+
+    /**
+     * Reads a big endian integer.
+     * Blocks until all four bytes are read.
+     * @return the integer
+     * @throws EOFException if the stream ended
+     * @throws IOException if reading failed
+     */
+    public int readInt() throws IOException {
+        while (size < 4) fill();
+
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (ring[wrap(start + i)] & 0xFF);
+        }
+        consume(4);
+
+        return value;
+    }
+
+    /**
+     * Reads bytes until the buffer is full, from its position to its limit.
+     * @param dst the buffer to read into
+     * @throws EOFException if the stream ended
+     * @throws IOException if reading failed
+     */
+    public void read(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (size == 0) fill();
+
+            // copy the unread bytes up to the end of the array; the rest on the next turn
+            int count = Math.min(Math.min(size, ring.length - start), dst.remaining());
+            dst.put(ring, start, count);
+            consume(count);
+        }
+    }
+
+    /**
+     * Reads from the channel into the free space of the ring.
+     * Blocks until at least one byte is read.
+     * @throws EOFException if the stream ended
+     * @throws IOException if reading failed
+     */
+    private void fill() throws IOException {
+        if (size == 0) start = 0;  // empty; start over at the beginning to read as much as possible
+
+        // the free space starts after the unread bytes and goes up to the end of the array, or up
+        // to the first unread byte if the unread bytes wrap around
+        int end = wrap(start + size);
+        int limit = end < start || size == ring.length ? start : ring.length;
+
+        view.limit(limit);
+        view.position(end);
+        int count = channel.read(view);
+        if (count == -1) throw new EOFException("stream ended");
+
+        size += count;
+    }
+
+    /**
+     * Marks bytes at the start of the unread bytes as read.
+     * @param count how many bytes
+     */
+    private void consume(int count) {
+        start = wrap(start + count);
+        size -= count;
+    }
+
+    /**
+     * @param index an index up to twice the ring size
+     * @return the index in the ring
+     */
+    private int wrap(int index) {
+        return index >= ring.length ? index - ring.length : index;
+    }
+}
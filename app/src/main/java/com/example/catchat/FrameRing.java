@@ -0,0 +1,140 @@
+package com.example.catchat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue of frames between one producer thread and one consumer thread.
+ * The slots are arrays allocated once (for example short[] for samples, byte[] for packets); frames
+ * are copied in and out of them, so nothing is allocated per frame.
+ *
+ * When the queue is full, the producer either drops the oldest frame to make room (so the consumer
+ * always gets the most recent audio), or drops the frame it is adding.
+ *
+ * Dropping the oldest frame while the consumer may be copying it is safe: the consumer only keeps a
+ * frame if it can still advance the tail from that frame with compareAndSet() after copying it.
+ * If the producer dropped the frame in the meantime, the copy is thrown away and the next frame
+ * is taken.
+ *
+ * @param <T> the array type of a frame
+ */
+public class FrameRing<T> {
+    private static final long parkNanos = TimeUnit.MILLISECONDS.toNanos(50);  // most time take() waits at once
+
+    private final T[] slots;
+    private final int[] lengths;
+    private final boolean dropOldest;
+
+    private final AtomicLong head = new AtomicLong();  // index of the next frame added; producer only
+    private final AtomicLong tail = new AtomicLong();  // index of the next frame taken
+    private final AtomicLong dropCount = new AtomicLong();  // producer only
+
+    private volatile Thread consumer = null;  // waiting in take(), to be woken up by offer()
+
+    /**
+     * Creates an empty ring.
+     * @param slots the preallocated frames; the ring holds this many at most
+     * @param dropOldest true to drop the oldest frame when the ring is full, false to drop the new one
+     */
+    public FrameRing(T[] slots, boolean dropOldest) {
+        this.slots = slots;
+        this.dropOldest = dropOldest;
+        lengths = new int[slots.length];
+    }
+
+    /**
+     * Adds a frame. Only called by the producer thread. Never blocks.
+     * @param frame the array holding the frame, from index 0
+     * @param length how many elements of the array are in the frame; at most a slot's length
+     * @return false if the ring was full and the frame was dropped
+     */
+    public boolean offer(T frame, int length) {
+        long head = this.head.get();
+        long tail = this.tail.get();
+
+        if (head - tail >= slots.length) {
+            if (!dropOldest) {
+                dropCount.lazySet(dropCount.get() + 1);
+                return false;
+            }
+
+            // if this fails, the consumer just took the oldest frame, which makes room anyway
+            if (this.tail.compareAndSet(tail, tail + 1)) {
+                dropCount.lazySet(dropCount.get() + 1);
+            }
+        }
+
+        int slot = (int) (head % slots.length);
+        System.arraycopy(frame, 0, slots[slot], 0, length);
+        lengths[slot] = length;
+        this.head.lazySet(head + 1);  // publishes the frame to the consumer
+
+        Thread consumer = this.consumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Takes the oldest frame, if there is one. Only called by the consumer thread. Never blocks.
+     * @param frame the array to copy the frame into, from index 0
+     * @return the length of the frame, or -1 if the ring is empty
+     */
+    public int poll(T frame) {
+        while (true) {
+            long tail = this.tail.get();
+            if (tail >= head.get()) return -1;
+
+            int slot = (int) (tail % slots.length);
+            int length = lengths[slot];
+            System.arraycopy(slots[slot], 0, frame, 0, length);
+
+            if (this.tail.compareAndSet(tail, tail + 1)) return length;
+            // the producer dropped this frame while it was being copied; take the next one
+        }
+    }
+
+    /**
+     * Takes the oldest frame, waiting for one if the ring is empty. Only called by the consumer
+     * thread.
+     * @param frame the array to copy the frame into, from index 0
+     * @return the length of the frame, or -1 if the consumer thread was interrupted
+     */
+    public int take(T frame) {
+        consumer = Thread.currentThread();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                int length = poll(frame);
+                if (length >= 0) return length;
+
+                // offer() unparks this thread; if it did so since poll(), this returns immediately
+                LockSupport.parkNanos(this, parkNanos);
+            }
+            return -1;
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     * @return how many frames are waiting in the ring
+     */
+    public int size() {
+        long tail = this.tail.get();
+        return (int) Math.max(0, head.get() - tail);
+    }
+
+    /**
+     * @return how many frames the ring can hold
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return how many frames were dropped because the ring was full
+     */
+    public long getDropCount() {
+        return dropCount.get();
+    }
+}
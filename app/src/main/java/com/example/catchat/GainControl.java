@@ -0,0 +1,105 @@
+package com.example.catchat;
+
+/**
+ * Gain stage of an AudioChain: automatic gain control by default, or a fixed gain.
+ *
+ * Automatic gain control brings the level of speech to targetLevel, whoever is speaking and however
+ * far from the microphone. Each packet, it measures the RMS level and the peak of the samples. The
+ * gain that would bring the level to the target, capped at maxGain, is approached quickly when it is
+ * lower than the current gain (attack), and slowly when it is higher (release), so loud syllables
+ * are turned down at once without the gain pumping up between words. Packets below activityLevel,
+ * pauses and background noise, leave the gain as it is instead of turning the noise up. The gain
+ * never makes the peak of a packet clip.
+ *
+ * The gain moves in a straight line from one packet to the next, so changing it does not click.
+ */
+public class GainControl implements AudioProcessor {
+    public static final float defaultTargetLevel = 0.1f;  // RMS, of full scale; about -20 dBFS
+    public static final float defaultMaxGain = 8;  // +18 dB
+    private static final float activityLevel = 0.003f;  // RMS below which the gain is held; -50 dBFS
+    private static final float peakLimit = 0.99f;  // highest peak the gain leads to
+    private static final float attackSeconds = 0.01f;  // time constant when turning down
+    private static final float releaseSeconds = 0.5f;  // time constant when turning up
+
+    private final int sampleRate;
+    private final float targetLevel;
+    private final float maxGain;
+    private boolean automatic = true;
+    private float fixedGain = 1;
+    private float gain = 1;  // at the end of the last packet
+
+    /**
+     * Creates an automatic gain control with the default target level and maximum gain.
+     * @param sampleRate the sample rate of the audio, in Hz
+     */
+    public GainControl(int sampleRate) {
+        this(sampleRate, defaultTargetLevel, defaultMaxGain);
+    }
+
+    /**
+     * Creates an automatic gain control.
+     * @param sampleRate the sample rate of the audio, in Hz
+     * @param targetLevel the RMS level to bring speech to, as a fraction of full scale
+     * @param maxGain the highest gain, so quiet rooms are not turned into loud noise
+     */
+    public GainControl(int sampleRate, float targetLevel, float maxGain) {
+        this.sampleRate = sampleRate;
+        this.targetLevel = targetLevel;
+        this.maxGain = maxGain;
+    }
+
+    /**
+     * Turns automatic gain control off, and applies a fixed gain from the next packet on.
+     * @param gain the gain; 1 leaves the audio as it is
+     */
+    public void setFixedGain(float gain) {
+        automatic = false;
+        fixedGain = gain;
+    }
+
+    /**
+     * @return the gain applied at the end of the last packet
+     */
+    public float getGain() {
+        return gain;
+    }
+
+    @Override
+    public void process(float[] samples, int count) {
+        if (count == 0) return;
+
+        float target;
+        if (automatic) {
+            float level = AudioChain.rms(samples, count);
+            float peak = peak(samples, count);
+
+            target = gain;
+            if (level > activityLevel) {
+                float wanted = Math.min(maxGain, targetLevel / level);
+                float seconds = wanted < gain ? attackSeconds : releaseSeconds;
+                float coefficient = 1 - (float) Math.exp(-count / (seconds * sampleRate));
+                target = gain + (wanted - gain) * coefficient;
+            }
+            if (peak * target > peakLimit) target = peakLimit / peak;
+        } else {
+            target = fixedGain;
+        }
+
+        AudioChain.ramp(samples, count, gain, target);  // from the last packet's gain to this one's
+        gain = target;
+    }
+
+    /**
+     * @param samples the samples, from index 0
+     * @param count how many samples the packet holds
+     * @return the highest absolute value of the samples
+     */
+    private static float peak(float[] samples, int count) {
+        float highest = 0, lowest = 0;
+        for (int i = 0; i < count; i++) {
+            highest = Math.max(highest, samples[i]);
+            lowest = Math.min(lowest, samples[i]);
+        }
+        return Math.max(highest, -lowest);
+    }
+}
@@ -3,13 +3,15 @@ package com.example.catchat;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTrack;
 
 /**
  * Holds static constants and variables, for easy access and sharing between activities
  */
 public class Globals {
     // https://stackoverflow.com/a/7984845
-    public static BetterSocket sock = null;
+    public static final SessionRegistry sessions = new SessionRegistry();  // the calls running
+    public static final LocalAddresses localAddresses = new LocalAddresses();  // found once per process
 
     public static final AudioAttributes audioAttributes = new AudioAttributes.Builder()
             .setUsage(AudioAttributes.USAGE_MEDIA)
@@ -17,46 +19,156 @@ public class Globals {
             .build();
 
     public static final int port = 25565;
+    private static ServerThread server = null;  // listening on port for the whole process; guarded by Globals.class
+
+    // whether calls send audio over UDP, or over their connection; see CallEngine
+    public static final boolean mediaOverUdp = true;
+
+    // whether to ask a web server for the public IP, when the device has no local address; see IpFinderThread
+    public static final boolean lookUpPublicIp = true;
 
     // constant keys / messages
     public static final String intentReason = "REASON";
-    public static final int acceptCall = Integer.MAX_VALUE;
+    public static final String intentSession = "SESSION";  // the id of the call's CallSession
+    public static final String preferencesName = "catchat";  // the app's SharedPreferences
+    public static final String addressBookKey = "address_book";  // see AddressBook
 
     private static final int sampleRate = 44100;  // in Hz
 
-    // information about packets
-    private static final double packetSizeInSeconds = 0.5;  // half a second's worth of samples
-    public static final int packetSizeInFrames = (int) (sampleRate * packetSizeInSeconds);
-    private static final int frameSizeInBytes = 1;  // 8-bit in one channel: one byte samples
-    public static final int packetSizeInBytes = packetSizeInFrames * frameSizeInBytes;
+    // information about packets; 20 ms of audio per packet by default
+    private static volatile CallFormat format =
+            new CallFormat(sampleRate, 20, PacketHeader.CODEC_DEFLATE);
+
+    /**
+     * Hands the connection requests to a listener from now on, replacing the one registered before;
+     * the requests already shown are added to it. The first call starts listening on port, for the
+     * rest of the process; later calls start again only if listening stopped (e.g. the port was
+     * taken by another app). While a call runs, requesters are declined as busy.
+     * @param listener told about the requests
+     * @return the server thread, to accept requests on
+     */
+    public static synchronized ServerThread listen(RequestListener listener) {
+        if (server == null || !server.isAlive()) {
+            server = new ServerThread(listener, port, Globals::getFormat, () -> sessions.size() > 0);
+            server.setDaemon(true);
+            server.start();
+        } else {
+            server.setRequestListener(listener);
+        }
+        return server;
+    }
+
+    /**
+     * Stops handing the connection requests to a listener, if it is still the one registered. The
+     * port stays bound.
+     * @param listener the listener
+     */
+    public static synchronized void stopListening(RequestListener listener) {
+        if (server != null) server.removeRequestListener(listener);
+    }
+
+    /**
+     * @return the format this device prefers for calls; the call's format is agreed on with the
+     *         other device (see Capabilities)
+     */
+    public static CallFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets how much audio goes in each packet, for calls started from now on.
+     * @param packetSizeInMillis the packet duration in milliseconds; see CallFormat for limits
+     * @throws IllegalArgumentException if the packet duration is not supported
+     */
+    public static void setPacketSizeInMillis(int packetSizeInMillis) throws IllegalArgumentException {
+        format = new CallFormat(sampleRate, packetSizeInMillis, format.getCodec());
+    }
+
+    /**
+     * Sets the codec packets are encoded with, for calls started from now on.
+     * @param codec one of the PacketHeader.CODEC_ constants; see AudioCodecs
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static void setCodec(byte codec) throws IllegalArgumentException {
+        format = new CallFormat(sampleRate, format.getPacketSizeInMillis(), codec);
+    }
 
-    // base audio format
-    private static final AudioFormat.Builder formatBuilder = new AudioFormat.Builder()
-            .setEncoding(AudioFormat.ENCODING_PCM_8BIT)
-            .setSampleRate(sampleRate);
+    /**
+     * @param callFormat the call's format
+     * @param channelMask the AudioFormat.CHANNEL_ constant for mono input or output
+     * @return the 16-bit audio format for the call's sample rate
+     */
+    private static AudioFormat audioFormat(CallFormat callFormat, int channelMask) {
+        return new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(callFormat.getSampleRate())
+                .setChannelMask(channelMask)
+                .build();
+    }
 
     // audio recording attributes
     public static class Record {
-        public static final AudioFormat format = Globals.formatBuilder
-                .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
-                .build();
+        /**
+         * @param callFormat the call's format
+         * @return the format audio is recorded in
+         */
+        public static AudioFormat format(CallFormat callFormat) {
+            return audioFormat(callFormat, AudioFormat.CHANNEL_IN_MONO);
+        }
 
-        // AudioRecord buffer
-        public static final int bufferSize = AudioRecord.getMinBufferSize(
-                format.getSampleRate(),
-                format.getChannelMask(),
-                format.getEncoding()
-        ) + packetSizeInBytes + packetSizeInBytes / 2;  // accommodates a bit more than 1.5 packets
+        /**
+         * @param callFormat the call's format
+         * @return the AudioRecord buffer size in bytes; holds a few packets, so a late read does not
+         *         lose audio
+         */
+        public static int bufferSize(CallFormat callFormat) {
+            return AudioRecord.getMinBufferSize(
+                    callFormat.getSampleRate(),
+                    AudioFormat.CHANNEL_IN_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT
+            ) + callFormat.getPacketSizeInBytes() * 4;
+        }
     }
 
     // audio playing attributes
     public static class Play {
-        public static final AudioFormat format = formatBuilder
-                .setChannelMask(AudioFormat.CHANNEL_OUT_DEFAULT)
-                .build();
+        /**
+         * @param callFormat the call's format
+         * @return the format audio is played in
+         */
+        public static AudioFormat format(CallFormat callFormat) {
+            return audioFormat(callFormat, AudioFormat.CHANNEL_OUT_MONO);
+        }
+
+        /**
+         * @param callFormat the call's format
+         * @return the AudioTrack buffer capacity in bytes; at least the device's minimum
+         */
+        public static int bufferCapacity(CallFormat callFormat) {
+            return Math.max(minBufferSize(callFormat), callFormat.getPacketSizeInBytes() * 4);  // fits 4 packets
+        }
+
+        /**
+         * The buffer size is how much of the capacity is used. Writing blocks while it is full, so it
+         * is kept small; the jitter buffer in front of the AudioTrack absorbs network delays.
+         * @param callFormat the call's format
+         * @return the AudioTrack buffer size, in frames
+         */
+        public static int bufferSize(CallFormat callFormat) {
+            int minFrames = minBufferSize(callFormat) / CallFormat.frameSizeInBytes;
+            return Math.max(minFrames, callFormat.getPacketSizeInFrames() * 2);  // fits 2 packets
+        }
 
-        // AudioTrack buffer
-        public static final int bufferCapacity = packetSizeInBytes * 3;  // fits 3 packets
-        public static final int bufferSize = packetSizeInBytes / 2;  // fits half a packet
+        /**
+         * @param callFormat the call's format
+         * @return the smallest AudioTrack buffer the device can play from without gaps, in bytes
+         */
+        private static int minBufferSize(CallFormat callFormat) {
+            return AudioTrack.getMinBufferSize(
+                    callFormat.getSampleRate(),
+                    AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT
+            );
+        }
     }
-}
\ No newline at end of file
+}
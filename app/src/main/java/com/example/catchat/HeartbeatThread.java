@@ -0,0 +1,206 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends a ping to the other device at a fixed interval, over the media transport so that pings
+ * take the same path as the audio. The other device answers each ping with a pong right away.
+ *
+ * Like NTP, a ping and its pong carry four times: when the ping was sent (t1) and received (t2),
+ * and when the pong was sent (t3) and received (t4). From them:
+ *      round trip time = (t4 - t1) - (t3 - t2)
+ *      clock offset = ((t2 - t1) + (t3 - t4)) / 2, the other device's clock minus this one's
+ * The round trip time is smoothed like TCP's; the offset is taken from the recent exchange with the
+ * shortest round trip, whose delays are the most symmetrical. Both are published to the CallStats.
+ *
+ * Each ping is followed by a receiver report (like RTCP's): the loss, jitter, jitter buffer delay and
+ * network delay this device measures on the audio it receives, so each device also knows how its
+ * own audio reaches the other. The reports drive the BitrateController, if there is one.
+ *
+ * Any packet from the other device shows it is alive. If nothing arrives within the peer timeout,
+ * the call is ended, instead of waiting for a read to fail, which can take minutes.
+ */
+public class HeartbeatThread extends Thread {
+    private static final int pingSize = PacketHeader.SIZE + 8;
+    private static final int pongSize = PacketHeader.SIZE + 24;
+    private static final int reportSize = PacketHeader.SIZE + 16;
+    private static final int offsetWindow = 8;  // exchanges the offset is chosen from
+
+    private CallListener listener = null;  // communicating for
+    private PacketTransport media = null;
+    private CallStats stats = null;
+    private BitrateController bitrate = null;
+    private final int pingInterval;  // in milliseconds
+    private final long peerTimeout;  // in nanoseconds
+
+    private volatile long lastHeard;  // when a packet last arrived, in System.nanoTime()
+
+    // used by this thread, to send pings
+    private final ByteBuffer ping = ByteBuffer.allocate(pingSize);
+    private final PacketHeader pingHeader = new PacketHeader();
+    private int sequence = 0;  // of the next ping
+    private final ByteBuffer report = ByteBuffer.allocate(reportSize);
+
+    // used by the InCommThread, to answer pings and read pongs
+    private final ByteBuffer pong = ByteBuffer.allocate(pongSize);
+    private final PacketHeader pongHeader = new PacketHeader();
+    private long smoothedRtt = -1;  // in nanoseconds; -1 until the first pong
+    private final long[] rtts = new long[offsetWindow];  // of the last exchanges
+    private final long[] offsets = new long[offsetWindow];
+    private int exchanges = 0;
+
+    /**
+     * Instantiates a heartbeat thread.
+     * @param listener told when the call cannot go on
+     * @param media the transport to send pings and pongs with
+     * @param stats the call's statistics, to publish the round trip time and clock offset to
+     * @param bitrate given the other device's reports, or null
+     * @param pingIntervalMillis how often to send a ping, in milliseconds
+     * @param peerTimeoutMillis how long the other device can stay silent before the call is ended
+     */
+    public HeartbeatThread(CallListener listener, PacketTransport media, CallStats stats, BitrateController bitrate,
+                           int pingIntervalMillis, int peerTimeoutMillis) {
+        this.listener = listener;
+        this.media = media;
+        this.stats = stats;
+        this.bitrate = bitrate;
+        pingInterval = pingIntervalMillis;
+        peerTimeout = peerTimeoutMillis * 1_000_000L;
+        lastHeard = System.nanoTime();
+    }
+
+    /**
+     * Until this thread is interrupted, sends pings and checks the other device is still there.
+     */
+    @Override
+    public void run() {
+        lastHeard = System.nanoTime();  // the timeout starts with the call
+
+        while (!this.isInterrupted()) {
+            try {
+                Thread.sleep(pingInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (System.nanoTime() - lastHeard > peerTimeout) {
+                listener.endCall("the other device stopped responding");
+                return;
+            }
+
+            try {
+                sendPing();
+                sendReport();
+            } catch (IOException e) {
+                // the transport is closed when someone else ends the call
+                if (!this.isInterrupted()) listener.endCall("connection ended");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a ping holding its send time.
+     * @throws IOException if sending failed
+     */
+    private void sendPing() throws IOException {
+        pingHeader.set(PacketHeader.TYPE_PING, (byte) 0, sequence++, PacketHeader.now());
+        ping.clear();
+        pingHeader.write(ping);
+        ping.putLong(System.nanoTime());
+        ping.flip();
+        media.send(ping);
+    }
+
+    /**
+     * Sends a receiver report: the loss in parts per million, the jitter in microseconds, the jitter
+     * buffer delay in milliseconds, and the network delay in microseconds (-1 if unknown).
+     * @throws IOException if sending failed
+     */
+    private void sendReport() throws IOException {
+        pingHeader.set(PacketHeader.TYPE_STATS, (byte) 0, sequence, PacketHeader.now());
+        report.clear();
+        pingHeader.write(report);
+        report.putInt((int) (stats.getLoss() * 1e6));
+        report.putInt((int) (stats.getJitter() * 1000));
+        report.putInt(stats.getBufferDelay());
+        double delay = stats.getNetworkDelay();
+        report.putInt(delay < 0 ? -1 : (int) (delay * 1000));
+        report.flip();
+        media.send(report);
+    }
+
+    /**
+     * Called by the InCommThread for every packet received, to show the other device is alive.
+     * @param arrival when the packet arrived, in System.nanoTime()
+     */
+    public void heard(long arrival) {
+        lastHeard = arrival;
+    }
+
+    /**
+     * Answers a ping. Called by the InCommThread.
+     * @param header the ping's header
+     * @param packet the ping's payload, from the buffer's position
+     * @param arrival when the ping arrived, in System.nanoTime()
+     * @throws IOException if sending the pong failed
+     */
+    public void answer(PacketHeader header, ByteBuffer packet, long arrival) throws IOException {
+        if (packet.remaining() < 8) return;  // malformed
+
+        pongHeader.set(PacketHeader.TYPE_PONG, (byte) 0, header.getSequence(), PacketHeader.now());
+        pong.clear();
+        pongHeader.write(pong);
+        pong.putLong(packet.getLong());  // t1
+        pong.putLong(arrival);  // t2
+        pong.putLong(System.nanoTime());  // t3
+        pong.flip();
+        media.send(pong);
+    }
+
+    /**
+     * Updates the round trip time and the clock offset with a pong. Called by the InCommThread.
+     * @param packet the pong's payload, from the buffer's position
+     * @param arrival when the pong arrived (t4), in System.nanoTime()
+     */
+    public void pongReceived(ByteBuffer packet, long arrival) {
+        if (packet.remaining() < 24) return;  // malformed
+        long t1 = packet.getLong();
+        long t2 = packet.getLong();
+        long t3 = packet.getLong();
+
+        long rtt = (arrival - t1) - (t3 - t2);
+        if (rtt < 0) return;  // not a pong to one of our pings
+        long offset = ((t2 - t1) + (t3 - arrival)) / 2;
+
+        smoothedRtt = smoothedRtt < 0 ? rtt : smoothedRtt + (rtt - smoothedRtt) / 8;
+
+        int slot = exchanges++ % offsetWindow;
+        rtts[slot] = rtt;
+        offsets[slot] = offset;
+        int best = 0;
+        for (int i = 1; i < Math.min(exchanges, offsetWindow); i++) {
+            if (rtts[i] < rtts[best]) best = i;
+        }
+
+        stats.setRoundTrip(smoothedRtt, offsets[best]);
+    }
+
+    /**
+     * Publishes the other device's receiver report to the CallStats and the BitrateController.
+     * Called by the InCommThread.
+     * @param packet the report's payload, from the buffer's position
+     */
+    public void reportReceived(ByteBuffer packet) {
+        if (packet.remaining() < 16) return;  // malformed
+        double loss = packet.getInt() / 1e6;
+        double jitter = packet.getInt() / 1000.0;
+        int bufferDelay = packet.getInt();
+        int delay = packet.getInt();
+        double networkDelay = delay < 0 ? -1 : delay / 1000.0;
+
+        stats.setRemoteReport(loss, jitter, bufferDelay, networkDelay);
+        if (bitrate != null) bitrate.reportReceived(loss, networkDelay);
+    }
+}
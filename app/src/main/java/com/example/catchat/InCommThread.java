@@ -1,143 +1,183 @@
 package com.example.catchat;
 
-import android.media.AudioManager;
-import android.media.AudioTrack;
-
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.nio.ByteBuffer;
 
 /**
  * The input communication thread.
- * Handles input from the network and output to the AudioTrack.
+ * Handles input from the network, and puts the received audio frames in a JitterBuffer.
+ * Starts a PlayThread, which plays the frames in the jitter buffer.
+ * Pings, pongs and receiver reports are passed to the call's HeartbeatThread.
+ * Lost packets are rebuilt from parity packets, when the other device sends them (see FecDecoder).
  */
 public class InCommThread extends Thread {
-    private CallActivity activity = null;  // communicating for
-    private AudioTrack audioOut = null;  // output audio stream to speaker
+    private CallListener listener = null;  // communicating for
+    private PacketTransport media = null;
+    private JitterBuffer jitterBuffer = null;
+    private PlayThread player = null;
+    private HeartbeatThread heartbeat = null;
+    private CallStats stats = null;
+
+    // how long after the last parity packet the jitter buffer stops keeping room for rebuilt packets
+    private static final int parityTimeoutMillis = 2000;
+
+    private final ByteBuffer packet;
+    private final PacketHeader header = new PacketHeader();
+
+    private final FecDecoder fec;
+    private final ByteBuffer rebuilt;  // a packet rebuilt by the FecDecoder
+    private long lastParity = 0;  // when the last parity packet arrived, in System.nanoTime()
+    private int span = 0;  // packets covered by the last parity packet, kept in the jitter buffer
 
     /**
      * Instantiates an inbound communications thread.
-     * Creates an AudoTrack audioOut.
+     * Creates the jitter buffer and the PlayThread.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param media the transport audio packets are received from
+     * @param audioOut where to play the received audio
+     * @param heartbeat the thread pings and pongs are passed to
+     * @param stats the call's statistics
+     * @param chain the processing run on decoded packets before they are played, or null for none
      */
-    public InCommThread(CallActivity activity) {
-        this.activity = activity;
-
-        // create audio track to play audio
-        audioOut = new AudioTrack(
-                Globals.audioAttributes,
-                Globals.Play.format,
-                Globals.Play.bufferCapacity,
-                AudioTrack.MODE_STREAM,
-                AudioManager.AUDIO_SESSION_ID_GENERATE
+    public InCommThread(CallListener listener, CallFormat format, PacketTransport media, AudioSink audioOut,
+                        HeartbeatThread heartbeat, CallStats stats, AudioChain chain) {
+        this.listener = listener;
+        this.media = media;
+        this.heartbeat = heartbeat;
+        this.stats = stats;
+
+        packet = ByteBuffer.allocate(format.getMaxPacketSizeInBytes() + FecEncoder.overhead);
+        fec = new FecDecoder(format);
+        rebuilt = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+        jitterBuffer = new JitterBuffer(
+                CallEngine.jitterBufferCapacity(format),
+                format.getMaxPacketSizeInBytes(),
+                format.getPacketSizeInMillis()
         );
+        stats.setJitterBuffer(jitterBuffer);
+        player = new PlayThread(listener, format, jitterBuffer, audioOut, stats, chain);
+    }
 
-        // the buffer size influences the minimum size that must be reached before playback starts
-        // this is not the same as the buffer capacity
-        audioOut.setBufferSizeInFrames(Globals.Play.bufferSize);
+    /**
+     * @return the jitter buffer received frames are put in
+     */
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
     }
 
     /**
-     * Until this thread is interrupted, receives audio from socket input stream and writes it to
-     * the AudioTrack.
-     * Releases the AudioTrack when done.
+     * Starts the PlayThread, then until this thread is interrupted, receives packets from the
+     * network.
      */
     @Override
     public void run() {
-
-        // fill buffer before starting playing
-        receiveNextAudioPacket();
-        audioOut.play();
+        player.start();
 
         while (!this.isInterrupted()) {
-            receiveNextAudioPacket();
+            if (!receiveNextPacket()) break;
         }
-
-        this.audioOut.release();
     }
 
     /**
-     * Gets a packet from the socket input stream, uncompresses it, and writes it to the AudioTrack
-     * buffer.
+     * Gets a packet from the network, and handles it according to its type.
+     * @return false if the transport failed or was closed, and the call is over
      */
-    private void receiveNextAudioPacket() {
+    private boolean receiveNextPacket() {
 
         // try to read; blocks until data is read
-        byte[] compressedData;
         try {
-            compressedData = getCompressedData();
-            if (compressedData == null) throw new IOException();
+            media.receive(packet);
         } catch (IOException e) {
-            activity.endCall("disconnected");
-            return;
+            // the transport is closed when someone else ends the call
+            if (!this.isInterrupted()) listener.endCall("disconnected");
+            return false;
         }
-
-        // try to uncompress data
-        byte[] uncompressedData;
-        try {
-            uncompressedData = uncompress(compressedData);
-        } catch (DataFormatException e) {
-            e.printStackTrace();
-            activity.endCall("data corrupted");
-            return;
+        long arrival = System.nanoTime();
+
+        if (!header.read(packet)) return true;  // too short to be a packet
+        heartbeat.heard(arrival);
+
+        switch (header.getType()) {
+            case PacketHeader.TYPE_AUDIO:
+            case PacketHeader.TYPE_NOISE:  // played in turn, like audio
+                receiveAudio(arrival);
+                break;
+            case PacketHeader.TYPE_PARITY:
+                receiveParity(arrival);
+                break;
+            case PacketHeader.TYPE_PING:
+                try {
+                    heartbeat.answer(header, packet, arrival);
+                } catch (IOException e) {
+                    // the SendThread finds out the connection is gone too, and ends the call
+                }
+                break;
+            case PacketHeader.TYPE_PONG:
+                heartbeat.pongReceived(packet, arrival);
+                break;
+            case PacketHeader.TYPE_STATS:
+                heartbeat.reportReceived(packet);
+                break;
+            default:
+                // unknown type, from a newer version; ignore it
         }
-
-        // add the data to the player buffer
-        addToPlayBuffer(uncompressedData);
+        return true;
     }
 
     /**
-     * Gets the next packet from the network.
-     * Blocks until entire packet is read.
-     * @return the data in an array of bytes
-     * @throws IOException if could not read
+     * Puts the audio packet or noise update held in the packet buffer in the jitter buffer.
+     * @param arrival when the packet arrived, in System.nanoTime()
      */
-    private byte[] getCompressedData() throws IOException {
-        int length;
-        try {
-            length = Globals.sock.readInt();
-            return Globals.sock.readBytes(length);
-        } catch (NullPointerException e) {
-            // someone else called activity.endCall(); do nothing
-            return null;
+    private void receiveAudio(long arrival) {
+        stats.received(header.getSequence(), packet.limit(), header.getTimestamp(), arrival);
+        fec.received(packet);
+
+        // the other device stopped sending parity: stop waiting for it
+        if (span > 0 && arrival - lastParity > parityTimeoutMillis * 1_000_000L) {
+            span = 0;
+            jitterBuffer.setMinDepth(1);
         }
+
+        // late and duplicate packets are left out by the jitter buffer
+        // the whole packet is kept; the PlayThread reads the codec from the header
+        jitterBuffer.put(
+                header.getSequence(),
+                header.getTimestamp(),
+                (int) (arrival / 1000000),  // like PacketHeader.now()
+                packet.array(),
+                0,
+                packet.limit()
+        );
     }
 
     /**
-     * Uncompresses an array of bytes.
-     * @param compressedData the array of bytes to be uncompressed.
-     * @return the uncompressed data in an array of bytes
-     * @throws DataFormatException if data could not be uncompressed
+     * Rebuilds the lost packet of the parity packet's group held in the packet buffer, if only one
+     * was lost, and puts it in the jitter buffer.
+     * Rebuilt packets are not counted as received, so the loss reported to the other device is the
+     * loss before repair, which FecEncoder picks its group size from.
+     * @param arrival when the parity packet arrived, in System.nanoTime()
      */
-    private byte[] uncompress(byte[] compressedData) throws DataFormatException {
-        Inflater decompresser = new Inflater();
-        decompresser.setInput(compressedData, 0, compressedData.length);
-
-        // uncompresser cannot compress everything at once; uncompress pieces and write to a stream
-        ByteArrayOutputStream stream = new ByteArrayOutputStream(Globals.packetSizeInBytes);
-        byte[] buffer = new byte[1024];
-        while (!decompresser.finished()) {
-            int count = decompresser.inflate(buffer);
-            stream.write(buffer, 0, count);
-        }
+    private void receiveParity(long arrival) {
+        lastParity = arrival;
+        boolean recovered = fec.recover(header, packet, rebuilt);
 
-        try {
-            stream.close();
-        } catch (IOException e) {
-            // do nothing
+        if (fec.getSpan() != span) {
+            span = fec.getSpan();
+            jitterBuffer.setMinDepth(span);
         }
-        decompresser.end();
+        if (!recovered) return;
 
-        return stream.toByteArray();
+        stats.recovered();
+        jitterBuffer.putRecovered(PacketHeader.sequenceOf(rebuilt), rebuilt.array(), 0, rebuilt.limit());
     }
 
     /**
-     * Adds the audio data to the AudioTrack's buffer to be played.
-     * @param data the audio data to be played
+     * Interrupts this thread and the PlayThread.
      */
-    private void addToPlayBuffer(byte[] data) {
-
-        // add to audio player buffer, from start to end
-        audioOut.write(data, 0, data.length);
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        player.interrupt();
     }
 }
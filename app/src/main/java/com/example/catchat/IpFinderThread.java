@@ -3,15 +3,20 @@ package com.example.catchat;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
 import java.net.URL;
+import java.util.List;
 
 /**
- * Thread that connects to a web server returning the IP address of the caller.
- * Used to display the device's IP on the network on the connection screen
+ * Thread finding the IP address to display on the connection screen.
+ * Uses the addresses of the device's network interfaces (see LocalAddresses), which are only
+ * searched once per process and after the networks change. If the device has none, and
+ * Globals.lookUpPublicIp is set, connects to a web server returning the IP address of the caller
+ * instead; that address is public, and usually cannot be called.
  */
 public class IpFinderThread extends Thread {
 
-    // the server we are getting the IP from
+    // the server we are getting the public IP from
     private static final String address = "https://myip.dnsomatic.com/";
 
     private ConnectActivity activity = null;  // thread started by
@@ -29,9 +34,18 @@ public class IpFinderThread extends Thread {
      */
     @Override
     public void run() {
-        int attemptNumber = 3;  // how many times to attempt getting IP address
+        List<InetAddress> local = Globals.localAddresses.get();
+        if (!local.isEmpty()) {
+            activity.setIp(local.get(0).getHostAddress());
+            return;
+        }
+        if (!Globals.lookUpPublicIp) {
+            activity.setIp("Not on a network");
+            return;
+        }
 
-        String ip = null;
+        String ip = Globals.localAddresses.getPublicAddress();
+        int attemptNumber = 3;  // how many times to attempt getting IP address
         while (attemptNumber > 0 && ip == null) {
             // make request to a server that returns my ip address
             try {
@@ -44,8 +58,9 @@ public class IpFinderThread extends Thread {
                 // try again
             }
         }
+        if (ip != null) Globals.localAddresses.setPublicAddress(ip);
 
         // tell activity to set the ipContainer text to this ip
-        activity.setIp(ip == null ? "Could not get IP" : ip);
+        activity.setIp(ip == null ? "Could not get IP" : ip + " (public)");
     }
 }
@@ -0,0 +1,288 @@
+package com.example.catchat;
+
+/**
+ * Holds received audio frames between the network and the player, in sequence number order.
+ *
+ * Frames arrive at uneven intervals (jitter), but must be played at a steady rate. The buffer waits
+ * until it holds a target number of frames before playing, so that a frame arriving a bit late is
+ * still in time. The target depth follows the measured inter-arrival jitter: the more the arrival
+ * times vary, the more frames are kept. When the buffer holds more than it needs (for example after
+ * a burst of delayed frames arrives all at once), frames are dropped to bring the delay back down.
+ *
+ * While the sender's user is silent, the sender stops sending (discontinuous transmission; see
+ * VoiceDetector). The player calls pause() when it reaches the noise update that starts the silence,
+ * so that the buffer running dry then is not counted as an underrun, and the buffer fills up to its
+ * target depth again when speech resumes, with the latest jitter estimate.
+ *
+ * With forward error correction (see FecDecoder), a lost frame is rebuilt when the parity of its
+ * group arrives, after the rest of the group. setMinDepth() keeps the target depth at least the
+ * group's length, so that the rebuilt frame is still in time.
+ *
+ * Frames are copied into preallocated slots, so adding and taking frames does not allocate.
+ * The network thread calls put() and the playing thread calls poll(). The statistics are only
+ * changed by put() and poll(), and can be read from any thread without waiting for them.
+ */
+public class JitterBuffer {
+    // returned by poll()
+    public static final int EMPTY = -1;  // nothing to play: waiting to fill up to the target depth
+    public static final int MISSING = -2;  // the frame due now was lost or has not arrived
+
+    private static final int jitterMultiplier = 3;  // how many times the average jitter to buffer
+
+    private final int frameDuration;  // in milliseconds
+    private final int capacity;  // in frames
+
+    // slots, indexed by sequence number modulo capacity
+    private final byte[][] frames;
+    private final int[] lengths;
+    private final int[] sequences;
+    private final boolean[] filled;
+
+    // volatile so that the depth can be read without locking
+    private volatile boolean started = false;  // whether any frame was put yet
+    private boolean buffering = true;  // whether waiting to reach the target depth before playing
+    private volatile int next = 0;  // sequence number of the next frame to play
+    private volatile int newest = 0;  // sequence number of the newest frame put
+
+    // RFC 3550 interarrival jitter estimate, in milliseconds
+    private boolean hasTransit = false;
+    private int lastTransit = 0;
+    private volatile double jitter = 0;
+    private volatile int targetDepth = 1;  // in frames
+    private volatile int minDepth = 1;  // see setMinDepth()
+
+    // statistics; volatile so they can be read without locking, and only changed while locked
+    private volatile long lateCount = 0;  // frames that arrived after their turn to play
+    private volatile long droppedCount = 0;  // frames dropped to reduce the delay
+    private volatile long missingCount = 0;  // frames that were not there when their turn came
+    private volatile long underrunCount = 0;  // times the buffer ran dry
+
+    /**
+     * Creates an empty jitter buffer.
+     * @param capacity the maximum number of frames held; also limits the target depth
+     * @param maxFrameSize the size in bytes of the largest frame
+     * @param frameDuration how many milliseconds of audio a frame holds
+     */
+    public JitterBuffer(int capacity, int maxFrameSize, int frameDuration) {
+        this.capacity = capacity;
+        this.frameDuration = frameDuration;
+
+        frames = new byte[capacity][maxFrameSize];
+        lengths = new int[capacity];
+        sequences = new int[capacity];
+        filled = new boolean[capacity];
+    }
+
+    /**
+     * Adds a received frame to the buffer.
+     * @param sequence the frame's sequence number
+     * @param timestamp the time the frame was sent, in the sender's clock (milliseconds)
+     * @param arrival the time the frame arrived, in this device's clock (milliseconds)
+     * @param data the array holding the frame
+     * @param offset where the frame starts in the array
+     * @param length the frame's size in bytes
+     * @return false if the frame was not added because it is late, a duplicate, or too big
+     */
+    public synchronized boolean put(int sequence, int timestamp, int arrival, byte[] data, int offset, int length) {
+        if (length > frames[0].length) return false;
+
+        updateJitter(timestamp, arrival);
+        return insert(sequence, data, offset, length);
+    }
+
+    /**
+     * Adds a frame rebuilt from the other frames of its group. Its arrival time says nothing about
+     * the network, so the jitter estimate is left alone.
+     * @param sequence the frame's sequence number
+     * @param data the array holding the frame
+     * @param offset where the frame starts in the array
+     * @param length the frame's size in bytes
+     * @return false if the frame was not added because it is late, a duplicate, or too big
+     */
+    public synchronized boolean putRecovered(int sequence, byte[] data, int offset, int length) {
+        if (length > frames[0].length || !started) return false;
+
+        return insert(sequence, data, offset, length);
+    }
+
+    /**
+     * Copies a frame into its slot.
+     * @param sequence the frame's sequence number
+     * @param data the array holding the frame
+     * @param offset where the frame starts in the array
+     * @param length the frame's size in bytes, at most the size of a slot
+     * @return false if the frame was not added because it is late or a duplicate
+     */
+    private boolean insert(int sequence, byte[] data, int offset, int length) {
+        if (!started) {
+            started = true;
+            next = sequence;
+            newest = sequence;
+        }
+
+        if (sequence - next < 0) {  // its turn to play has passed
+            lateCount++;
+            return false;
+        }
+
+        // too far ahead to fit: skip over the frames before it
+        if (sequence - next >= capacity) {
+            droppedCount += getDepth();
+            for (int i = 0; i < capacity; i++) filled[i] = false;
+            next = sequence - capacity + 1;
+        }
+
+        int slot = slot(sequence);
+        if (filled[slot] && sequences[slot] == sequence) return false;  // duplicate
+
+        System.arraycopy(data, offset, frames[slot], 0, length);
+        lengths[slot] = length;
+        sequences[slot] = sequence;
+        filled[slot] = true;
+
+        if (sequence - newest > 0) newest = sequence;
+        return true;
+    }
+
+    /**
+     * Takes the next frame to play. Called once per frame duration by the playing thread.
+     * @param frame the array to copy the frame into
+     * @return the size of the frame in bytes, or
+     *         EMPTY if there is nothing to play yet, or
+     *         MISSING if the frame due now is not in the buffer and should be concealed
+     */
+    public synchronized int poll(byte[] frame) {
+        if (buffering) {
+            if (!started || getDepth() < targetDepth) return EMPTY;
+            buffering = false;
+        }
+
+        if (getDepth() == 0) {  // ran dry; fill up to the target depth again
+            underrunCount++;
+            buffering = true;
+            return EMPTY;
+        }
+
+        // holding more than needed: drop the oldest frame to bring the delay back down
+        if (getDepth() > targetDepth + Math.max(1, targetDepth / 2)) {
+            filled[slot(next)] = false;
+            next++;
+            droppedCount++;
+        }
+
+        int slot = slot(next);
+        boolean present = filled[slot] && sequences[slot] == next;
+        next++;
+
+        if (!present) {
+            missingCount++;
+            return MISSING;
+        }
+
+        filled[slot] = false;
+        System.arraycopy(frames[slot], 0, frame, 0, lengths[slot]);
+        return lengths[slot];
+    }
+
+    /**
+     * Called by the playing thread when the sender stopped sending: waits until the buffer is back
+     * to its target depth before playing again, without counting an underrun.
+     */
+    public synchronized void pause() {
+        buffering = true;
+    }
+
+    /**
+     * Sets the fewest frames the buffer tries to hold, whatever the jitter.
+     * @param frames the minimum target depth; 1 for none
+     */
+    public synchronized void setMinDepth(int frames) {
+        minDepth = Math.max(1, Math.min(frames, capacity - 1));
+        targetDepth = Math.max(targetDepth, minDepth);
+    }
+
+    /**
+     * Updates the jitter estimate with a frame's transit time, and the target depth with it.
+     * The clocks of the two devices do not need to agree, since only changes in the transit time
+     * are used.
+     * @param timestamp the time the frame was sent, in the sender's clock
+     * @param arrival the time the frame arrived, in this device's clock
+     */
+    private void updateJitter(int timestamp, int arrival) {
+        int transit = arrival - timestamp;
+        if (hasTransit) {
+            int difference = Math.abs(transit - lastTransit);
+            jitter += (difference - jitter) / 16;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+
+        int depth = 1 + (int) Math.ceil(jitterMultiplier * jitter / frameDuration);
+        targetDepth = Math.max(minDepth, Math.min(depth, capacity - 1));
+    }
+
+    /**
+     * @param sequence a sequence number
+     * @return the index of the slot holding the frame with this sequence number
+     */
+    private int slot(int sequence) {
+        return Math.floorMod(sequence, capacity);
+    }
+
+    /**
+     * @return how many frames are between the next one to play and the newest one, inclusive,
+     *         including frames that have not arrived
+     */
+    public int getDepth() {
+        return started ? Math.max(0, newest - next + 1) : 0;
+    }
+
+    /**
+     * @return how many frames the buffer is trying to hold
+     */
+    public int getTargetDepth() {
+        return targetDepth;
+    }
+
+    /**
+     * @return the current delay added by the buffer, in milliseconds
+     */
+    public int getDelay() {
+        return getDepth() * frameDuration;
+    }
+
+    /**
+     * @return the estimated inter-arrival jitter, in milliseconds
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return how many frames arrived after their turn to play
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * @return how many frames were dropped to reduce the delay
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return how many frames were not there when their turn came
+     */
+    public long getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * @return how many times the buffer ran dry
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.catchat;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * The addresses other devices on the local network can call this device at, found by going through
+ * its network interfaces. Finding them takes a few milliseconds, so they are kept for the whole
+ * process, and only found again after invalidate(), which the app calls when the device's networks
+ * change (see ConnectActivity).
+ *
+ * Addresses that cannot be called from another device are left out: loopback, link-local (they need
+ * the interface to be named), multicast and those of interfaces that are down. IPv4 addresses come
+ * first, private ones before public ones, since those are the ones people type.
+ *
+ * Also keeps the public address, found by IpFinderThread when there is no local one; it is
+ * forgotten with the rest.
+ */
+public class LocalAddresses {
+    private List<InetAddress> addresses = null;  // null until found, and after a change; guarded by this
+    private String publicAddress = null;  // guarded by this
+    private int generation = 0;  // counts the changes, so a slow search does not undo one; guarded by this
+    private volatile Runnable listener = null;
+
+    /**
+     * @return the addresses, if they were found since the last change; null if they must be found
+     *         again with get()
+     */
+    public synchronized List<InetAddress> peek() {
+        return addresses;
+    }
+
+    /**
+     * Finds the addresses, unless they were found since the last change. May block for a few
+     * milliseconds; call it off the UI thread.
+     * @return the addresses, best first; empty if the device is not on a network
+     */
+    public List<InetAddress> get() {
+        int generation;
+        synchronized (this) {
+            if (addresses != null) return addresses;
+            generation = this.generation;
+        }
+
+        List<InetAddress> found;
+        try {
+            found = Collections.unmodifiableList(resolve());
+        } catch (SocketException e) {
+            return Collections.emptyList();  // not kept; try again next time
+        }
+
+        synchronized (this) {
+            if (generation == this.generation) addresses = found;  // else changed while searching
+        }
+        return found;
+    }
+
+    /**
+     * Forgets the addresses, after the device's networks changed, and tells the listener.
+     * Can be called from any thread.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            addresses = null;
+            publicAddress = null;
+            generation++;
+        }
+
+        Runnable listener = this.listener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Sets what to run when the addresses change, on the thread calling invalidate().
+     * @param listener what to run, or null for nothing
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the public address found by IpFinderThread since the last change, or null
+     */
+    public synchronized String getPublicAddress() {
+        return publicAddress;
+    }
+
+    /**
+     * Keeps the public address found by IpFinderThread, until the next change.
+     * @param publicAddress the address
+     */
+    public synchronized void setPublicAddress(String publicAddress) {
+        this.publicAddress = publicAddress;
+    }
+
+    /**
+     * Goes through the network interfaces, every time.
+     * @return the addresses other devices can call this device at, best first
+     * @throws SocketException if the interfaces cannot be read
+     */
+    public static List<InetAddress> resolve() throws SocketException {
+        List<InetAddress> found = new ArrayList<>();
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        if (interfaces == null) return found;  // no interfaces at all
+
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface networkInterface = interfaces.nextElement();
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) continue;
+
+            Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+            while (addresses.hasMoreElements()) {
+                InetAddress address = addresses.nextElement();
+                if (usable(address)) found.add(address);
+            }
+        }
+
+        found.sort((a, b) -> rank(a) - rank(b));
+        return found;
+    }
+
+    /**
+     * @param address an address of one of the interfaces
+     * @return true if another device can call this device at it
+     */
+    private static boolean usable(InetAddress address) {
+        return !address.isLoopbackAddress() && !address.isLinkLocalAddress()
+                && !address.isMulticastAddress() && !address.isAnyLocalAddress();
+    }
+
+    /**
+     * @param address a usable address
+     * @return its place in the list; lower comes first
+     */
+    private static int rank(InetAddress address) {
+        if (address instanceof Inet4Address) return address.isSiteLocalAddress() ? 0 : 1;
+        return (address.getAddress()[0] & 0xfe) == 0xfc ? 2 : 3;  // unique local (fc00::/7), then global
+    }
+}
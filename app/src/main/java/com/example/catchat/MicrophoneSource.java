@@ -0,0 +1,64 @@
+package com.example.catchat;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+
+/**
+ * Records the call's audio from the microphone, with an AudioRecord.
+ */
+public class MicrophoneSource implements AudioSource {
+    private AudioRecord audioIn = null;
+
+    /**
+     * Creates the AudioRecord and sets audio formatting.
+     * @param format the call's format
+     * @throws IOException if the AudioRecord could not be initialized
+     */
+    public MicrophoneSource(CallFormat format) throws IOException {
+        AudioFormat recordFormat = Globals.Record.format(format);
+
+        // create audio record object, used to get packets of audio bytes from the audio stream
+        audioIn = new AudioRecord (
+                MediaRecorder.AudioSource.VOICE_COMMUNICATION,
+                recordFormat.getSampleRate(),
+                recordFormat.getChannelMask(),
+                recordFormat.getEncoding(),
+                Globals.Record.bufferSize(format)
+        );
+
+        if (audioIn.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioIn.release();
+            throw new IOException("could not initialize audio recorder");
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        try {
+            audioIn.startRecording();
+        } catch (IllegalStateException e) {
+            throw new IOException("could not start recording", e);
+        }
+    }
+
+    /**
+     * Blocks until the samples are read from the AudioRecord buffer.
+     */
+    @Override
+    public int read(short[] samples, int count) throws IOException {
+        int returnCode = audioIn.read(samples, 0, count, AudioRecord.READ_BLOCKING);
+        if (returnCode < 0) {  // error code
+            throw new IOException("could not read audio: " + returnCode);
+        }
+
+        return returnCode;
+    }
+
+    @Override
+    public void release() {
+        audioIn.release();
+    }
+}
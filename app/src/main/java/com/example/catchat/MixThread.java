@@ -0,0 +1,99 @@
+package com.example.catchat;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The conference's clock: once per packet duration, takes a packet of audio from every participant
+ * of the ConferenceBridge, mixes them with the ConferenceMixer, and gives each participant its mix.
+ * A participant whose audio did not arrive in time is left out of that mix, so one slow participant
+ * never holds up the others.
+ */
+public class MixThread extends Thread {
+    private ConferenceBridge bridge = null;  // mixing for
+    private ConferenceMixer mixer = null;
+    private final long packetNanos;
+
+    // statistics; volatile so they can be read without locking, and only changed by this thread
+    private volatile long mixCount = 0;
+    private volatile long mixNanos = 0;  // total time spent taking, mixing and giving out packets
+    private volatile long lateCount = 0;  // mixes that started more than a packet late
+
+    /**
+     * Instantiates a mixing thread.
+     * @param bridge the bridge whose participants are mixed
+     * @param format the conference's format
+     * @param mixer the mixer, with a slot for every participant the bridge holds
+     */
+    public MixThread(ConferenceBridge bridge, CallFormat format, ConferenceMixer mixer) {
+        super("mixer 0");
+        this.bridge = bridge;
+        this.mixer = mixer;
+        packetNanos = format.getPacketSizeInMillis() * 1_000_000L;
+    }
+
+    /**
+     * Until this thread is interrupted, mixes one packet per packet duration.
+     * Closes the mixer when done.
+     */
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (!this.isInterrupted()) {
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0 && !this.isInterrupted()) {
+                LockSupport.parkNanos(this, wait);
+            }
+
+            long start = System.nanoTime();
+            try {
+                mixOnce();
+            } catch (InterruptedException e) {
+                break;
+            }
+            mixNanos += System.nanoTime() - start;
+            mixCount++;
+
+            // fell behind by more than a packet (the machine is overloaded): skip ahead, rather
+            // than mixing packets in a burst
+            next += packetNanos;
+            if (System.nanoTime() - next > packetNanos) {
+                lateCount++;
+                next = System.nanoTime();
+            }
+        }
+
+        mixer.close();
+    }
+
+    /**
+     * Takes a packet from every participant, mixes them and gives each participant its mix.
+     * @throws InterruptedException if interrupted while mixing
+     */
+    private void mixOnce() throws InterruptedException {
+        ConferenceParticipant[] participants = bridge.getParticipants();
+        for (int i = 0; i < participants.length; i++) {
+            mixer.setSpeaking(i, participants[i].takeHeard(mixer.getInput(i)));
+        }
+
+        mixer.mix(participants.length);
+
+        for (int i = 0; i < participants.length; i++) {
+            participants[i].offerMix(mixer.getOutput(i));
+        }
+    }
+
+    /**
+     * @return the average time to mix a packet for every participant, in microseconds
+     */
+    public double getMixMicros() {
+        long mixes = mixCount;
+        return mixes == 0 ? 0 : mixNanos / 1000.0 / mixes;
+    }
+
+    /**
+     * @return how many times mixing fell more than a packet behind the clock
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.catchat;
+
+/**
+ * G.711 mu-law: each 16-bit sample is stored in 8 bits on a logarithmic scale, so quiet sounds keep
+ * more precision than loud ones. One table lookup per sample to decode, a few shifts to encode.
+ */
+public class MuLawCodec implements AudioCodec {
+    private static final int bias = 0x84;
+    private static final int clip = 32635;
+
+    // position of the highest set bit of (sample >> 7), for encoding
+    private static final byte[] exponents = new byte[256];
+    // the sample each of the 256 codes stands for, for decoding
+    private static final short[] decoded = new short[256];
+
+    static {
+        for (int i = 2; i < 256; i++) {
+            exponents[i] = (byte) (31 - Integer.numberOfLeadingZeros(i));
+        }
+
+        for (int i = 0; i < 256; i++) {
+            int code = ~i & 0xFF;
+            int magnitude = (((code & 0x0F) << 3) + bias) << ((code & 0x70) >> 4);
+            decoded[i] = (short) ((code & 0x80) != 0 ? bias - magnitude : magnitude - bias);
+        }
+    }
+
+    @Override
+    public byte getId() {
+        return PacketHeader.CODEC_MULAW;
+    }
+
+    @Override
+    public int encode(short[] samples, int count, byte[] output, int offset) {
+        for (int i = 0; i < count; i++) {
+            int sample = samples[i];
+            int sign = (sample >> 8) & 0x80;
+            if (sign != 0) sample = -sample;
+            if (sample > clip) sample = clip;
+            sample += bias;
+
+            int exponent = exponents[(sample >> 7) & 0xFF];
+            int mantissa = (sample >> (exponent + 3)) & 0x0F;
+            output[offset + i] = (byte) ~(sign | (exponent << 4) | mantissa);
+        }
+        return count;
+    }
+
+    @Override
+    public int decode(byte[] input, int offset, int length, short[] samples) {
+        int count = Math.min(length, samples.length);
+        for (int i = 0; i < count; i++) {
+            samples[i] = decoded[input[offset + i] & 0xFF];
+        }
+        return count;
+    }
+
+    @Override
+    public void release() {
+        // nothing to free
+    }
+}
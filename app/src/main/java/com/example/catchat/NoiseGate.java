@@ -0,0 +1,84 @@
+package com.example.catchat;
+
+/**
+ * Noise gate stage of an AudioChain: turns the audio down between words, so background noise
+ * (a fan, traffic) is not heard while nobody speaks.
+ *
+ * The gate opens when the RMS level of a packet reaches openLevel, and closes once the level has
+ * stayed below half of it for holdMillis, so it does not close between the syllables of a word, and
+ * does not flutter around a single threshold. Closed, it turns the audio down to floorGain instead
+ * of muting it, so the room does not sound dead. It opens in a few milliseconds, to keep the start
+ * of words, and closes over a tenth of a second.
+ */
+public class NoiseGate implements AudioProcessor {
+    public static final float defaultOpenLevel = 0.01f;  // RMS, of full scale; -40 dBFS
+    public static final float defaultFloorGain = 0.1f;  // -20 dB
+    public static final int defaultHoldMillis = 200;
+    private static final float attackSeconds = 0.005f;  // time to open fully
+    private static final float releaseSeconds = 0.1f;  // time to close fully
+
+    private final float openLevel;
+    private final float closeLevel;
+    private final float floorGain;
+    private final int holdSamples;
+    private final float attackStep;  // gain change per sample while opening
+    private final float releaseStep;  // gain change per sample while closing
+
+    private boolean open = false;
+    private int quietSamples = 0;  // since the level last reached openLevel
+    private float gain;  // at the end of the last packet
+
+    /**
+     * Creates a noise gate with the default levels and hold time.
+     * @param sampleRate the sample rate of the audio, in Hz
+     */
+    public NoiseGate(int sampleRate) {
+        this(sampleRate, defaultOpenLevel, defaultFloorGain, defaultHoldMillis);
+    }
+
+    /**
+     * Creates a noise gate.
+     * @param sampleRate the sample rate of the audio, in Hz
+     * @param openLevel the RMS level that opens the gate, as a fraction of full scale
+     * @param floorGain the gain while the gate is closed, between 0 (mute) and 1
+     * @param holdMillis how long the level must stay low before the gate closes
+     */
+    public NoiseGate(int sampleRate, float openLevel, float floorGain, int holdMillis) {
+        this.openLevel = openLevel;
+        this.closeLevel = openLevel / 2;
+        this.floorGain = floorGain;
+        this.holdSamples = (int) ((long) holdMillis * sampleRate / 1000);
+        attackStep = (1 - floorGain) / (attackSeconds * sampleRate);
+        releaseStep = (1 - floorGain) / (releaseSeconds * sampleRate);
+        gain = floorGain;
+    }
+
+    /**
+     * @return whether the gate was open after the last packet
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void process(float[] samples, int count) {
+        if (count == 0) return;
+
+        float level = AudioChain.rms(samples, count);
+
+        if (level >= openLevel) {
+            open = true;
+            quietSamples = 0;
+        } else if (level < closeLevel) {
+            quietSamples = Math.min(holdSamples, quietSamples + count);
+            if (quietSamples == holdSamples) open = false;
+        }  // in between: stays as it is
+
+        // move towards the gate's gain no faster than the attack or release allows
+        float target = open
+                ? Math.min(1, gain + attackStep * count)
+                : Math.max(floorGain, gain - releaseStep * count);
+        AudioChain.ramp(samples, count, gain, target);
+        gain = target;
+    }
+}
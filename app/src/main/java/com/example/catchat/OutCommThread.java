@@ -1,154 +1,122 @@
 package com.example.catchat;
 
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
-
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.Deflater;
 
 /**
  * Outbound communications thread
- * Handles input from AudioRecord and output to the network.
+ * Handles input from the AudioSource, and starts the rest of the outbound pipeline:
+ *      OutCommThread (records) -> EncodeThread (encodes) -> SendThread (sends to the network)
+ * The stages are connected by lock-free FrameRings, so a slow network write never stops the
+ * recording. If the network falls behind, the oldest waiting packets are dropped.
  */
 public class OutCommThread extends Thread {
-    private CallActivity activity = null;  // the activity that started this thread
-    private AudioRecord audioIn = null;
+    private CallListener listener = null;  // communicating for
+    private AudioSource audioIn = null;
+
+    private final short[] samples;  // the packet being recorded
+    private final FrameRing<short[]> captured;  // to the EncodeThread
+    private final FrameRing<byte[]> encoded;  // from the EncodeThread to the SendThread
+    private final EncodeThread encoder;
+    private final SendThread sender;
 
     /**
-     * Instantiates an outbound communications thread.
-     * Creates an AudioRecord audioIn.
+     * Instantiates an outbound communications thread, and the other stages of the pipeline.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param media the transport audio packets are sent with
+     * @param audioIn the source of the audio to send
+     * @param stats the call's statistics
+     * @param discontinuous true to not send packets that only hold background noise
+     * @param bitrate picks the codec and sample rate of each packet, or null to use the call's
+     * @param fec builds the parity packets to send, or null to send none
+     * @param chain the processing run on recorded packets before they are encoded, or null for none
      */
-    public OutCommThread(CallActivity activity) {
-        this.activity = activity;
-
-        // get input stream from microphone
-        try {
-            this.audioIn = this.getAudioInputStream();
-        } catch (Exception e) {
-            activity.endCall("could not initialize audio recorder");
-        }
+    public OutCommThread(CallListener listener, CallFormat format, PacketTransport media, AudioSource audioIn,
+                         CallStats stats, boolean discontinuous, BitrateController bitrate, FecEncoder fec,
+                         AudioChain chain) {
+        this.listener = listener;
+        this.audioIn = audioIn;
+
+        int queueCapacity = CallEngine.queueCapacity(format);
+        samples = new short[format.getPacketSizeInFrames()];
+        captured = new FrameRing<>(
+                new short[queueCapacity][format.getPacketSizeInFrames()],
+                CallEngine.dropOldest
+        );
+        encoded = new FrameRing<>(
+                new byte[queueCapacity][format.getMaxPacketSizeInBytes()],
+                CallEngine.dropOldest
+        );
+        encoder = new EncodeThread(format, captured, encoded, stats, discontinuous, bitrate, chain);
+        sender = new SendThread(listener, format, media, encoded, stats, fec);
     }
 
     /**
-     * Creates the AudioRecord object and sets audio formatting
-     * @return the AudioRecord object.
-     * @throws Exception if AudioRecord could not be initialized
+     * @return the queue between recording and encoding
      */
-    private AudioRecord getAudioInputStream() throws Exception {
-        // create audio record object, used to get packets of audio bytes from the audio stream
-        AudioRecord recorder = new AudioRecord (
-                 MediaRecorder.AudioSource.VOICE_COMMUNICATION,
-                 Globals.Record.format.getSampleRate(),
-                 Globals.Record.format.getChannelMask(),
-                 Globals.Record.format.getEncoding(),
-                 Globals.Record.bufferSize  // slightly more than two full packets
-        );
-
-        if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
-            throw new Exception();
-        }
-
-        return recorder;
+    public FrameRing<short[]> getCaptureQueue() {
+        return captured;
     }
 
     /**
-     * Until this thread is interrupted, reads audio from microphone and sends it to the socket
-     * output stream.
-     * Releases the AudioRecord when done.
+     * @return the queue between encoding and sending
      */
-    @Override
-    public void run() {
-        this.audioIn.startRecording();
-
-        while (!this.isInterrupted()) {
-            sendNextAudioPacket();  // will block until sufficient data is read from the buffer
-        }
-
-        this.audioIn.release();
+    public FrameRing<byte[]> getSendQueue() {
+        return encoded;
     }
 
     /**
-     * Gets a packet from the microphone, compresses it, and sends it to the socket output stream.
+     * Starts the encoding and sending threads, then until this thread is interrupted, reads audio
+     * from the source and passes it to the encoding thread.
+     * Releases the source when done.
      */
-    private void sendNextAudioPacket() {
-        byte[] packet;
-
-        try {
-            packet = getNextPacket();
-        } catch (Exception e) {
-            activity.endCall("could not record audio");
-            return;
-        }
-
-        byte[] compressedPacket = compress(packet);
+    @Override
+    public void run() {
+        encoder.start();
+        sender.start();
 
         try {
-            send(compressedPacket);
+            audioIn.start();
         } catch (IOException e) {
-            activity.endCall("connection ended");
+            listener.endCall("could not record audio");
+            audioIn.release();
+            return;  // the engine stops the other stages
         }
-    }
 
-    /**
-     * Gets the next packet from the AudioRecord buffer.
-     * Blocks until entire packet is read.
-     * @return the packet as a byte array
-     * @throws Exception if AudioRecord data could not be read
-     */
-    private byte[] getNextPacket() throws Exception {
-        // create a buffer into which to read audio data
-        byte[] data = new byte[Globals.packetSizeInBytes];
-        int returnCode = this.audioIn.read(data, 0, Globals.packetSizeInBytes, AudioRecord.READ_BLOCKING);
-        if (returnCode < 0) {  // error code
-            throw new Exception();
+        while (!this.isInterrupted()) {
+            if (!recordNextPacket()) break;  // will block until sufficient data is read from the source
         }
 
-        return data;
+        audioIn.release();
     }
 
     /**
-     * Compresses an array of bytes.
-     * @param data the array of bytes to be compressed
-     * @return the compressed array of bytes
+     * Gets a packet from the source and adds it to the captured ring. Never waits for the
+     * encoding thread.
+     * @return false if the source failed, and the call is over
      */
-    private byte[] compress(byte[] data) {
-        Deflater compresser = new Deflater(Deflater.DEFLATED, false);
-        compresser.setInput(data);
-        compresser.finish();
-
-        // compresser cannot compress everything at once; compress in pieces and write to a stream
-        ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length);
-        byte[] buffer = new byte[1024];
-        while (!compresser.finished()) {
-            int count = compresser.deflate(buffer);
-            stream.write(buffer, 0, count);
-        }
+    private boolean recordNextPacket() {
+        int count;
 
+        // blocks until entire packet is read
         try {
-            stream.close();
+            count = audioIn.read(samples, samples.length);
         } catch (IOException e) {
-            // do nothing
+            if (!this.isInterrupted()) listener.endCall("could not record audio");
+            return false;
         }
-        compresser.end();
 
-        return stream.toByteArray();
+        if (count > 0) captured.offer(samples, count);
+        return true;
     }
 
     /**
-     * Sends a compressed packet (or any array of bytes) to the Global socket's output stream.
-     * @param data array of bytes to be sent
-     * @throws IOException if writing to stream failed
+     * Interrupts this thread and the other stages of the pipeline.
      */
-    private void send(byte[] data) throws IOException {
-        try {
-            // write the length in bytes of the packet
-            Globals.sock.writeInt(data.length);
-
-            // write the data to the stream's buffer, from 0 to its length (all the data)
-            Globals.sock.writeBytes(data);
-        } catch (NullPointerException e) {
-            // someone else called activity.endCall(); do nothing
-        }
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        encoder.interrupt();
+        sender.interrupt();
     }
 }
@@ -0,0 +1,155 @@
+package com.example.catchat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The header at the start of every packet sent during a call, similar to an RTP header.
+ * Layout (12 bytes, big endian):
+ *      type (1 byte), codec (1 byte), flags (2 bytes), sequence number (4 bytes),
+ *      sender timestamp in milliseconds (4 bytes)
+ *
+ * An instance is reused for every packet a thread reads or writes, to avoid allocating.
+ */
+public class PacketHeader {
+    public static final int SIZE = 12;  // in bytes
+
+    // packet types; a device ignores packets of types it does not know, so new ones can be added
+    public static final byte TYPE_AUDIO = 1;
+    public static final byte TYPE_PING = 2;  // payload: send time in nanoseconds; see HeartbeatThread
+    public static final byte TYPE_PONG = 3;  // payload: the ping's send time, receive time, reply time
+    public static final byte TYPE_STATS = 4;  // payload: a receiver report; see HeartbeatThread
+    // call setup, over the TCP connection; see Capabilities
+    public static final byte TYPE_HELLO = 5;  // payload: the caller's Capabilities
+    public static final byte TYPE_ACCEPT = 6;  // payload: the CallFormat of the call
+    public static final byte TYPE_DECLINE = 7;  // payload: one of the DECLINE_ reasons (1 byte)
+    // sent instead of audio while the user is silent; payload: the noise level (2 bytes), see VoiceDetector
+    public static final byte TYPE_NOISE = 8;
+    // XOR of a group of packets, to rebuild one lost packet; sequence: the group's first packet,
+    // flags: which of the 16 packets from it are in the group. See FecEncoder
+    public static final byte TYPE_PARITY = 9;
+    // sent over UDP multicast to the local network, outside calls; see DiscoveryThread
+    public static final byte TYPE_ANNOUNCE = 10;  // payload: the sender's id, call port and name
+
+    // reasons for declining a call
+    public static final byte DECLINE_INCOMPATIBLE = 1;  // no protocol version or format in common
+    public static final byte DECLINE_BUSY = 2;  // already in a call
+
+    // flags
+    // audio packets: the sample rate is divided by 2 to the power of (flags & FLAG_RATE_SHIFT), to
+    // send fewer bytes; the receiver brings it back up. See BitrateController
+    public static final short FLAG_RATE_SHIFT = 0x3;
+
+    // codecs; see AudioCodecs
+    public static final byte CODEC_DEFLATE = 0;  // 8-bit PCM compressed with Deflater
+    public static final byte CODEC_MULAW = 1;  // G.711 mu-law
+    public static final byte CODEC_ADPCM = 2;  // IMA ADPCM
+
+    private byte type;
+    private byte codec;
+    private short flags;
+    private int sequence;
+    private int timestamp;
+
+    /**
+     * Sets the header fields.
+     * @param type one of the TYPE_ constants
+     * @param codec one of the CODEC_ constants
+     * @param sequence the packet's sequence number; increases by one for every packet sent
+     * @param timestamp the time the packet was sent, in the sender's clock (see now())
+     */
+    public void set(byte type, byte codec, int sequence, int timestamp) {
+        this.type = type;
+        this.codec = codec;
+        this.flags = 0;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Sets the flags, after set().
+     * @param flags a combination of the FLAG_ constants
+     */
+    public void setFlags(short flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * Writes the header at the buffer's position, and moves the position past it.
+     * @param buffer the buffer to write to
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.put(type);
+        buffer.put(codec);
+        buffer.putShort(flags);
+        buffer.putInt(sequence);
+        buffer.putInt(timestamp);
+    }
+
+    /**
+     * Reads the header at the buffer's position, and moves the position past it, to the payload.
+     * @param buffer the buffer to read from
+     * @return false if the buffer is too short to hold a header
+     */
+    public boolean read(ByteBuffer buffer) {
+        if (buffer.remaining() < SIZE) return false;
+
+        type = buffer.get();
+        codec = buffer.get();
+        flags = buffer.getShort();
+        sequence = buffer.getInt();
+        timestamp = buffer.getInt();
+        return true;
+    }
+
+    /**
+     * Reads the sequence number of a packet without reading the rest of its header.
+     * @param packet the buffer holding the packet, from index 0
+     * @return the packet's sequence number
+     */
+    public static int sequenceOf(ByteBuffer packet) {
+        return packet.getInt(4);  // after the type, codec and flags
+    }
+
+    /**
+     * @return the current time in milliseconds, for the timestamp field. Only differences between
+     *         two timestamps are meaningful; they stay correct when the value wraps around.
+     */
+    public static int now() {
+        return (int) (System.nanoTime() / 1000000);
+    }
+
+    /**
+     * @return the packet type
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return the codec the payload is encoded with
+     */
+    public byte getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return the flags
+     */
+    public short getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the sender timestamp
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.catchat;
+
+/**
+ * Makes up audio for packets that are missing or could not be decoded, so playback keeps its timing
+ * without the clicks and gaps of playing silence. Works like G.711 Appendix I: keeps the last audio
+ * played, finds its pitch period, and repeats the last period of it. The repetition fades out after
+ * the first 10 ms, and is silent after 60 ms, since a long tone would sound worse than a gap.
+ * When audio resumes, the first few milliseconds are blended with the repetition, so there is no
+ * click either way.
+ *
+ * The pitch is searched once per loss, on every step-th sample for a sample rate of about 8000 Hz,
+ * then refined around the best match; the work per packet is bounded whatever the sample rate.
+ * Does not allocate. Used by the PlayThread only.
+ */
+public class PacketLossConcealer {
+    // pitch periods searched: voices are between these
+    private static final int minPitchHz = 66;
+    private static final int maxPitchHz = 400;
+    private static final int windowMillis = 10;  // audio compared to find the pitch
+    private static final int searchRate = 8000;  // in Hz; the coarse search runs at about this rate
+    private static final int fadeStartMillis = 10;  // the repetition is played as is until then
+    private static final int fadeEndMillis = 60;  // and silent from then
+    private static final int mergeMillis = 5;  // blended with the audio that comes after a loss
+
+    private final int minPeriod;  // in samples
+    private final int maxPeriod;
+    private final int window;
+    private final int step;  // of the coarse search
+    private final int fadeStart;
+    private final int fadeEnd;
+    private final int mergeLength;
+
+    private final short[] history;  // the last audio played, oldest first
+    private int historyFilled = 0;  // how many samples of history are audio; the rest are zeros
+    private final short[] cycle;  // the period repeated, smoothed at the ends so it loops without a click
+
+    private boolean concealing = false;
+    private int period = 0;  // length of the cycle, in samples
+    private int position = 0;  // of the next sample to play in the cycle
+    private int concealed = 0;  // samples made up since the loss started
+
+    /**
+     * Creates a concealer for the call's format.
+     * @param format the call's format
+     */
+    public PacketLossConcealer(CallFormat format) {
+        int rate = format.getSampleRate();
+        minPeriod = rate / maxPitchHz;
+        maxPeriod = rate / minPitchHz;
+        window = rate * windowMillis / 1000;
+        step = Math.max(1, rate / searchRate);
+        fadeStart = rate * fadeStartMillis / 1000;
+        fadeEnd = rate * fadeEndMillis / 1000;
+        mergeLength = rate * mergeMillis / 1000;
+
+        history = new short[maxPeriod + window];
+        cycle = new short[maxPeriod];
+    }
+
+    /**
+     * Called with every packet of audio that is about to be played, except concealed ones.
+     * If it ends a loss, blends its start with the made up audio.
+     * @param samples the audio; changed in place at the start, if it ends a loss
+     * @param count how many samples it holds
+     */
+    public void received(short[] samples, int count) {
+        if (concealing) {
+            merge(samples, Math.min(count, mergeLength));
+            concealing = false;
+        }
+
+        // keep the newest history.length samples
+        if (count >= history.length) {
+            System.arraycopy(samples, count - history.length, history, 0, history.length);
+        } else {
+            System.arraycopy(history, count, history, 0, history.length - count);
+            System.arraycopy(samples, 0, history, history.length - count, count);
+        }
+        historyFilled = Math.min(history.length, historyFilled + count);
+    }
+
+    /**
+     * Makes up a packet of audio in place of a missing one.
+     * @param samples the array to write the audio to
+     * @param count how many samples to make up
+     */
+    public void conceal(short[] samples, int count) {
+        if (!concealing) {
+            concealing = true;
+            concealed = 0;
+            position = 0;
+            period = historyFilled < history.length ? 0 : findPeriod();
+            if (period > 0) buildCycle();
+        }
+
+        for (int i = 0; i < count; i++) samples[i] = next();
+    }
+
+    /**
+     * @return the next made up sample, faded out with the time since the loss started
+     */
+    private short next() {
+        if (period == 0 || concealed >= fadeEnd) return 0;
+
+        int sample = cycle[position];
+        if (++position == period) position = 0;
+        if (concealed > fadeStart) sample = sample * (fadeEnd - concealed) / (fadeEnd - fadeStart);
+        concealed++;
+        return (short) sample;
+    }
+
+    /**
+     * Blends the start of the audio that ends a loss with what would have been made up next.
+     * @param samples the audio
+     * @param count how many samples to blend
+     */
+    private void merge(short[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            int made = next();
+            samples[i] = (short) ((samples[i] * (i + 1) + made * (count - i - 1)) / count);
+        }
+    }
+
+    /**
+     * Finds the pitch period of the newest audio in the history: the lag at which the last window
+     * of audio best matches the audio before it.
+     * @return the period, in samples
+     */
+    private int findPeriod() {
+        int best = maxPeriod;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int lag = minPeriod; lag <= maxPeriod; lag += step) {
+            double score = match(lag, step);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+
+        // the coarse search is at most step - 1 samples off
+        int coarse = best;
+        bestScore = Double.NEGATIVE_INFINITY;
+        for (int lag = Math.max(minPeriod, coarse - step + 1); lag <= Math.min(maxPeriod, coarse + step - 1); lag++) {
+            double score = match(lag, 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compares the last window of the history with the window lag samples before it.
+     * @param lag how far back the second window starts, in samples
+     * @param stride compares every stride-th sample
+     * @return the correlation of the two windows, divided by the square root of the second one's
+     *         energy so that loud windows are not favoured; higher is a better match
+     */
+    private double match(int lag, int stride) {
+        int end = history.length - window;
+        long product = 0;
+        long energy = 1;  // never divides by 0
+        for (int i = 0; i < window; i += stride) {
+            int a = history[end + i];
+            int b = history[end + i - lag];
+            product += a * b;
+            energy += b * b;
+        }
+        return product / Math.sqrt(energy);
+    }
+
+    /**
+     * Copies the last period of the history into the cycle. The end of the cycle is blended into
+     * the audio just before the period, which is what comes before the start of the cycle, so
+     * repeating it does not click.
+     */
+    private void buildCycle() {
+        int start = history.length - period;
+        System.arraycopy(history, start, cycle, 0, period);
+
+        int overlap = period / 4;
+        for (int i = 0; i < overlap; i++) {
+            int from = cycle[period - overlap + i];
+            int to = history[start - overlap + i];
+            cycle[period - overlap + i] = (short) ((from * (overlap - i) + to * i) / overlap);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends and receives whole packets (a PacketHeader followed by its payload) during a call.
+ * Implemented over the TCP connection (TcpTransport) and over UDP datagrams (UdpTransport).
+ */
+public interface PacketTransport {
+    /**
+     * Sends a packet. Safe to call from several threads.
+     * @param packet the packet, from the buffer's position to its limit
+     * @throws IOException if sending failed
+     */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Blocks until a packet is received, and reads it into the buffer.
+     * @param packet the buffer to read into; on return, it is flipped to hold the packet
+     * @throws IOException if receiving failed or the connection was closed
+     */
+    void receive(ByteBuffer packet) throws IOException;
+
+    /**
+     * Closes the transport, unblocking any receive() call.
+     */
+    void close();
+}
@@ -0,0 +1,73 @@
+package com.example.catchat;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A device found on the local network by discovery (see DiscoveryThread).
+ * Everything but the time it was last heard from is fixed; a peer that changes name or address is
+ * replaced in the PeerDirectory.
+ */
+public class Peer {
+    private final long id;  // picked at random by the peer's DiscoveryThread when it starts
+    private final String name;
+    private final InetSocketAddress address;  // where the peer takes calls
+    private volatile long lastSeen;  // in System.nanoTime()
+
+    /**
+     * Creates a peer.
+     * @param id the peer's id
+     * @param name the peer's name, shown to the user
+     * @param address where the peer takes calls
+     * @param lastSeen when the peer was heard from, in System.nanoTime()
+     */
+    public Peer(long id, String name, InetSocketAddress address, long lastSeen) {
+        this.id = id;
+        this.name = name;
+        this.address = address;
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * @return the peer's id, which stays the same while its discovery runs
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the peer's name, shown to the user
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return where the peer takes calls
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return when the peer was last heard from, in System.nanoTime()
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Records that the peer was heard from. Only called by the PeerDirectory.
+     * @param lastSeen the time, in System.nanoTime()
+     */
+    void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * @return the name and IP address, as shown in the list of peers
+     */
+    @Override
+    public String toString() {
+        return name + " (" + address.getAddress().getHostAddress() + ")";
+    }
+}
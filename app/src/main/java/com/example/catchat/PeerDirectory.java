@@ -0,0 +1,91 @@
+package com.example.catchat;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The peers discovery heard from recently, by id. A peer that has not announced itself for ttlMillis
+ * is forgotten, so devices that left the network or were turned off drop out of the list without
+ * saying goodbye. Holds at most maxPeers peers, so a flood of announcements cannot grow it.
+ *
+ * Changed by the DiscoveryThread; can be read from any thread.
+ */
+public class PeerDirectory {
+    public static final int maxPeers = 64;
+
+    private final long ttlNanos;
+    private final ConcurrentHashMap<Long, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty directory.
+     * @param ttlMillis how long a peer is kept after it was last heard from, in milliseconds
+     */
+    public PeerDirectory(int ttlMillis) {
+        ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Records an announcement from a peer.
+     * @param id the peer's id
+     * @param name the peer's name
+     * @param address where the peer takes calls
+     * @param now the time, in System.nanoTime()
+     * @return true if the peer is new or changed, and the list shown must be updated
+     */
+    public boolean update(long id, String name, InetSocketAddress address, long now) {
+        Peer known = peers.get(id);
+        if (known != null && known.getName().equals(name) && known.getAddress().equals(address)) {
+            known.setLastSeen(now);
+            return false;
+        }
+        if (known == null && peers.size() >= maxPeers) return false;
+
+        peers.put(id, new Peer(id, name, address, now));
+        return true;
+    }
+
+    /**
+     * Forgets a peer that said goodbye.
+     * @param id the peer's id
+     * @return true if the peer was known
+     */
+    public boolean remove(long id) {
+        return peers.remove(id) != null;
+    }
+
+    /**
+     * Forgets the peers not heard from for the time to live.
+     * @param now the time, in System.nanoTime()
+     * @return true if a peer was forgotten
+     */
+    public boolean expire(long now) {
+        boolean changed = false;
+        Iterator<Peer> iterator = peers.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getLastSeen() > ttlNanos) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the peers known now, sorted by name; later changes do not show in the list
+     */
+    public List<Peer> getPeers() {
+        List<Peer> list = new ArrayList<>(peers.values());
+        list.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+        return list;
+    }
+
+    /**
+     * @return how many peers are known
+     */
+    public int size() {
+        return peers.size();
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * The playing thread.
+ * Takes packets from the JitterBuffer, decodes them with the codec named in their header, and
+ * writes them to the AudioSink.
+ * Writing blocks while the sink's buffer is full, so packets are taken at the rate they are played.
+ * While the other device is not sending because its user is silent, plays comfort noise at the
+ * level of its last noise update. Packets sent at a lower sample rate (see BitrateController) are
+ * brought back to the call's rate. Packets that are missing or cannot be decoded are made up from
+ * the audio before them (see PacketLossConcealer), so one bad packet never ends the call.
+ * With an AudioChain, each packet is processed just before it is played.
+ */
+public class PlayThread extends Thread {
+    private CallListener listener = null;  // communicating for
+    private AudioSink audioOut = null;
+    private JitterBuffer jitterBuffer = null;
+    private CallStats stats = null;
+
+    private final byte[] frame;  // encoded packet, header included
+    private final ByteBuffer frameBuffer;  // wraps frame, to read the header
+    private final PacketHeader header = new PacketHeader();
+    private final short[] samples;  // decoded
+    private final short[] reduced;  // decoded at a lower sample rate
+    private final RateConverter rateConverter = new RateConverter();
+    private final PacketLossConcealer concealer;
+    private final ComfortNoise comfortNoise = new ComfortNoise();
+    private boolean quiet = false;  // whether the other device stopped sending; see JitterBuffer.pause()
+    private final AudioCodec[] decoders = new AudioCodec[AudioCodecs.count];  // created on first use
+    private final AudioChain chain;  // null to play the packets as decoded
+
+    /**
+     * Instantiates a playing thread.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param jitterBuffer the buffer the InCommThread puts received packets in
+     * @param audioOut where to play the audio
+     * @param stats the call's statistics
+     * @param chain the processing run on each packet just before it is played, or null for none
+     */
+    public PlayThread(CallListener listener, CallFormat format, JitterBuffer jitterBuffer, AudioSink audioOut,
+                      CallStats stats, AudioChain chain) {
+        this.listener = listener;
+        this.jitterBuffer = jitterBuffer;
+        this.audioOut = audioOut;
+        this.stats = stats;
+        this.chain = chain;
+
+        frame = new byte[format.getMaxPacketSizeInBytes()];
+        frameBuffer = ByteBuffer.wrap(frame);
+        samples = new short[format.getPacketSizeInFrames()];
+        reduced = new short[format.getPacketSizeInFrames()];
+        concealer = new PacketLossConcealer(format);
+    }
+
+    /**
+     * Until this thread is interrupted, plays the packets in the jitter buffer.
+     * Releases the sink and the codecs when done.
+     */
+    @Override
+    public void run() {
+        try {
+            audioOut.start();
+        } catch (IOException e) {
+            listener.endCall("could not play audio");
+            audioOut.release();
+            return;  // nothing decoded yet, so no codec to release
+        }
+
+        while (!this.isInterrupted()) {
+            try {
+                playNextFrame();  // will block until there is space in the sink's buffer
+            } catch (IOException e) {
+                if (!this.isInterrupted()) listener.endCall("could not play audio");
+                break;
+            }
+        }
+
+        audioOut.release();
+        for (AudioCodec decoder : decoders) {
+            if (decoder != null) decoder.release();
+        }
+    }
+
+    /**
+     * Takes the next packet from the jitter buffer, decodes it and writes it to the sink.
+     * Makes up audio in its place if the packet is not there or cannot be decoded, so the timing is
+     * kept, or plays comfort noise if the other device is not sending.
+     * The same buffers are used for every packet, so nothing is allocated.
+     * @throws IOException if the sink could not play the audio
+     */
+    private void playNextFrame() throws IOException {
+        int length = jitterBuffer.poll(frame);
+        if (length < 0) {
+            if (quiet) {
+                playComfortNoise();
+                return;
+            }
+            // while the buffer fills up, this fades out the audio before, or is silent
+            if (length == JitterBuffer.MISSING) stats.concealed();
+            playConcealment();
+            return;
+        }
+
+        frameBuffer.clear();
+        frameBuffer.limit(length);
+        if (header.read(frameBuffer) && header.getType() == PacketHeader.TYPE_NOISE) {
+            if (frameBuffer.remaining() >= 2) comfortNoise.setLevel(frameBuffer.getShort() & 0x7fff);
+            jitterBuffer.pause();  // nothing more comes until the next update or the user speaks
+            quiet = true;
+            playComfortNoise();
+            return;
+        }
+        quiet = false;
+
+        // try to decode data
+        int count;
+        try {
+            long start = System.nanoTime();
+            count = decode(length);
+            stats.decoded(System.nanoTime() - start);
+        } catch (DataFormatException e) {
+            stats.concealed();
+            playConcealment();
+            return;
+        }
+
+        // add to audio player buffer, from start to end
+        concealer.received(samples, count);
+        play(samples, count);
+    }
+
+    /**
+     * Remembers the last sample for the next lowered packet, processes the samples and writes them
+     * to the sink.
+     * @param samples the samples, from index 0; processed in place
+     * @param count how many samples to write
+     * @throws IOException if the sink could not play the audio
+     */
+    private void play(short[] samples, int count) throws IOException {
+        if (count > 0) rateConverter.played(samples[count - 1]);  // as decoded, before processing
+        if (chain != null) chain.process(samples, count);
+        audioOut.write(samples, count);
+    }
+
+    /**
+     * Generates a packet of comfort noise and writes it to the sink.
+     * @throws IOException if the sink could not play the audio
+     */
+    private void playComfortNoise() throws IOException {
+        comfortNoise.generate(samples, samples.length);
+        concealer.received(samples, samples.length);
+        play(samples, samples.length);
+    }
+
+    /**
+     * Makes up a packet of audio in place of a missing one, and writes it to the sink.
+     * @throws IOException if the sink could not play the audio
+     */
+    private void playConcealment() throws IOException {
+        concealer.conceal(samples, samples.length);
+        play(samples, samples.length);
+    }
+
+    /**
+     * Decodes the packet in the frame array into the samples array.
+     * @param length the size of the packet, header included
+     * @return how many samples were decoded: always a packet's worth
+     * @throws DataFormatException if the packet could not be decoded, or does not hold a packet's
+     *         worth of samples
+     */
+    private int decode(int length) throws DataFormatException {
+        frameBuffer.clear();
+        frameBuffer.limit(length);
+        if (!header.read(frameBuffer)) throw new DataFormatException("packet too short");
+
+        byte codec = header.getCodec();
+        if (!AudioCodecs.isSupported(codec)) throw new DataFormatException("unknown codec " + codec);
+        if (decoders[codec] == null) decoders[codec] = AudioCodecs.create(codec, samples.length);
+
+        // a packet decoding to more or less than a packet's time would make playback drift
+        int shift = header.getFlags() & PacketHeader.FLAG_RATE_SHIFT;
+        if (shift == 0) {
+            int count = decoders[codec].decode(frame, PacketHeader.SIZE, length - PacketHeader.SIZE, samples);
+            if (count != samples.length) throw new DataFormatException("packet has the wrong length");
+            return count;
+        }
+
+        int count = decoders[codec].decode(frame, PacketHeader.SIZE, length - PacketHeader.SIZE, reduced);
+        if (count != RateConverter.reducedLength(samples.length, shift)) {
+            throw new DataFormatException("packet has the wrong length");
+        }
+        int raised = rateConverter.up(reduced, count, shift, samples, samples.length);
+        if (raised != samples.length) throw new DataFormatException("packet has the wrong length");
+        return raised;
+    }
+}
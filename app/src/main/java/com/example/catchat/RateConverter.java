@@ -0,0 +1,80 @@
+package com.example.catchat;
+
+/**
+ * Halves the sample rate of packets before encoding, and brings it back up after decoding, to send
+ * fewer bytes when the network is congested (see BitrateController).
+ * Lowering the rate averages groups of samples, which also filters out most of the frequencies the
+ * lower rate cannot hold. Raising it draws straight lines between the samples, starting from the
+ * last sample of the previous packet, so packets join without clicks. When the packet size is not
+ * a multiple of the group size (882 samples in groups of 4), the last group is shorter, so a packet
+ * comes back with exactly as many samples as it was sent with.
+ *
+ * Works in place or into preallocated arrays, and does not allocate.
+ */
+public class RateConverter {
+    private int previous = 0;  // last sample raised, for the next packet; only used by up()
+
+    /**
+     * Lowers the sample rate of a packet, in place.
+     * @param samples the packet's samples, from index 0; the result is written to its start
+     * @param count how many samples the packet holds
+     * @param shift how many times to halve the rate
+     * @return how many samples the packet holds at the lower rate; see reducedLength()
+     */
+    public static int down(short[] samples, int count, int shift) {
+        if (shift == 0) return count;
+
+        int factor = 1 << shift;
+        int reduced = reducedLength(count, shift);
+        for (int i = 0; i < reduced; i++) {
+            int start = i << shift;
+            int end = Math.min(count, start + factor);  // the last group may be shorter
+            int sum = 0;
+            for (int j = start; j < end; j++) sum += samples[j];
+            samples[i] = (short) (sum / (end - start));  // never beyond the range of the samples averaged
+        }
+        return reduced;
+    }
+
+    /**
+     * @param count how many samples a packet holds at the call's rate
+     * @param shift how many times the rate is halved
+     * @return how many samples the packet holds at the lower rate: one per group of 2 to the power
+     *         of shift samples, the last group included even if it is shorter
+     */
+    public static int reducedLength(int count, int shift) {
+        return (count + (1 << shift) - 1) >> shift;
+    }
+
+    /**
+     * Raises the sample rate of a packet lowered with down().
+     * @param reduced the packet's samples at the lower rate, from index 0
+     * @param count how many samples the packet holds at the lower rate
+     * @param shift how many times the rate was halved
+     * @param samples the array to write the samples at the call's rate to, from index 0
+     * @param frames how many samples the packet held at the call's rate, before down()
+     * @return how many samples were written: frames, if count is reducedLength(frames, shift)
+     */
+    public int up(short[] reduced, int count, int shift, short[] samples, int frames) {
+        int factor = 1 << shift;
+        int position = 0;
+        for (int i = 0; i < count && position < frames; i++) {
+            int current = reduced[i];
+            int length = Math.min(factor, frames - position);  // the last group may be shorter
+            for (int j = 1; j <= length; j++) {
+                samples[position++] = (short) (previous + (current - previous) * j / length);
+            }
+            previous = current;
+        }
+        return position;
+    }
+
+    /**
+     * Remembers the last sample of a packet played at the call's rate, so a lowered packet after it
+     * starts from there.
+     * @param sample the last sample played
+     */
+    public void played(short sample) {
+        previous = sample;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.catchat;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Limits how often each address can connect: a token bucket per address, holding up to burst
+ * tokens and gaining one every intervalMillis. Each connection takes a token; an address with none
+ * left is refused until it gains one.
+ *
+ * Buckets that filled up again are forgotten, so an address that stopped connecting costs nothing.
+ * At most maxAddresses buckets are kept; when they are all in use, new addresses are refused, so a
+ * flood from many addresses cannot grow the map.
+ *
+ * Used by a single thread, the ServerThread.
+ */
+public class RateLimiter {
+    private final int burst;
+    private final long intervalNanos;
+    private final int maxAddresses;
+
+    /**
+     * An address's bucket.
+     */
+    private static class Bucket {
+        double tokens;
+        long updated;  // when tokens was last brought up to date, in System.nanoTime()
+    }
+
+    private final HashMap<InetAddress, Bucket> buckets = new HashMap<>();
+
+    /**
+     * Creates a rate limiter.
+     * @param burst how many connections an address can make at once
+     * @param intervalMillis how long an address waits for each further connection, in milliseconds
+     * @param maxAddresses how many addresses are tracked at once
+     * @throws IllegalArgumentException if a value is not positive
+     */
+    public RateLimiter(int burst, int intervalMillis, int maxAddresses) throws IllegalArgumentException {
+        if (burst < 1 || intervalMillis < 1 || maxAddresses < 1) {
+            throw new IllegalArgumentException("values must be positive");
+        }
+        this.burst = burst;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.maxAddresses = maxAddresses;
+    }
+
+    /**
+     * Takes a token for a connection from an address, if it has one.
+     * @param address the address connecting
+     * @param now the time, in System.nanoTime()
+     * @return true if the connection is allowed
+     */
+    public boolean tryAcquire(InetAddress address, long now) {
+        Bucket bucket = buckets.get(address);
+        if (bucket == null) {
+            if (buckets.size() >= maxAddresses) {
+                forgetIdle(now);
+                if (buckets.size() >= maxAddresses) return false;
+            }
+            bucket = new Bucket();
+            bucket.tokens = burst;
+            bucket.updated = now;
+            buckets.put(address, bucket);
+        }
+
+        refill(bucket, now);
+        if (bucket.tokens < 1) return false;
+        bucket.tokens--;
+        return true;
+    }
+
+    /**
+     * Adds the tokens an address gained since its bucket was last brought up to date.
+     * @param bucket the address's bucket
+     * @param now the time, in System.nanoTime()
+     */
+    private void refill(Bucket bucket, long now) {
+        bucket.tokens = Math.min(burst, bucket.tokens + (double) (now - bucket.updated) / intervalNanos);
+        bucket.updated = now;
+    }
+
+    /**
+     * Forgets the addresses whose bucket is full again.
+     * @param now the time, in System.nanoTime()
+     */
+    public void forgetIdle(long now) {
+        Iterator<Bucket> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            Bucket bucket = iterator.next();
+            refill(bucket, now);
+            if (bucket.tokens >= burst) iterator.remove();
+        }
+    }
+
+    /**
+     * @return how many addresses are tracked
+     */
+    public int size() {
+        return buckets.size();
+    }
+}
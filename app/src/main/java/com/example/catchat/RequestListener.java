@@ -0,0 +1,32 @@
+package com.example.catchat;
+
+/**
+ * Told by the ServerThread about the connection requests it handles.
+ * Called on the ServerThread; implementations that update a UI must move to the UI thread.
+ */
+public interface RequestListener {
+    /**
+     * A requester said hello, and the request can be shown to the user.
+     * @param request the request
+     */
+    void addIncoming(ConnectRequest request);
+
+    /**
+     * A request was cancelled, timed out or failed, and is to be removed if it was shown.
+     * @param request the request; its connection may already be closed
+     */
+    void removeIncoming(ConnectRequest request);
+
+    /**
+     * Something the user should know about happened.
+     * @param message the message to show
+     */
+    void updateStatus(String message);
+
+    /**
+     * An accepted request finished call setup: its connection is in blocking mode, off the
+     * selector, and the call can start on it.
+     * @param request the request
+     */
+    void requestConfirmed(ConnectRequest request);
+}
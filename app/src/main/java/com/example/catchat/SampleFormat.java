@@ -0,0 +1,66 @@
+package com.example.catchat;
+
+/**
+ * Converts packets of samples between the formats the app uses: 16-bit signed samples, as recorded
+ * and played; floats between -1 and 1, which the AudioProcessors work on; and unsigned 8-bit
+ * samples, centered on 128, which the DeflateCodec compresses.
+ *
+ * Every method is a single loop into a preallocated array, and does not allocate.
+ */
+public final class SampleFormat {
+    private static final float toFloatScale = 1f / 32768;
+
+    private SampleFormat() {
+    }
+
+    /**
+     * Converts 16-bit samples to floats.
+     * @param samples the samples, from index 0
+     * @param output the array to write the floats to, from index 0
+     * @param count how many samples to convert
+     */
+    public static void toFloat(short[] samples, float[] output, int count) {
+        for (int i = 0; i < count; i++) {
+            output[i] = samples[i] * toFloatScale;
+        }
+    }
+
+    /**
+     * Converts floats to 16-bit samples, rounding them and clipping those beyond full scale.
+     * @param samples the floats, from index 0
+     * @param output the array to write the samples to, from index 0
+     * @param count how many samples to convert
+     */
+    public static void toShort(float[] samples, short[] output, int count) {
+        for (int i = 0; i < count; i++) {
+            // shifted to be positive, so the cast rounds down, and adding a half rounds to nearest;
+            // clipped as an int, which is cheaper than comparing floats
+            int value = (int) (samples[i] * 32768f + 32768.5f);
+            output[i] = (short) (Math.min(65535, Math.max(0, value)) - 32768);
+        }
+    }
+
+    /**
+     * Converts 16-bit samples to unsigned 8-bit samples, keeping their top 8 bits.
+     * @param samples the samples, from index 0
+     * @param output the array to write the 8-bit samples to, from index 0
+     * @param count how many samples to convert
+     */
+    public static void toUnsigned8(short[] samples, byte[] output, int count) {
+        for (int i = 0; i < count; i++) {
+            output[i] = (byte) ((samples[i] >> 8) + 128);
+        }
+    }
+
+    /**
+     * Converts unsigned 8-bit samples to 16-bit samples.
+     * @param samples the 8-bit samples, from index 0
+     * @param output the array to write the samples to, from index 0
+     * @param count how many samples to convert
+     */
+    public static void fromUnsigned8(byte[] samples, short[] output, int count) {
+        for (int i = 0; i < count; i++) {
+            output[i] = (short) (((samples[i] & 0xFF) - 128) << 8);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The sending stage of the outbound pipeline.
+ * Takes encoded packets from the EncodeThread and sends them with the call's media transport.
+ * A slow network only blocks this thread; recording goes on, and the oldest waiting packets are
+ * dropped if the network falls too far behind.
+ * Over UDP, can also send parity packets, to rebuild lost packets with (see FecEncoder).
+ */
+public class SendThread extends Thread {
+    private CallListener listener = null;  // communicating for
+    private PacketTransport media = null;
+    private FrameRing<byte[]> encoded = null;  // from the EncodeThread
+    private CallStats stats = null;
+    private FecEncoder fec = null;  // or null, to send no parity
+
+    private final byte[] packet;
+    private final ByteBuffer packetBuffer;  // wraps packet
+
+    /**
+     * Instantiates a sending thread.
+     * @param listener told when the call cannot go on
+     * @param format the call's format
+     * @param media the transport to send packets with
+     * @param encoded the ring the EncodeThread adds encoded packets to
+     * @param stats the call's statistics
+     * @param fec builds the parity packets to send, or null to send none
+     */
+    public SendThread(CallListener listener, CallFormat format, PacketTransport media, FrameRing<byte[]> encoded,
+                      CallStats stats, FecEncoder fec) {
+        this.listener = listener;
+        this.media = media;
+        this.encoded = encoded;
+        this.stats = stats;
+        this.fec = fec;
+
+        packet = new byte[format.getMaxPacketSizeInBytes()];
+        packetBuffer = ByteBuffer.wrap(packet);
+    }
+
+    /**
+     * Until this thread is interrupted, sends encoded packets.
+     */
+    @Override
+    public void run() {
+        while (!this.isInterrupted()) {
+            int length = encoded.take(packet);  // blocks until a packet was encoded
+            if (length < 0) break;  // interrupted
+
+            packetBuffer.clear();
+            packetBuffer.limit(length);
+
+            try {
+                media.send(packetBuffer);
+                stats.sent(length);
+
+                if (fec == null) continue;
+                packetBuffer.position(0);
+                ByteBuffer parity = fec.protect(packetBuffer);
+                if (parity == null) continue;
+                int parityLength = parity.remaining();
+                media.send(parity);
+                stats.sentParity(parityLength);
+            } catch (IOException e) {
+                // the transport is closed when someone else ends the call
+                if (!this.isInterrupted()) listener.endCall("connection ended");
+                return;
+            }
+        }
+    }
+}
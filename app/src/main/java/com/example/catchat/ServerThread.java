@@ -1,74 +1,565 @@
 package com.example.catchat;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 /**
- * Server thread listening for connections
+ * Server thread listening for connections.
+ * A single event loop built on a Selector handles the listener, every pending ConnectRequest and
+ * the accept handshake, so the number of threads does not grow with the number of requests.
+ *
+ * Call setup (see Capabilities): a request is shown to the user once the requester's hello
+ * arrives, and the call's format is picked from it. When the user accepts the request, the accept
+ * message holding the format is sent to the requester, who answers with the same message. Once the
+ * answer is read, the channel is taken off the selector, switched back to blocking mode and handed
+ * to the RequestListener, which starts the call on it. Requesters with nothing in common with this
+ * device are declined without being shown.
+ *
+ * Admission control keeps a flood of connections (a port scanner, a misbehaving peer) from using
+ * up memory or freezing the list of requests:
+ * - at most maxPendingRequests requests are open at once; connections beyond that are closed as
+ *   soon as they are accepted
+ * - each address can only connect a few times in a row, then once per second (see RateLimiter)
+ * - a requester must say hello, and answer the accept message, within handshakeTimeoutMillis
+ * - a request the user does not answer within requestTimeoutMillis is removed
+ * A refused connection is closed before anything is allocated for it.
+ *
+ * The thread is meant to run for the whole process (see Globals.listen()), so the port stays bound
+ * between calls, and is ready for the next request as soon as a call ends. The requests go to
+ * whichever RequestListener is registered; one registered later is handed the requests already
+ * shown. While a call runs, requesters are declined as busy as soon as they say hello, and the
+ * requests shown when the call started are declined the same way.
+ *
+ * Nothing here depends on Android; the RequestListener is told about the requests.
  */
 public class ServerThread extends Thread {
-    private ConnectActivity activity;  // created by
-    private ServerSocket listener = null;
+    public static final int defaultMaxPendingRequests = 16;
+    public static final int defaultHandshakeTimeoutMillis = 5000;
+    public static final int defaultRequestTimeoutMillis = 60000;
+    private static final int burstPerAddress = 4;  // connections an address can make in a row
+    private static final int intervalPerAddress = 1000;  // then one every this many ms
+    private static final int maxAddresses = 256;  // tracked by the rate limiter at once
+    private static final long sweepIntervalMillis = 500;  // how often timeouts are checked
+
+    // told about the requests while nobody is registered; they are handed over on registration
+    private static final RequestListener nobody = new RequestListener() {
+        @Override
+        public void addIncoming(ConnectRequest request) { }
+
+        @Override
+        public void removeIncoming(ConnectRequest request) { }
+
+        @Override
+        public void updateStatus(String message) { }
+
+        @Override
+        public void requestConfirmed(ConnectRequest request) {
+            request.close();  // nobody to start the call
+        }
+    };
+
+    private RequestListener activity;  // told about the requests; only changed by this thread
+    private final int port;
+    private final Supplier<CallFormat> preferred;  // this device's preferred format, read at each hello
+    private final BooleanSupplier busy;  // whether a call is running, read at each hello
+    private boolean wasBusy = false;  // at the last selection
+    private volatile Selector selector = null;
+    private ServerSocketChannel listener = null;
+    private volatile int localPort = 0;  // once listening
+
+    private volatile int maxPendingRequests = defaultMaxPendingRequests;
+    private volatile int handshakeTimeoutMillis = defaultHandshakeTimeoutMillis;
+    private volatile int requestTimeoutMillis = defaultRequestTimeoutMillis;
+    private final RateLimiter rateLimiter = new RateLimiter(burstPerAddress, intervalPerAddress, maxAddresses);
+    private long nextSweep = 0;  // in System.nanoTime()
+
+    // statistics; volatile so they can be read without locking, and only changed by this thread
+    private volatile int pendingCount = 0;  // requests open, after the last selection
+    private volatile long refusedCount = 0;  // connections closed by admission control
+    private volatile long timedOutCount = 0;  // requests removed by a timeout
+
+    // requests the user accepted, waiting for the event loop to send the accept message
+    private final ConcurrentLinkedQueue<ConnectRequest> toAccept = new ConcurrentLinkedQueue<>();
+    // listeners registered and unregistered by other threads, waiting for the event loop
+    private final ConcurrentLinkedQueue<Runnable> listenerChanges = new ConcurrentLinkedQueue<>();
+    // requests that finished the handshake during the current selection
+    private final ArrayList<ConnectRequest> finished = new ArrayList<>();
+    private final PacketHeader header = new PacketHeader();  // of the frame being handled
 
     /**
      * Creates a new server thread.
-     * @param activity the activity that started this thread.
+     * @param activity told about the requests, until another listener is registered; or null for
+     *        nobody yet
+     * @param port the port to listen on; 0 to pick a free one (see getLocalPort())
+     * @param preferred gives this device's preferred format, which the call's format is picked
+     *        with (see Capabilities)
+     * @param busy tells whether a call is running, in which case requesters are declined as busy
+     */
+    public ServerThread(RequestListener activity, int port, Supplier<CallFormat> preferred, BooleanSupplier busy) {
+        super("server");
+        this.activity = activity != null ? activity : nobody;
+        this.port = port;
+        this.preferred = preferred;
+        this.busy = busy;
+    }
+
+    /**
+     * Hands the requests to a listener from now on, instead of the one registered before. The
+     * requests already shown are added to it.
+     * Can be called from any thread; the change is made by the event loop.
+     * @param listener the listener
+     */
+    public void setRequestListener(RequestListener listener) {
+        listenerChanges.add(() -> {
+            activity = listener;
+            addShown();
+        });
+        wakeup();
+    }
+
+    /**
+     * Stops handing the requests to a listener, if it is still the one registered. Requests keep
+     * being handled, and are handed to the next listener registered.
+     * Can be called from any thread; the change is made by the event loop.
+     * @param listener the listener
+     */
+    public void removeRequestListener(RequestListener listener) {
+        listenerChanges.add(() -> {
+            if (activity == listener) activity = nobody;
+        });
+        wakeup();
+    }
+
+    /**
+     * Sets how many requests can be open at once, from their connection until the call starts or
+     * they are removed. Connections beyond that are closed.
+     * @param maxPendingRequests the most requests open at once, at least 1
+     * @throws IllegalArgumentException if maxPendingRequests is below 1
+     */
+    public void setMaxPendingRequests(int maxPendingRequests) throws IllegalArgumentException {
+        if (maxPendingRequests < 1) throw new IllegalArgumentException("at least one request must be allowed");
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    /**
+     * Sets how long a requester has to say hello after connecting, and to answer the accept message.
+     * @param handshakeTimeoutMillis the time in milliseconds
+     */
+    public void setHandshakeTimeoutMillis(int handshakeTimeoutMillis) {
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a request is shown before it is removed, if the user does not answer it.
+     * @param requestTimeoutMillis the time in milliseconds
      */
-    public ServerThread(ConnectActivity activity) {
-        this.activity = activity;
+    public void setRequestTimeoutMillis(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
     }
 
     /**
-     * Listens for socket connections to this device's IP and Globals.port
+     * Listens for socket connections to this device's IP and port, and for messages on the
+     * sockets of pending requests
      */
     @Override
     public void run() {
 
         try {
-            // create the listener that accepts requests
-            listener = new ServerSocket(Globals.port);
+            // create the selector and the listener that accepts requests
+            selector = Selector.open();
+            listener = ServerSocketChannel.open();
+            listener.bind(new InetSocketAddress(port));
+            localPort = listener.socket().getLocalPort();
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
         } catch (IOException e) {
             e.printStackTrace();
             activity.updateStatus("Cannot receive connection requests");
+            close();
             return;
         }
 
         // listen until interrupted
         while (!this.isInterrupted()) {
-            Socket heard;
-
-            // listen for connections
+            // blocks until a channel is ready, wakeup() is called or it is time to check timeouts
             try {
-                heard = listener.accept();
+                selector.select(sweepIntervalMillis);
             } catch (IOException e) {
                 break;
             }
+            pendingCount = selector.keys().size() - 1;  // all but the listener's
+
+            Runnable change;
+            while ((change = listenerChanges.poll()) != null) {
+                change.run();
+            }
+
+            // a call started; the requests still open cannot be answered
+            boolean busy = this.busy.getAsBoolean();
+            if (busy && !wasBusy) declineAll();
+            wasBusy = busy;
+
+            // send the accept message to requests accepted since the last selection
+            ConnectRequest request;
+            while ((request = toAccept.poll()) != null) {
+                sendAccept(request);
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (!key.isValid()) continue;  // request was closed
+                if (key.isAcceptable()) {
+                    acceptConnection();
+                    continue;
+                }
+                if (key.isWritable()) write(key);
+                if (key.isValid() && key.isReadable()) read(key);
+            }
+
+            if (!finished.isEmpty()) handOff();
+
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) {
+                sweep(now);
+                nextSweep = now + sweepIntervalMillis * 1_000_000L;
+            }
+        }
+
+        close();
+    }
+
+    /**
+     * Accepts a pending connection on the listener, unless admission control refuses it. It is
+     * added to the list of requests once it says hello.
+     */
+    private void acceptConnection() {
+        SocketChannel heard;
+        try {
+            heard = listener.accept();
+            if (heard == null) return;  // the connection was dropped before we got to it
+        } catch (IOException e) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        boolean full = selector.keys().size() - 1 >= maxPendingRequests;
+        if (full || !rateLimiter.tryAcquire(heard.socket().getInetAddress(), now)) {
+            refusedCount++;
+            try {
+                heard.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            return;
+        }
+
+        ConnectRequest request = new ConnectRequest(heard);
+        request.setDeadline(now + handshakeTimeoutMillis * 1_000_000L);
+        try {
+            heard.configureBlocking(false);
+            heard.register(selector, SelectionKey.OP_READ, request);
+        } catch (IOException e) {
+            request.close();
+        }
+    }
+
+    /**
+     * Removes the requests whose deadline passed: requesters who did not say hello or answer the
+     * accept message in time, and requests the user did not answer.
+     * @param now the time, in System.nanoTime()
+     */
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof ConnectRequest)) continue;
+            ConnectRequest request = (ConnectRequest) key.attachment();
+            if (now - request.getDeadline() < 0) continue;
+
+            timedOutCount++;
+            drop(key);
+        }
+        rateLimiter.forgetIdle(now);
+    }
+
+    /**
+     * Reads a call setup message from a pending request.
+     * The stream ending (the requester cancelled) or an unexpected message removes the request.
+     * @param key the request's selection key
+     */
+    private void read(SelectionKey key) {
+        ConnectRequest request = (ConnectRequest) key.attachment();
+
+        ByteBuffer frame;
+        try {
+            frame = request.readFrame();
+        } catch (IOException e) {  // the socket on the other end was closed, or sent garbage
+            drop(key);
+            return;
+        }
+        if (frame == null) return;  // only part of the message arrived; wait for the rest
+
+        if (!header.read(frame) || request.isDeclined()) {
+            drop(key);
+            return;
+        }
+
+        if (header.getType() == PacketHeader.TYPE_HELLO && request.getFormat() == null) {
+            readHello(key, request, frame);
+        } else if (header.getType() == PacketHeader.TYPE_ACCEPT && request.isAccepted()) {
+            readAccept(key, request, frame);
+        } else {
+            drop(key);  // unexpected data
+        }
+    }
+
+    /**
+     * Picks the call's format from the requester's capabilities, and shows the request to the
+     * user. Declines the request if the devices have nothing in common.
+     * @param key the request's selection key
+     * @param request the request
+     * @param frame the hello's payload
+     */
+    private void readHello(SelectionKey key, ConnectRequest request, ByteBuffer frame) {
+        if (busy.getAsBoolean()) {
+            request.setDeclined(PacketHeader.DECLINE_BUSY);
+            write(key);
+            return;
+        }
+
+        try {
+            Capabilities caller = Capabilities.read(frame);
+            request.setFormat(Capabilities.local(preferred.get()).negotiate(caller));
+        } catch (ProtocolException e) {
+            request.setDeclined(PacketHeader.DECLINE_INCOMPATIBLE);
+            write(key);
+            return;
+        }
+
+        request.setDeadline(System.nanoTime() + requestTimeoutMillis * 1_000_000L);
+        activity.addIncoming(request);
+    }
+
+    /**
+     * Reads the requester's answer to the accept message, which must hold the same format.
+     * @param key the request's selection key
+     * @param request the request
+     * @param frame the answer's payload
+     */
+    private void readAccept(SelectionKey key, ConnectRequest request, ByteBuffer frame) {
+        try {
+            if (!CallFormat.read(frame).equals(request.getFormat())) throw new ProtocolException();
+        } catch (ProtocolException e) {
+            drop(key);
+            return;
+        }
+
+        // the requester confirmed; take the channel off the selector once this selection is done
+        key.cancel();
+        finished.add(request);
+    }
+
+    /**
+     * Writes the rest of a request's outgoing handshake message.
+     * Watches for the channel to become writable if the message did not fit in the send buffer.
+     * @param key the request's selection key
+     */
+    private void write(SelectionKey key) {
+        ConnectRequest request = (ConnectRequest) key.attachment();
+        ByteBuffer outgoing = request.getOutgoing();
+
+        try {
+            ((SocketChannel) key.channel()).write(outgoing);
+        } catch (IOException e) {
+            drop(key);
+            return;
+        }
+
+        if (request.isDeclined() && !outgoing.hasRemaining()) {  // the requester was told; done
+            drop(key);
+            return;
+        }
+
+        key.interestOps(outgoing.hasRemaining()
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Starts the handshake on an accepted request, by sending it the accept message.
+     * @param request the accepted request
+     */
+    private void sendAccept(ConnectRequest request) {
+        SelectionKey key = request.getSocket().getChannel().keyFor(selector);
+        if (key == null || !key.isValid() || request.getFormat() == null) return;  // request was closed
+
+        request.setAccepted();
+        request.setDeadline(System.nanoTime() + handshakeTimeoutMillis * 1_000_000L);
+        write(key);
+    }
+
+    /**
+     * Stops watching a request, closes it and removes it from the list if it was shown.
+     * @param key the request's selection key
+     */
+    private void drop(SelectionKey key) {
+        ConnectRequest request = (ConnectRequest) key.attachment();
+        key.cancel();
+        request.close();
+        if (request.getFormat() != null) activity.removeIncoming(request);  // it was shown
+    }
+
+    /**
+     * Declines every request shown as busy, once a call started. Requests the user accepted are
+     * dropped instead, since their requester was already sent the accept message. Requesters who
+     * did not say hello yet are declined when they do.
+     */
+    private void declineAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof ConnectRequest)) continue;
+            ConnectRequest request = (ConnectRequest) key.attachment();
+            if (request.isDeclined() || request.getFormat() == null) continue;
+
+            if (request.isAccepted()) {
+                drop(key);
+                continue;
+            }
+            request.setDeclined(PacketHeader.DECLINE_BUSY);
+            write(key);  // removed from the list once the requester was told
+        }
+    }
 
-            if (heard != null) {
-                activity.addIncoming(heard);
+    /**
+     * Adds the requests shown to the user, and not answered yet, to a newly registered listener.
+     */
+    private void addShown() {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof ConnectRequest)) continue;
+            ConnectRequest request = (ConnectRequest) key.attachment();
+            if (request.getFormat() != null && !request.isDeclined() && !request.isAccepted()) {
+                activity.addIncoming(request);
             }
         }
+    }
 
-        // interrupt() should close the listener, but close it here again just in case
+    /**
+     * Switches the channels of requests that finished the handshake back to blocking mode, and
+     * starts the call on the first one, unless a call already runs.
+     */
+    private void handOff() {
         try {
-            // close the listener
-            listener.close();
+            selector.selectNow();  // deregisters the cancelled keys
+        } catch (IOException e) {
+            // do nothing; configureBlocking() will fail below
+        }
+
+        for (ConnectRequest request : finished) {
+            if (busy.getAsBoolean()) {  // a call was already started
+                request.close();
+                activity.removeIncoming(request);
+                continue;
+            }
+
+            try {
+                request.getSocket().getChannel().configureBlocking(true);
+            } catch (IOException e) {
+                activity.removeIncoming(request);
+                activity.updateStatus("Could not connect.");
+                continue;
+            }
+
+            activity.requestConfirmed(request);
+        }
+        finished.clear();
+    }
+
+    /**
+     * Queues an accepted request for the event loop, which sends it the accept message.
+     * Called on the UI thread when the accept button is clicked.
+     * @param request the accepted request
+     */
+    public void accept(ConnectRequest request) {
+        toAccept.add(request);
+        wakeup();
+    }
+
+    /**
+     * Wakes up the selector, so the event loop handles the changes queued by other threads.
+     */
+    private void wakeup() {
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    /**
+     * Closes the listener, every pending request and the selector. The requests shown are removed
+     * from the list, and their requesters see the connection close instead of waiting for an answer.
+     */
+    private void close() {
+        try {
+            if (listener != null) listener.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (selector != null && selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof ConnectRequest) drop(key);
+            }
+        }
+        try {
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the port the thread listens on, once it started listening; 0 before
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * @return how many requests were open after the last selection
+     */
+    public int getPendingCount() {
+        return pendingCount;
     }
 
     /**
-     * Interrupts the thread, closes the ServerSocket to unblock accept() operation
+     * @return how many connections admission control closed: over the cap, or too many from one
+     *         address
+     */
+    public long getRefusedCount() {
+        return refusedCount;
+    }
+
+    /**
+     * @return how many requests were removed because a requester or the user took too long
+     */
+    public long getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    /**
+     * Interrupts the thread, wakes up the selector to unblock the select() operation
      */
     @Override
     public void interrupt() {
         super.interrupt();
-        try {
-            listener.close();
-        } catch (IOException e) {
-            // do nothing
-        }
+        wakeup();
     }
 }
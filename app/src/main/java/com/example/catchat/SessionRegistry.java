@@ -0,0 +1,78 @@
+package com.example.catchat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The call sessions running in a process, by id. The app keeps one in Globals; the id of a
+ * session is passed to the activity showing it, instead of the session itself.
+ * Tests and load generators can create their own, to run many calls side by side.
+ * Can be used from any thread.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<Integer, CallSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);  // 0 is never an id
+
+    /**
+     * Creates a session for a call whose setup is done, and adds it to the registry.
+     * @param sock the connection to the other device, in blocking mode
+     * @param format the call's format
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connection
+     * @return the session
+     */
+    public CallSession open(BetterSocket sock, CallFormat format, boolean mediaOverUdp) {
+        CallSession session = new CallSession(this, nextId.getAndIncrement(), sock, format, mediaOverUdp);
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    /**
+     * @param id a session's id
+     * @return the session, or null if there is no such session or it was closed
+     */
+    public CallSession get(int id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * @return the sessions open now; later changes do not show in the list
+     */
+    public List<CallSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * @return how many sessions are open
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @param sock a connection
+     * @return whether an open session owns the connection
+     */
+    public boolean owns(BetterSocket sock) {
+        for (CallSession session : sessions.values()) {
+            if (session.getSocket() == sock) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a session out of the registry. Called by the session when it is closed.
+     * @param session the session
+     */
+    void remove(CallSession session) {
+        sessions.remove(session.getId(), session);
+    }
+
+    /**
+     * Closes every open session.
+     */
+    public void closeAll() {
+        for (CallSession session : sessions.values()) session.close();
+    }
+}
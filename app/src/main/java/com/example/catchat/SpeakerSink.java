@@ -0,0 +1,57 @@
+package com.example.catchat;
+
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import java.io.IOException;
+
+/**
+ * Plays the call's audio on the speaker, with an AudioTrack.
+ */
+public class SpeakerSink implements AudioSink {
+    private AudioTrack audioOut = null;  // output audio stream to speaker
+
+    /**
+     * Creates the AudioTrack.
+     * @param format the call's format
+     */
+    public SpeakerSink(CallFormat format) {
+        // create audio track to play audio
+        audioOut = new AudioTrack(
+                Globals.audioAttributes,
+                Globals.Play.format(format),
+                Globals.Play.bufferCapacity(format),
+                AudioTrack.MODE_STREAM,
+                AudioManager.AUDIO_SESSION_ID_GENERATE
+        );
+
+        // the buffer size influences the minimum size that must be reached before playback starts
+        // this is not the same as the buffer capacity
+        audioOut.setBufferSizeInFrames(Globals.Play.bufferSize(format));
+    }
+
+    @Override
+    public void start() throws IOException {
+        try {
+            audioOut.play();
+        } catch (IllegalStateException e) {
+            throw new IOException("could not start playing", e);
+        }
+    }
+
+    /**
+     * Blocks until there is space in the AudioTrack buffer.
+     */
+    @Override
+    public void write(short[] samples, int count) throws IOException {
+        int returnCode = audioOut.write(samples, 0, count);
+        if (returnCode < 0) {  // error code
+            throw new IOException("could not play audio: " + returnCode);
+        }
+    }
+
+    @Override
+    public void release() {
+        audioOut.release();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends packets over the call's TCP connection; each packet is preceded by its length.
+ * Carries the control messages of every call, and the audio too when Globals.mediaOverUdp is off.
+ */
+public class TcpTransport implements PacketTransport {
+    private BetterSocket sock;
+
+    /**
+     * Creates a transport over a connected socket.
+     * @param sock the socket
+     */
+    public TcpTransport(BetterSocket sock) {
+        this.sock = sock;
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer packet) throws IOException {
+        // the length in bytes of the packet, then the packet itself
+        sock.writeFrame(packet);
+    }
+
+    @Override
+    public void receive(ByteBuffer packet) throws IOException {
+        packet.clear();
+        sock.readFrame(packet);
+        packet.flip();
+    }
+
+    @Override
+    public void close() {
+        try {
+            sock.destroy();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.catchat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends packets as UDP datagrams, one packet per datagram.
+ * Lost packets are not sent again, so one lost packet does not hold up the ones after it like it
+ * would on the TCP connection. Packets can arrive out of order or twice; the receiver uses the
+ * sequence numbers in the PacketHeader to tell.
+ */
+public class UdpTransport implements PacketTransport {
+    private DatagramChannel channel;
+
+    /**
+     * Creates a transport over a connected datagram channel.
+     * @param channel the channel
+     */
+    private UdpTransport(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Binds a datagram channel to a free port, and exchanges port numbers with the other device
+     * over the control connection. Both devices must call this at the same time.
+     * @param control the call's TCP connection
+     * @return a transport connected to the other device's datagram channel
+     * @throws IOException if the channel could not be created or the exchange failed
+     */
+    public static UdpTransport open(BetterSocket control) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(0));  // any free port
+
+            // writing first cannot block both devices; the int fits in the socket buffer
+            control.writeInt(((InetSocketAddress) channel.getLocalAddress()).getPort());
+            int partnerPort = control.readInt();
+
+            channel.connect(new InetSocketAddress(control.getSocket().getInetAddress(), partnerPort));
+        } catch (IOException | NullPointerException e) {
+            channel.close();
+            throw new IOException("could not open datagram channel", e);
+        }
+
+        return new UdpTransport(channel);
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        channel.write(packet);
+    }
+
+    @Override
+    public void receive(ByteBuffer packet) throws IOException {
+        packet.clear();
+        channel.read(packet);
+        packet.flip();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
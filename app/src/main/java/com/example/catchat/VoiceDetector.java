@@ -0,0 +1,87 @@
+package com.example.catchat;
+
+/**
+ * Voice activity detection, for discontinuous transmission: tells packets of speech from packets
+ * of background noise, so that the EncodeThread does not send silence.
+ *
+ * Each packet's energy is compared with an estimate of the background noise level. A packet is
+ * speech if it is clearly louder than the noise, or a little louder with many zero crossings, like
+ * the quiet, hissing consonants (s, f) that carry little energy. The noise level follows the
+ * quietest packets quickly and rises slowly during speech, so it adapts when the background gets
+ * louder. After the last packet of speech, a few more are still reported as speech (the hangover),
+ * so the ends of words are not cut off.
+ *
+ * Works on the samples in place and does not allocate. Used by a single thread.
+ */
+public class VoiceDetector {
+    private static final int hangoverMillis = 200;  // speech reported after the last speech packet
+    private static final double speechRatio = 4;  // energy above the noise for speech; 6 dB
+    private static final double fricativeRatio = 2;  // energy above the noise for hissing; 3 dB
+    private static final int fricativeCrossings = 3000;  // per second; voiced speech has far fewer
+    private static final double minNoise = 30 * 30;  // noise energy never assumed below; rms 30
+    private static final double riseDecibelsPerSecond = 6;  // of the noise estimate during speech
+
+    private final int sampleRate;  // in Hz
+    private final int hangoverPackets;
+    private final double rise;  // noise estimate multiplier per speech packet
+
+    private double noise = minNoise;  // estimated background energy (mean square)
+    private int hangover = 0;  // packets still reported as speech
+
+    /**
+     * Creates a detector for the call's format.
+     * @param format the call's format
+     */
+    public VoiceDetector(CallFormat format) {
+        sampleRate = format.getSampleRate();
+        hangoverPackets = (hangoverMillis + format.getPacketSizeInMillis() - 1) / format.getPacketSizeInMillis();
+        rise = Math.pow(10, riseDecibelsPerSecond / 10 * format.getPacketSizeInMillis() / 1000);
+    }
+
+    /**
+     * Classifies a packet, and updates the noise estimate with it.
+     * @param samples the packet's samples
+     * @param count how many samples the packet holds
+     * @return true if the packet should be sent, false if it only holds background noise
+     */
+    public boolean isSpeech(short[] samples, int count) {
+        if (count == 0) return false;
+
+        long sum = 0;
+        int crossings = 0;
+        for (int i = 0; i < count; i++) {
+            int sample = samples[i];
+            sum += sample * sample;
+            if (i > 0 && (sample ^ samples[i - 1]) < 0) crossings++;  // sign changed
+        }
+        double energy = (double) sum / count;
+        double crossingRate = (double) crossings * sampleRate / count;  // per second
+
+        boolean speech = energy > noise * speechRatio
+                || (energy > noise * fricativeRatio && crossingRate > fricativeCrossings);
+
+        if (speech) {
+            noise *= rise;
+            hangover = hangoverPackets;
+        } else if (energy < noise) {
+            noise = Math.max(minNoise, energy);  // quieter than thought: follow right away
+        } else {
+            noise += (energy - noise) / 8;
+        }
+
+        if (speech) return true;
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the estimated background noise level, as the root mean square of its samples; sent
+     *         to the other device to play comfort noise at the same level
+     */
+    public int getNoiseLevel() {
+        return (int) Math.sqrt(noise);
+    }
+}
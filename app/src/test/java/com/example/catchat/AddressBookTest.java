@@ -0,0 +1,107 @@
+package com.example.catchat;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AddressBook lookups, and saving and reading the book back.
+ */
+public class AddressBookTest {
+    private static InetSocketAddress address(String ip, int port) throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByName(ip), port);
+    }
+
+    @Test
+    public void keepsTheMostRecentAddressFirst() throws UnknownHostException {
+        AddressBook book = new AddressBook();
+        book.remember("peer", address("192.168.1.2", 25565));
+        book.remember("peer", address("10.0.0.2", 25565));
+        book.remember("peer", address("192.168.1.2", 25565));
+
+        assertEquals(Arrays.asList(address("192.168.1.2", 25565), address("10.0.0.2", 25565)), book.get("peer"));
+    }
+
+    @Test
+    public void keepsAtMostMaxAddresses() throws UnknownHostException {
+        AddressBook book = new AddressBook();
+        for (int i = 0; i < AddressBook.maxAddresses + 2; i++) book.remember("peer", address("10.0.0." + i, 1));
+        assertEquals(AddressBook.maxAddresses, book.get("peer").size());
+        assertEquals(address("10.0.0." + (AddressBook.maxAddresses + 1), 1), book.get("peer").get(0));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlyUsedPeer() throws UnknownHostException {
+        AddressBook book = new AddressBook();
+        for (int i = 0; i <= AddressBook.maxPeers; i++) book.remember("peer " + i, address("10.0.0.1", 1));
+        assertTrue(book.get("peer 0").isEmpty());
+        assertEquals(1, book.get("peer " + AddressBook.maxPeers).size());
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpaces() throws UnknownHostException {
+        AddressBook book = new AddressBook();
+        book.remember(" Phone.Local ", address("10.0.0.1", 1));
+        assertEquals(1, book.get("phone.local").size());
+    }
+
+    @Test
+    public void ignoresCaseWhateverTheLanguage() throws UnknownHostException {
+        Locale locale = Locale.getDefault();
+        try {
+            // in Turkish, "I" lowers to a dotless i
+            Locale.setDefault(new Locale("tr", "TR"));
+            AddressBook book = new AddressBook();
+            book.remember("IRIS", address("10.0.0.1", 1));
+            assertEquals(1, book.get("iris").size());
+            assertEquals(1, AddressBook.decode(book.encode()).get("Iris").size());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void savedBookReadsBackTheSame() throws UnknownHostException {
+        AddressBook book = new AddressBook();
+        String[] peers = {"plain", "with space", "under_score", "100% sure", "tab\there", "%20"};
+        for (String peer : peers) {
+            book.remember(peer, address("10.0.0.1", 25565));
+            book.remember(peer, address("::1", 25566));
+        }
+
+        AddressBook read = AddressBook.decode(book.encode());
+        for (String peer : peers) assertEquals(peer, book.get(peer), read.get(peer));
+        assertTrue(read.get("with_space").isEmpty());  // underscores are not spaces
+        assertTrue(read.get("under score").isEmpty());
+        assertEquals(book.encode(), read.encode());  // the order of use is kept too
+    }
+
+    @Test
+    public void skipsLinesThatCannotBeRead() throws UnknownHostException {
+        String text = "good [10.0.0.1]:1\n"
+                + "nothing\n"
+                + "bad%2 [10.0.0.2]:1\n"
+                + "lookup [example.com]:1\n"
+                + "port [10.0.0.3]:x [10.0.0.4]:2\n";
+        AddressBook book = AddressBook.decode(text);
+
+        assertEquals(Collections.singletonList(address("10.0.0.1", 1)), book.get("good"));
+        assertTrue(book.get("bad%2").isEmpty());
+        assertTrue(book.get("lookup").isEmpty());
+        assertEquals(Collections.singletonList(address("10.0.0.4", 2)), book.get("port"));
+    }
+
+    @Test
+    public void emptyTextIsAnEmptyBook() {
+        assertEquals("", AddressBook.decode(null).encode());
+        assertEquals("", AddressBook.decode("").encode());
+    }
+}
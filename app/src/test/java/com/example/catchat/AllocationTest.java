@@ -0,0 +1,139 @@
+package com.example.catchat;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The work done for every packet on the audio path must not allocate, so the garbage collector does
+ * not pause the recording or playing threads during a call. Each test warms the path up, then
+ * counts the bytes this thread allocates over many packets, with the JVM's ThreadMXBean.
+ */
+public class AllocationTest {
+    private static final int rounds = 10000;
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_DEFLATE);
+
+    private com.sun.management.ThreadMXBean threads;
+    private long thread;
+    private short[] original;
+    private short[] samples;
+    private short[] decoded;
+    private byte[] packet;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        thread = Thread.currentThread().getId();
+
+        int frames = format.getPacketSizeInFrames();
+        original = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            original[i] = (short) (6000 * Math.sin(i * 0.03) + 2000 * Math.sin(i * 0.31));
+        }
+        samples = new short[frames];
+        decoded = new short[frames];
+        packet = new byte[format.getMaxPacketSizeInBytes()];
+    }
+
+    /**
+     * A packet's worth of work, run many times.
+     */
+    private interface Round {
+        void run() throws Exception;
+    }
+
+    /**
+     * @param round the work for one packet
+     * @return the bytes allocated per packet, once warmed up
+     */
+    private long allocatedPerRound(Round round) throws Exception {
+        for (int i = 0; i < rounds; i++) round.run();  // creates what is created on first use, and compiles
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        long baseline = threads.getThreadAllocatedBytes(thread) - before;  // what asking costs, if anything
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < rounds; i++) round.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - baseline;
+        return allocated / rounds;
+    }
+
+    /**
+     * Encodes and decodes a packet with a codec, at a lowered rate if shift is not 0.
+     */
+    private void codecRound(byte id, int shift) throws Exception {
+        AudioCodec encoder = AudioCodecs.create(id, format.getPacketSizeInFrames());
+        AudioCodec decoder = AudioCodecs.create(id, format.getPacketSizeInFrames());
+        RateConverter converter = new RateConverter();
+        int frames = format.getPacketSizeInFrames();
+
+        long allocated = allocatedPerRound(() -> {
+            System.arraycopy(original, 0, samples, 0, frames);
+            int count = RateConverter.down(samples, frames, shift);
+            int length = encoder.encode(samples, count, packet, PacketHeader.SIZE);
+            if (shift == 0) {
+                decoder.decode(packet, PacketHeader.SIZE, length, decoded);
+            } else {
+                int reduced = decoder.decode(packet, PacketHeader.SIZE, length, samples);
+                converter.up(samples, reduced, shift, decoded, frames);
+            }
+        });
+        encoder.release();
+        decoder.release();
+        assertEquals("codec " + id + ", shift " + shift + ": bytes per packet", 0, allocated);
+    }
+
+    @Test
+    public void deflateDoesNotAllocate() throws Exception {
+        codecRound(PacketHeader.CODEC_DEFLATE, 0);
+    }
+
+    @Test
+    public void muLawDoesNotAllocate() throws Exception {
+        codecRound(PacketHeader.CODEC_MULAW, 0);
+    }
+
+    @Test
+    public void adpcmDoesNotAllocate() throws Exception {
+        codecRound(PacketHeader.CODEC_ADPCM, 0);
+    }
+
+    @Test
+    public void loweredRatesDoNotAllocate() throws Exception {
+        codecRound(PacketHeader.CODEC_ADPCM, 1);
+        codecRound(PacketHeader.CODEC_ADPCM, 2);
+    }
+
+    @Test
+    public void jitterBufferDoesNotAllocate() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, packet.length, format.getPacketSizeInMillis());
+        byte[] played = new byte[packet.length];
+        int[] sequence = {0};
+
+        long allocated = allocatedPerRound(() -> {
+            int timestamp = sequence[0] * format.getPacketSizeInMillis();
+            buffer.put(sequence[0]++, timestamp, timestamp, packet, 0, 100);
+            buffer.poll(played);
+        });
+        assertEquals("bytes per packet", 0, allocated);
+    }
+
+    @Test
+    public void captureChainDoesNotAllocate() throws Exception {
+        AudioChain chain = AudioChain.capture(format);
+        int frames = format.getPacketSizeInFrames();
+
+        long allocated = allocatedPerRound(() -> {
+            System.arraycopy(original, 0, samples, 0, frames);
+            chain.process(samples, frames);
+        });
+        assertEquals("bytes per packet", 0, allocated);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.catchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Frames written by one BetterSocket and read by another, over a loopback connection.
+ */
+public class BetterSocketTest {
+    private BetterSocket writer;
+    private BetterSocket reader;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            writer = new BetterSocket(SocketChannel.open(listener.getLocalAddress()));
+            reader = new BetterSocket(listener.accept());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.destroy();
+        reader.destroy();
+    }
+
+    @Test(timeout = 5000)
+    public void emptyFrameKeepsTheStreamInStep() throws IOException {
+        writer.writeFrame(ByteBuffer.allocate(0));
+        writer.writeFrame(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        writer.writeFrame(ByteBuffer.allocate(0));
+        writer.writeInt(42);
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertEquals(0, reader.readFrame(buffer));
+        assertEquals(3, reader.readFrame(buffer));
+        assertArrayEquals(new byte[] {1, 2, 3}, new byte[] {buffer.get(0), buffer.get(1), buffer.get(2)});
+        assertEquals(0, reader.readFrame(buffer));
+        assertEquals(3, buffer.position());
+        assertEquals(42, reader.readInt());
+    }
+
+    @Test(timeout = 5000)
+    public void frameBiggerThanTheSocketBuffersArrivesWhole() throws Exception {
+        byte[] data = new byte[512 * 1024];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 31);
+
+        // written on another thread, since it blocks until the reader makes room
+        Thread writing = new Thread(() -> {
+            try {
+                writer.writeFrame(ByteBuffer.wrap(data));
+            } catch (IOException e) {
+                // the read below fails
+            }
+        });
+        writing.start();
+
+        ByteBuffer buffer = ByteBuffer.allocate(data.length);
+        assertEquals(data.length, reader.readFrame(buffer));
+        assertArrayEquals(data, buffer.array());
+        writing.join();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.catchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A ConnectRequest reading the requester's handshake over a loopback connection, the way the
+ * ServerThread does, then handing the channel over to the call.
+ */
+public class ConnectRequestTest {
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+
+    private SocketChannel requester;
+    private ConnectRequest request;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            requester = SocketChannel.open(listener.getLocalAddress());
+            SocketChannel heard = listener.accept();
+            heard.configureBlocking(false);
+            request = new ConnectRequest(heard);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        requester.close();
+        request.close();
+    }
+
+    /**
+     * Writes the requester's answer to the accept message, and the UDP port UdpTransport sends
+     * next, in a single write, so they arrive together.
+     */
+    private void writeAcceptAndPort(int port) throws IOException {
+        ByteBuffer stream = ByteBuffer.allocate(4 + PacketHeader.SIZE + CallFormat.encodedSize + 4);
+        stream.putInt(PacketHeader.SIZE + CallFormat.encodedSize);
+        PacketHeader header = new PacketHeader();
+        header.set(PacketHeader.TYPE_ACCEPT, (byte) 0, 0, PacketHeader.now());
+        header.write(stream);
+        format.write(stream);
+        stream.putInt(port);
+        stream.flip();
+        while (stream.hasRemaining()) requester.write(stream);
+    }
+
+    /**
+     * Reads until a whole frame arrived, as the selector would call readFrame().
+     */
+    private ByteBuffer readWholeFrame() throws IOException, InterruptedException {
+        ByteBuffer frame;
+        while ((frame = request.readFrame()) == null) Thread.sleep(1);
+        return frame;
+    }
+
+    @Test(timeout = 5000)
+    public void leavesWhatFollowsTheHandshakeForTheCall() throws Exception {
+        writeAcceptAndPort(40000);
+
+        ByteBuffer frame = readWholeFrame();
+        PacketHeader header = new PacketHeader();
+        assertTrue(header.read(frame));
+        assertEquals(PacketHeader.TYPE_ACCEPT, header.getType());
+        assertEquals(format, CallFormat.read(frame));
+
+        // handed off as ServerThread does; the port must still be there for CallSession
+        request.getSocket().getChannel().configureBlocking(true);
+        assertEquals(40000, request.getSocket().readInt());
+    }
+
+    @Test(timeout = 5000)
+    public void readsAFrameArrivingByteByByte() throws Exception {
+        ByteBuffer stream = ByteBuffer.allocate(4 + 3);
+        stream.putInt(3).put(new byte[] {1, 2, 3}).flip();
+        for (int i = 0; i < stream.capacity(); i++) {
+            assertNull(request.readFrame());
+            requester.write(ByteBuffer.wrap(new byte[] {stream.get(i)}));
+            Thread.sleep(5);
+        }
+
+        ByteBuffer frame = readWholeFrame();
+        assertEquals(3, frame.remaining());
+        assertEquals(3, frame.get(2));
+    }
+
+    @Test(timeout = 5000, expected = IOException.class)
+    public void rejectsFramesLongerThanAnySetupMessage() throws Exception {
+        requester.write((ByteBuffer) ByteBuffer.allocate(4).putInt(1 << 20).flip());
+        readWholeFrame();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.catchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DeflateCodec on whole packets, and on corrupt ones, which must fail instead of hanging the thread
+ * decoding them.
+ */
+public class DeflateCodecTest {
+    private static final int packetSize = 882;  // 20 ms at 44.1 kHz
+
+    private DeflateCodec codec;
+    private short[] samples;
+    private byte[] encoded;
+
+    @Before
+    public void setUp() {
+        codec = new DeflateCodec(packetSize);
+        samples = new short[packetSize];
+        for (int i = 0; i < packetSize; i++) {
+            samples[i] = (short) (8000 * Math.sin(i * 0.05));
+        }
+        encoded = new byte[2 * packetSize];
+    }
+
+    @After
+    public void tearDown() {
+        codec.release();
+    }
+
+    @Test
+    public void fullPacketKeepsTheTop8Bits() throws DataFormatException {
+        int length = codec.encode(samples, packetSize, encoded, 0);
+
+        short[] decoded = new short[packetSize];
+        assertEquals(packetSize, codec.decode(encoded, 0, length, decoded));
+        for (int i = 0; i < packetSize; i++) {
+            assertEquals(samples[i] & 0xFF00, decoded[i] & 0xFFFF);
+        }
+    }
+
+    @Test
+    public void decodesAtAnOffset() throws DataFormatException {
+        int length = codec.encode(samples, packetSize, encoded, PacketHeader.SIZE);
+
+        short[] decoded = new short[packetSize];
+        assertEquals(packetSize, codec.decode(encoded, PacketHeader.SIZE, length, decoded));
+        short[] again = new short[packetSize];
+        codec.decode(encoded, PacketHeader.SIZE, length, again);  // the inflater is reset in between
+        assertArrayEquals(decoded, again);
+    }
+
+    @Test(timeout = 2000, expected = DataFormatException.class)
+    public void headerAskingForADictionaryFails() throws DataFormatException {
+        // a valid zlib header with FDICT set, then the dictionary's id
+        byte[] corrupt = {0x78, (byte) 0xBB, 0x01, 0x02, 0x03, 0x04, 0x00, 0x00};
+        codec.decode(corrupt, 0, corrupt.length, new short[packetSize]);
+    }
+
+    @Test(timeout = 2000, expected = DataFormatException.class)
+    public void packetCompressedWithADictionaryFails() throws DataFormatException {
+        Deflater deflater = new Deflater();
+        deflater.setDictionary(new byte[] {1, 2, 3});
+        deflater.setInput(new byte[packetSize]);
+        deflater.finish();
+        int length = deflater.deflate(encoded);
+        deflater.end();
+
+        codec.decode(encoded, 0, length, new short[packetSize]);
+    }
+
+    @Test(timeout = 2000, expected = DataFormatException.class)
+    public void truncatedPacketFails() throws DataFormatException {
+        int length = codec.encode(samples, packetSize, encoded, 0);
+        codec.decode(encoded, 0, length / 2, new short[packetSize]);
+    }
+
+    @Test(timeout = 2000, expected = DataFormatException.class)
+    public void packetLongerThanTheArrayFails() throws DataFormatException {
+        int length = codec.encode(samples, packetSize, encoded, 0);
+        codec.decode(encoded, 0, length, new short[packetSize / 2]);
+    }
+
+    @Test(timeout = 2000, expected = DataFormatException.class)
+    public void garbageFails() throws DataFormatException {
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0x5A);
+        codec.decode(garbage, 0, garbage.length, new short[packetSize]);
+    }
+}
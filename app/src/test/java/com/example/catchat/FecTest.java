@@ -0,0 +1,209 @@
+package com.example.catchat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packets sent through a FecEncoder and rebuilt by a FecDecoder, losing packets by hand or at random.
+ */
+public class FecTest {
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+
+    private final Random content = new Random(1);
+    private final PacketHeader header = new PacketHeader();
+    private final FecDecoder decoder = new FecDecoder(format);
+    private final ByteBuffer rebuilt = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+
+    /**
+     * @return an audio packet of random length and content, flipped
+     */
+    private ByteBuffer packet(int sequence) {
+        ByteBuffer packet = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+        header.set(PacketHeader.TYPE_AUDIO, format.getCodec(), sequence, sequence * format.getPacketSizeInMillis());
+        header.write(packet);
+        int length = PacketHeader.SIZE + 1 + content.nextInt(packet.capacity() - PacketHeader.SIZE - 1);
+        while (packet.position() < length) packet.put((byte) content.nextInt());
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * @return a copy of a parity packet, which is only valid until the encoder's next call
+     */
+    private static ByteBuffer copy(ByteBuffer parity) {
+        ByteBuffer copy = ByteBuffer.allocate(parity.remaining());
+        copy.put(parity).flip();
+        return copy;
+    }
+
+    /**
+     * Sends a group through an encoder, handing the decoder the packets that are not lost.
+     * @return the group's parity packet
+     */
+    private ByteBuffer sendGroup(FecEncoder encoder, ByteBuffer[] group, int... lost) {
+        ByteBuffer parity = null;
+        for (int i = 0; i < group.length; i++) {
+            if (Arrays.binarySearch(lost, i) < 0) decoder.received(group[i]);
+            group[i].position(0);
+            ByteBuffer made = encoder.protect(group[i]);
+            if (i < group.length - 1) assertNull(made);
+            else parity = copy(made);
+        }
+        assertNotNull(parity);
+        return parity;
+    }
+
+    /**
+     * Hands a parity packet to the decoder.
+     * @return whether it rebuilt a packet
+     */
+    private boolean recover(ByteBuffer parity) {
+        header.read(parity);
+        return decoder.recover(header, parity, rebuilt);
+    }
+
+    private ByteBuffer[] group(int first, int size) {
+        ByteBuffer[] group = new ByteBuffer[size];
+        for (int i = 0; i < size; i++) group[i] = packet(first + i);
+        return group;
+    }
+
+    private static byte[] bytes(ByteBuffer packet) {
+        return Arrays.copyOf(packet.array(), packet.limit());
+    }
+
+    @Test
+    public void rebuildsASingleLostPacket() {
+        FecEncoder encoder = new FecEncoder(format, 4, null);
+        decoder.recover(header, ByteBuffer.allocate(0), rebuilt);  // any parity turns the decoder on
+
+        for (int lost = 0; lost < 4; lost++) {
+            ByteBuffer[] group = group(lost * 4, 4);
+            assertTrue("packet " + lost + " of the group", recover(sendGroup(encoder, group, lost)));
+            assertArrayEquals(bytes(group[lost]), bytes(rebuilt));
+        }
+    }
+
+    @Test
+    public void rebuildsNothingWhenNothingIsLost() {
+        FecEncoder encoder = new FecEncoder(format, 4, null);
+        decoder.recover(header, ByteBuffer.allocate(0), rebuilt);
+        assertFalse(recover(sendGroup(encoder, group(0, 4))));
+    }
+
+    @Test
+    public void cannotRebuildTwoLostPackets() {
+        FecEncoder encoder = new FecEncoder(format, 4, null);
+        decoder.recover(header, ByteBuffer.allocate(0), rebuilt);
+        assertFalse(recover(sendGroup(encoder, group(0, 4), 1, 2)));
+    }
+
+    @Test
+    public void keepsNothingBeforeTheFirstParity() {
+        FecEncoder encoder = new FecEncoder(format, 2, null);
+        // the decoder only starts keeping packets once a parity arrives, so the first group is lost
+        assertFalse(recover(sendGroup(encoder, group(0, 2), 0)));
+        assertTrue(recover(sendGroup(encoder, group(2, 2), 0)));
+    }
+
+    @Test
+    public void stalePacketFromAnEarlierRoundIsNotUsed() {
+        FecEncoder encoder = new FecEncoder(format, 4, null);
+        decoder.recover(header, ByteBuffer.allocate(0), rebuilt);
+        sendGroup(encoder, group(0, 4));  // kept in slots 0 to 7
+        sendGroup(encoder, group(4, 4));
+
+        // packet 32 goes in the slot that still holds packet 0, which must not pass for it
+        ByteBuffer[] group = group(32, 4);
+        assertTrue(recover(sendGroup(encoder, group, 0)));
+        assertEquals(32, PacketHeader.sequenceOf(rebuilt));
+        assertArrayEquals(bytes(group[0]), bytes(rebuilt));
+
+        // nor may packets 4 and 5 stand in for 36 and 37 when both are lost
+        assertFalse(recover(sendGroup(encoder, group(36, 4), 0, 1)));
+    }
+
+    @Test
+    public void groupSizeFollowsTheLoss() {
+        assertEquals(0, FecEncoder.groupSizeFor(-1));  // nothing reported yet
+        assertEquals(0, FecEncoder.groupSizeFor(0));
+        assertEquals(0, FecEncoder.groupSizeFor(0.0049));
+        assertEquals(8, FecEncoder.groupSizeFor(0.005));
+        assertEquals(8, FecEncoder.groupSizeFor(0.0199));
+        assertEquals(4, FecEncoder.groupSizeFor(0.02));
+        assertEquals(4, FecEncoder.groupSizeFor(0.0499));
+        assertEquals(3, FecEncoder.groupSizeFor(0.05));
+        assertEquals(3, FecEncoder.groupSizeFor(0.0999));
+        assertEquals(2, FecEncoder.groupSizeFor(0.10));
+        assertEquals(2, FecEncoder.groupSizeFor(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGroupsOfOne() {
+        new FecEncoder(format, 1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGroupsLargerThanTheFlags() {
+        new FecEncoder(format, FecEncoder.maxGroupSize + 1, null);
+    }
+
+    /**
+     * Sends many packets in groups, losing each packet and parity with the same chance, and returns
+     * the fraction of the lost packets that were rebuilt. Every rebuilt packet is checked.
+     */
+    private double recoveredFraction(int groupSize, double loss, double burstLength) {
+        FecEncoder encoder = new FecEncoder(format, groupSize, null);
+        Random network = new Random(7);
+        boolean bad = false;  // Gilbert-Elliott: in a burst of losses
+        double leaveBad = burstLength <= 1 ? 1 - loss : 1 / burstLength;
+        double enterBad = burstLength <= 1 ? loss : loss * leaveBad / (1 - loss);
+
+        ByteBuffer[] sent = new ByteBuffer[groupSize];
+        int lost = 0, recovered = 0;
+        for (int sequence = 0; sequence < 40000; sequence++) {
+            ByteBuffer packet = packet(sequence);
+            sent[sequence % groupSize] = packet;
+            bad = network.nextDouble() < (bad ? 1 - leaveBad : enterBad);
+            if (bad) lost++;
+            else decoder.received(packet);
+
+            packet.position(0);
+            ByteBuffer parity = encoder.protect(packet);
+            if (parity == null) continue;
+            bad = network.nextDouble() < (bad ? 1 - leaveBad : enterBad);
+            if (bad || !recover(copy(parity))) continue;
+
+            recovered++;
+            int missing = PacketHeader.sequenceOf(rebuilt) % groupSize;
+            assertArrayEquals(bytes(sent[missing]), bytes(rebuilt));
+        }
+        return (double) recovered / lost;
+    }
+
+    @Test
+    public void rebuildsMostRandomLosses() {
+        // a lost packet is rebuilt unless another packet of its group, or the parity, is lost too:
+        // about (1 - p) to the power of the group size of the time
+        assertEquals(Math.pow(0.95, 4), recoveredFraction(4, 0.05, 1), 0.03);
+        assertEquals(Math.pow(0.98, 8), recoveredFraction(8, 0.02, 1), 0.03);
+    }
+
+    @Test
+    public void rebuildsFewLossesInBursts() {
+        // a burst of 3 mostly takes two packets of the same group
+        double bursts = recoveredFraction(4, 0.05, 3);
+        assertTrue("recovered " + bursts, bursts < 0.5);
+        assertTrue("recovered " + bursts, bursts > 0.1);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.catchat;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * FrameDecoder reading from a channel that returns the stream in small chunks of random sizes, like
+ * a network does, so lengths and bodies are split at every possible place.
+ */
+public class FrameDecoderTest {
+    private static final int ringSize = 64;  // smaller than many frames, so they wrap around
+    private static final int maxFrameLength = 1000;
+
+    /**
+     * Returns a byte array from 1 to maxChunk bytes at a time, then the end of the stream.
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] stream;
+        private final Random random;
+        private final int maxChunk;
+        private int position = 0;
+
+        ChunkedChannel(byte[] stream, long seed, int maxChunk) {
+            this.stream = stream;
+            this.random = new Random(seed);
+            this.maxChunk = maxChunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == stream.length) return -1;
+            int count = Math.min(Math.min(1 + random.nextInt(maxChunk), dst.remaining()), stream.length - position);
+            dst.put(stream, position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * @param frames the frames' bodies
+     * @return the stream writeFrame() would send for them
+     */
+    private static byte[] stream(byte[]... frames) {
+        int size = 0;
+        for (byte[] frame : frames) size += 4 + frame.length;
+        ByteBuffer stream = ByteBuffer.allocate(size);
+        for (byte[] frame : frames) stream.putInt(frame.length).put(frame);
+        return stream.array();
+    }
+
+    private static FrameDecoder decoder(byte[] stream) {
+        return new FrameDecoder(new ChunkedChannel(stream, 1, 17), ringSize, maxFrameLength);
+    }
+
+    @Test
+    public void readsFramesSplitAnywhere() throws IOException {
+        Random random = new Random(2);
+        byte[][] frames = new byte[2000][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new byte[random.nextInt(4 * ringSize)];  // from empty to four rings long
+            random.nextBytes(frames[i]);
+        }
+        FrameDecoder decoder = decoder(stream(frames));
+
+        ByteBuffer buffer = ByteBuffer.allocate(maxFrameLength);
+        for (byte[] frame : frames) {
+            buffer.clear();
+            assertEquals(frame.length, decoder.readFrame(buffer));
+            assertEquals(frame.length, buffer.position());
+            assertArrayEquals(frame, Arrays.copyOf(buffer.array(), frame.length));
+        }
+    }
+
+    @Test
+    public void readsIntoTheBufferFromItsPosition() throws IOException {
+        FrameDecoder decoder = decoder(stream(new byte[] {7, 8, 9}));
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.position(2);
+        decoder.readFrame(buffer);
+        assertEquals(5, buffer.position());
+        assertEquals(8, buffer.limit());
+        assertEquals(7, buffer.get(2));
+        assertEquals(9, buffer.get(4));
+    }
+
+    @Test
+    public void readsIntsAndBytesBetweenFrames() throws IOException {
+        ByteBuffer stream = ByteBuffer.allocate(4 + 4 + 3 + 2);
+        stream.putInt(-5).putInt(3).put(new byte[] {1, 2, 3}).put(new byte[] {4, 5});
+        FrameDecoder decoder = decoder(stream.array());
+
+        assertEquals(-5, decoder.readInt());
+        ByteBuffer frame = ByteBuffer.allocate(3);
+        assertEquals(3, decoder.readFrame(frame));
+        ByteBuffer rest = ByteBuffer.allocate(2);
+        decoder.read(rest);
+        assertArrayEquals(new byte[] {4, 5}, rest.array());
+    }
+
+    @Test
+    public void rejectsLengthsAboveTheMaximum() {
+        assertMalformed(ByteBuffer.allocate(4).putInt(maxFrameLength + 1).array());
+    }
+
+    @Test
+    public void rejectsNegativeLengths() {
+        assertMalformed(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0});
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFramesTooBigForTheBuffer() throws IOException {
+        decoder(stream(new byte[10])).readFrame(ByteBuffer.allocate(9));
+    }
+
+    @Test(expected = EOFException.class)
+    public void streamEndingInALengthFails() throws IOException {
+        decoder(new byte[] {0, 0}).readFrame(ByteBuffer.allocate(16));
+    }
+
+    @Test(expected = EOFException.class)
+    public void streamEndingInABodyFails() throws IOException {
+        byte[] stream = stream(new byte[100]);
+        decoder(Arrays.copyOf(stream, 50)).readFrame(ByteBuffer.allocate(100));
+    }
+
+    /**
+     * Checks that a stream starting with a bad length fails as malformed, and not at the end of the
+     * stream, which would mean the length was trusted.
+     */
+    private static void assertMalformed(byte[] stream) {
+        byte[] padded = Arrays.copyOf(stream, stream.length + 16);
+        try {
+            decoder(padded).readFrame(ByteBuffer.allocate(maxFrameLength));
+            fail("malformed length accepted");
+        } catch (EOFException e) {
+            fail("malformed length trusted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
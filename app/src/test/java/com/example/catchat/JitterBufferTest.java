@@ -0,0 +1,213 @@
+package com.example.catchat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JitterBuffer fed with frames by hand, one byte each holding the frame's sequence number, so what
+ * poll() returns tells which frame is played.
+ */
+public class JitterBufferTest {
+    private static final int capacity = 32;
+    private static final int frameDuration = 20;  // in milliseconds
+
+    private JitterBuffer buffer;
+    private final byte[] frame = new byte[1];
+
+    @Before
+    public void setUp() {
+        buffer = new JitterBuffer(capacity, 1, frameDuration);
+    }
+
+    /**
+     * Puts a frame sent on time, which arrives after the given delay.
+     */
+    private boolean put(int sequence, int delay) {
+        int timestamp = sequence * frameDuration;
+        return buffer.put(sequence, timestamp, timestamp + delay, new byte[] {(byte) sequence}, 0, 1);
+    }
+
+    private boolean put(int sequence) {
+        return put(sequence, 0);
+    }
+
+    /**
+     * @return the sequence number of the frame played, or EMPTY or MISSING
+     */
+    private int play() {
+        int length = buffer.poll(frame);
+        return length < 0 ? length : frame[0];
+    }
+
+    @Test
+    public void playsFramesInSequenceOrder() {
+        buffer.setMinDepth(4);
+        put(0);
+        put(2);
+        put(1);
+        put(3);
+
+        for (int sequence = 0; sequence < 4; sequence++) assertEquals(sequence, play());
+        assertEquals(0, buffer.getMissingCount());
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void waitsForTheTargetDepthBeforePlaying() {
+        buffer.setMinDepth(3);
+        put(0);
+        put(1);
+        assertEquals(JitterBuffer.EMPTY, play());
+        put(2);
+        assertEquals(0, play());
+        assertEquals(0, buffer.getUnderrunCount());  // filling up at the start is not an underrun
+    }
+
+    @Test
+    public void rejectsLateAndDuplicateFrames() {
+        put(0);
+        put(1);
+        assertEquals(0, play());
+        assertEquals(1, play());
+
+        assertFalse(put(0));  // already played
+        assertEquals(1, buffer.getLateCount());
+
+        assertTrue(put(2));
+        assertFalse(put(2));  // duplicate, still waiting to play
+        assertEquals(1, buffer.getLateCount());  // a duplicate is not late
+        assertEquals(2, play());
+        assertEquals(JitterBuffer.EMPTY, play());
+    }
+
+    @Test
+    public void targetDepthFollowsTheJitter() {
+        for (int sequence = 0; sequence < 50; sequence++) put(sequence, 10);
+        assertEquals(0, buffer.getJitter(), 0);
+        assertEquals(1, buffer.getTargetDepth());
+
+        buffer = new JitterBuffer(capacity, 1, frameDuration);
+        for (int sequence = 0; sequence < 100; sequence++) put(sequence, sequence % 2 == 0 ? 0 : 60);
+        assertEquals(60, buffer.getJitter(), 1);
+        // 1 + 3 times the jitter, in frames
+        assertEquals(1 + 3 * 60 / frameDuration, buffer.getTargetDepth());
+    }
+
+    @Test
+    public void targetDepthIsCappedBelowTheCapacity() {
+        for (int sequence = 0; sequence < 200; sequence++) put(sequence, sequence % 2 == 0 ? 0 : 1000);
+        assertEquals(capacity - 1, buffer.getTargetDepth());
+    }
+
+    @Test
+    public void minDepthRaisesTheTarget() {
+        buffer.setMinDepth(5);
+        for (int sequence = 0; sequence < 20; sequence++) put(sequence);
+        assertEquals(5, buffer.getTargetDepth());
+    }
+
+    @Test
+    public void dropsFramesToCutTheDelay() {
+        // a burst of delayed frames arrives at once, with no jitter estimate to justify keeping them
+        for (int sequence = 0; sequence < 6; sequence++) put(sequence);
+        assertEquals(6, buffer.getDepth());
+
+        assertEquals(1, play());  // 0 is dropped
+        assertEquals(3, play());  // 2 is dropped
+        assertEquals(4, play());  // down to the target depth and a half: nothing more dropped
+        assertEquals(5, play());
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(0, buffer.getDepth());
+    }
+
+    @Test
+    public void frameTooFarAheadSkipsTheOnesBefore() {
+        put(0);
+        put(1);
+        assertTrue(put(capacity + 5));
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(capacity, buffer.getDepth());
+    }
+
+    @Test
+    public void countsMissingFramesAndUnderruns() {
+        buffer.setMinDepth(3);
+        put(0);
+        put(2);
+        put(3);
+
+        assertEquals(0, play());
+        assertEquals(JitterBuffer.MISSING, play());
+        assertEquals(1, buffer.getMissingCount());
+        assertEquals(2, play());
+        assertEquals(3, play());
+
+        assertEquals(JitterBuffer.EMPTY, play());  // ran dry
+        assertEquals(1, buffer.getUnderrunCount());
+        assertEquals(JitterBuffer.EMPTY, play());  // filling up again, not another underrun
+        assertEquals(1, buffer.getUnderrunCount());
+
+        // a frame lost on the network and never rebuilt stays missing
+        put(4);
+        put(6);
+        put(7);
+        assertEquals(4, play());
+        assertEquals(JitterBuffer.MISSING, play());
+        assertEquals(2, buffer.getMissingCount());
+    }
+
+    @Test
+    public void pauseDoesNotCountAnUnderrun() {
+        buffer.setMinDepth(2);
+        put(0);
+        put(1);
+        assertEquals(0, play());
+
+        // frame 1 is the noise update that starts the silence: the sender stops sending
+        assertEquals(1, play());
+        buffer.pause();
+        assertEquals(JitterBuffer.EMPTY, play());
+        assertEquals(JitterBuffer.EMPTY, play());
+        assertEquals(0, buffer.getUnderrunCount());
+
+        // speech resumes: the buffer fills up to its target depth again before playing
+        put(2);
+        assertEquals(JitterBuffer.EMPTY, play());
+        put(3);
+        assertEquals(2, play());
+        assertEquals(3, play());
+        assertEquals(0, buffer.getMissingCount());
+
+        // running dry without a pause is an underrun
+        assertEquals(JitterBuffer.EMPTY, play());
+        assertEquals(1, buffer.getUnderrunCount());
+    }
+
+    @Test
+    public void recoveredFrameFillsItsGap() {
+        buffer.setMinDepth(3);
+        put(0);
+        put(2);
+        assertTrue(buffer.putRecovered(1, new byte[] {1}, 0, 1));
+        assertEquals(0, play());
+        assertEquals(1, play());
+        assertEquals(2, play());
+        assertEquals(0, buffer.getMissingCount());
+    }
+
+    @Test
+    public void recoveredFrameBeforeAnyOtherIsIgnored() {
+        assertFalse(buffer.putRecovered(5, new byte[] {5}, 0, 1));
+        assertEquals(0, buffer.getDepth());
+    }
+
+    @Test
+    public void rejectsFramesTooBigForASlot() {
+        assertFalse(buffer.put(0, 0, 0, new byte[2], 0, 2));
+        assertEquals(0, buffer.getDepth());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.catchat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The call's threads, when their microphone, speaker or network fails: each must end the call once
+ * and stop, instead of going on with a broken source and ending the call again and again.
+ */
+public class PipelineFailureTest {
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+    private static final long waitMillis = 2000;
+
+    private final AtomicInteger ended = new AtomicInteger();
+    private final CallListener listener = reason -> ended.incrementAndGet();
+    private Thread thread = null;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(waitMillis);
+        }
+    }
+
+    /**
+     * A microphone or speaker that cannot start, or fails on the first read or write.
+     */
+    private static class BrokenDevice implements AudioSource, AudioSink {
+        final boolean startFails;
+        volatile boolean released = false;
+        final AtomicInteger used = new AtomicInteger();
+
+        BrokenDevice(boolean startFails) {
+            this.startFails = startFails;
+        }
+
+        @Override
+        public void start() throws IOException {
+            if (startFails) throw new IOException("no device");
+        }
+
+        @Override
+        public int read(short[] samples, int count) throws IOException {
+            used.incrementAndGet();
+            throw new IOException("device gone");
+        }
+
+        @Override
+        public void write(short[] samples, int count) throws IOException {
+            used.incrementAndGet();
+            throw new IOException("device gone");
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    /**
+     * A speaker that plays in real time, without a sound card.
+     */
+    private static class QuietSink implements AudioSink {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void write(short[] samples, int count) {
+            try {
+                Thread.sleep(format.getPacketSizeInMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * A network that is already closed.
+     */
+    private static class ClosedTransport implements PacketTransport {
+        final AtomicInteger used = new AtomicInteger();
+
+        @Override
+        public void send(ByteBuffer packet) throws IOException {
+            throw new IOException("closed");
+        }
+
+        @Override
+        public void receive(ByteBuffer packet) throws IOException {
+            used.incrementAndGet();
+            throw new IOException("closed");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Starts the thread and waits for it to stop on its own.
+     */
+    private void runUntilStopped(Thread thread) throws InterruptedException {
+        this.thread = thread;
+        thread.start();
+        thread.join(waitMillis);
+        assertFalse("still running", thread.isAlive());
+    }
+
+    private OutCommThread recorder(AudioSource source) {
+        return new OutCommThread(listener, format, new ClosedTransport(), source, new CallStats(),
+                false, null, null, null);
+    }
+
+    @Test
+    public void microphoneThatDoesNotStartEndsTheCallOnce() throws InterruptedException {
+        BrokenDevice microphone = new BrokenDevice(true);
+        runUntilStopped(recorder(microphone));
+        assertEquals(1, ended.get());
+        assertEquals(0, microphone.used.get());
+        assertTrue(microphone.released);
+    }
+
+    @Test
+    public void microphoneThatFailsEndsTheCallOnce() throws InterruptedException {
+        BrokenDevice microphone = new BrokenDevice(false);
+        runUntilStopped(recorder(microphone));
+        assertEquals(1, ended.get());
+        assertEquals(1, microphone.used.get());
+        assertTrue(microphone.released);
+    }
+
+    @Test
+    public void speakerThatDoesNotStartEndsTheCallOnce() throws InterruptedException {
+        BrokenDevice speaker = new BrokenDevice(true);
+        JitterBuffer buffer = new JitterBuffer(8, format.getMaxPacketSizeInBytes(), format.getPacketSizeInMillis());
+        runUntilStopped(new PlayThread(listener, format, buffer, speaker, new CallStats(), null));
+        assertEquals(1, ended.get());
+        assertEquals(0, speaker.used.get());
+        assertTrue(speaker.released);
+    }
+
+    @Test
+    public void closedNetworkEndsTheCallOnce() throws InterruptedException {
+        ClosedTransport network = new ClosedTransport();
+        CallStats stats = new CallStats();
+        HeartbeatThread heartbeat = new HeartbeatThread(listener, network, stats, null, 1000, 10000);  // not started
+        InCommThread receiver = new InCommThread(listener, format, network, new QuietSink(), heartbeat, stats, null);
+
+        runUntilStopped(receiver);
+        assertEquals(1, ended.get());
+        assertEquals(1, network.used.get());
+    }
+}
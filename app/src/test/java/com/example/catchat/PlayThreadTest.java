@@ -0,0 +1,76 @@
+package com.example.catchat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A PlayThread playing packets into a sink that records how much it was given each time.
+ */
+public class PlayThreadTest {
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_MULAW);
+    private static final int packets = 30;
+
+    private final int frames = format.getPacketSizeInFrames();
+    private final JitterBuffer buffer = new JitterBuffer(16, format.getMaxPacketSizeInBytes(), format.getPacketSizeInMillis());
+    private final AudioCodec encoder = AudioCodecs.create(format.getCodec(), frames);
+    private final byte[] packet = new byte[format.getMaxPacketSizeInBytes()];
+
+    /**
+     * Puts an audio packet in the jitter buffer, as if it arrived on time.
+     * @param sequence the packet's sequence number
+     * @param count how many samples it holds
+     */
+    private void arrive(int sequence, int count) {
+        int timestamp = sequence * format.getPacketSizeInMillis();
+        PacketHeader header = new PacketHeader();
+        header.set(PacketHeader.TYPE_AUDIO, format.getCodec(), sequence, timestamp);
+        header.write(ByteBuffer.wrap(packet));
+        int length = encoder.encode(new short[count], count, packet, PacketHeader.SIZE);
+        buffer.put(sequence, timestamp, timestamp, packet, 0, length);
+    }
+
+    @Test(timeout = 5000)
+    public void packetOfTheWrongLengthIsConcealed() throws InterruptedException {
+        List<Integer> written = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // each write lets the next packet arrive, so they come at the rate they are played;
+        // every third one holds half a packet of audio
+        AudioSink sink = new AudioSink() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void write(short[] samples, int count) {
+                written.add(count);
+                int sequence = written.size();
+                if (sequence < packets) arrive(sequence, sequence % 3 == 0 ? frames / 2 : frames);
+                else done.countDown();
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        arrive(0, frames);
+
+        CallStats stats = new CallStats();
+        PlayThread thread = new PlayThread(reason -> { }, format, buffer, sink, stats, null);
+        thread.start();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        thread.interrupt();
+        thread.join(2000);
+
+        for (int count : written) assertEquals(frames, count);  // never less than a packet's time
+        assertTrue(stats.getPacketsConcealed() > 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.catchat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RateConverter must give back exactly as many samples as a packet was sent with, whatever the
+ * packet size, or the player drains the JitterBuffer faster than packets arrive.
+ */
+public class RateConverterTest {
+    private static final int[] packetSizes = {882, 441, 440, 160};  // 20 and 10 ms at 44.1 kHz, 20 ms at 8 kHz
+
+    @Test
+    public void packetKeepsItsLength() {
+        for (int frames : packetSizes) {
+            for (int shift = 1; shift <= 2; shift++) {
+                short[] samples = new short[frames];
+                for (int i = 0; i < frames; i++) samples[i] = (short) (i * 30);
+
+                int count = RateConverter.down(samples, frames, shift);
+                assertEquals(RateConverter.reducedLength(frames, shift), count);
+
+                short[] raised = new short[frames];
+                assertEquals("frames " + frames + ", shift " + shift,
+                        frames, new RateConverter().up(samples, count, shift, raised, frames));
+            }
+        }
+    }
+
+    @Test
+    public void shorterLastGroupIsAveraged() {
+        short[] samples = {4, 4, 4, 4, 10, 20};
+        assertEquals(2, RateConverter.down(samples, 6, 2));
+        assertEquals(4, samples[0]);
+        assertEquals(15, samples[1]);
+    }
+
+    @Test
+    public void constantSignalComesBackUnchanged() {
+        short[] samples = new short[441];
+        Arrays.fill(samples, (short) 1234);
+        int count = RateConverter.down(samples, samples.length, 2);
+
+        RateConverter converter = new RateConverter();
+        converter.played((short) 1234);
+        short[] raised = new short[441];
+        converter.up(samples, count, 2, raised, raised.length);
+        for (short sample : raised) assertEquals(1234, sample);
+    }
+
+    @Test
+    public void raisingStartsFromTheLastSamplePlayed() {
+        RateConverter converter = new RateConverter();
+        converter.played((short) 0);
+        short[] raised = new short[4];
+        converter.up(new short[] {400}, 1, 2, raised, 4);
+        assertEquals(100, raised[0]);
+        assertEquals(400, raised[3]);
+    }
+
+    @Test
+    public void unshiftedPacketIsLeftAsItIs() {
+        short[] samples = {1, 2, 3};
+        assertEquals(3, RateConverter.down(samples, 3, 0));
+        assertEquals(3, RateConverter.reducedLength(3, 0));
+    }
+}
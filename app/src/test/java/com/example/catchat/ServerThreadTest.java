@@ -0,0 +1,108 @@
+package com.example.catchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A ServerThread over loopback, with requesters connecting to it.
+ */
+public class ServerThreadTest {
+    private static final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+
+    private final BlockingQueue<ConnectRequest> added = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ConnectRequest> removed = new LinkedBlockingQueue<>();
+    private final RequestListener listener = new RequestListener() {
+        @Override
+        public void addIncoming(ConnectRequest request) {
+            added.add(request);
+        }
+
+        @Override
+        public void removeIncoming(ConnectRequest request) {
+            removed.add(request);
+        }
+
+        @Override
+        public void updateStatus(String message) {
+        }
+
+        @Override
+        public void requestConfirmed(ConnectRequest request) {
+            request.close();
+        }
+    };
+
+    private ServerThread server;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        server = new ServerThread(listener, 0, () -> format, () -> false);
+        server.start();
+        while (server.getLocalPort() == 0) Thread.sleep(1);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.interrupt();
+        server.join(2000);
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+    }
+
+    /**
+     * Says hello the way ClientThread does.
+     */
+    private static void sayHello(SocketChannel requester) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(4 + PacketHeader.SIZE + Capabilities.maxSize);
+        message.putInt(0);  // the length, set below
+        PacketHeader header = new PacketHeader();
+        header.set(PacketHeader.TYPE_HELLO, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
+        Capabilities.local(format).write(message);
+        message.flip();
+        message.putInt(0, message.remaining() - 4);
+        while (message.hasRemaining()) requester.write(message);
+    }
+
+    /**
+     * @return true once the other end closed the connection
+     */
+    private static boolean isClosedByServer(SocketChannel requester) throws IOException {
+        return requester.read(ByteBuffer.allocate(16)) == -1;
+    }
+
+    @Test(timeout = 5000)
+    public void stoppingClosesThePendingRequests() throws Exception {
+        try (SocketChannel shown = connect(); SocketChannel silent = connect()) {
+            sayHello(shown);
+            ConnectRequest request = added.poll(2, TimeUnit.SECONDS);
+            assertNotNull("request not shown", request);
+            while (server.getPendingCount() < 2) Thread.sleep(1);  // the silent one was accepted too
+
+            server.interrupt();
+            server.join(2000);
+
+            assertEquals(Collections.singletonList(request), new ArrayList<>(removed));
+            assertTrue(isClosedByServer(shown));  // instead of ringing forever
+            assertTrue(isClosedByServer(silent));
+        }
+    }
+}
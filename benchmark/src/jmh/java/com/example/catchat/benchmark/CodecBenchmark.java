@@ -0,0 +1,80 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.AudioCodec;
+import com.example.catchat.AudioCodecs;
+import com.example.catchat.CallFormat;
+import com.example.catchat.PacketHeader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Encoding and decoding one packet, as the EncodeThread and the PlayThread do.
+ * The compressed size of each packet is reported as an extra counter, so the cost of a codec can be
+ * read next to what it saves on the network.
+ */
+@State(Scope.Thread)
+public class CodecBenchmark {
+    @Param({"0", "1", "2"})  // PacketHeader.CODEC_DEFLATE, CODEC_MULAW, CODEC_ADPCM
+    public byte codec;
+
+    @Param({"10", "20", "100"})  // shorter packets cost more per second of audio
+    public int packetSizeInMillis;
+
+    private AudioCodec encoder;
+    private AudioCodec decoder;
+    private short[] samples;
+    private short[] decoded;
+    private byte[] packet;
+    private int encodedLength;
+
+    /**
+     * Reports the size of an encoded packet, in bytes. Every packet holds the same samples, so the
+     * size of the last one is the size of all of them.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long encodedBytes;
+    }
+
+    @Setup
+    public void setUp() {
+        CallFormat format = new CallFormat(44100, packetSizeInMillis, codec);
+        int frames = format.getPacketSizeInFrames();
+
+        encoder = AudioCodecs.create(codec, frames);
+        decoder = AudioCodecs.create(codec, frames);
+        samples = Signals.voice(frames, format.getSampleRate());
+        decoded = new short[frames];
+        packet = new byte[format.getMaxPacketSizeInBytes()];
+
+        encodedLength = encoder.encode(samples, samples.length, packet, PacketHeader.SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.release();
+        decoder.release();
+    }
+
+    @Benchmark
+    public int encode(Sizes sizes) {
+        int length = encoder.encode(samples, samples.length, packet, PacketHeader.SIZE);
+        sizes.encodedBytes = length;
+        return length;
+    }
+
+    @Benchmark
+    public short[] decode() throws DataFormatException {
+        decoder.decode(packet, PacketHeader.SIZE, encodedLength, decoded);
+        return decoded;
+    }
+}
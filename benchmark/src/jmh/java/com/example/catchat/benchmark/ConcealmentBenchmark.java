@@ -0,0 +1,50 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.CallFormat;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.PacketLossConcealer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Making up a lost packet with the PacketLossConcealer, as the PlayThread does: a packet of voice is
+ * played, then one is lost, which costs the pitch search, and the next one blends back in.
+ * The time should stay about the same at every sample rate.
+ */
+@State(Scope.Thread)
+public class ConcealmentBenchmark {
+    @Param({"8000", "16000", "44100"})
+    public int sampleRate;
+
+    private PacketLossConcealer concealer;
+    private short[] voice;
+    private short[] packet;
+
+    @Setup
+    public void setUp() {
+        CallFormat format = new CallFormat(sampleRate, 20, PacketHeader.CODEC_ADPCM);
+        concealer = new PacketLossConcealer(format);
+        voice = Signals.voice(format.getPacketSizeInFrames(), sampleRate);
+        packet = new short[voice.length];
+
+        // fill the history
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(voice, 0, packet, 0, voice.length);
+            concealer.received(packet, packet.length);
+        }
+    }
+
+    @Benchmark
+    public short lose() {
+        concealer.conceal(packet, packet.length);
+        short made = packet[packet.length - 1];
+
+        System.arraycopy(voice, 0, packet, 0, voice.length);
+        concealer.received(packet, packet.length);
+        return made;
+    }
+}
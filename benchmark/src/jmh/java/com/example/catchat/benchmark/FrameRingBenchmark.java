@@ -0,0 +1,46 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.FrameRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Passing packets between two pipeline stages through a FrameRing, with the producer and the
+ * consumer on separate threads like the capture, encoding and sending stages.
+ */
+@State(Scope.Group)
+public class FrameRingBenchmark {
+    private static final int packetSize = 882;
+
+    private FrameRing<short[]> ring;
+
+    @Setup
+    public void setUp() {
+        short[][] slots = new short[8][packetSize];
+        ring = new FrameRing<>(slots, true);
+    }
+
+    /**
+     * Per-thread packet, so the two stages do not share it.
+     */
+    @State(Scope.Thread)
+    public static class Packet {
+        public final short[] samples = new short[packetSize];
+    }
+
+    @Benchmark
+    @Group("stages")
+    public boolean offer(Packet packet) {
+        return ring.offer(packet.samples, packetSize);
+    }
+
+    @Benchmark
+    @Group("stages")
+    public int poll(Packet packet) {
+        return ring.poll(packet.samples);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.BetterSocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Sending one packet through a BetterSocket over loopback and reading it on the other end, as the
+ * TcpTransport does. The packet fits in the socket buffers, so one thread does both.
+ */
+@State(Scope.Thread)
+public class FramingBenchmark {
+    @Param({"445", "882", "8832"})  // 20 ms of ADPCM and mu-law, 100 ms of 16-bit PCM
+    public int packetSize;
+
+    private BetterSocket sender;
+    private BetterSocket receiver;
+    private ByteBuffer outgoing;
+    private ByteBuffer incoming;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+            client.socket().setTcpNoDelay(true);
+            sender = new BetterSocket(client);
+            receiver = new BetterSocket(listener.accept());
+        }
+
+        outgoing = ByteBuffer.wrap(Signals.toBytes(Signals.voice(packetSize / 2, 44100)));
+        incoming = ByteBuffer.allocate(packetSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.destroy();
+        receiver.destroy();
+    }
+
+    /**
+     * The length and the data in one gathering write, read back through the FrameDecoder.
+     */
+    @Benchmark
+    public int frame() throws IOException {
+        outgoing.rewind();
+        sender.writeFrame(outgoing);
+
+        incoming.clear();
+        return receiver.readFrame(incoming);
+    }
+
+    /**
+     * The length and the data in two writes, read back with two reads, like the packets were sent
+     * before there was writeFrame().
+     */
+    @Benchmark
+    public int intThenBytes() throws IOException {
+        outgoing.rewind();
+        sender.writeInt(outgoing.remaining());
+        sender.writeBytes(outgoing);
+
+        int length = receiver.readInt();
+        incoming.clear();
+        incoming.limit(length);
+        receiver.readBytes(incoming);
+        return length;
+    }
+}
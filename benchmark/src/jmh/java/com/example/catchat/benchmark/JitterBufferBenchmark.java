@@ -0,0 +1,51 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.JitterBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Adding one received packet to the JitterBuffer and taking the next one out, as the InCommThread
+ * and the PlayThread do once per packet. Arrival times have random jitter, so the target depth
+ * moves and the late, drop and underrun paths are taken now and then.
+ */
+@State(Scope.Thread)
+public class JitterBufferBenchmark {
+    private static final int frameDuration = 20;  // in milliseconds
+    private static final int pattern = 1024;  // arrival times repeat after this many packets
+
+    @Param({"0", "30"})  // standard deviation of the network delay, in milliseconds
+    public int jitter;
+
+    private JitterBuffer buffer;
+    private final byte[] packet = new byte[882];
+    private final byte[] played = new byte[882];
+    private final int[] delays = new int[pattern];
+    private int sequence = 0;
+
+    @Setup
+    public void setUp() {
+        buffer = new JitterBuffer(100, packet.length, frameDuration);
+
+        Random random = new Random(42);
+        for (int i = 0; i < pattern; i++) {
+            delays[i] = (int) Math.abs(random.nextGaussian() * jitter);
+        }
+    }
+
+    @Benchmark
+    public int putAndPoll() {
+        int timestamp = sequence * frameDuration;
+        int arrival = timestamp + delays[sequence & (pattern - 1)];
+        buffer.put(sequence, timestamp, arrival, packet, 0, packet.length);
+        sequence++;
+
+        return buffer.poll(played);
+    }
+}
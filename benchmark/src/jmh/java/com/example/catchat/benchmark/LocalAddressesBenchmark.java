@@ -0,0 +1,36 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.LocalAddresses;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.List;
+
+/**
+ * Finding this device's IP address for the connection screen: going through the network interfaces,
+ * as every visit to the screen did before the addresses were kept, against reading the kept ones.
+ */
+@State(Scope.Thread)
+public class LocalAddressesBenchmark {
+    private final LocalAddresses addresses = new LocalAddresses();
+
+    @Setup
+    public void setUp() {
+        addresses.get();  // found once, as on the first visit
+    }
+
+    @Benchmark
+    public List<InetAddress> resolve() throws SocketException {
+        return LocalAddresses.resolve();
+    }
+
+    @Benchmark
+    public List<InetAddress> cached() {
+        return addresses.get();
+    }
+}
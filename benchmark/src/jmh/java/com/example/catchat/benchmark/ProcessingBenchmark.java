@@ -0,0 +1,129 @@
+package com.example.catchat.benchmark;
+
+import com.example.catchat.AudioChain;
+import com.example.catchat.CallFormat;
+import com.example.catchat.GainControl;
+import com.example.catchat.NoiseGate;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.SampleFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of an AudioChain on one packet, in nanoseconds per packet, and the whole capture chain.
+ * The stages work in place, so their benchmarks first copy the packet back from the original, or
+ * the gain would compound from one call to the next; copyFloats and copyShorts time that copy alone,
+ * to subtract. Run with -bm avgt -tu ns for the figures in ns per packet; the gc profiler shows
+ * nothing is allocated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProcessingBenchmark {
+    @Param({"20"})  // a packet of 882 samples at 44.1 kHz
+    public int packetSizeInMillis;
+
+    private int count;
+    private short[] original;
+    private float[] originalFloats;
+    private short[] samples;
+    private float[] floats;
+    private byte[] unsigned8;
+    private GainControl fixedGain;
+    private GainControl automaticGain;
+    private NoiseGate gate;
+    private AudioChain chain;
+
+    @Setup
+    public void setUp() {
+        CallFormat format = new CallFormat(44100, packetSizeInMillis, PacketHeader.CODEC_ADPCM);
+        count = format.getPacketSizeInFrames();
+
+        original = Signals.voice(count, format.getSampleRate());
+        originalFloats = new float[count];
+        SampleFormat.toFloat(original, originalFloats, count);
+        samples = original.clone();
+        floats = new float[count];
+        unsigned8 = new byte[count];
+        SampleFormat.toUnsigned8(original, unsigned8, count);
+
+        fixedGain = new GainControl(format.getSampleRate());
+        fixedGain.setFixedGain(0.5f);
+        automaticGain = new GainControl(format.getSampleRate());
+        gate = new NoiseGate(format.getSampleRate());
+        chain = AudioChain.capture(format);
+    }
+
+    @Benchmark
+    public float[] toFloat() {
+        SampleFormat.toFloat(original, floats, count);
+        return floats;
+    }
+
+    @Benchmark
+    public short[] toShort() {
+        SampleFormat.toShort(originalFloats, samples, count);
+        return samples;
+    }
+
+    @Benchmark
+    public byte[] toUnsigned8() {
+        SampleFormat.toUnsigned8(original, unsigned8, count);
+        return unsigned8;
+    }
+
+    @Benchmark
+    public short[] fromUnsigned8() {
+        SampleFormat.fromUnsigned8(unsigned8, samples, count);
+        return samples;
+    }
+
+    @Benchmark
+    public float[] copyFloats() {
+        System.arraycopy(originalFloats, 0, floats, 0, count);
+        return floats;
+    }
+
+    @Benchmark
+    public float[] fixedGain() {
+        System.arraycopy(originalFloats, 0, floats, 0, count);
+        fixedGain.process(floats, count);
+        return floats;
+    }
+
+    @Benchmark
+    public float[] automaticGain() {
+        System.arraycopy(originalFloats, 0, floats, 0, count);
+        automaticGain.process(floats, count);
+        return floats;
+    }
+
+    @Benchmark
+    public float[] noiseGate() {
+        System.arraycopy(originalFloats, 0, floats, 0, count);
+        gate.process(floats, count);
+        return floats;
+    }
+
+    @Benchmark
+    public short[] copyShorts() {
+        System.arraycopy(original, 0, samples, 0, count);
+        return samples;
+    }
+
+    @Benchmark
+    public short[] captureChain() {
+        System.arraycopy(original, 0, samples, 0, count);
+        chain.process(samples, count);
+        return samples;
+    }
+}
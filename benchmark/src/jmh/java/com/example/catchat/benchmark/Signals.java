@@ -0,0 +1,44 @@
+package com.example.catchat.benchmark;
+
+import java.util.Random;
+
+/**
+ * Test signals for the benchmarks.
+ * Codecs behave very differently on silence, noise and tones, so every benchmark uses the same
+ * signal: a mix of tones with a little noise, close to recorded speech in the ratio Deflate gets.
+ */
+public class Signals {
+    /**
+     * Creates a reproducible voice-like signal.
+     * @param count how many samples
+     * @param sampleRate the sample rate, in Hz
+     * @return the samples
+     */
+    public static short[] voice(int count, int sampleRate) {
+        Random random = new Random(42);
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            double t = (double) i / sampleRate;
+            double value = 6000 * Math.sin(2 * Math.PI * 220 * t)
+                    + 3000 * Math.sin(2 * Math.PI * 440 * t)
+                    + 1500 * Math.sin(2 * Math.PI * 880 * t)
+                    + 300 * random.nextGaussian();
+            samples[i] = (short) value;
+        }
+        return samples;
+    }
+
+    /**
+     * Converts samples to bytes, in big-endian order.
+     * @param samples the samples
+     * @return the bytes, two per sample
+     */
+    public static byte[] toBytes(short[] samples) {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) (samples[i] >> 8);
+            bytes[2 * i + 1] = (byte) samples[i];
+        }
+        return bytes;
+    }
+}
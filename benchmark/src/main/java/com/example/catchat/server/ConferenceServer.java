@@ -0,0 +1,155 @@
+package com.example.catchat.server;
+
+import com.example.catchat.BetterSocket;
+import com.example.catchat.CallFormat;
+import com.example.catchat.ConferenceBridge;
+import com.example.catchat.ConferenceParticipant;
+import com.example.catchat.PacketHeader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A conference node running on a plain JVM, without a screen: accepts calls from devices on the
+ * app's port, and puts every caller in the same conference (see ConferenceBridge). Devices call it
+ * like they would call another device. Prints the number of participants and the mixing time every
+ * few seconds, until killed.
+ *
+ * Usage:
+ *      gradle -p benchmark conference --args="[options]"
+ * Options:
+ *      --port N                port to accept calls on (25565, like Globals)
+ *      --participants N        most participants at once (16)
+ *      --threads N             threads mixing (1)
+ *      --codec NAME            preferred codec: deflate, mulaw or adpcm (adpcm)
+ *      --packet MILLIS         audio per packet, for every participant (20)
+ *      --tcp                   send audio over the TCP connections instead of UDP
+ */
+public class ConferenceServer {
+    private static final int sampleRate = 44100;  // like Globals
+    private static final long reportInterval = 10000;  // in milliseconds
+
+    private int port = 25565;
+    private int participants = 16;
+    private int threads = 1;
+    private byte codec = PacketHeader.CODEC_ADPCM;
+    private int packetMillis = 20;
+    private boolean mediaOverUdp = true;
+
+    public static void main(String[] args) throws Exception {
+        ConferenceServer server = new ConferenceServer();
+        try {
+            server.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see ConferenceServer.java for the options");
+            System.exit(2);
+        }
+        server.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--tcp")) {
+                mediaOverUdp = false;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--port": port = Integer.parseInt(value); break;
+                    case "--participants": participants = Integer.parseInt(value); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    case "--codec": codec = parseCodec(value); break;
+                    case "--packet": packetMillis = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (participants < 2 || threads < 1) throw new IllegalArgumentException("values out of range");
+    }
+
+    /**
+     * @param name a codec name or id
+     * @return the codec id
+     */
+    private static byte parseCodec(String name) {
+        switch (name) {
+            case "deflate": return PacketHeader.CODEC_DEFLATE;
+            case "mulaw": return PacketHeader.CODEC_MULAW;
+            case "adpcm": return PacketHeader.CODEC_ADPCM;
+            default: return Byte.parseByte(name);
+        }
+    }
+
+    /**
+     * Starts the conference, and accepts calls until the process is killed.
+     */
+    private void run() throws IOException {
+        CallFormat format = new CallFormat(sampleRate, packetMillis, codec);
+        ConferenceBridge bridge = new ConferenceBridge(format, participants, threads, mediaOverUdp);
+        bridge.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(bridge::stop));
+
+        Thread reporter = new Thread(() -> report(bridge), "reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(port));
+            System.out.printf("conference on port %d: up to %d participants, %d ms packets, audio over %s%n",
+                    port, participants, packetMillis, mediaOverUdp ? "UDP" : "TCP");
+
+            while (true) {
+                SocketChannel channel = listener.accept();
+                // call setup blocks, so each caller joins on a thread of its own
+                new Thread(() -> join(bridge, channel), "joining " + channel.socket().getInetAddress()).start();
+            }
+        }
+    }
+
+    /**
+     * Adds a caller to the conference.
+     * @param bridge the conference
+     * @param channel the connection from the caller
+     */
+    private static void join(ConferenceBridge bridge, SocketChannel channel) {
+        String address = String.valueOf(channel.socket().getInetAddress());
+        try {
+            bridge.join(new BetterSocket(channel));
+            System.out.println(address + " joined");
+        } catch (IOException e) {
+            System.out.println(address + " could not join: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the state of the conference every reportInterval, until the process ends.
+     * @param bridge the conference
+     */
+    private static void report(ConferenceBridge bridge) {
+        try {
+            while (true) {
+                Thread.sleep(reportInterval);
+                ConferenceParticipant[] current = bridge.getParticipants();
+                System.out.printf("%d participants, mixing %.1f us per packet, %d late%n",
+                        current.length, bridge.getMixMicros(), bridge.getLateMixCount());
+            }
+        } catch (InterruptedException e) {
+            // exiting
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.catchat.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Signals the simulated microphones loop over, under the markers.
+ * They are kept to a quarter of the full scale, so they are never mistaken for a marker.
+ */
+class Backgrounds {
+    private static final int peak = 6000;
+
+    /**
+     * Creates two seconds of a voice-like signal: a second of a mix of tones, then a second of
+     * pause, both over a little noise, like someone talking half of the time.
+     * @param sampleRate the sample rate, in Hz
+     * @return the samples
+     */
+    static short[] synthetic(int sampleRate) {
+        Random random = new Random(42);
+        short[] samples = new short[2 * sampleRate];
+        for (int i = 0; i < samples.length; i++) {
+            double t = (double) i / sampleRate;
+            double voice = i < sampleRate ? 1 : 0;
+            double value = voice * 3000 * Math.sin(2 * Math.PI * 220 * t)
+                    + voice * 1500 * Math.sin(2 * Math.PI * 440 * t)
+                    + voice * 750 * Math.sin(2 * Math.PI * 880 * t)
+                    + 150 * random.nextGaussian();
+            samples[i] = (short) Math.max(-peak, Math.min(peak, value));
+        }
+        return samples;
+    }
+
+    /**
+     * Reads a 16-bit PCM WAV file. Only the first channel is kept, and it is resampled to the call's
+     * sample rate by picking the nearest sample, which is enough to give the codecs real speech.
+     * @param file the WAV file
+     * @param sampleRate the sample rate to convert to, in Hz
+     * @return the samples, scaled down to stay below the markers
+     * @throws IOException if the file could not be read or is not 16-bit PCM
+     */
+    static short[] wav(Path file, int sampleRate) throws IOException {
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.remaining() < 12 || wav.getInt(0) != 0x46464952 || wav.getInt(8) != 0x45564157) {
+            throw new IOException(file + " is not a WAV file");  // "RIFF" ... "WAVE"
+        }
+
+        int channels = 0, fileRate = 0, bits = 0;
+        wav.position(12);
+        while (wav.remaining() >= 8) {
+            int id = wav.getInt();
+            int size = wav.getInt();
+            if (size < 0 || size > wav.remaining()) size = wav.remaining();  // streamed files
+
+            if (id == 0x20746d66) {  // "fmt "
+                int encoding = wav.getShort(wav.position()) & 0xffff;
+                channels = wav.getShort(wav.position() + 2) & 0xffff;
+                fileRate = wav.getInt(wav.position() + 4);
+                bits = wav.getShort(wav.position() + 14) & 0xffff;
+                if (encoding != 1 || bits != 16 || channels == 0) {
+                    throw new IOException(file + " is not 16-bit PCM");
+                }
+            } else if (id == 0x61746164) {  // "data"
+                if (channels == 0) throw new IOException(file + " has no format chunk before its data");
+                return convert(wav.slice().order(ByteOrder.LITTLE_ENDIAN), size, channels, fileRate, sampleRate);
+            }
+
+            wav.position(wav.position() + size + (size & 1));  // chunks are padded to even sizes
+        }
+        throw new IOException(file + " has no data");
+    }
+
+    /**
+     * Keeps the first channel, resamples it and scales it down.
+     */
+    private static short[] convert(ByteBuffer data, int size, int channels, int fileRate, int sampleRate) {
+        int fileFrames = size / (2 * channels);
+        int frames = (int) ((long) fileFrames * sampleRate / fileRate);
+        if (frames == 0) throw new IllegalArgumentException("the WAV file is empty");
+
+        short[] samples = new short[frames];
+        int max = 1;
+        for (int i = 0; i < frames; i++) {
+            long frame = (long) i * fileRate / sampleRate;
+            samples[i] = data.getShort((int) (frame * 2 * channels));
+            max = Math.max(max, Math.abs(samples[i]));
+        }
+
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) ((long) samples[i] * peak / max);
+        }
+        return samples;
+    }
+}
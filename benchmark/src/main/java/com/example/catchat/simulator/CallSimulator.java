@@ -0,0 +1,281 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.CallEngine;
+import com.example.catchat.CallFormat;
+import com.example.catchat.CallStats;
+import com.example.catchat.FecEncoder;
+import com.example.catchat.JitterBuffer;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.SessionRegistry;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs simulated calls on this machine, without Android: each call is two CallEngines connected
+ * over loopback, with simulated microphones and speakers (see SimulatedCall). Prints the
+ * mouth-to-ear latency, underruns and the CPU time used per call.
+ *
+ * Usage:
+ *      gradle -p benchmark simulate --args="[options]"
+ * Options:
+ *      --calls N               how many calls to run at once (1)
+ *      --seconds N             how long to run them (20)
+ *      --codec NAME            deflate, mulaw or adpcm (deflate)
+ *      --packet MILLIS         audio per packet (20)
+ *      --tcp                   send audio over the TCP connection instead of UDP
+ *      --no-dtx                send silent packets too (no discontinuous transmission)
+ *      --throttle KBPS         limit the connection to this many kilobytes per second each way;
+ *                              implies --tcp
+ *      --no-adapt              always send with the call's codec and sample rate
+ *      --fec SIZE              packets per parity packet over UDP: 2 to 16, adaptive or off
+ *                              (adaptive)
+ *      --wav FILE              loop a 16-bit PCM WAV file instead of the generated signal
+ *      --marker-interval MILLIS  time between markers; must be longer than the latency (1000)
+ *      --sink-buffer MILLIS    audio held by each simulated speaker (40)
+ *      --peer-timeout MILLIS   silence after which a call is ended (CallEngine's default)
+ */
+public class CallSimulator {
+    private static final int sampleRate = 44100;  // like Globals
+
+    private int calls = 1;
+    private int seconds = 20;
+    private byte codec = PacketHeader.CODEC_DEFLATE;
+    private int packetMillis = 20;
+    private boolean mediaOverUdp = true;
+    private boolean discontinuous = true;
+    private boolean adaptive = true;
+    private int fecGroupSize = CallEngine.FEC_ADAPTIVE;
+    private int throttle = 0;  // in bytes per second; 0 for no limit
+    private String wav = null;
+    private int markerIntervalMillis = 1000;
+    private int sinkBufferMillis = 40;
+    private int peerTimeoutMillis = CallEngine.defaultPeerTimeoutMillis;
+
+    public static void main(String[] args) throws Exception {
+        CallSimulator simulator = new CallSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see CallSimulator.java for the options");
+            System.exit(2);
+        }
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--tcp")) {
+                mediaOverUdp = false;
+                continue;
+            }
+            if (option.equals("--no-dtx")) {
+                discontinuous = false;
+                continue;
+            }
+            if (option.equals("--no-adapt")) {
+                adaptive = false;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--calls": calls = Integer.parseInt(value); break;
+                    case "--seconds": seconds = Integer.parseInt(value); break;
+                    case "--codec": codec = parseCodec(value); break;
+                    case "--packet": packetMillis = Integer.parseInt(value); break;
+                    case "--wav": wav = value; break;
+                    case "--marker-interval": markerIntervalMillis = Integer.parseInt(value); break;
+                    case "--sink-buffer": sinkBufferMillis = Integer.parseInt(value); break;
+                    case "--peer-timeout": peerTimeoutMillis = Integer.parseInt(value); break;
+                    case "--fec": fecGroupSize = parseFecGroupSize(value); break;
+                    case "--throttle":
+                        throttle = Integer.parseInt(value) * 1024;
+                        mediaOverUdp = false;
+                        break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (calls < 1 || seconds < 1 || markerIntervalMillis < 100 || sinkBufferMillis < 1
+                || peerTimeoutMillis < 1
+                || fecGroupSize > FecEncoder.maxGroupSize || fecGroupSize == 1 || fecGroupSize < CallEngine.FEC_OFF) {
+            throw new IllegalArgumentException("values out of range");
+        }
+    }
+
+    /**
+     * @param value a group size, or adaptive or off
+     * @return the group size, for CallEngine.setFecGroupSize()
+     */
+    private static int parseFecGroupSize(String value) {
+        switch (value) {
+            case "adaptive": return CallEngine.FEC_ADAPTIVE;
+            case "off": return CallEngine.FEC_OFF;
+            default: return Integer.parseInt(value);
+        }
+    }
+
+    /**
+     * @param name a codec name or id
+     * @return the codec id
+     */
+    private static byte parseCodec(String name) {
+        switch (name) {
+            case "deflate": return PacketHeader.CODEC_DEFLATE;
+            case "mulaw": return PacketHeader.CODEC_MULAW;
+            case "adpcm": return PacketHeader.CODEC_ADPCM;
+            default: return Byte.parseByte(name);
+        }
+    }
+
+    /**
+     * Starts the calls, lets them run, stops them and prints the results.
+     */
+    private void run() throws IOException, InterruptedException {
+        CallFormat format = new CallFormat(sampleRate, packetMillis, codec);
+        short[] background = wav == null
+                ? Backgrounds.synthetic(sampleRate)
+                : Backgrounds.wav(Paths.get(wav), sampleRate);
+
+        SessionRegistry sessions = new SessionRegistry();
+        List<SimulatedCall> running = new ArrayList<>();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            for (int i = 0; i < calls; i++) {
+                SimulatedCall call = new SimulatedCall(
+                        sessions, listener, format, mediaOverUdp, background, markerIntervalMillis, sinkBufferMillis,
+                        peerTimeoutMillis, discontinuous, adaptive, fecGroupSize, throttle
+                );
+                call.start();
+                running.add(call);
+            }
+        }
+
+        long cpuStart = processCpuTime();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long cpu = processCpuTime() - cpuStart;
+        long elapsed = System.nanoTime() - start;
+
+        for (SimulatedCall call : running) call.stop();
+        report(format, running, cpu, elapsed);
+        if (sessions.size() > 0) System.out.println(sessions.size() + " sessions were not closed");
+    }
+
+    /**
+     * Prints the results of the calls.
+     * @param format the calls' format
+     * @param done the calls
+     * @param cpu the CPU time used while they ran, in nanoseconds, or -1 if unknown
+     * @param elapsed how long they ran, in nanoseconds
+     */
+    private void report(CallFormat format, List<SimulatedCall> done, long cpu, long elapsed) {
+        List<Long> latencies = new ArrayList<>();
+        long markers = 0, sinkUnderruns = 0, queueDrops = 0, ended = 0;
+        long underruns = 0, missing = 0, late = 0, dropped = 0;
+        double ratio = 0, encodeMicros = 0, decodeMicros = 0, roundTrip = 0;
+        double silence = 0, cpuSaved = 0;
+        long bytesSent = 0, bytesSaved = 0, bitrateChanges = 0, recovered = 0;
+        double fecOverhead = 0;
+        int sides = 0;
+        for (SimulatedCall call : done) {
+            for (CallStats stats : call.getStats()) {
+                ratio += stats.getCompressionRatio();
+                encodeMicros += stats.getEncodeMicros();
+                decodeMicros += stats.getDecodeMicros();
+                roundTrip += Math.max(0, stats.getRoundTrip());
+                silence += stats.getSilence();
+                bytesSent += stats.getBytesSent();
+                bytesSaved += stats.getBytesSaved();
+                cpuSaved += stats.getCpuMillisSaved();
+                bitrateChanges += stats.getBitrateChanges();
+                fecOverhead += stats.getFecOverhead();
+                recovered += stats.getPacketsRecovered();
+                sides++;
+            }
+            latencies.addAll(call.getLatencies());
+            markers += call.getMarkerCount();
+            sinkUnderruns += call.getSinkUnderrunCount();
+            queueDrops += call.getQueueDropCount();
+            underruns += call.getJitterBufferCount(JitterBuffer::getUnderrunCount);
+            missing += call.getJitterBufferCount(JitterBuffer::getMissingCount);
+            late += call.getJitterBufferCount(JitterBuffer::getLateCount);
+            dropped += call.getJitterBufferCount(JitterBuffer::getDroppedCount);
+            if (call.getEndReason() != null) {
+                ended++;
+                System.out.println("a call ended early: " + call.getEndReason());
+            }
+        }
+        Collections.sort(latencies);
+
+        System.out.printf("%d call(s), %d s, codec %d, %d ms packets, audio over %s%s%n",
+                done.size(), seconds, format.getCodec(), format.getPacketSizeInMillis(),
+                mediaOverUdp ? "UDP" : "TCP", throttle > 0 ? " throttled to " + throttle / 1024 + " KB/s" : "");
+        System.out.printf("mouth-to-ear latency (ms): p50 %.1f  p95 %.1f  p99 %.1f  max %.1f  (%d of %d markers heard)%n",
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                percentile(latencies, 100), latencies.size(), markers);
+        System.out.printf("codec: compression %.1fx, encode %.1f us, decode %.1f us per packet%n",
+                ratio / sides, encodeMicros / sides, decodeMicros / sides);
+        System.out.printf("round trip: %.2f ms%n", roundTrip / sides);
+        System.out.printf("silence: %.0f%% of packets not sent, %.1f KB/s sent per side, %.1f KB/s and %.2f ms/s of CPU saved%n",
+                silence / sides * 100, bytesSent / 1024.0 / sides / seconds,
+                bytesSaved / 1024.0 / sides / seconds, cpuSaved / sides / seconds);
+        System.out.printf("bitrate changes: %d%n", bitrateChanges);
+        System.out.printf("fec: %.1f%% overhead, %d packets recovered%n", fecOverhead / sides * 100, recovered);
+        System.out.printf("speaker underruns: %d%n", sinkUnderruns);
+        System.out.printf("jitter buffer: underruns %d, missing %d, late %d, dropped %d%n",
+                underruns, missing, late, dropped);
+        System.out.printf("outbound queue drops: %d%n", queueDrops);
+        if (cpu >= 0) {
+            double perCallSecond = cpu / 1e6 / done.size() / (elapsed / 1e9);
+            System.out.printf("CPU: %.2f ms per call-second (%.2f%% of a core per call)%n",
+                    perCallSecond, perCallSecond / 10);
+        }
+        if (ended > 0) System.out.printf("%d call(s) ended early%n", ended);
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, sorted
+     * @param percent the percentile, from 0 to 100
+     * @return the percentile in milliseconds, or NaN if there are no latencies
+     */
+    private static double percentile(List<Long> sorted, double percent) {
+        if (sorted.isEmpty()) return Double.NaN;
+        int index = (int) Math.ceil(percent / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    /**
+     * The CPU time of the whole process: the engines' threads, and the simulated microphones and
+     * speakers, which do little besides waiting.
+     * @return the CPU time in nanoseconds, or -1 if the JVM does not report it
+     */
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.catchat.simulator;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for points in time, to play the part of the sound card's clock in simulated calls.
+ */
+class Clock {
+    /**
+     * Blocks until the time comes, or the thread is interrupted.
+     * @param deadline the time to wait for, in System.nanoTime()
+     * @return false if the thread was interrupted first
+     */
+    static boolean waitUntil(long deadline) {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) return false;
+            LockSupport.parkNanos(left);
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.BetterSocket;
+import com.example.catchat.CallEngine;
+import com.example.catchat.CallFormat;
+import com.example.catchat.CallListener;
+import com.example.catchat.Capabilities;
+import com.example.catchat.ConferenceBridge;
+import com.example.catchat.PacketHeader;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a simulated conference on this machine: a ConferenceBridge, and participants that call it
+ * over loopback, each with a CallEngine, a simulated microphone and a simulated speaker. The first
+ * participant speaks markers (see MarkedSource) and the others listen; the others' microphones are
+ * silent, so the markers stand out of every mix. Prints the mouth-to-ear latency through the bridge,
+ * how many of the speaker's own markers came back to it (none should: each mix leaves out its
+ * participant's own voice), the time the bridge spends mixing, and the CPU time per participant.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateConference --args="[options]"
+ * Options:
+ *      --participants N        how many devices call the bridge (4)
+ *      --seconds N             how long to run the conference (20)
+ *      --codec NAME            deflate, mulaw or adpcm (adpcm)
+ *      --packet MILLIS         audio per packet (20)
+ *      --threads N             threads mixing on the bridge (1)
+ *      --tcp                   send audio over the TCP connections instead of UDP
+ */
+public class ConferenceSimulator {
+    private static final int sampleRate = 44100;  // like Globals
+    private static final int markerIntervalMillis = 1000;
+    private static final int sinkBufferMillis = 40;
+    private static final long joinTimeout = 10000;  // in milliseconds
+
+    private int participants = 4;
+    private int seconds = 20;
+    private byte codec = PacketHeader.CODEC_ADPCM;
+    private int packetMillis = 20;
+    private int threads = 1;
+    private boolean mediaOverUdp = true;
+
+    /**
+     * A device in the conference.
+     */
+    private static class Device implements CallListener {
+        MarkedSource source;
+        MarkerSink sink;
+        CallEngine engine;
+        volatile String endReason = null;
+
+        @Override
+        public void endCall(String reason) {
+            if (endReason == null) endReason = reason;
+            engine.stop();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConferenceSimulator simulator = new ConferenceSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see ConferenceSimulator.java for the options");
+            System.exit(2);
+        }
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--tcp")) {
+                mediaOverUdp = false;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--participants": participants = Integer.parseInt(value); break;
+                    case "--seconds": seconds = Integer.parseInt(value); break;
+                    case "--codec": codec = parseCodec(value); break;
+                    case "--packet": packetMillis = Integer.parseInt(value); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (participants < 2 || seconds < 1 || threads < 1) throw new IllegalArgumentException("values out of range");
+    }
+
+    /**
+     * @param name a codec name or id
+     * @return the codec id
+     */
+    private static byte parseCodec(String name) {
+        switch (name) {
+            case "deflate": return PacketHeader.CODEC_DEFLATE;
+            case "mulaw": return PacketHeader.CODEC_MULAW;
+            case "adpcm": return PacketHeader.CODEC_ADPCM;
+            default: return Byte.parseByte(name);
+        }
+    }
+
+    /**
+     * Starts the bridge and the devices, lets the conference run, ends it and prints the results.
+     */
+    private void run() throws IOException, InterruptedException {
+        CallFormat format = new CallFormat(sampleRate, packetMillis, codec);
+        ConferenceBridge bridge = new ConferenceBridge(format, participants, threads, mediaOverUdp);
+        bridge.start();
+
+        List<Device> devices = new ArrayList<>();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            MarkedSource speaker = null;
+            for (int i = 0; i < participants; i++) {
+                Device device = new Device();
+                // only the first device speaks; the others' markers would come after the end
+                device.source = i == 0
+                        ? new MarkedSource(Backgrounds.synthetic(sampleRate), sampleRate, markerIntervalMillis)
+                        : new MarkedSource(new short[sampleRate], sampleRate, (seconds + 10) * 2000);
+                if (speaker == null) speaker = device.source;
+                device.sink = new MarkerSink(speaker, sampleRate, sinkBufferMillis, markerIntervalMillis);
+                connect(device, listener, bridge, format);
+                devices.add(device);
+            }
+        }
+
+        long cpuStart = processCpuTime();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long cpu = processCpuTime() - cpuStart;
+        long elapsed = System.nanoTime() - start;
+
+        for (Device device : devices) device.engine.stop();
+        bridge.stop();
+        report(format, bridge, devices, cpu, elapsed);
+    }
+
+    /**
+     * Calls the bridge from a device, like a phone would, and starts the device's engine.
+     * @param device the device
+     * @param listener the server socket the bridge accepts connections on
+     * @param bridge the bridge
+     * @param format the format the device prefers
+     * @throws IOException if the call could not be set up
+     * @throws InterruptedException if interrupted while waiting for the call to start
+     */
+    private void connect(Device device, ServerSocketChannel listener, ConferenceBridge bridge, CallFormat format)
+            throws IOException, InterruptedException {
+        SocketChannel channel = SocketChannel.open(listener.getLocalAddress());
+        BetterSocket bridgeSide = new BetterSocket(listener.accept());
+        Thread joiner = new Thread(() -> {
+            try {
+                bridge.join(bridgeSide);
+            } catch (IOException e) {
+                System.out.println("could not join: " + e.getMessage());
+            }
+        });
+        joiner.start();
+
+        BetterSocket sock = new BetterSocket(channel);
+        CallFormat callFormat = dial(sock, format);
+        device.engine = new CallEngine(device, callFormat, sock, mediaOverUdp, device.source, device.sink);
+        device.engine.start();  // at the same time as the bridge's side, in the joiner
+        joiner.join(joinTimeout);
+    }
+
+    /**
+     * Runs the caller's side of call setup, like ClientThread.
+     * @param sock the connection to the bridge
+     * @param format the format the device prefers
+     * @return the call's format
+     * @throws IOException if the bridge declined, or the connection failed
+     */
+    private static CallFormat dial(BetterSocket sock, CallFormat format) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(PacketHeader.SIZE + Capabilities.maxSize);
+        PacketHeader header = new PacketHeader();
+
+        header.set(PacketHeader.TYPE_HELLO, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
+        Capabilities.local(format).write(message);
+        message.flip();
+        sock.writeFrame(message);
+
+        message.clear();
+        sock.readFrame(message);
+        message.flip();
+        if (!header.read(message) || header.getType() != PacketHeader.TYPE_ACCEPT) {
+            throw new ProtocolException("declined");
+        }
+        CallFormat callFormat = CallFormat.read(message);
+
+        message.clear();
+        header.set(PacketHeader.TYPE_ACCEPT, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
+        callFormat.write(message);
+        message.flip();
+        sock.writeFrame(message);
+        return callFormat;
+    }
+
+    /**
+     * Prints the results of the conference.
+     * @param format the conference's format
+     * @param bridge the bridge
+     * @param devices the devices, the speaker first
+     * @param cpu the CPU time used while it ran, in nanoseconds, or -1 if unknown
+     * @param elapsed how long it ran, in nanoseconds
+     */
+    private void report(CallFormat format, ConferenceBridge bridge, List<Device> devices, long cpu, long elapsed) {
+        List<Long> latencies = new ArrayList<>();
+        long heard = 0, underruns = 0;
+        for (Device device : devices.subList(1, devices.size())) {
+            List<Long> listened = device.sink.getLatencies();
+            latencies.addAll(listened);
+            heard += listened.size();
+            underruns += device.sink.getUnderrunCount();
+        }
+        Collections.sort(latencies);
+        long markers = devices.get(0).source.getMarkerCount();
+        long echoes = devices.get(0).sink.getLatencies().size();
+
+        System.out.printf("%d participants, %d s, codec %d, %d ms packets, audio over %s, %d mixing thread(s)%n",
+                devices.size(), seconds, format.getCodec(), format.getPacketSizeInMillis(),
+                mediaOverUdp ? "UDP" : "TCP", threads);
+        System.out.printf("mouth-to-ear latency through the bridge (ms): p50 %.1f  p95 %.1f  max %.1f%n",
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 100));
+        System.out.printf("markers heard: %d of %d (%d spoken, %d listeners)%n",
+                heard, markers * (devices.size() - 1), markers, devices.size() - 1);
+        System.out.printf("speaker's own markers heard back: %d%n", echoes);
+        System.out.printf("mixing: %.1f us per packet, %d late%n", bridge.getMixMicros(), bridge.getLateMixCount());
+        System.out.printf("listeners' underruns: %d%n", underruns);
+        if (cpu >= 0) {
+            // both ends of every call run in this process
+            double perParticipant = cpu / 1e6 / devices.size() / (elapsed / 1e9);
+            System.out.printf("CPU: %.2f ms per participant-second, devices included%n", perParticipant);
+        }
+        for (Device device : devices) {
+            if (device.endReason != null) System.out.println("a call ended early: " + device.endReason);
+        }
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, sorted
+     * @param percent the percentile, from 0 to 100
+     * @return the percentile in milliseconds, or NaN if there are no latencies
+     */
+    private static double percentile(List<Long> sorted, double percent) {
+        if (sorted.isEmpty()) return Double.NaN;
+        int index = (int) Math.ceil(percent / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    /**
+     * @return the CPU time of the whole process in nanoseconds, or -1 if the JVM does not report it
+     */
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
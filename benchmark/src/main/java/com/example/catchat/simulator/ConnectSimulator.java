@@ -0,0 +1,185 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.AddressBook;
+import com.example.catchat.Connector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how long connecting to a peer takes when some of its addresses are stale, with the
+ * Connector racing them, against trying them one at a time like ClientThread used to.
+ *
+ * A stale address is a loopback listener whose backlog is full and which never accepts: like an
+ * address nobody answers at any more, connections to it neither succeed nor fail, they hang until
+ * they time out. The good address accepts every connection.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateConnect --args="[options]"
+ * Options:
+ *      --runs N                how many connections to make in each case (20)
+ *      --timeout MILLIS        how long an attempt waits before giving up (3000)
+ */
+public class ConnectSimulator {
+    private static final String peer = "partner";
+
+    private int runs = 20;
+    private int timeoutMillis = Connector.defaultAttemptTimeoutMillis;
+
+    public static void main(String[] args) throws Exception {
+        ConnectSimulator simulator = new ConnectSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see ConnectSimulator.java for the options");
+            System.exit(2);
+        }
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--runs": runs = Integer.parseInt(value); break;
+                    case "--timeout": timeoutMillis = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (runs < 1 || timeoutMillis < 1) throw new IllegalArgumentException("values out of range");
+    }
+
+    /**
+     * Runs every case and prints the setup times.
+     */
+    private void run() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocketChannel good = ServerSocketChannel.open();
+             ServerSocketChannel stale = ServerSocketChannel.open()) {
+            good.bind(new InetSocketAddress(loopback, 0));
+            stale.bind(new InetSocketAddress(loopback, 0), 1);
+            InetSocketAddress goodAddress = (InetSocketAddress) good.getLocalAddress();
+            InetSocketAddress staleAddress = (InetSocketAddress) stale.getLocalAddress();
+            List<SocketChannel> filling = fillBacklog(staleAddress);
+
+            Thread acceptor = new Thread(() -> acceptAll(good), "acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            System.out.printf("%d connections per case, %d ms attempt timeout, %d ms stagger%n",
+                    runs, timeoutMillis, Connector.defaultStaggerMillis);
+            List<InetSocketAddress> staleFirst = Arrays.asList(staleAddress, goodAddress);
+            report("good address only, racing", race(Collections.singletonList(goodAddress)));
+            report("stale address first, one at a time", oneAtATime(staleFirst));
+            report("stale address first, racing", race(staleFirst));
+
+            // the good address was remembered by the first race, and is tried first from then on
+            AddressBook book = new AddressBook();
+            book.remember(peer, goodAddress);
+            List<InetSocketAddress> remembered = book.get(peer);
+            remembered.addAll(staleFirst);
+            report("from the address book, racing", race(remembered));
+
+            for (SocketChannel channel : filling) channel.close();
+        }
+    }
+
+    /**
+     * Fills a listener's backlog, so further connections to it hang.
+     * @param address the listener's address
+     * @return the connections filling the backlog, to be closed at the end
+     */
+    private static List<SocketChannel> fillBacklog(InetSocketAddress address) throws IOException {
+        List<SocketChannel> filling = new ArrayList<>();
+        // the kernel queues one more connection than the backlog; a few extra make sure it is full
+        for (int i = 0; i < 4; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            filling.add(channel);
+        }
+        return filling;
+    }
+
+    /**
+     * Accepts and closes every connection to a listener, until it is closed.
+     * @param listener the listener
+     */
+    private static void acceptAll(ServerSocketChannel listener) {
+        try {
+            while (true) listener.accept().close();
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Connects to the candidates with a Connector, runs times.
+     * @param candidates the addresses
+     * @return the setup time of each connection, in nanoseconds
+     */
+    private List<Long> race(List<InetSocketAddress> candidates) throws IOException {
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            Connector connector = new Connector(Connector.defaultStaggerMillis, timeoutMillis);
+            connector.connect(candidates).close();
+            times.add(connector.getSetupNanos());
+        }
+        return times;
+    }
+
+    /**
+     * Connects to the candidates one at a time, each with the attempt timeout, runs times.
+     * @param candidates the addresses
+     * @return the setup time of each connection, in nanoseconds
+     */
+    private List<Long> oneAtATime(List<InetSocketAddress> candidates) throws IOException {
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            for (InetSocketAddress candidate : candidates) {
+                // a Connector with a single candidate is a blocking connect with a timeout
+                try {
+                    new Connector(0, timeoutMillis).connect(Collections.singletonList(candidate)).close();
+                    break;
+                } catch (IOException e) {
+                    // try the next
+                }
+            }
+            times.add(System.nanoTime() - start);
+        }
+        return times;
+    }
+
+    /**
+     * Prints the median and the slowest of the setup times of a case.
+     * @param name the case
+     * @param times the setup times, in nanoseconds
+     */
+    private static void report(String name, List<Long> times) {
+        Collections.sort(times);
+        System.out.printf("%-38s median %7.1f ms  max %7.1f ms%n",
+                name, times.get(times.size() / 2) / 1e6, times.get(times.size() - 1) / 1e6);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.DiscoveryThread;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.Peer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs several DiscoveryThreads in one process, on the same multicast group, and checks they find
+ * each other, and forget a device that leaves: at once when it says goodbye, and after the time to
+ * live when it disappears without a word.
+ *
+ * A device that disappears is simulated with a single announcement sent by hand: the others hear it
+ * once, then never again, as if it were turned off.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateDiscovery --args="[options]"
+ * Options:
+ *      --devices N             how many devices to run (8)
+ *      --interval MILLIS       how often each device announces itself (200)
+ *      --port PORT             the multicast port (DiscoveryThread.defaultPort + 100)
+ *      --interface NAME        the network interface to announce on (the system's default)
+ */
+public class DiscoverySimulator {
+    private int devices = 8;
+    private int intervalMillis = 200;
+    private int port = DiscoveryThread.defaultPort + 100;  // away from devices on the real network
+    private NetworkInterface networkInterface = null;
+
+    private final List<DiscoveryThread> threads = new ArrayList<>();
+    private final List<List<Peer>> seen = new ArrayList<>();  // the last list each device was told of
+    private boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        DiscoverySimulator simulator = new DiscoverySimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see DiscoverySimulator.java for the options");
+            System.exit(2);
+        }
+        System.exit(simulator.run() ? 0 : 1);
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--devices": devices = Integer.parseInt(value); break;
+                    case "--interval": intervalMillis = Integer.parseInt(value); break;
+                    case "--port": port = Integer.parseInt(value); break;
+                    case "--interface":
+                        networkInterface = NetworkInterface.getByName(value);
+                        if (networkInterface == null) throw new IllegalArgumentException("no interface " + value);
+                        break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            } catch (SocketException e) {
+                throw new IllegalArgumentException("cannot read interface " + value);
+            }
+        }
+
+        if (devices < 3 || intervalMillis < 10 || port < 1 || port > 65535) {
+            throw new IllegalArgumentException("values out of range");
+        }
+    }
+
+    /**
+     * Starts the devices, and checks each step in turn.
+     * @return true if every check passed
+     */
+    private boolean run() throws Exception {
+        InetAddress group = InetAddress.getByName(DiscoveryThread.defaultGroup);
+        for (int i = 0; i < devices; i++) {
+            final int device = i;
+            seen.add(new ArrayList<>());
+            DiscoveryThread thread = new DiscoveryThread(peers -> changed(device, peers),
+                    "device " + i, 30000 + i, intervalMillis);
+            thread.setGroup(new InetSocketAddress(group, port));
+            thread.setNetworkInterface(networkInterface);
+            threads.add(thread);
+        }
+        System.out.printf("%d devices, %d ms interval, time to live %d ms%n",
+                devices, intervalMillis, 3 * intervalMillis);
+
+        long start = System.nanoTime();
+        for (DiscoveryThread thread : threads) thread.start();
+        check("every device finds the others", start, 0, devices, devices - 1, 10 * intervalMillis);
+
+        // the last device says goodbye
+        start = System.nanoTime();
+        threads.get(devices - 1).interrupt();
+        threads.get(devices - 1).join();
+        check("a device that says goodbye is forgotten", start, 0, devices - 1, devices - 2, 10 * intervalMillis);
+
+        // a device announces itself once, and disappears without a goodbye
+        start = System.nanoTime();
+        announceOnce(new InetSocketAddress(group, port));
+        check("a device that appears is found", start, 0, devices - 1, devices - 1, 10 * intervalMillis);
+        start = System.nanoTime();
+        check("a device that disappears expires", start, 0, devices - 1, devices - 2, 10 * intervalMillis);
+
+        for (int i = 0; i < devices - 1; i++) threads.get(i).interrupt();
+        System.out.println(failed ? "FAILED" : "passed");
+        return !failed;
+    }
+
+    /**
+     * Sends a single announcement, as a DiscoveryThread would, from a device that is never heard
+     * from again.
+     * @param group where to send it
+     */
+    private void announceOnce(InetSocketAddress group) throws IOException {
+        byte[] name = "ghost".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = ByteBuffer.allocate(PacketHeader.SIZE + 4 + 8 + 2 + 1 + name.length);
+        PacketHeader header = new PacketHeader();
+        header.set(PacketHeader.TYPE_ANNOUNCE, (byte) 0, 0, PacketHeader.now());
+        header.write(message);
+        message.putInt(DiscoveryThread.magic);
+        message.putLong(new Random().nextLong());
+        message.putShort((short) 29999);
+        message.put((byte) name.length);
+        message.put(name);
+
+        try (MulticastSocket socket = new MulticastSocket()) {
+            if (networkInterface != null) socket.setNetworkInterface(networkInterface);
+            socket.send(new DatagramPacket(message.array(), message.position(), group));
+        }
+    }
+
+    /**
+     * Remembers the peers a device was told of.
+     * @param device the device
+     * @param peers the peers
+     */
+    private synchronized void changed(int device, List<Peer> peers) {
+        seen.set(device, peers);
+        notifyAll();
+    }
+
+    /**
+     * Waits until devices from..until-1 each see the expected number of peers, and prints how long it
+     * took.
+     * @param step what is checked
+     * @param start when the step started, in System.nanoTime()
+     * @param from the first device checked
+     * @param until one past the last device checked
+     * @param expected how many peers each should see
+     * @param timeoutMillis how long to wait
+     */
+    private synchronized void check(String step, long start, int from, int until, int expected, int timeoutMillis)
+            throws InterruptedException {
+        long deadline = start + timeoutMillis * 1_000_000L;
+        while (!allSee(from, until, expected)) {
+            long left = (deadline - System.nanoTime()) / 1_000_000L;
+            if (left <= 0) break;
+            wait(left);
+        }
+
+        boolean passed = allSee(from, until, expected);
+        if (!passed) failed = true;
+        System.out.printf("%-44s %s  %6.0f ms%n", step, passed ? "ok  " : "FAIL", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * @return true if devices from..until-1 each see the expected number of peers
+     */
+    private boolean allSee(int from, int until, int expected) {
+        for (int i = from; i < until; i++) {
+            if (seen.get(i).size() != expected) return false;
+        }
+        return true;
+    }
+}
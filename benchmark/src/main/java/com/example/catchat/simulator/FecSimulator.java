@@ -0,0 +1,200 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.CallFormat;
+import com.example.catchat.FecDecoder;
+import com.example.catchat.FecEncoder;
+import com.example.catchat.PacketHeader;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures how many lost packets forward error correction rebuilds (see FecEncoder), by sending
+ * packets through a FecEncoder, a simulated lossy network and a FecDecoder, without any threads or
+ * sockets. Every rebuilt packet is checked against the one that was sent.
+ *
+ * Two kinds of loss are simulated, for each average loss rate:
+ *      random  every packet is lost with the same probability
+ *      bursts  a Gilbert-Elliott model: lost packets come in bursts, like on a congested Wi-Fi link
+ * For each, prints the loss before and after repair, and the bandwidth parity costs, for every fixed
+ * group size, and marks the size FecEncoder picks when it adapts to the loss.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateFec --args="[options]"
+ * Options:
+ *      --packets N         how many audio packets to send for each line (100000)
+ *      --burst N           average length of a burst of losses (3)
+ *      --seed N            seed of the random losses (1)
+ */
+public class FecSimulator {
+    private static final double[] lossRates = {0.01, 0.02, 0.05, 0.10, 0.20};
+    private static final int[] groupSizes = {2, 3, 4, 8, 16};
+
+    private int packets = 100000;
+    private double burstLength = 3;
+    private long seed = 1;
+
+    private final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+    private final PacketHeader header = new PacketHeader();
+
+    public static void main(String[] args) {
+        FecSimulator simulator = new FecSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see FecSimulator.java for the options");
+            System.exit(2);
+        }
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--packets": packets = Integer.parseInt(value); break;
+                    case "--burst": burstLength = Double.parseDouble(value); break;
+                    case "--seed": seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (packets < 1 || burstLength < 1) throw new IllegalArgumentException("values out of range");
+    }
+
+    /**
+     * Runs every loss model, loss rate and group size, and prints the results.
+     */
+    private void run() {
+        System.out.printf("%d packets of %s per line; * marks the adaptive group size%n", packets, format);
+        for (boolean bursts : new boolean[] {false, true}) {
+            System.out.println();
+            System.out.println(bursts ? "bursts of " + burstLength + " packets on average" : "random loss");
+            System.out.println("  loss   group  overhead   lost  after repair  recovered");
+            for (double loss : lossRates) {
+                int adaptive = FecEncoder.groupSizeFor(loss);
+                for (int groupSize : groupSizes) {
+                    Result result = simulate(new LossModel(loss, bursts ? burstLength : 1, seed), groupSize);
+                    System.out.printf("%5.0f%%  %4d%s  %7.1f%%  %5.2f%%  %11.3f%%  %8.1f%%%n",
+                            loss * 100, groupSize, groupSize == adaptive ? "*" : " ",
+                            result.overhead() * 100, result.lost() * 100, result.residual() * 100,
+                            result.recoveredFraction() * 100);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the packets through an encoder, the lossy network and a decoder.
+     * @param network decides which packets are lost
+     * @param groupSize how many packets each parity packet covers
+     * @return what was lost and rebuilt
+     * @throws IllegalStateException if a packet was rebuilt wrong
+     */
+    private Result simulate(LossModel network, int groupSize) throws IllegalStateException {
+        FecEncoder encoder = new FecEncoder(format, groupSize, null);
+        FecDecoder decoder = new FecDecoder(format);
+        ByteBuffer packet = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+        ByteBuffer received = ByteBuffer.allocate(format.getMaxPacketSizeInBytes() + FecEncoder.overhead);
+        ByteBuffer rebuilt = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+        Random content = new Random(seed);
+
+        Result result = new Result();
+        for (int sequence = 0; sequence < packets; sequence++) {
+            fill(packet, sequence, content);
+            result.bytesSent += packet.limit();
+
+            if (network.lose()) {
+                result.lost++;
+            } else {
+                decoder.received(packet);
+            }
+
+            ByteBuffer parity = encoder.protect(packet);
+            if (parity == null) continue;
+            result.parityBytesSent += parity.remaining();
+            if (network.lose()) continue;
+
+            received.clear();
+            received.put(parity);
+            received.flip();
+            header.read(received);
+            if (!decoder.recover(header, received, rebuilt)) continue;
+
+            result.recovered++;
+            check(rebuilt);
+        }
+        return result;
+    }
+
+    /**
+     * Writes an audio packet of random length and content, like an encoded packet.
+     * @param packet the buffer to write to; flipped to hold the packet
+     * @param sequence the packet's sequence number
+     * @param content the random source of the lengths and contents
+     */
+    private void fill(ByteBuffer packet, int sequence, Random content) {
+        header.set(PacketHeader.TYPE_AUDIO, format.getCodec(), sequence, sequence * format.getPacketSizeInMillis());
+        packet.clear();
+        header.write(packet);
+        int length = packet.capacity() / 2 + content.nextInt(packet.capacity() / 2 - PacketHeader.SIZE);
+        content.setSeed(seed + sequence);  // so check() can make the same bytes again
+        while (packet.position() < length) packet.put((byte) content.nextInt());
+        packet.flip();
+    }
+
+    /**
+     * Checks that a rebuilt packet holds what was sent.
+     * @param rebuilt the rebuilt packet
+     * @throws IllegalStateException if the packet is wrong
+     */
+    private void check(ByteBuffer rebuilt) throws IllegalStateException {
+        int sequence = PacketHeader.sequenceOf(rebuilt);
+        Random expected = new Random(seed + sequence);
+        byte[] data = rebuilt.array();
+        for (int i = PacketHeader.SIZE; i < rebuilt.limit(); i++) {
+            if (data[i] != (byte) expected.nextInt()) {
+                throw new IllegalStateException("packet " + sequence + " rebuilt wrong at byte " + i);
+            }
+        }
+    }
+
+    /**
+     * The counts of one simulation.
+     */
+    private class Result {
+        long lost = 0;  // audio packets lost on the network
+        long recovered = 0;  // of those, rebuilt from parity packets
+        long bytesSent = 0;
+        long parityBytesSent = 0;
+
+        double lost() {
+            return (double) lost / packets;
+        }
+
+        double residual() {
+            return (double) (lost - recovered) / packets;
+        }
+
+        double recoveredFraction() {
+            return lost == 0 ? 0 : (double) recovered / lost;
+        }
+
+        double overhead() {
+            return (double) parityBytesSent / bytesSent;
+        }
+    }
+}
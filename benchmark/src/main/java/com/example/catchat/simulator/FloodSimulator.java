@@ -0,0 +1,257 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.CallFormat;
+import com.example.catchat.Capabilities;
+import com.example.catchat.ConnectRequest;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.RequestListener;
+import com.example.catchat.ServerThread;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Floods a ServerThread with connections over loopback, to check admission control: however many
+ * connections arrive, the requests open, the requests shown, the threads and the heap must stay
+ * bounded, and every request must be gone once the timeouts pass.
+ *
+ * The connections come from many loopback addresses (127.1.x.y), so the cap on open requests is
+ * tested along with the limit per address. A third of them never say anything, a third say hello
+ * and wait for the user, and a third hang up right away. The last few are kept open, so idle
+ * requests pile up until they time out. Exits with status 1 if a bound was broken.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateFlood --args="[options]"
+ * Options:
+ *      --connections N         how many connections to make (5000)
+ *      --addresses N           how many loopback addresses they come from (200)
+ *      --open N                how many are kept open at once (500)
+ *      --max-pending N         the ServerThread's cap on open requests (16)
+ */
+public class FloodSimulator {
+    private static final int handshakeTimeoutMillis = 1000;
+    private static final int requestTimeoutMillis = 2000;
+    private static final long sampleMillis = 5;  // how often the monitor looks at the server
+
+    private int connections = 5000;
+    private int addresses = 200;
+    private int open = 500;
+    private int maxPending = 16;
+
+    /**
+     * Counts the requests the server shows, like ConnectActivity would list them.
+     */
+    private static class CountingListener implements RequestListener {
+        final AtomicLong added = new AtomicLong();
+        final AtomicLong removed = new AtomicLong();
+
+        @Override
+        public void addIncoming(ConnectRequest request) {
+            added.incrementAndGet();
+        }
+
+        @Override
+        public void removeIncoming(ConnectRequest request) {
+            removed.incrementAndGet();
+        }
+
+        @Override
+        public void updateStatus(String message) {
+            System.out.println("server: " + message);
+        }
+
+        @Override
+        public void requestConfirmed(ConnectRequest request) {
+            request.close();  // nobody accepts in this simulation
+        }
+
+        long shown() {
+            return added.get() - removed.get();
+        }
+    }
+
+    // the highest values seen by the monitor; only changed by the monitor thread
+    private volatile int maxPendingSeen = 0;
+    private volatile long maxShownSeen = 0;
+    private volatile int maxThreadsSeen = 0;
+    private volatile long maxHeapSeen = 0;
+
+    public static void main(String[] args) throws Exception {
+        FloodSimulator simulator = new FloodSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see FloodSimulator.java for the options");
+            System.exit(2);
+        }
+        System.exit(simulator.run() ? 0 : 1);
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--connections": connections = Integer.parseInt(value); break;
+                    case "--addresses": addresses = Integer.parseInt(value); break;
+                    case "--open": open = Integer.parseInt(value); break;
+                    case "--max-pending": maxPending = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (connections < 1 || addresses < 1 || addresses > 65000 || open < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("values out of range");
+        }
+    }
+
+    /**
+     * Starts the server, floods it, waits for the timeouts and prints the results.
+     * @return true if every bound held
+     */
+    private boolean run() throws IOException, InterruptedException {
+        CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+        CountingListener listener = new CountingListener();
+        ServerThread server = new ServerThread(listener, 0, () -> format, () -> false);
+        server.setMaxPendingRequests(maxPending);
+        server.setHandshakeTimeoutMillis(handshakeTimeoutMillis);
+        server.setRequestTimeoutMillis(requestTimeoutMillis);
+        server.start();
+        while (server.getLocalPort() == 0) Thread.sleep(10);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        long heapBefore = usedHeap();
+
+        Thread monitor = new Thread(() -> monitor(server, listener, threads), "monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+
+        long start = System.nanoTime();
+        int made = flood(server.getLocalPort(), format);
+        double floodSeconds = (System.nanoTime() - start) / 1e9;
+
+        // every request left must time out: idle ones after the handshake timeout, shown ones after
+        // the request timeout
+        Thread.sleep(requestTimeoutMillis + handshakeTimeoutMillis + 1000);
+        int pendingAfter = server.getPendingCount();
+        long shownAfter = listener.shown();
+        monitor.interrupt();
+        server.interrupt();
+
+        System.out.printf("%d connections from %d addresses in %.1f s (%.0f per second), %d kept open at once%n",
+                made, addresses, floodSeconds, made / floodSeconds, open);
+        System.out.printf("refused: %d, timed out: %d, shown: %d%n",
+                server.getRefusedCount(), server.getTimedOutCount(), listener.added.get());
+        System.out.printf("open requests: at most %d (cap %d), %d after the timeouts%n",
+                maxPendingSeen, maxPending, pendingAfter);
+        System.out.printf("requests shown at once: at most %d, %d after the timeouts%n", maxShownSeen, shownAfter);
+        System.out.printf("threads: %d before, at most %d during%n", threadsBefore, maxThreadsSeen);
+        System.out.printf("heap: %.1f MB before, at most %.1f MB during, %.1f MB after%n",
+                heapBefore / 1e6, maxHeapSeen / 1e6, usedHeap() / 1e6);
+
+        // the monitor and this simulation's own thread come and go; the server adds none
+        boolean bounded = maxPendingSeen <= maxPending && maxShownSeen <= maxPending
+                && maxThreadsSeen <= threadsBefore + 1 && pendingAfter == 0 && shownAfter == 0;
+        System.out.println(bounded ? "bounded: yes" : "bounded: NO");
+        return bounded;
+    }
+
+    /**
+     * Makes the connections, one after the other.
+     * @param port the server's port
+     * @param format the format the hellos offer
+     * @return how many connections were made
+     */
+    private int flood(int port, CallFormat format) throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(4 + PacketHeader.SIZE + Capabilities.maxSize);
+        PacketHeader header = new PacketHeader();
+        hello.putInt(0);  // the length, set below
+        header.set(PacketHeader.TYPE_HELLO, (byte) 0, 0, PacketHeader.now());
+        header.write(hello);
+        Capabilities.local(format).write(hello);
+        hello.flip();
+        hello.putInt(0, hello.remaining() - 4);
+
+        InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        ArrayDeque<SocketChannel> kept = new ArrayDeque<>();
+        int made = 0;
+        for (int i = 0; i < connections; i++) {
+            int address = i % addresses + 1;
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.bind(new InetSocketAddress(
+                        InetAddress.getByAddress(new byte[] { 127, 1, (byte) (address >> 8), (byte) address }), 0));
+                channel.connect(server);
+                made++;
+
+                switch (i % 3) {
+                    case 0:  // says nothing
+                        break;
+                    case 1:  // says hello and waits
+                        hello.rewind();
+                        channel.write(hello);
+                        break;
+                    default:  // hangs up
+                        channel.close();
+                        continue;
+                }
+            } catch (IOException e) {
+                channel.close();  // refused connections can be reset before the hello is written
+                continue;
+            }
+
+            kept.add(channel);
+            if (kept.size() > open) kept.poll().close();
+        }
+        for (SocketChannel channel : kept) channel.close();
+        return made;
+    }
+
+    /**
+     * Records the highest values seen, until interrupted.
+     * @param server the server
+     * @param listener the server's listener
+     * @param threads the thread statistics
+     */
+    private void monitor(ServerThread server, CountingListener listener, ThreadMXBean threads) {
+        try {
+            while (true) {
+                maxPendingSeen = Math.max(maxPendingSeen, server.getPendingCount());
+                maxShownSeen = Math.max(maxShownSeen, listener.shown());
+                maxThreadsSeen = Math.max(maxThreadsSeen, threads.getThreadCount());
+                maxHeapSeen = Math.max(maxHeapSeen, usedHeap());
+                Thread.sleep(sampleMillis);
+            }
+        } catch (InterruptedException e) {
+            // done
+        }
+    }
+
+    /**
+     * @return the heap in use, in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.BetterSocket;
+import com.example.catchat.CallFormat;
+import com.example.catchat.Capabilities;
+import com.example.catchat.ConnectRequest;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.RequestListener;
+import com.example.catchat.ServerThread;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how soon a device can be called again once its call ends, and how soon a caller is
+ * told the device is busy during a call.
+ *
+ * "Call end to ready" is the time from the end of a call until a caller, who starts connecting at
+ * that moment, is shown to the user. With a server thread started when the connection screen comes
+ * back, as ConnectActivity used to do, the port must be bound again first; callers are refused until
+ * then, and retry every millisecond. With the server thread running for the whole process, only the
+ * listener changes. During a call, the first had nothing listening, so callers were refused and
+ * shown "Connection failed."; the second declines them as busy.
+ *
+ * Usage:
+ *      gradle -p benchmark simulateListen --args="[options]"
+ * Options:
+ *      --runs N                how many times to measure each case (50, at most 20000)
+ */
+public class ListenSimulator {
+    private static final long waitMillis = 5000;  // for anything to happen, before a run fails
+
+    private int runs = 50;
+    private final CallFormat format = new CallFormat(44100, 20, PacketHeader.CODEC_ADPCM);
+    private final ByteBuffer hello = ByteBuffer.allocate(PacketHeader.SIZE + Capabilities.maxSize);
+    private final ByteBuffer response = ByteBuffer.allocate(PacketHeader.SIZE + 16);
+    private int callers = 0;  // each caller connects from its own loopback address, 127.2.x.y
+    private boolean failed = false;
+
+    /**
+     * Collects the requests the server shows, like ConnectActivity would list them.
+     */
+    private static class QueueListener implements RequestListener {
+        final LinkedBlockingQueue<ConnectRequest> shown = new LinkedBlockingQueue<>();
+
+        @Override
+        public void addIncoming(ConnectRequest request) {
+            shown.add(request);
+        }
+
+        @Override
+        public void removeIncoming(ConnectRequest request) { }
+
+        @Override
+        public void updateStatus(String message) { }
+
+        @Override
+        public void requestConfirmed(ConnectRequest request) { }
+
+        /**
+         * Waits for a request to be shown, and closes it.
+         * @return true if one was shown in time
+         */
+        boolean awaitShown() throws InterruptedException {
+            ConnectRequest request = shown.poll(waitMillis, TimeUnit.MILLISECONDS);
+            if (request == null) return false;
+            request.close();
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ListenSimulator simulator = new ListenSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see ListenSimulator.java for the options");
+            System.exit(2);
+        }
+        System.exit(simulator.run() ? 0 : 1);
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--runs": runs = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (runs < 1 || runs > 20000) throw new IllegalArgumentException("values out of range");
+    }
+
+    /**
+     * Runs every case and prints the times.
+     * @return true if every caller got the expected answer
+     */
+    private boolean run() throws IOException, InterruptedException {
+        PacketHeader header = new PacketHeader();
+        header.set(PacketHeader.TYPE_HELLO, (byte) 0, 0, PacketHeader.now());
+        header.write(hello);
+        Capabilities.local(format).write(hello);
+        hello.flip();
+
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        System.out.printf("%d runs per case, over loopback%n", runs);
+        report("call end to ready, restarted listener", restarted(address));
+        AtomicBoolean busy = new AtomicBoolean(false);
+        ServerThread server = new ServerThread(null, port, () -> format, busy::get);
+        server.start();
+        report("call end to ready, long-lived listener", longLived(server, address, busy));
+        report("busy answer during a call", busyAnswers(server, address, busy));
+        server.interrupt();
+
+        System.out.println(failed ? "FAILED" : "passed");
+        return !failed;
+    }
+
+    /**
+     * Starts a new server thread at the end of each call, as ConnectActivity used to; the one
+     * before was stopped when the call started.
+     * @param address where the server listens
+     * @return how long until a caller was shown, in nanoseconds
+     */
+    private List<Long> restarted(InetSocketAddress address) throws InterruptedException {
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            QueueListener listener = new QueueListener();
+            long start = System.nanoTime();  // the call ends
+            ServerThread server = new ServerThread(listener, address.getPort(), () -> format, () -> false);
+            server.start();
+            SocketChannel channel = callUntilConnected(address, start);
+            if (channel != null && listener.awaitShown()) {
+                times.add(System.nanoTime() - start);
+            } else {
+                failed = true;
+            }
+            close(channel);
+
+            // the next call starts
+            server.interrupt();
+            server.join();
+        }
+        return times;
+    }
+
+    /**
+     * Ends a call on a server thread that keeps running, and registers the connection screen that
+     * comes back.
+     * @param server the server
+     * @param address where it listens
+     * @param busy whether a call runs
+     * @return how long until a caller was shown, in nanoseconds
+     */
+    private List<Long> longLived(ServerThread server, InetSocketAddress address, AtomicBoolean busy)
+            throws InterruptedException {
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            busy.set(true);  // in a call
+            QueueListener listener = new QueueListener();
+            long start = System.nanoTime();  // the call ends
+            busy.set(false);
+            server.setRequestListener(listener);
+            SocketChannel channel = callUntilConnected(address, start);
+            if (channel != null && listener.awaitShown()) {
+                times.add(System.nanoTime() - start);
+            } else {
+                failed = true;
+            }
+            close(channel);
+        }
+        return times;
+    }
+
+    /**
+     * Calls a server thread during a call, and waits for its answer, which must be busy.
+     * @param server the server
+     * @param address where it listens
+     * @param busy whether a call runs
+     * @return how long from connecting until the busy answer was read, in nanoseconds
+     */
+    private List<Long> busyAnswers(ServerThread server, InetSocketAddress address, AtomicBoolean busy) {
+        busy.set(true);
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            SocketChannel channel = callUntilConnected(address, start);
+            byte reason = 0;
+            try {
+                if (channel == null) throw new IOException("not connected");
+                response.clear();
+                new BetterSocket(channel).readFrame(response);
+                response.flip();
+                PacketHeader header = new PacketHeader();
+                if (header.read(response) && header.getType() == PacketHeader.TYPE_DECLINE) reason = response.get();
+            } catch (IOException e) {
+                // counted as failed below
+            }
+            if (reason == PacketHeader.DECLINE_BUSY) {
+                times.add(System.nanoTime() - start);
+            } else {
+                failed = true;
+            }
+            close(channel);
+        }
+        busy.set(false);
+        return times;
+    }
+
+    /**
+     * Connects and says hello, retrying every millisecond while the connection is refused.
+     * Each caller connects from its own address, so the server's limit per address is not hit.
+     * @param address where to connect
+     * @param start when the caller started, in System.nanoTime()
+     * @return the connection, in blocking mode; or null if it could not be made in time
+     */
+    private SocketChannel callUntilConnected(InetSocketAddress address, long start) {
+        callers++;
+        byte[] from = { 127, 2, (byte) (callers >> 8), (byte) callers };
+        while (System.nanoTime() - start < waitMillis * 1_000_000L) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.bind(new InetSocketAddress(InetAddress.getByAddress(from), 0));
+                channel.connect(address);
+                hello.rewind();
+                new BetterSocket(channel).writeFrame(hello);
+                return channel;
+            } catch (IOException e) {
+                close(channel);  // refused: nothing listens yet
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes a connection, if there is one.
+     * @param channel the connection, or null
+     */
+    private static void close(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Prints the median and the slowest of the times of a case.
+     * @param name the case
+     * @param times the times, in nanoseconds
+     */
+    private static void report(String name, List<Long> times) {
+        if (times.isEmpty()) {
+            System.out.printf("%-40s no run succeeded%n", name);
+            return;
+        }
+        Collections.sort(times);
+        System.out.printf("%-40s median %7.2f ms  max %7.2f ms%n",
+                name, times.get(times.size() / 2) / 1e6, times.get(times.size() - 1) / 1e6);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.catchat.simulator;
+
+import java.util.Random;
+
+/**
+ * Decides which packets a simulated network loses: a Gilbert-Elliott model, with a good state
+ * that loses nothing and a bad state that loses everything. The chance of leaving the bad state
+ * sets the average burst length, and the chance of entering it the average loss.
+ */
+class LossModel {
+    private final double enterBad;
+    private final double leaveBad;
+    private final Random random;
+    private boolean bad = false;
+
+    /**
+     * @param loss the average fraction of packets lost
+     * @param burstLength the average number of packets lost in a row; 1 for random loss
+     * @param seed the seed of the random source
+     */
+    LossModel(double loss, double burstLength, long seed) {
+        random = new Random(seed);
+        if (burstLength <= 1) {  // every packet is lost independently
+            enterBad = loss;
+            leaveBad = 1 - loss;
+        } else {
+            leaveBad = 1 / burstLength;
+            enterBad = loss * leaveBad / (1 - loss);
+        }
+    }
+
+    /**
+     * @return true if the next packet is lost
+     */
+    boolean lose() {
+        bad = random.nextDouble() < (bad ? 1 - leaveBad : enterBad);
+        return bad;
+    }
+}
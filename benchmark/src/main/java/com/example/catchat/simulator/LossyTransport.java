@@ -0,0 +1,99 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.PacketHeader;
+import com.example.catchat.PacketTransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Loses packets on their way into a PacketTransport, the way its network would.
+ *
+ * Over UDP (inOrder false), a lost packet is simply never sent. Over TCP (inOrder true), it is
+ * retransmitted instead, retransmitDelay after it was sent, and every packet sent after it is held
+ * until then too, since TCP hands bytes over in order: the receiver gets nothing until the gap is
+ * filled. The packets are sent on the link's own thread, so the sender does not block, like it
+ * would not while the socket's buffer has room.
+ */
+class LossyTransport implements PacketTransport {
+    private final PacketTransport transport;
+    private final boolean inOrder;
+    private final long retransmitDelay;  // in nanoseconds
+    private final IntPredicate lost;
+    private final LinkedBlockingQueue<Held> queue = new LinkedBlockingQueue<>();
+    private final Thread sender;
+    private long lastRelease = Long.MIN_VALUE;  // release time of the last packet queued
+
+    /**
+     * A packet waiting to be sent.
+     */
+    private static class Held {
+        final ByteBuffer packet;
+        final long release;  // when to send it, in System.nanoTime()
+
+        Held(ByteBuffer packet, long release) {
+            this.packet = packet;
+            this.release = release;
+        }
+    }
+
+    /**
+     * @param transport the transport to send the packets that are not lost with
+     * @param inOrder true to deliver everything in order like TCP, false to drop lost packets like UDP
+     * @param retransmitDelay how long a lost packet takes to be retransmitted, in nanoseconds, if inOrder
+     * @param lost tells, from its sequence number, whether a packet is lost
+     */
+    LossyTransport(PacketTransport transport, boolean inOrder, long retransmitDelay, IntPredicate lost) {
+        this.transport = transport;
+        this.inOrder = inOrder;
+        this.retransmitDelay = retransmitDelay;
+        this.lost = lost;
+        sender = new Thread(this::sendHeld, "lossy link");
+        if (inOrder) sender.start();
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        boolean isLost = lost.test(PacketHeader.sequenceOf(packet));
+        if (!inOrder) {
+            if (!isLost) transport.send(packet);
+            return;
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+        copy.put(packet).flip();
+        long now = System.nanoTime();
+        synchronized (this) {
+            lastRelease = Math.max(lastRelease, isLost ? now + retransmitDelay : now);
+            queue.add(new Held(copy, lastRelease));
+        }
+    }
+
+    /**
+     * Sends the held packets in order, each at its release time, until close().
+     */
+    private void sendHeld() {
+        try {
+            while (true) {
+                Held held = queue.take();
+                if (!Clock.waitUntil(held.release)) break;
+                transport.send(held.packet);
+            }
+        } catch (InterruptedException | IOException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void receive(ByteBuffer packet) throws IOException {
+        transport.receive(packet);
+    }
+
+    @Override
+    public void close() {
+        sender.interrupt();
+        transport.close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.AudioSource;
+
+/**
+ * A microphone played by the simulator.
+ * Loops over a background signal, and adds a loud marker (a short 1 kHz tone burst) at a fixed
+ * interval, so the sink on the other end can tell when each marker was spoken. Samples are handed
+ * out at the rate a real microphone would capture them.
+ */
+class MarkedSource implements AudioSource {
+    static final short markerAmplitude = 24000;  // backgrounds must stay well below this
+    private static final int markerMillis = 10;
+
+    private final short[] background;
+    private final int sampleRate;
+    private final long markerInterval;  // in samples
+    private final int markerLength;  // in samples
+
+    private volatile long startTime;  // when the first sample was captured, in System.nanoTime()
+    private long position = 0;  // samples read so far
+    private volatile long markerCount = 0;  // markers read so far
+
+    /**
+     * @param background the signal to loop over; its peaks must stay well below markerAmplitude
+     * @param sampleRate the sample rate, in Hz
+     * @param markerIntervalMillis how often to add a marker, in milliseconds
+     */
+    MarkedSource(short[] background, int sampleRate, int markerIntervalMillis) {
+        this.background = background;
+        this.sampleRate = sampleRate;
+        markerInterval = (long) sampleRate * markerIntervalMillis / 1000;
+        markerLength = sampleRate * markerMillis / 1000;
+    }
+
+    @Override
+    public void start() {
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the last of the samples would have been captured.
+     * @return how many samples were read; 0 if the thread was interrupted
+     */
+    @Override
+    public int read(short[] samples, int count) {
+        if (!Clock.waitUntil(timeOf(position + count))) return 0;
+
+        for (int i = 0; i < count; i++, position++) {
+            // markers are half an interval after the start of each interval, so the first one
+            // comes after the call has settled
+            long offset = (position + markerInterval / 2) % markerInterval;
+            if (offset == 0) markerCount++;
+
+            if (offset < markerLength) {
+                samples[i] = (short) (markerAmplitude * Math.sin(2 * Math.PI * 1000 * offset / sampleRate));
+            } else {
+                samples[i] = background[(int) (position % background.length)];
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void release() {
+        // nothing to free
+    }
+
+    /**
+     * @param sample the index of a sample
+     * @return when the sample was captured, in System.nanoTime()
+     */
+    long timeOf(long sample) {
+        return startTime + sample * 1_000_000_000L / sampleRate;
+    }
+
+    /**
+     * Finds the marker that was spoken last before a given time.
+     * @param time the time, in System.nanoTime()
+     * @return when that marker was spoken, or -1 if none was spoken yet
+     */
+    long lastMarkerBefore(long time) {
+        long sample = (time - startTime) * sampleRate / 1_000_000_000L;
+        long marker = (sample - markerInterval / 2) / markerInterval;  // the marker's index
+        if (sample < markerInterval / 2) return -1;
+        return timeOf(marker * markerInterval + markerInterval / 2);
+    }
+
+    /**
+     * @return how many markers were read
+     */
+    long getMarkerCount() {
+        return markerCount;
+    }
+}
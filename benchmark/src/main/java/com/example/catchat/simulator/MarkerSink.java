@@ -0,0 +1,111 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.AudioSink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A speaker played by the simulator.
+ * Plays samples at the rate a real sound card would, from a buffer of limited size, and listens for
+ * the markers added by the MarkedSource on the other end of the call. The time between a marker
+ * being spoken and being played is the mouth-to-ear latency.
+ *
+ * The sink runs dry (an underrun) when a write comes after everything written before it was
+ * played; this is the gap a listener would hear.
+ */
+class MarkerSink implements AudioSink {
+    private static final int threshold = MarkedSource.markerAmplitude * 2 / 3;
+
+    private final MarkedSource peer;  // the source on the other end
+    private final int sampleRate;
+    private final long bufferNanos;  // how much audio the sink holds before writing blocks
+    private final long minGap;  // between two markers, in samples; anything closer is the same one
+
+    private long base = 0;  // when playing last started, after starting or running dry
+    private long written = 0;  // samples written since then
+    private boolean started = false;
+    private long sinceMarker;  // samples since the last marker was heard
+    private final List<Long> latencies = new ArrayList<>();  // in nanoseconds
+    private volatile long underrunCount = 0;
+
+    /**
+     * @param peer the source on the other end of the call
+     * @param sampleRate the sample rate, in Hz
+     * @param bufferMillis how much audio the sound card holds, in milliseconds
+     * @param markerIntervalMillis how often the peer adds a marker, in milliseconds
+     */
+    MarkerSink(MarkedSource peer, int sampleRate, int bufferMillis, int markerIntervalMillis) {
+        this.peer = peer;
+        this.sampleRate = sampleRate;
+        bufferNanos = bufferMillis * 1_000_000L;
+        minGap = (long) sampleRate * markerIntervalMillis / 2000;
+        sinceMarker = minGap;
+    }
+
+    @Override
+    public void start() {
+        // playing starts with the first write
+    }
+
+    /**
+     * Blocks while the sink holds more than its buffer size.
+     */
+    @Override
+    public void write(short[] samples, int count) {
+        long now = System.nanoTime();
+        if (!started || now > timeOf(written)) {  // everything written before was already played
+            if (started) underrunCount++;
+            started = true;
+            base = now;
+            written = 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            sinceMarker++;
+            if (Math.abs(samples[i]) > threshold && sinceMarker > minGap) {
+                sinceMarker = 0;
+                heard(timeOf(written + i));
+            }
+        }
+
+        written += count;
+        Clock.waitUntil(timeOf(written) - bufferNanos);
+    }
+
+    @Override
+    public void release() {
+        // nothing to free
+    }
+
+    /**
+     * @param sample the index of a sample written since playing last started
+     * @return when the sample is played, in System.nanoTime()
+     */
+    private long timeOf(long sample) {
+        return base + sample * 1_000_000_000L / sampleRate;
+    }
+
+    /**
+     * Records the latency of a marker.
+     * @param time when the marker is played, in System.nanoTime()
+     */
+    private synchronized void heard(long time) {
+        long spoken = peer.lastMarkerBefore(time);
+        if (spoken >= 0) latencies.add(time - spoken);
+    }
+
+    /**
+     * @return the mouth-to-ear latency of every marker heard, in nanoseconds
+     */
+    synchronized List<Long> getLatencies() {
+        return new ArrayList<>(latencies);
+    }
+
+    /**
+     * @return how many times the sink ran dry
+     */
+    long getUnderrunCount() {
+        return underrunCount;
+    }
+}
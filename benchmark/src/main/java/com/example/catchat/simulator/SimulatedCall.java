@@ -0,0 +1,211 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.BetterSocket;
+import com.example.catchat.CallEngine;
+import com.example.catchat.CallFormat;
+import com.example.catchat.CallListener;
+import com.example.catchat.CallSession;
+import com.example.catchat.CallStats;
+import com.example.catchat.FrameRing;
+import com.example.catchat.JitterBuffer;
+import com.example.catchat.SessionRegistry;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * One call between two CallEngines, over a real TCP connection (and UDP sockets) on loopback.
+ * Each side has a simulated microphone and speaker; the markers spoken on one side are heard on
+ * the other, in both directions. Each side is a CallSession, in a registry shared by every call of
+ * the simulation.
+ */
+class SimulatedCall {
+    private static final long startTimeout = 5000;  // in milliseconds
+
+    private final Side caller;
+    private final Side callee;
+    private ThrottledLink link = null;  // between the two sides, if the network is throttled
+    private volatile boolean stopping = false;
+
+    /**
+     * One end of the call.
+     */
+    private class Side implements CallListener {
+        final CallSession session;
+        final MarkedSource source;
+        MarkerSink sink;
+        CallEngine engine;
+        volatile String endReason = null;  // set if the call ended before it was stopped
+
+        Side(CallSession session, MarkedSource source) {
+            this.session = session;
+            this.source = source;
+        }
+
+        @Override
+        public void endCall(String reason) {
+            // once one side hangs up, the other sees the connection drop; that is expected
+            if (!stopping && endReason == null) endReason = reason;
+            engine.stop();
+        }
+
+        void close() {
+            session.close();
+        }
+    }
+
+    /**
+     * Connects the two sides and creates their sessions and engines.
+     * @param sessions the registry the two sides' sessions are opened in
+     * @param listener the server socket the callee's connection is accepted on
+     * @param format the call's format, used by both sides
+     * @param mediaOverUdp true to send audio as UDP datagrams, false to send it over the connection
+     * @param background the signal both microphones loop over
+     * @param markerIntervalMillis how often each microphone speaks a marker, in milliseconds
+     * @param sinkBufferMillis how much audio each speaker holds, in milliseconds
+     * @param peerTimeoutMillis how long a side can stay silent before the other ends the call
+     * @param discontinuous whether silent packets are left out
+     * @param adaptive whether the bitrate adapts to the network
+     * @param fecGroupSize see CallEngine.setFecGroupSize()
+     * @param throttle the most bytes per second the connection carries each way, or 0 for no limit;
+     *        only the connection is throttled, so audio must go over it (mediaOverUdp false)
+     * @throws IOException if the connection could not be made
+     */
+    SimulatedCall(SessionRegistry sessions, ServerSocketChannel listener, CallFormat format, boolean mediaOverUdp, short[] background,
+                  int markerIntervalMillis, int sinkBufferMillis, int peerTimeoutMillis, boolean discontinuous,
+                  boolean adaptive, int fecGroupSize, int throttle) throws IOException {
+        SocketChannel callerChannel;
+        if (throttle > 0) {  // caller <-> link <-> callee
+            link = new ThrottledLink(throttle);
+            callerChannel = link.connect(listener.getLocalAddress());
+        } else {
+            callerChannel = SocketChannel.open(listener.getLocalAddress());
+        }
+        SocketChannel calleeChannel = listener.accept();
+        caller = new Side(sessions.open(new BetterSocket(callerChannel), format, mediaOverUdp),
+                new MarkedSource(background, format.getSampleRate(), markerIntervalMillis));
+        callee = new Side(sessions.open(new BetterSocket(calleeChannel), format, mediaOverUdp),
+                new MarkedSource(background, format.getSampleRate(), markerIntervalMillis));
+
+        for (Side side : new Side[] { caller, callee }) {
+            Side other = side == caller ? callee : caller;
+            side.sink = new MarkerSink(other.source, format.getSampleRate(), sinkBufferMillis, markerIntervalMillis);
+            side.engine = side.session.attach(side, side.source, side.sink);
+            side.engine.setPeerTimeoutMillis(peerTimeoutMillis);
+            side.engine.setDiscontinuousTransmission(discontinuous);
+            side.engine.setAdaptiveBitrate(adaptive);
+            side.engine.setFecGroupSize(fecGroupSize);
+        }
+    }
+
+    /**
+     * Starts both engines at the same time, like two phones would.
+     * @throws IOException if either engine could not start
+     * @throws InterruptedException if interrupted while waiting for the engines to start
+     */
+    void start() throws IOException, InterruptedException {
+        List<Exception> errors = new ArrayList<>();
+        List<Thread> starters = new ArrayList<>();
+        for (Side side : new Side[] { caller, callee }) {
+            Thread starter = new Thread(() -> {
+                try {
+                    side.session.start();
+                } catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            starter.start();
+            starters.add(starter);
+        }
+
+        for (Thread starter : starters) starter.join(startTimeout);
+        boolean timedOut = starters.get(0).isAlive() || starters.get(1).isAlive();
+        if (timedOut || !errors.isEmpty()) {
+            stop();
+            throw new IOException("could not start the call", errors.isEmpty() ? null : errors.get(0));
+        }
+    }
+
+    /**
+     * Hangs up on both sides.
+     */
+    void stop() {
+        stopping = true;
+        caller.engine.stop();
+        callee.engine.stop();
+        caller.close();
+        callee.close();
+        if (link != null) link.close();
+    }
+
+    /**
+     * @return the mouth-to-ear latency of every marker heard on either side, in nanoseconds
+     */
+    List<Long> getLatencies() {
+        List<Long> latencies = caller.sink.getLatencies();
+        latencies.addAll(callee.sink.getLatencies());
+        return latencies;
+    }
+
+    /**
+     * @return how many markers were spoken on either side
+     */
+    long getMarkerCount() {
+        return caller.source.getMarkerCount() + callee.source.getMarkerCount();
+    }
+
+    /**
+     * @return how many times either speaker ran dry
+     */
+    long getSinkUnderrunCount() {
+        return caller.sink.getUnderrunCount() + callee.sink.getUnderrunCount();
+    }
+
+    /**
+     * Sums a counter of both sides' jitter buffers.
+     * @param counter the counter, for example JitterBuffer::getUnderrunCount
+     * @return the sum
+     */
+    long getJitterBufferCount(ToLongFunction<JitterBuffer> counter) {
+        long sum = 0;
+        for (Side side : new Side[] { caller, callee }) {
+            JitterBuffer buffer = side.engine.getJitterBuffer();
+            if (buffer != null) sum += counter.applyAsLong(buffer);
+        }
+        return sum;
+    }
+
+    /**
+     * @return how many packets both sides' outbound queues dropped because they were full
+     */
+    long getQueueDropCount() {
+        long sum = 0;
+        for (Side side : new Side[] { caller, callee }) {
+            FrameRing<short[]> captured = side.engine.getCaptureQueue();
+            FrameRing<byte[]> encoded = side.engine.getSendQueue();
+            if (captured != null) sum += captured.getDropCount();
+            if (encoded != null) sum += encoded.getDropCount();
+        }
+        return sum;
+    }
+
+    /**
+     * @return the statistics of both sides
+     */
+    CallStats[] getStats() {
+        return new CallStats[] { caller.engine.getStats(), callee.engine.getStats() };
+    }
+
+    /**
+     * @return why the call ended on its own, or null if it ran until it was stopped
+     */
+    String getEndReason() {
+        return caller.endReason != null ? caller.endReason : callee.endReason;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.catchat.simulator;
+
+import com.example.catchat.BetterSocket;
+import com.example.catchat.CallFormat;
+import com.example.catchat.PacketHeader;
+import com.example.catchat.PacketTransport;
+import com.example.catchat.TcpTransport;
+import com.example.catchat.UdpTransport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures head-of-line blocking: how long audio stalls behind a lost packet over TCP, compared to
+ * UDP, under the same loss. Sends a packet every packet time through TcpTransport and through
+ * UdpTransport over loopback, at the same time, and records when each one arrives.
+ *
+ * Loopback loses nothing, so the loss is injected by a LossyTransport in front of each transport,
+ * on the same packets for both. Over UDP, a lost packet is gone, and the packets after it arrive on
+ * time. Over TCP, a lost packet comes back with fast retransmit, once three packets behind it have
+ * been acknowledged twice over and the retransmission has crossed the network: three packet times
+ * and a round trip after it was sent. Everything behind it waits.
+ *
+ * Prints, for each transport:
+ *      lost          packets that never arrived
+ *      late          packets that arrived, but more than the deadline after they were sent, so
+ *                    the JitterBuffer had already given up on them
+ *      delay         how much later than the fastest packet they arrived, in percentiles
+ *      stalled       time the receiver waited for the next packet beyond one packet time, per
+ *                    second; over UDP, only the lost packets' own time
+ *      longest gap   the longest time without a packet
+ *
+ * Usage:
+ *      gradle -p benchmark simulateStall --args="[options]"
+ * Options:
+ *      --seconds N             how long to send for (20)
+ *      --loss PERCENT          average packet loss (2)
+ *      --burst N               average length of a burst of losses (1: random loss)
+ *      --rtt MILLIS            round trip time of the simulated network (40)
+ *      --deadline MILLIS       how late a packet can be and still be played (60)
+ *      --packet MILLIS         audio per packet (20)
+ *      --seed N                seed of the random losses (1)
+ */
+public class StallSimulator {
+    private int seconds = 20;
+    private double loss = 0.02;
+    private double burstLength = 1;
+    private int rttMillis = 40;
+    private int deadlineMillis = 60;
+    private int packetMillis = 20;
+    private long seed = 1;
+
+    public static void main(String[] args) throws Exception {
+        StallSimulator simulator = new StallSimulator();
+        try {
+            simulator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("see StallSimulator.java for the options");
+            System.exit(2);
+        }
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args the options
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+
+            try {
+                switch (option) {
+                    case "--seconds": seconds = Integer.parseInt(value); break;
+                    case "--loss": loss = Double.parseDouble(value) / 100; break;
+                    case "--burst": burstLength = Double.parseDouble(value); break;
+                    case "--rtt": rttMillis = Integer.parseInt(value); break;
+                    case "--deadline": deadlineMillis = Integer.parseInt(value); break;
+                    case "--packet": packetMillis = Integer.parseInt(value); break;
+                    case "--seed": seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + value);
+            }
+        }
+
+        if (seconds < 1 || loss < 0 || loss >= 1 || burstLength < 1 || rttMillis < 0 || deadlineMillis < 1
+                || packetMillis < CallFormat.minPacketSizeInMillis || packetMillis > CallFormat.maxPacketSizeInMillis) {
+            throw new IllegalArgumentException("values out of range");
+        }
+    }
+
+    /**
+     * Sends over both transports at once, and prints the results.
+     */
+    private void run() throws IOException, InterruptedException, ExecutionException {
+        CallFormat format = new CallFormat(44100, packetMillis, PacketHeader.CODEC_ADPCM);
+        int packets = seconds * 1000 / packetMillis;
+        boolean[] lost = new boolean[packets];  // the same for both transports
+        LossModel network = new LossModel(loss, burstLength, seed);
+        for (int i = 0; i < packets; i++) lost[i] = network.lose();
+        long retransmitDelay = (3L * packetMillis + rttMillis) * 1000000;
+
+        CompletableFuture<Result> tcp = CompletableFuture.supplyAsync(() -> send(format, lost, false, retransmitDelay));
+        CompletableFuture<Result> udp = CompletableFuture.supplyAsync(() -> send(format, lost, true, retransmitDelay));
+
+        System.out.printf("%d s of %s over loopback, %.1f%% of the packets lost%s, retransmitted over TCP after %d ms%n",
+                seconds, format, loss * 100, burstLength > 1 ? " in bursts of " + burstLength : "",
+                retransmitDelay / 1000000);
+        System.out.println("       lost    late   delay p50     p99     max   stalled   longest gap");
+        tcp.get().print("tcp");
+        udp.get().print("udp");
+    }
+
+    /**
+     * Sends every packet over one transport, losing the given ones, and records when they arrive.
+     * @param format the format of the packets
+     * @param lost which packets are lost, by sequence number
+     * @param overUdp true for UdpTransport, false for TcpTransport
+     * @param retransmitDelay how long TCP takes to retransmit a lost packet, in nanoseconds
+     * @return the send and arrival times
+     */
+    private Result send(CallFormat format, boolean[] lost, boolean overUdp, long retransmitDelay) {
+        PacketTransport[] ends;
+        try {
+            ends = connect(overUdp);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("could not connect over loopback", e);
+        }
+        PacketTransport sender = new LossyTransport(ends[0], !overUdp, retransmitDelay, sequence -> lost[sequence]);
+        PacketTransport receiver = ends[1];
+
+        Result result = new Result(format, lost.length);
+        Thread receiving = new Thread(() -> receive(receiver, format, result), "receiver");
+        receiving.start();
+
+        PacketHeader header = new PacketHeader();
+        ByteBuffer packet = ByteBuffer.allocate(PacketHeader.SIZE + format.getPacketSizeInBytes() / 4);  // like ADPCM
+        long period = format.getPacketSizeInMillis() * 1000000L;
+        long start = System.nanoTime();
+        try {
+            for (int sequence = 0; sequence < lost.length; sequence++) {
+                Clock.waitUntil(start + sequence * period);
+                header.set(PacketHeader.TYPE_AUDIO, format.getCodec(), sequence, PacketHeader.now());
+                packet.clear();
+                header.write(packet);
+                packet.position(packet.capacity());
+                packet.flip();
+                result.sent[sequence] = System.nanoTime();
+                sender.send(packet);
+            }
+            receiving.join((retransmitDelay + period) / 1000000 + 1000);  // until the last packets arrive
+        } catch (IOException | InterruptedException e) {
+            System.err.println("sending failed: " + e);
+        }
+        sender.close();
+        receiver.close();
+        return result;
+    }
+
+    /**
+     * Receives packets until the last one arrives or the transport is closed.
+     */
+    private static void receive(PacketTransport receiver, CallFormat format, Result result) {
+        ByteBuffer packet = ByteBuffer.allocate(format.getMaxPacketSizeInBytes());
+        try {
+            while (true) {
+                receiver.receive(packet);
+                long now = System.nanoTime();
+                int sequence = PacketHeader.sequenceOf(packet);
+                result.arrived[sequence] = now;
+                if (sequence == result.arrived.length - 1) break;
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Opens both ends of a transport over loopback.
+     * @param overUdp true for UdpTransport, false for TcpTransport
+     * @return the sending and the receiving end
+     */
+    private static PacketTransport[] connect(boolean overUdp)
+            throws IOException, InterruptedException, ExecutionException {
+        BetterSocket a, b;
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            a = new BetterSocket(SocketChannel.open(listener.getLocalAddress()));
+            b = new BetterSocket(listener.accept());
+        }
+        if (!overUdp) return new PacketTransport[] {new TcpTransport(a), new TcpTransport(b)};
+
+        // both devices exchange ports at the same time
+        CompletableFuture<UdpTransport> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return UdpTransport.open(b);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        PacketTransport[] ends = {UdpTransport.open(a), other.get()};
+        a.destroy();  // the control connection is not needed any more
+        b.destroy();
+        return ends;
+    }
+
+    /**
+     * When every packet was sent and arrived, over one transport.
+     */
+    private class Result {
+        final long[] sent;  // in System.nanoTime()
+        final long[] arrived;  // 0 if the packet never arrived
+        final long period;  // packet time, in nanoseconds
+
+        Result(CallFormat format, int packets) {
+            sent = new long[packets];
+            arrived = new long[packets];
+            period = format.getPacketSizeInMillis() * 1000000L;
+        }
+
+        /**
+         * Prints one line of results.
+         * @param name the transport's name
+         */
+        void print(String name) {
+            long[] delays = new long[sent.length];
+            long[] arrivals = new long[sent.length];
+            int received = 0;
+            for (int i = 0; i < sent.length; i++) {
+                if (arrived[i] == 0) continue;
+                delays[received] = arrived[i] - sent[i];
+                arrivals[received] = arrived[i];
+                received++;
+            }
+            delays = Arrays.copyOf(delays, received);
+            arrivals = Arrays.copyOf(arrivals, received);
+            Arrays.sort(delays);
+            Arrays.sort(arrivals);
+            if (received == 0) {
+                System.out.printf("%-5s nothing arrived%n", name);
+                return;
+            }
+
+            long fastest = delays[0];
+            long deadline = fastest + deadlineMillis * 1000000L;
+            int late = 0;
+            for (long delay : delays) {
+                if (delay > deadline) late++;
+            }
+
+            long stalled = 0, longestGap = 0;
+            for (int i = 1; i < received; i++) {
+                long gap = arrivals[i] - arrivals[i - 1];
+                longestGap = Math.max(longestGap, gap);
+                if (gap > period) stalled += gap - period;
+            }
+
+            System.out.printf("%-5s %5.2f%%  %5.2f%%  %7.1f %7.1f %7.1f   %4.0f ms/s  %7.0f ms%n",
+                    name, 100.0 * (sent.length - received) / sent.length, 100.0 * late / sent.length,
+                    percentile(delays, 50, fastest), percentile(delays, 99, fastest), percentile(delays, 100, fastest),
+                    stalled / 1e6 / seconds, longestGap / 1e6);
+        }
+    }
+
+    /**
+     * @param sorted delays in nanoseconds, sorted
+     * @param percent the percentile, from 0 to 100
+     * @param fastest the shortest delay, subtracted from the percentile
+     * @return the percentile in milliseconds
+     */
+    private static double percentile(long[] sorted, double percent, long fastest) {
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return (sorted[Math.max(0, index)] - fastest) / 1e6;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.catchat.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A slow network link between the two sides of a SimulatedCall: relays a TCP connection in both
+ * directions, at most a given number of bytes per second each way. Whatever is sent faster waits in
+ * the link's receive buffers, about half a second's worth, like packets queued in front of a
+ * congested Wi-Fi link, and then in the sender's socket buffer.
+ */
+class ThrottledLink {
+    private static final int chunkSize = 512;  // in bytes; relayed at once
+
+    private final int bytesPerSecond;
+    private SocketChannel a = null;  // to the caller
+    private SocketChannel b = null;  // to the callee
+
+    /**
+     * @param bytesPerSecond the most bytes relayed per second in each direction
+     */
+    ThrottledLink(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Connects to the callee through the link, and starts relaying.
+     * The receive buffers are set before connecting, since they cannot shrink the TCP window
+     * afterwards.
+     * @param callee the address the callee accepts connections on
+     * @return the caller's end of the connection
+     * @throws IOException if the connections could not be made
+     */
+    SocketChannel connect(SocketAddress callee) throws IOException {
+        int queue = Math.max(1024, bytesPerSecond / 2);
+        SocketChannel caller;
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_RCVBUF, queue);  // inherited by a
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            caller = SocketChannel.open(server.getLocalAddress());
+            a = server.accept();
+        }
+        b = SocketChannel.open();
+        b.setOption(StandardSocketOptions.SO_RCVBUF, queue);
+        b.connect(callee);
+
+        new Thread(() -> pump(a, b), "link to callee").start();
+        new Thread(() -> pump(b, a), "link to caller").start();
+        return caller;
+    }
+
+    /**
+     * Relays from one connection to the other until either is closed. Each chunk is held until the
+     * time it takes to send at the link's rate has passed.
+     */
+    private void pump(SocketChannel from, SocketChannel to) {
+        ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+        long next = System.nanoTime();  // when the link is free again
+        try {
+            while (true) {
+                chunk.clear();
+                if (from.read(chunk) == -1) break;
+                chunk.flip();
+
+                next = Math.max(next, System.nanoTime()) + chunk.remaining() * 1_000_000_000L / bytesPerSecond;
+                if (!Clock.waitUntil(next)) break;
+                while (chunk.hasRemaining()) to.write(chunk);
+            }
+        } catch (IOException e) {
+            // one side hung up
+        }
+        close(from);
+        close(to);
+    }
+
+    /**
+     * Closes both connections, which stops the relaying.
+     */
+    void close() {
+        if (a != null) close(a);
+        if (b != null) close(b);
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}